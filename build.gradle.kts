@@ -2,6 +2,7 @@ plugins {
     id("com.github.johnrengelman.shadow") version "8.1.1"
     id("io.micronaut.application") version "4.3.2"
     id("io.micronaut.aot") version "4.3.2"
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 version = "0.1"
@@ -17,7 +18,10 @@ dependencies {
     annotationProcessor("io.micronaut.validation:micronaut-validation-processor")
     implementation("io.micronaut.validation:micronaut-validation")
     implementation("io.micronaut.serde:micronaut-serde-jackson")
-    implementation("dev.failsafe:failsafe:3.3.2")
+    implementation("io.micronaut.reactor:micronaut-reactor")
+    implementation("io.micronaut:micronaut-management")
+    implementation("io.micronaut.micrometer:micronaut-micrometer-core")
+    implementation("io.micronaut.micrometer:micronaut-micrometer-registry-prometheus")
     compileOnly("io.micronaut:micronaut-http-client")
     runtimeOnly("ch.qos.logback:logback-classic")
     testImplementation("io.micronaut:micronaut-http-client")
@@ -35,7 +39,22 @@ java {
 }
 
 
-graalvmNative.toolchainDetection.set(false)
+graalvmNative {
+    toolchainDetection.set(false)
+    binaries {
+        named("main") {
+            imageName.set("qlog")
+            // Tuned for many small instances next to the logs rather than for throughput: the serial collector
+            // starts with no GC threads and the smallest footprint, and the heap is bounded so that the resident
+            // memory stays near the budgets of NativeImageStartupTest (override with -Xmx at run time).
+            buildArgs.addAll(
+                "--gc=serial",
+                "-R:MaxHeapSize=256m",
+                "-H:+ReportExceptionStackTraces",
+            )
+        }
+    }
+}
 micronaut {
     runtime("netty")
     testRuntime("junit5")
@@ -56,6 +75,70 @@ micronaut {
     }
 }
 
+jmh {
+    jmhVersion.set("1.37")
+    // Report allocation rates alongside the timings of every benchmark.
+    profilers.add("gc")
+    // e.g. ./gradlew jmh -PjmhIncludes=TailReaderBenchmark
+    (findProperty("jmhIncludes") as String?)?.let { includes.add(it) }
+    jvmArgs.add("-Dlogback.configurationFile=logback-jmh.xml")
+    resultFormat.set("JSON")
+}
+
+tasks.test {
+    useJUnitPlatform {
+        // Run by nativeStartupTest, against the native executable, and by loadTest.
+        excludeTags("native", "load")
+    }
+}
+
+// e.g. ./gradlew loadTest -i | grep "concurrent requests"
+tasks.register<Test>("loadTest") {
+    description = "Sends many concurrent requests and reports the threads and latencies of the server."
+    group = "verification"
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = sourceSets.test.get().runtimeClasspath
+    useJUnitPlatform {
+        includeTags("load")
+    }
+    outputs.upToDateWhen { false }
+}
+
+// e.g. ./gradlew nativeStartupTest, the budgets are in src/test/resources/native-budgets.properties.
+tasks.register<Test>("nativeStartupTest") {
+    description = "Starts the native executable and checks its time to the first query and its memory."
+    group = "verification"
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = sourceSets.test.get().runtimeClasspath
+    useJUnitPlatform {
+        includeTags("native")
+    }
+    dependsOn("nativeCompile")
+    val executable = layout.buildDirectory.file("native/nativeCompile/qlog")
+    inputs.file(executable)
+    systemProperty("qlog.native.executable", executable.get().asFile.absolutePath)
+    // The timings depend on the machine more than on the inputs, so they are measured on every run.
+    outputs.upToDateWhen { false }
+}
+
+// e.g. ./gradlew recordNativeBudgets, then commit src/test/resources/native-budgets.properties.
+tasks.register<Test>("recordNativeBudgets") {
+    description = "Measures the native executable a few times and records its budgets for nativeStartupTest."
+    group = "verification"
+    testClassesDirs = sourceSets.test.get().output.classesDirs
+    classpath = sourceSets.test.get().runtimeClasspath
+    useJUnitPlatform {
+        includeTags("native")
+    }
+    dependsOn("nativeCompile")
+    val executable = layout.buildDirectory.file("native/nativeCompile/qlog")
+    inputs.file(executable)
+    systemProperty("qlog.native.executable", executable.get().asFile.absolutePath)
+    systemProperty("qlog.native.budgets.record",
+        layout.projectDirectory.file("src/test/resources/native-budgets.properties").asFile.absolutePath)
+    outputs.upToDateWhen { false }
+}
+
 tasks.named<io.micronaut.gradle.docker.MicronautDockerfile>("dockerfile") {
     baseImage("eclipse-temurin:21-jre-jammy")
 }
@@ -0,0 +1,91 @@
+package qlog;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Log files for the benchmarks.
+ */
+final class LogFiles {
+
+    private static final String[] METHODS = {"GET", "POST", "PUT", "DELETE"};
+    private static final String[] RESOURCES = {"/page1", "/page2", "/page3", "/image.jpg", "/script.js"};
+    private static final String[] HTTP_VERSIONS = {"HTTP/1.0", "HTTP/1.1", "HTTP/2.0"};
+    private static final int[] STATUSES = {200, 301, 404, 500};
+    private static final String USER_AGENT = "\"Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 "
+            + "(KHTML, like Gecko) Chrome/58.0.3029.110 Safari/537.36\"";
+    private static final DateTimeFormatter TIMESTAMP =
+            DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss", Locale.ROOT);
+
+    private LogFiles() {
+    }
+
+    /**
+     * The directory the log files are generated in, <code>qlog-jmh</code> in the temporary directory unless the
+     * <code>qlog.jmh.dir</code> system property is set.
+     */
+    static Path directory() throws IOException {
+        var directory = Path.of(System.getProperty("qlog.jmh.dir",
+                Path.of(System.getProperty("java.io.tmpdir"), "qlog-jmh").toString()));
+        return Files.createDirectories(directory);
+    }
+
+    /**
+     * Gets a simulated Apache access log file of about <code>size</code> bytes, generating it the same way as
+     * <code>scripts/genlog.py</code> the first time it is used. The file is kept between runs since a large file
+     * takes a while to generate, and the same seed is used so that every run reads the same lines.
+     */
+    static Path accessLog(long size) throws IOException {
+        var path = directory().resolve("access-" + size + ".log");
+        if (Files.exists(path)) {
+            return path;
+        }
+        var tmp = Files.createTempFile(path.getParent(), "access-", ".tmp");
+        try (var writer = new BufferedWriter(Files.newBufferedWriter(tmp, StandardCharsets.US_ASCII), 1 << 20)) {
+            var random = new Random(42);
+            var timestamp = LocalDateTime.of(2024, 2, 10, 12, 0, 0);
+            var written = 0L;
+            while (written < size) {
+                timestamp = timestamp.plusNanos(random.nextInt(51) * 1_000_000L);
+                var line = logEntry(random, timestamp);
+                writer.write(line);
+                written += line.length();
+            }
+        }
+        // Move the complete file into place so that an interrupted run doesn't leave a short file behind.
+        return Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Evicts the file from the page cache, so that it has to be read from the disk. This uses
+     * <code>dd iflag=nocache</code> from GNU coreutils, which asks the kernel to drop the cached pages of the file
+     * without needing root, so it only works on Linux.
+     */
+    static void evictFromPageCache(Path path) throws IOException, InterruptedException {
+        var dd = new ProcessBuilder("dd", "if=" + path, "iflag=nocache", "count=0", "status=none")
+                .inheritIO()
+                .start();
+        if (dd.waitFor() != 0) {
+            throw new IllegalStateException("Unable to evict file from the page cache: " + path);
+        }
+    }
+
+    private static String logEntry(Random random, LocalDateTime timestamp) {
+        var ip = random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256);
+        var request = "\"" + METHODS[random.nextInt(METHODS.length)]
+                + " " + RESOURCES[random.nextInt(RESOURCES.length)]
+                + " " + HTTP_VERSIONS[random.nextInt(HTTP_VERSIONS.length)] + "\"";
+        var status = STATUSES[random.nextInt(STATUSES.length)];
+        var bytesSent = 100 + random.nextInt(9901);
+        return ip + " - - [" + TIMESTAMP.format(timestamp) + " +0000] " + request + " " + status + " " + bytesSent
+                + " - " + USER_AGENT + "\n";
+    }
+}
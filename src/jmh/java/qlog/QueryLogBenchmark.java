@@ -0,0 +1,88 @@
+package qlog;
+
+import io.micronaut.context.ApplicationContext;
+import io.micronaut.runtime.server.EmbeddedServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks <code>/queryLog</code> end-to-end through the embedded Netty server, with 8 concurrent clients like
+ * the <code>ab</code> run in the README.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Threads(8)
+@Fork(1)
+public class QueryLogBenchmark {
+
+    @Param({"channel", "mmap"})
+    String engine;
+
+    @Param({"67108864"})
+    long fileSize;
+
+    @Param({"100"})
+    int count;
+
+    /**
+     * The response format, <code>json</code> for the single JSON document or <code>ndjson</code> for the stream.
+     */
+    @Param({"json", "ndjson"})
+    String format;
+
+    private ApplicationContext context;
+    private HttpClient client;
+    private HttpRequest request;
+
+    @Setup
+    public void setUp() throws IOException {
+        var path = LogFiles.accessLog(fileSize);
+        context = ApplicationContext.run(EmbeddedServer.class, Map.of(
+                "micronaut.server.port", -1,
+                "qlog.log.directory", path.getParent().toString(),
+                "qlog.tail.engine", engine)).getApplicationContext();
+        var server = context.getBean(EmbeddedServer.class);
+        client = HttpClient.newHttpClient();
+        request = HttpRequest.newBuilder(URI.create(server.getURL() + "/queryLog?relativePath="
+                        + path.getFileName() + "&count=" + count + "&filter=%20200%20"))
+                .header("Accept", format.equals("ndjson") ? "application/x-ndjson" : "application/json")
+                .build();
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.close();
+        context.close();
+    }
+
+    @Benchmark
+    public String queryLog() throws IOException, InterruptedException {
+        var response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IllegalStateException("Unexpected response: " + response.statusCode() + " " + response.body());
+        }
+        return response.body();
+    }
+}
@@ -0,0 +1,79 @@
+package qlog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what a read of the <code>channel</code> engine allocates, with its scan buffers pooled
+ * (<code>poolSize=64</code>) and without (<code>poolSize=0</code>, every read gets buffers of its own). Run it with
+ * the GC profiler and compare <code>gc.alloc.rate.norm</code>, the bytes allocated per read, e.g.
+ * <code>java -jar build/libs/qlog-0.1-jmh.jar ScanAllocationBenchmark -prof gc</code>.
+ * <p>
+ * A filter that matches no line scans the whole file without collecting anything, so with the pool a read should
+ * allocate next to nothing however large the file is. Otherwise a read allocates about the lines it returns.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(4)
+public class ScanAllocationBenchmark {
+
+    /**
+     * The scan contexts kept for reuse, as with <code>qlog.tail.buffer.pool-size</code>.
+     */
+    @Param({"0", "64"})
+    int poolSize;
+
+    /**
+     * The size in bytes of the generated file, 1 MB and 64 MB.
+     */
+    @Param({"1048576", "67108864"})
+    long fileSize;
+
+    @Param({"10", "1000"})
+    int count;
+
+    /**
+     * The share of the lines that match the filter, <code>all</code> for no filter.
+     */
+    @Param({"all", "0%"})
+    String selectivity;
+
+    private TailReader reader;
+    private Path path;
+    private LineMatcher matcher;
+
+    @Setup
+    public void setUp() throws IOException {
+        path = LogFiles.accessLog(fileSize);
+        // The matcher is made once so that only the read is measured.
+        matcher = switch (selectivity) {
+            case "all" -> null;
+            case "0%" -> LineMatcher.literal("no line contains this");
+            default -> throw new IllegalArgumentException("Unknown selectivity: " + selectivity);
+        };
+        reader = new TailReaderImpl(new ScanContextPool(65536, poolSize), 4096, true, null, null);
+    }
+
+    @Benchmark
+    public TailReader.ReaderResult read() {
+        return reader.getLastNMatchingLines(path, matcher, null, 0, count, Cancellation.NONE);
+    }
+}
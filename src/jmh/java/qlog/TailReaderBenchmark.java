@@ -0,0 +1,167 @@
+package qlog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Benchmarks {@link TailReader#getLastNLines} on generated access logs.
+ * <p>
+ * Every combination of the parameters is run, narrow them down with <code>-p</code> when running the jar, e.g.
+ * <code>java -jar build/libs/qlog-0.1-jmh.jar TailReaderBenchmark -p engine=mmap -p fileSize=1048576</code>.
+ * <p>
+ * After each iteration the reads of the file (system calls, none for <code>mmap</code>) and the bytes that a query
+ * read on average are printed, from the scan metrics of the engine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TailReaderBenchmark {
+
+    /**
+     * The engine, <code>channel</code> or <code>mmap</code>, as with <code>qlog.tail.engine</code>.
+     */
+    @Param({"channel", "mmap"})
+    String engine;
+
+    /**
+     * The layers in front of the engine: <code>none</code>, or any of <code>index</code> (the sparse line index),
+     * <code>parallel</code> (segments read by 4 threads) and <code>cache</code> (the tail-block cache) joined with
+     * <code>+</code>.
+     */
+    @Param({"none"})
+    String layers;
+
+    /**
+     * The size in bytes of the generated file, 1 MB, 64 MB and 2 GB.
+     */
+    @Param({"1048576", "67108864", "2147483648"})
+    long fileSize;
+
+    @Param({"10", "1000"})
+    int count;
+
+    @Param({"0", "100000"})
+    int start;
+
+    /**
+     * The share of the lines that match the filter, <code>all</code> for no filter.
+     */
+    @Param({"all", "25%", "0.4%", "0%"})
+    String selectivity;
+
+    /**
+     * The size of the chunks (or windows) read by the engine, as with <code>qlog.tail.buffer.capacity</code> and
+     * <code>qlog.tail.mmap.window-size</code>.
+     */
+    @Param({"65536"})
+    int bufferCapacity;
+
+    /**
+     * The size of the first chunk read by the <code>channel</code> engine, as with
+     * <code>qlog.tail.buffer.initial-size</code>.
+     */
+    @Param({"4096"})
+    int initialChunkSize;
+
+    /**
+     * Whether the <code>channel</code> engine reads ahead, as with <code>qlog.tail.readahead.enabled</code>.
+     */
+    @Param({"true", "false"})
+    boolean readahead;
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final LongAdder queries = new LongAdder();
+    private TailReader reader;
+    private Path path;
+    private String filter;
+
+    @Setup
+    public void setUp() throws IOException {
+        path = LogFiles.accessLog(fileSize);
+        filter = switch (selectivity) {
+            case "all" -> null;
+            // One of the four statuses.
+            case "25%" -> " 200 ";
+            // One of the four methods, five resources, three versions and four statuses.
+            case "0.4%" -> "\"DELETE /script.js HTTP/2.0\" 500";
+            case "0%" -> "no line contains this";
+            default -> throw new IllegalArgumentException("Unknown selectivity: " + selectivity);
+        };
+        var metrics = new TailReaderMetrics(registry);
+        var index = layers.contains("index") ? new LineIndexCache(4096, 1_000_000_000L) : null;
+        RegionReader regionReader = switch (engine) {
+            case "channel" -> new TailReaderImpl(new ScanContextPool(bufferCapacity, 64), initialChunkSize, readahead,
+                    index, metrics);
+            case "mmap" -> new MappedTailReader(bufferCapacity, index, metrics);
+            default -> throw new IllegalArgumentException("Unknown engine: " + engine);
+        };
+        reader = layers.contains("parallel") ? new ParallelTailReader(regionReader, 4, 1 << 20) : regionReader;
+        if (layers.contains("cache")) {
+            reader = new CachingTailReader(reader, new TailBlockCache(1 << 20, 64L << 20));
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void printScans() {
+        var reads = registry.find("qlog.tail.scan.reads").summary();
+        var bytes = registry.find("qlog.tail.scan.bytes").summary();
+        var n = queries.sumThenReset();
+        if (reads != null && bytes != null && n > 0) {
+            // A query may be served without a scan (the cache layer), or scanned in segments (the parallel layer).
+            System.out.printf("%n%.1f reads and %.0f bytes read per query%n",
+                    reads.totalAmount() / n, bytes.totalAmount() / n);
+        }
+        registry.clear();
+    }
+
+    /**
+     * Reads with the file in the page cache, as for a file that is read often.
+     */
+    @Benchmark
+    public TailReader.ReaderResult warm() {
+        queries.increment();
+        return reader.getLastNLines(path, filter, null, start, count);
+    }
+
+    /**
+     * Reads with the file evicted from the page cache before every read, as for a file that is rarely read.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 10)
+    public TailReader.ReaderResult cold(ColdPageCache cold) {
+        queries.increment();
+        return reader.getLastNLines(path, filter, null, start, count);
+    }
+
+    @State(Scope.Thread)
+    public static class ColdPageCache {
+
+        @Setup(Level.Invocation)
+        public void evict(TailReaderBenchmark benchmark) throws IOException, InterruptedException {
+            LogFiles.evictFromPageCache(benchmark.path);
+        }
+    }
+}
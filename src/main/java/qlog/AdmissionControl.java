@@ -0,0 +1,206 @@
+package qlog;
+
+import io.micronaut.context.annotation.Value;
+import jakarta.annotation.Nullable;
+import jakarta.inject.Singleton;
+import qlog.exc.TailReaderOverloadedException;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits the number of reads in flight, to <code>qlog.admission.max-concurrent</code> reads in total and
+ * <code>qlog.admission.max-concurrent-per-file</code> reads of the same file.
+ * <p>
+ * Reads run on virtual threads, so nothing else bounds how many are started. Past the limits a request is
+ * rejected straight away instead of being queued: the reads in flight are competing for the same disk and page
+ * cache, a queued request would most likely miss its deadline anyway, and the client can retry (or back off) far
+ * sooner than it would find out its request timed out. The per-file limit stops many clients polling one file
+ * from taking every permit from the requests for other files.
+ * <p>
+ * Identical requests of a file in flight at the same time share one read (see {@link ReadCoalescer}), so only the
+ * first of them takes the permits of a read, the others are admitted with it and only count as requests in flight.
+ * The permits are released once the last of them is done. Many clients polling one file for the same lines are then
+ * absorbed by the coalescer rather than rejected, and the per-file limit bounds the different reads of a file.
+ * <p>
+ * Followers (see {@link FileFollower}) hold their permit for as long as they follow a file, so they have a limit of
+ * their own, <code>qlog.admission.max-followers</code> in total, and don't take the permits of the reads.
+ */
+@Singleton
+public class AdmissionControl {
+
+    private final Semaphore global;
+    private final int maxConcurrentPerFile;
+    private final Semaphore followers;
+    private final boolean coalesced;
+
+    // The reads and requests in flight for each file, a file is removed once it has none.
+    private final ConcurrentHashMap<Path, FileReads> inFlight = new ConcurrentHashMap<>();
+
+    public AdmissionControl(@Value("${qlog.admission.max-concurrent:256}") int maxConcurrent,
+                            @Value("${qlog.admission.max-concurrent-per-file:32}") int maxConcurrentPerFile,
+                            @Value("${qlog.admission.max-followers:256}") int maxFollowers,
+                            @Nullable ReadCoalescer coalescer) {
+        this.global = new Semaphore(maxConcurrent);
+        this.maxConcurrentPerFile = maxConcurrentPerFile;
+        this.followers = new Semaphore(maxFollowers);
+        this.coalesced = coalescer != null;
+    }
+
+    /**
+     * Admits a read of the file, without waiting.
+     *
+     * @return The permit for the read, it must be closed once the read is done.
+     * @throws TailReaderOverloadedException If the global limit or the limit for the file has been reached.
+     */
+    public Permit acquire(Path path) {
+        return acquire(path, null);
+    }
+
+    /**
+     * Admits a read of the file, without waiting. A request with a <code>read</code> equal to that of a request of
+     * the file in flight is identical to it, and is admitted along with it when reads are shared.
+     *
+     * @param read Equal for identical requests of the file, or null if the read can't be shared.
+     * @return The permit for the read, it must be closed once the read is done.
+     * @throws TailReaderOverloadedException If the global limit or the limit for the file has been reached.
+     */
+    public Permit acquire(Path path, @Nullable Object read) {
+        var key = coalesced ? read : null;
+        var admission = new Admission[1];
+        inFlight.compute(path, (p, reads) -> {
+            var file = reads == null ? new FileReads() : reads;
+            admission[0] = file.admit(key, global, maxConcurrentPerFile);
+            return file.requests == 0 ? null : file;
+        });
+        return switch (admission[0]) {
+            case ADMITTED -> new Permit(() -> release(path, key));
+            case GLOBAL_LIMIT -> throw new TailReaderOverloadedException("Too many requests in flight", true);
+            case FILE_LIMIT -> throw new TailReaderOverloadedException(
+                    "Too many requests in flight for file: " + path, false);
+        };
+    }
+
+    /**
+     * Admits a read of each of the files, without waiting, either all of them or none.
+     *
+     * @return The permit for the reads, it must be closed once the reads are done.
+     * @throws TailReaderOverloadedException If the global limit or the limit for one of the files has been reached.
+     */
+    public Permit acquire(List<Path> paths) {
+        var permits = new ArrayList<Permit>(paths.size());
+        try {
+            for (var path : paths) {
+                permits.add(acquire(path));
+            }
+        } catch (RuntimeException e) {
+            permits.forEach(Permit::close);
+            throw e;
+        }
+        return new Permit(() -> permits.forEach(Permit::close));
+    }
+
+    /**
+     * Admits a follower of the file, without waiting.
+     *
+     * @return The permit for the follower, it must be closed once the follower is done.
+     * @throws TailReaderOverloadedException If the limit of followers has been reached.
+     */
+    public Permit follow(Path path) {
+        if (!followers.tryAcquire()) {
+            throw new TailReaderOverloadedException("Too many followers, can't follow file: " + path, true);
+        }
+        return new Permit(followers::release);
+    }
+
+    /**
+     * The number of requests in flight, for all files.
+     */
+    public int inFlight() {
+        return inFlight.values().stream().mapToInt(file -> file.requests).sum();
+    }
+
+    private void release(Path path, @Nullable Object key) {
+        var released = new boolean[1];
+        inFlight.computeIfPresent(path, (p, file) -> {
+            released[0] = file.release(key);
+            return file.requests == 0 ? null : file;
+        });
+        if (released[0]) {
+            global.release();
+        }
+    }
+
+    private enum Admission {
+        ADMITTED, GLOBAL_LIMIT, FILE_LIMIT
+    }
+
+    /**
+     * The requests in flight for a file. Only changed within {@link ConcurrentHashMap#compute} for the file.
+     */
+    private static final class FileReads {
+        // The reads holding a permit of the file (and a global one).
+        private int reads;
+        // The requests, including those admitted along with an identical one.
+        private volatile int requests;
+        // The number of requests for each read that can be shared.
+        private final HashMap<Object, Integer> identical = new HashMap<>();
+
+        Admission admit(@Nullable Object key, Semaphore global, int maxConcurrentPerFile) {
+            if (key != null && identical.containsKey(key)) {
+                identical.merge(key, 1, Integer::sum);
+                requests++;
+                return Admission.ADMITTED;
+            }
+            if (!global.tryAcquire()) {
+                return Admission.GLOBAL_LIMIT;
+            }
+            if (reads >= maxConcurrentPerFile) {
+                global.release();
+                return Admission.FILE_LIMIT;
+            }
+            reads++;
+            requests++;
+            if (key != null) {
+                identical.put(key, 1);
+            }
+            return Admission.ADMITTED;
+        }
+
+        /**
+         * @return Whether the permits of the read were released, the global one is then released by the caller.
+         */
+        boolean release(@Nullable Object key) {
+            requests--;
+            if (key != null && identical.merge(key, -1, (n, one) -> n + one == 0 ? null : n + one) != null) {
+                return false;
+            }
+            reads--;
+            return true;
+        }
+    }
+
+    /**
+     * Admission of a read or a follower, closing it more than once has no further effect.
+     */
+    public static final class Permit implements AutoCloseable {
+        private final Runnable release;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Permit(Runnable release) {
+            this.release = release;
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                release.run();
+            }
+        }
+    }
+}
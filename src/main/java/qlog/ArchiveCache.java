@@ -0,0 +1,240 @@
+package qlog;
+
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+import jakarta.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qlog.exc.TailReaderIOException;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Decompresses rotated archives (<code>.gz</code>) once, into <code>qlog.archive.cache-dir</code>, so that they can
+ * be read backwards by the engines like any other file.
+ * <p>
+ * A deflate stream can only be decompressed from its start, so reading the tail of an archive means
+ * decompressing all of it. Instead of doing that for every request (and for every page of a continued read), the
+ * first request decompresses the archive to a file named after the archive's path, size and modification time,
+ * and later requests, including those after a restart, read that file. Rotated archives don't change, but if one
+ * is replaced it is decompressed again under a new name.
+ * <p>
+ * The decompressed files are deleted least recently used first once their total size exceeds
+ * <code>qlog.archive.cache.max-bytes</code>. An archive that decompresses to more than that is not decompressed
+ * at all: the request stops and fails as soon as the copy would exceed it.
+ */
+@Singleton
+@Requires(property = "qlog.archive.enabled", notEquals = "false")
+public class ArchiveCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ArchiveCache.class);
+
+    private static final int COPY_BUFFER_SIZE = 65536;
+    // How often a request waiting for the archive to be decompressed checks whether it was cancelled.
+    private static final long CANCELLATION_POLL_MS = 50;
+
+    private final Path directory;
+    private final long maxBytes;
+
+    // Requests for the same archive wait for the first of them to decompress it. Not monitors, so that the reads on
+    // virtual threads that wait don't pin their carriers.
+    private final ConcurrentHashMap<String, ReentrantLock> locks = new ConcurrentHashMap<>();
+    private final ReentrantLock evictLock = new ReentrantLock();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public ArchiveCache(@Value("${qlog.archive.cache-dir:${java.io.tmpdir}/qlog-archives}") String directory,
+                        @Value("${qlog.archive.cache.max-bytes:1073741824}") long maxBytes) {
+        this.directory = Path.of(directory);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Whether the file is an archive that has to be decompressed to be read.
+     */
+    public static boolean isArchive(Path path) {
+        return path.getFileName() != null && path.getFileName().toString().endsWith(".gz");
+    }
+
+    /**
+     * Gets the decompressed copy of the archive, decompressing it if it hasn't been already.
+     *
+     * @throws java.nio.file.NoSuchFileException If the archive does not exist.
+     */
+    public Path decompressed(Path archive) throws IOException {
+        return decompressed(archive, Cancellation.NONE);
+    }
+
+    /**
+     * Opens the decompressed copy of the archive, as {@link #decompressed(Path, Cancellation)}. A copy evicted before
+     * it is opened is decompressed again, once it is open it can be read to its end even if it is evicted.
+     */
+    FileChannel open(Path archive, Cancellation cancellation) throws IOException {
+        try {
+            return FileChannel.open(decompressed(archive, cancellation), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            return FileChannel.open(decompressed(archive, cancellation), StandardOpenOption.READ);
+        }
+    }
+
+    /**
+     * Gets the decompressed copy of the archive, decompressing it if it hasn't been already (or if its copy has
+     * been deleted since). The request stops waiting for another request decompressing the archive, or stops
+     * decompressing it, once it is cancelled.
+     *
+     * @throws java.nio.file.NoSuchFileException If the archive does not exist.
+     * @throws IOException If the archive decompresses to more than the maximum size of the cache.
+     * @throws qlog.exc.TailReaderTimeoutException If the request is cancelled first.
+     */
+    public Path decompressed(Path archive, Cancellation cancellation) throws IOException {
+        var attributes = Files.readAttributes(archive, BasicFileAttributes.class);
+        var name = UUID.nameUUIDFromBytes((archive.toAbsolutePath() + "\n" + attributes.size() + "\n"
+                + attributes.lastModifiedTime().toMillis()).getBytes(StandardCharsets.UTF_8)) + ".log";
+        var decompressed = directory.resolve(name);
+        var lock = locks.computeIfAbsent(name, ignored -> new ReentrantLock());
+        lock(lock, archive, cancellation);
+        try {
+            try {
+                // The modification time of the copy is when it was last used, for eviction.
+                Files.setLastModifiedTime(decompressed, FileTime.fromMillis(System.currentTimeMillis()));
+                hits.increment();
+                return decompressed;
+            } catch (NoSuchFileException e) {
+                // Not decompressed yet, or evicted since.
+            }
+            misses.increment();
+            Files.createDirectories(directory);
+            var startNs = System.nanoTime();
+            // Decompress next to the final file and move it into place, so that a copy is never read (or
+            // found after a restart) half written.
+            var partial = Files.createTempFile(directory, name, ".partial");
+            try {
+                try (var in = new GZIPInputStream(Files.newInputStream(archive), COPY_BUFFER_SIZE);
+                     var out = Files.newOutputStream(partial)) {
+                    var buffer = new byte[COPY_BUFFER_SIZE];
+                    var written = 0L;
+                    int n;
+                    while ((n = in.read(buffer)) >= 0) {
+                        cancellation.throwIfCancelled(archive);
+                        written += n;
+                        if (written > maxBytes) {
+                            // The copy could never be kept, and the archive may be made to decompress without end.
+                            throw new IOException("Archive decompresses to more than " + maxBytes
+                                    + " bytes (qlog.archive.cache.max-bytes): " + archive);
+                        }
+                        out.write(buffer, 0, n);
+                    }
+                }
+                Files.move(partial, decompressed, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(partial);
+            }
+            LOG.atDebug().log("Decompressed archive at path: {}, size: {}, duration: {}ms", archive,
+                    Files.size(decompressed), (System.nanoTime() - startNs) / 1_000_000);
+        } finally {
+            locks.remove(name, lock);
+            lock.unlock();
+        }
+        evict(decompressed);
+        return decompressed;
+    }
+
+    /**
+     * Waits for the lock of the archive until the request is cancelled, a large archive may take a while to be
+     * decompressed by the request holding it.
+     */
+    private static void lock(ReentrantLock lock, Path archive, Cancellation cancellation) {
+        try {
+            while (!lock.tryLock(CANCELLATION_POLL_MS, TimeUnit.MILLISECONDS)) {
+                cancellation.throwIfCancelled(archive);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TailReaderIOException("Interrupted decompressing file: " + archive, e);
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    /**
+     * @param hits      Requests that read an archive that was already decompressed.
+     * @param misses    Requests that decompressed an archive.
+     * @param evictions Decompressed copies deleted to keep the cache under its maximum size.
+     */
+    public record Stats(long hits, long misses, long evictions) {
+    }
+
+    /**
+     * Deletes the least recently used copies, other than the one just decompressed, while the copies are larger
+     * than the maximum. A copy that is being read is still readable once it is deleted.
+     */
+    private void evict(Path keep) throws IOException {
+        evictLock.lock();
+        try {
+            evictLocked(keep);
+        } finally {
+            evictLock.unlock();
+        }
+    }
+
+    private void evictLocked(Path keep) throws IOException {
+        var copies = new ArrayList<Copy>();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (var file : (Iterable<Path>) files::iterator) {
+                if (!file.toString().endsWith(".log")) {
+                    continue;
+                }
+                try {
+                    var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+                    copies.add(new Copy(file, attributes.size(), attributes.lastModifiedTime()));
+                } catch (NoSuchFileException e) {
+                    // Deleted since it was listed, e.g. by another instance sharing the directory.
+                }
+            }
+        }
+        copies.sort(Comparator.comparing(Copy::lastUsed));
+        var size = 0L;
+        for (var copy : copies) {
+            size += copy.size();
+        }
+        for (var copy : copies) {
+            if (size <= maxBytes) {
+                break;
+            }
+            if (!copy.path().equals(keep)) {
+                size -= copy.size();
+                if (Files.deleteIfExists(copy.path())) {
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    /**
+     * A decompressed copy, as it was when the copies were listed.
+     */
+    private record Copy(Path path, long size, FileTime lastUsed) {
+    }
+}
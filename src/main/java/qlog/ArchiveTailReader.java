@@ -0,0 +1,74 @@
+package qlog;
+
+import jakarta.annotation.Nullable;
+import qlog.exc.TailReaderFileNotFoundException;
+import qlog.exc.TailReaderIOException;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+/**
+ * A {@link TailReader} that reads rotated archives (e.g. <code>access.log.2.gz</code>) from their decompressed
+ * copy in the {@link ArchiveCache}, and every other file as is.
+ */
+public class ArchiveTailReader implements TailReader {
+
+    private final TailReader reader;
+    private final ArchiveCache archiveCache;
+
+    public ArchiveTailReader(TailReader reader, ArchiveCache archiveCache) {
+        this.reader = reader;
+        this.archiveCache = archiveCache;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ReaderResult getLastNMatchingLines(Path path,
+                                              @Nullable LineMatcher matcher,
+                                              @Nullable String continuationToken,
+                                              int start,
+                                              int count,
+                                              Cancellation cancellation) {
+        if (!ArchiveCache.isArchive(path)) {
+            return reader.getLastNMatchingLines(path, matcher, continuationToken, start, count, cancellation);
+        }
+        // An archive isn't written to once it is compressed, its copy is of the archive as it is now.
+        var version = version(path);
+        var decompressed = decompressed(path, cancellation);
+        // The continuation tokens are positions in the decompressed file, issued for the archive.
+        ReaderResult result;
+        try {
+            result = reader.getLastNMatchingLines(decompressed, matcher, continuationToken, start, count,
+                    cancellation);
+        } catch (TailReaderFileNotFoundException e) {
+            // The copy was evicted before it was opened, it is decompressed again.
+            result = reader.getLastNMatchingLines(decompressed(path, cancellation), matcher, continuationToken, start,
+                    count, cancellation);
+        }
+        return new ReaderResult(result.lines(), result.continuationToken(), version);
+    }
+
+    private static FileVersion version(Path path) {
+        try (var opened = OpenFile.open(path)) {
+            var ch = opened.file();
+            return FileVersion.of(opened.fileId(), ch, ch.size());
+        } catch (NoSuchFileException e) {
+            throw new TailReaderFileNotFoundException("File not found: " + path, e);
+        } catch (IOException e) {
+            throw new TailReaderIOException("Error reading file: " + path, e);
+        }
+    }
+
+    private Path decompressed(Path path, Cancellation cancellation) {
+        try {
+            return archiveCache.decompressed(path, cancellation);
+        } catch (NoSuchFileException e) {
+            throw new TailReaderFileNotFoundException("File not found: " + path, e);
+        } catch (IOException e) {
+            throw new TailReaderIOException("Error decompressing file: " + path, e);
+        }
+    }
+}
@@ -0,0 +1,506 @@
+package qlog;
+
+import jakarta.annotation.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An index of a file that tells which blocks of the file may hold a line containing some literals, so that a read
+ * for a filter that rarely matches (e.g. a request ID) can skip the blocks that can't hold a match. The index is
+ * extended as lines are appended to the file (see {@link BlockIndexer}), and kept in a sidecar file so that it
+ * outlives the application.
+ * <p>
+ * The file is split into blocks of whole lines, a block ends at the first line-ending once it holds
+ * <code>blockSize</code> bytes. Each block has a bloom filter of the trigrams (the runs of 3 bytes) of its lines. A
+ * line that contains a literal contains every trigram of the literal, and a line is within a single block, so a
+ * block whose filter lacks one of the trigrams of a literal has no line that contains it. A literal of fewer than 3
+ * bytes rules out nothing. The bytes after the last whole block (a block still short of its size, or the line being
+ * written) are not indexed, and are always read.
+ * <p>
+ * The sidecar file is a header followed by a record for each block, the position of the end of the block and the
+ * bits of its filter. Records are only ever appended, and the file is memory-mapped to be queried, so the filters
+ * of a large file are held in the page cache rather than in the heap. A file that is rotated or truncated is
+ * indexed again from its head.
+ * <p>
+ * The file is indexed without blocking the reads of it: each update publishes the blocks indexed once it is done,
+ * as an immutable {@link Snapshot}, and a read takes the last one published. While a large file is first indexed
+ * its reads find no blocks, and scan the file.
+ */
+final class BlockIndex implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BlockIndex.class);
+
+    // "QBIX"
+    private static final int MAGIC = 0x51424958;
+    private static final int VERSION = 1;
+    // The magic, version, block size and filter size, the id of the file and the hash of its first block.
+    private static final int HEADER_SIZE = 32;
+    private static final int HEAD_HASH_OFFSET = 24;
+    private static final int READ_SIZE = 65536;
+    // The first bytes of the file are compared with the file for every query, see view().
+    private static final int HEAD_SAMPLE_SIZE = 64;
+
+    private final Path path;
+    private final Path sidecar;
+    private final int blockSize;
+    private final int bloomBits;
+    // A hash is shifted right by this much to be a bit of the filter.
+    private final int shift;
+    private final int recordSize;
+
+    // The blocks that reads query, published once an update is done.
+    private volatile Snapshot snapshot = new Snapshot(0, 0, 0, new byte[0], null);
+
+    // The state below is guarded by the lock, which only the indexer takes.
+    private final ReentrantLock lock = new ReentrantLock();
+    private FileChannel out;
+    private long fileId;
+    private int blockCount;
+    // The end of the last whole block, the bytes before it are indexed.
+    private long indexedEnd;
+
+    // The filter of the block being built, and how far the file has been read into it.
+    private final long[] pending;
+    private long scanned;
+    private int trigram;
+    private int trigramLength;
+    // The hash of the bytes of the first block, while it is being built.
+    private long headHash;
+    // The first bytes of the file.
+    private byte[] headSample = new byte[0];
+    // Whether there are blocks that haven't been published, or the index was reset.
+    private boolean changed;
+
+    private BlockIndex(Path path, Path sidecar, int blockSize, int bloomBits) throws IOException {
+        this.path = path;
+        this.sidecar = sidecar;
+        this.blockSize = blockSize;
+        this.bloomBits = bloomBits;
+        this.shift = Integer.numberOfLeadingZeros(bloomBits) + 1;
+        this.recordSize = Long.BYTES + bloomBits / Byte.SIZE;
+        this.pending = new long[bloomBits / Long.SIZE];
+        this.out = openSidecar();
+    }
+
+    /**
+     * Opens the index of the file kept in the sidecar file, which is created (or recreated, if it isn't the index
+     * of the file as it is now) as needed.
+     *
+     * @param bloomBits The bits of the filter of a block, rounded up to a power of 2 of at least 64.
+     */
+    static BlockIndex open(Path path, Path sidecar, int blockSize, int bloomBits) throws IOException {
+        var bits = Math.max(Long.SIZE, Integer.highestOneBit(Math.max(1, bloomBits - 1)) << 1);
+        var index = new BlockIndex(path, sidecar, blockSize, bits);
+        try {
+            index.load();
+        } catch (IOException | RuntimeException e) {
+            index.close();
+            throw e;
+        }
+        return index;
+    }
+
+    Path sidecar() {
+        return sidecar;
+    }
+
+    int blockCount() {
+        return snapshot.blockCount();
+    }
+
+    /**
+     * Indexes the blocks that were completed by the lines appended to the file since it was last indexed.
+     */
+    void update() throws IOException {
+        lock.lock();
+        try {
+            OpenFile<FileChannel> file;
+            try {
+                file = OpenFile.open(path);
+            } catch (NoSuchFileException e) {
+                // Not created yet, or between being rotated and being created again.
+                return;
+            }
+            // The id, the size and the bytes indexed are all those of the file that was opened.
+            try (file) {
+                var ch = file.file();
+                var id = file.fileId();
+                var size = ch.size();
+                if (id != fileId || size < scanned || !headMatches(ch)) {
+                    if (blockCount > 0 || scanned > 0) {
+                        LOG.atInfo().log("File at path: {} was rotated or truncated, rebuilding its block index",
+                                path);
+                    }
+                    reset(id);
+                }
+                if (size > scanned && !full()) {
+                    extend(ch, size);
+                }
+            }
+            publish();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether the file still starts with the bytes that were indexed. A file that is truncated and written again
+     * (e.g. rotated with <code>copytruncate</code>) keeps its id, and may have grown past the scanned bytes since the
+     * last update.
+     */
+    private boolean headMatches(FileChannel ch) throws IOException {
+        if (headSample.length == 0) {
+            return true;
+        }
+        var head = ByteBuffer.allocate(headSample.length);
+        return read(ch, head, 0) == head.capacity() && Arrays.equals(head.array(), headSample);
+    }
+
+    /**
+     * The blocks indexed so far, if the index is of the file as it is. A file that is truncated and written again
+     * (e.g. rotated with <code>copytruncate</code>) may have grown past the indexed bytes before the next update,
+     * so its first bytes are also compared with those that were indexed.
+     *
+     * @param ch     The file.
+     * @param fileId The id of the file, as {@link OpenFile} found it when it opened <code>ch</code>.
+     * @return The blocks, or null if the file is not the one indexed or is smaller than the indexed bytes.
+     */
+    @Nullable
+    View view(FileChannel ch, long fileId) throws IOException {
+        var snapshot = this.snapshot;
+        if (fileId != snapshot.fileId() || snapshot.records() == null || ch.size() < snapshot.indexedEnd()) {
+            return null;
+        }
+        var head = ByteBuffer.allocate(snapshot.headSample().length);
+        if (read(ch, head, 0) != head.capacity() || !Arrays.equals(head.array(), snapshot.headSample())) {
+            return null;
+        }
+        return new View(snapshot.records(), snapshot.blockCount());
+    }
+
+    /**
+     * The bits of the filters that the trigrams of the literals set, for {@link View#mayContain}.
+     *
+     * @param alternatives As with {@link LineMatcher#requiredLiterals()}.
+     * @return The bits of each alternative, or null if an alternative has no trigrams and rules out nothing.
+     */
+    @Nullable
+    int[][] query(List<List<String>> alternatives) {
+        var query = new int[alternatives.size()][];
+        for (int a = 0; a < alternatives.size(); a++) {
+            var bits = new int[0];
+            for (var literal : alternatives.get(a)) {
+                var bytes = literal.getBytes(StandardCharsets.UTF_8);
+                var offset = bits.length;
+                if (bytes.length < 3) {
+                    continue;
+                }
+                bits = Arrays.copyOf(bits, offset + 2 * (bytes.length - 2));
+                for (int i = 0; i + 3 <= bytes.length; i++) {
+                    var t = (bytes[i] & 0xFF) << 16 | (bytes[i + 1] & 0xFF) << 8 | bytes[i + 2] & 0xFF;
+                    bits[offset + 2 * i] = hash1(t) >>> shift;
+                    bits[offset + 2 * i + 1] = hash2(t) >>> shift;
+                }
+            }
+            if (bits.length == 0) {
+                return null;
+            }
+            query[a] = bits;
+        }
+        return query;
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            out.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The blocks indexed as of the end of an update.
+     *
+     * @param records The mapping of the sidecar file up to the last block, or null if there is no block.
+     */
+    private record Snapshot(long fileId, int blockCount, long indexedEnd, byte[] headSample,
+                            @Nullable MappedByteBuffer records) {
+    }
+
+    /**
+     * The blocks of the index at a point in time, blocks indexed after it was taken are not in it.
+     */
+    final class View {
+        private final ByteBuffer records;
+        private final int blocks;
+
+        private View(ByteBuffer records, int blocks) {
+            this.records = records;
+            this.blocks = blocks;
+        }
+
+        int blocks() {
+            return blocks;
+        }
+
+        /**
+         * The position of the first byte of the block.
+         */
+        long start(int block) {
+            return block == 0 ? 0 : end(block - 1);
+        }
+
+        /**
+         * The position after the line-ending that ends the block.
+         */
+        long end(int block) {
+            return records.getLong(HEADER_SIZE + block * recordSize);
+        }
+
+        /**
+         * Whether the block may have a line that contains the literals of one of the alternatives of the query.
+         */
+        boolean mayContain(int block, int[][] query) {
+            var filter = HEADER_SIZE + block * recordSize + Long.BYTES;
+            alternatives:
+            for (var bits : query) {
+                for (var bit : bits) {
+                    if ((records.getLong(filter + (bit >>> 6) * Long.BYTES) & (1L << bit)) == 0) {
+                        continue alternatives;
+                    }
+                }
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Loads the blocks of the sidecar file, if it is the index of the file as it is now.
+     */
+    private void load() throws IOException {
+        OpenFile<FileChannel> file;
+        try {
+            file = OpenFile.open(path);
+        } catch (NoSuchFileException e) {
+            reset(0);
+            publish();
+            return;
+        }
+        long id;
+        try (file) {
+            var ch = file.file();
+            id = file.fileId();
+            var size = ch.size();
+            var blocks = (out.size() - HEADER_SIZE) / recordSize;
+            var header = ByteBuffer.allocate(HEADER_SIZE);
+            if (blocks > 0 && read(out, header, 0) == HEADER_SIZE && header.getInt(0) == MAGIC
+                    && header.getInt(4) == VERSION && header.getInt(8) == blockSize
+                    && header.getInt(12) == bloomBits && header.getLong(16) == id) {
+                var end = ByteBuffer.allocate(Long.BYTES);
+                read(out, end, HEADER_SIZE + (blocks - 1) * recordSize);
+                var first = ByteBuffer.allocate(Long.BYTES);
+                read(out, first, HEADER_SIZE);
+                if (end.getLong(0) <= size
+                        && header.getLong(HEAD_HASH_OFFSET) == headHash(ch, first.getLong(0))) {
+                    // A record that was only partly written is dropped.
+                    out.truncate(HEADER_SIZE + blocks * recordSize);
+                    fileId = id;
+                    blockCount = Math.toIntExact(blocks);
+                    indexedEnd = end.getLong(0);
+                    scanned = indexedEnd;
+                    var head = ByteBuffer.allocate((int) Math.min(HEAD_SAMPLE_SIZE, indexedEnd));
+                    read(ch, head, 0);
+                    headSample = head.array();
+                    changed = true;
+                    publish();
+                    LOG.atDebug().log("Loaded the block index of file at path: {}, {} blocks", path, blockCount);
+                    return;
+                }
+            }
+        }
+        reset(id);
+        publish();
+    }
+
+    private void reset(long id) throws IOException {
+        if (out.size() > 0) {
+            // A query may still be reading the mapping of the old file, which must not be truncated under it. The
+            // old file is kept by the mapping until it is no longer used.
+            out.close();
+            Files.delete(sidecar);
+            out = openSidecar();
+        }
+        var header = ByteBuffer.allocate(HEADER_SIZE)
+                .putInt(MAGIC)
+                .putInt(VERSION)
+                .putInt(blockSize)
+                .putInt(bloomBits)
+                .putLong(id)
+                .putLong(0)
+                .flip();
+        write(out, header, 0);
+        fileId = id;
+        blockCount = 0;
+        indexedEnd = 0;
+        scanned = 0;
+        Arrays.fill(pending, 0);
+        trigram = 0;
+        trigramLength = 0;
+        headHash = 0;
+        headSample = new byte[0];
+        changed = true;
+    }
+
+    /**
+     * Publishes the blocks indexed so far to the reads, mapping the records appended since the last time.
+     */
+    private void publish() throws IOException {
+        if (!changed) {
+            return;
+        }
+        var records = blockCount == 0
+                ? null
+                : out.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE + (long) blockCount * recordSize);
+        snapshot = new Snapshot(fileId, blockCount, indexedEnd, headSample.clone(), records);
+        changed = false;
+    }
+
+    /**
+     * Adds the bytes between the bytes that have been indexed and <code>size</code> to the filter of the block
+     * being built, appending a record for each block that they complete.
+     */
+    private void extend(FileChannel ch, long size) throws IOException {
+        var bb = ByteBuffer.allocate(READ_SIZE);
+        var bytes = bb.array();
+        var position = scanned;
+        while (position < size) {
+            bb.clear().limit((int) Math.min(READ_SIZE, size - position));
+            var n = ch.read(bb, position);
+            if (n <= 0) {
+                // The file was truncated while it was being indexed, it is indexed again by the next update.
+                break;
+            }
+            if (position < HEAD_SAMPLE_SIZE) {
+                var length = (int) Math.min(HEAD_SAMPLE_SIZE, position + n);
+                headSample = Arrays.copyOf(headSample, length);
+                System.arraycopy(bytes, 0, headSample, (int) position, length - (int) position);
+            }
+            for (int i = 0; i < n; i++) {
+                var b = bytes[i];
+                if (blockCount == 0) {
+                    headHash = 31 * headHash + b;
+                }
+                trigram = (trigram << 8 | b & 0xFF) & 0xFFFFFF;
+                if (++trigramLength >= 3) {
+                    setBit(hash1(trigram) >>> shift);
+                    setBit(hash2(trigram) >>> shift);
+                }
+                var end = position + i + 1;
+                if (b == '\n' && end - indexedEnd >= blockSize && !full()) {
+                    appendBlock(end);
+                }
+            }
+            position += n;
+        }
+        scanned = position;
+    }
+
+    /**
+     * Whether the sidecar file can't have another record, a mapping is at most 2GB. The bytes after the last block
+     * are then read for every request, however many there are.
+     */
+    private boolean full() {
+        return HEADER_SIZE + (long) (blockCount + 1) * recordSize > Integer.MAX_VALUE;
+    }
+
+    private FileChannel openSidecar() throws IOException {
+        return FileChannel.open(sidecar, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    private void setBit(int bit) {
+        pending[bit >>> 6] |= 1L << bit;
+    }
+
+    private void appendBlock(long end) throws IOException {
+        var record = ByteBuffer.allocate(recordSize).putLong(end);
+        for (var word : pending) {
+            record.putLong(word);
+        }
+        write(out, record.flip(), HEADER_SIZE + (long) blockCount * recordSize);
+        if (blockCount == 0) {
+            write(out, ByteBuffer.allocate(Long.BYTES).putLong(0, headHash), HEAD_HASH_OFFSET);
+        }
+        blockCount += 1;
+        indexedEnd = end;
+        changed = true;
+        Arrays.fill(pending, 0);
+        // A trigram doesn't span blocks, the line-ending is the last byte of the block.
+        trigram = 0;
+        trigramLength = 0;
+    }
+
+    /**
+     * The hash of the first <code>end</code> bytes of the file, as computed while indexing its first block.
+     */
+    private static long headHash(FileChannel ch, long end) throws IOException {
+        var hash = 0L;
+        var bb = ByteBuffer.allocate(READ_SIZE);
+        var bytes = bb.array();
+        var position = 0L;
+        while (position < end) {
+            bb.clear().limit((int) Math.min(READ_SIZE, end - position));
+            var n = ch.read(bb, position);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                hash = 31 * hash + bytes[i];
+            }
+            position += n;
+        }
+        return hash;
+    }
+
+    private static int hash1(int trigram) {
+        return trigram * 0x9E3779B1;
+    }
+
+    private static int hash2(int trigram) {
+        return Integer.rotateLeft(trigram * 0x85EBCA6B, 16) * 0xC2B2AE35;
+    }
+
+    private static int read(FileChannel ch, ByteBuffer bb, long position) throws IOException {
+        var read = 0;
+        while (bb.hasRemaining()) {
+            var n = ch.read(bb, position + read);
+            if (n < 0) {
+                break;
+            }
+            read += n;
+        }
+        return read;
+    }
+
+    private static void write(FileChannel ch, ByteBuffer bb, long position) throws IOException {
+        while (bb.hasRemaining()) {
+            ch.write(bb, position + bb.position());
+        }
+    }
+}
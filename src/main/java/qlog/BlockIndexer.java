@@ -0,0 +1,148 @@
+package qlog;
+
+import io.micronaut.context.annotation.Context;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+import jakarta.annotation.Nullable;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Keeps a {@link BlockIndex} of each of the files listed in <code>qlog.tail.block-index.files</code> (relative to
+ * <code>qlog.log.directory</code>), so that filtered reads of them skip the blocks that can't hold a match (see
+ * {@link IndexedTailReader}).
+ * <p>
+ * The indexes are kept in sidecar files in <code>qlog.tail.block-index.directory</code>, and are extended on a
+ * background thread every <code>qlog.tail.block-index.interval</code> milliseconds with the lines appended to the
+ * files since. Indexing a large file for the first time reads all of it, and until then reads of the file simply
+ * scan it. Created with the application, so that the files are indexed before they are first read.
+ */
+@Context
+@Singleton
+@Requires(property = "qlog.tail.block-index.enabled", value = "true")
+public class BlockIndexer implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BlockIndexer.class);
+
+    private final Map<Path, BlockIndex> indexes = new HashMap<>();
+    @Nullable
+    private final ScheduledExecutorService executor;
+
+    private final LongAdder blocksSkipped = new LongAdder();
+    private final LongAdder blocksRead = new LongAdder();
+
+    /**
+     * @param interval How often the files are indexed, in milliseconds. If it isn't positive they are only indexed
+     *                 by {@link #update()}.
+     */
+    public BlockIndexer(@Value("${qlog.log.directory:/var/log}") String logDirectory,
+                        @Value("${qlog.tail.block-index.files:}") List<String> files,
+                        @Value("${qlog.tail.block-index.directory:/var/cache/qlog/index}") String directory,
+                        @Value("${qlog.tail.block-index.block-size:1048576}") int blockSize,
+                        @Value("${qlog.tail.block-index.bloom-bits:262144}") int bloomBits,
+                        @Value("${qlog.tail.block-index.interval:1000}") long interval) throws IOException {
+        var sidecars = Path.of(directory);
+        Files.createDirectories(sidecars);
+        for (var file : files) {
+            if (file.isBlank()) {
+                continue;
+            }
+            var path = key(Path.of(logDirectory, file.strip()));
+            indexes.put(path, BlockIndex.open(path, sidecars.resolve(sidecarName(path)), blockSize, bloomBits));
+        }
+        if (interval > 0 && !indexes.isEmpty()) {
+            this.executor = Executors.newSingleThreadScheduledExecutor(
+                    Thread.ofPlatform().name("qlog-indexer").daemon().factory());
+            this.executor.scheduleWithFixedDelay(this::update, 0, interval, TimeUnit.MILLISECONDS);
+        } else {
+            this.executor = null;
+        }
+    }
+
+    /**
+     * The index of the file, if it is one of the indexed files.
+     */
+    @Nullable
+    BlockIndex index(Path path) {
+        return indexes.get(key(path));
+    }
+
+    /**
+     * Extends the index of each file with the lines appended to it.
+     */
+    void update() {
+        for (var index : indexes.values()) {
+            try {
+                index.update();
+            } catch (IOException e) {
+                // Reads scan the bytes that aren't indexed, the file is indexed again on the next update.
+                LOG.warn("Error indexing file with index: {}", index.sidecar(), e);
+            }
+        }
+    }
+
+    void recordRead(int skipped, int read) {
+        blocksSkipped.add(skipped);
+        blocksRead.add(read);
+    }
+
+    public Stats stats() {
+        return new Stats(indexes.size(),
+                indexes.values().stream().mapToLong(BlockIndex::blockCount).sum(),
+                blocksSkipped.sum(),
+                blocksRead.sum());
+    }
+
+    /**
+     * @param files         The number of files indexed.
+     * @param blocks        The blocks indexed in all the files.
+     * @param blocksSkipped The blocks that filtered reads skipped.
+     * @param blocksRead    The blocks that filtered reads read, as they may have held a match.
+     */
+    public record Stats(int files, long blocks, long blocksSkipped, long blocksRead) {
+    }
+
+    @Override
+    @PreDestroy
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        for (var index : indexes.values()) {
+            try {
+                index.close();
+            } catch (IOException e) {
+                LOG.warn("Error closing index: {}", index.sidecar(), e);
+            }
+        }
+    }
+
+    private static Path key(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    /**
+     * The name of the sidecar file of the file, its name and a hash of its path (files of the same name may be in
+     * different directories).
+     */
+    private static String sidecarName(Path path) {
+        var hash = UUID.nameUUIDFromBytes(path.toString().getBytes(StandardCharsets.UTF_8)).getMostSignificantBits();
+        return path.getFileName() + "." + HexFormat.of().toHexDigits(hash) + ".qidx";
+    }
+}
@@ -0,0 +1,100 @@
+package qlog;
+
+import jakarta.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Optional;
+
+/**
+ * A {@link TailReader} that serves lines from the {@link TailBlockCache} and only reads the lines that are not
+ * in the cached block of the file with the underlying reader.
+ * <p>
+ * A continuation token that ends before the cached block (e.g. the later pages of a read that pages back through
+ * the file) is read by the underlying reader without looking the file up in the cache at all, none of its lines
+ * could be served from the block.
+ */
+public class CachingTailReader implements TailReader {
+
+    private final TailReader reader;
+    private final TailBlockCache cache;
+
+    public CachingTailReader(TailReader reader, TailBlockCache cache) {
+        this.reader = reader;
+        this.cache = cache;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ReaderResult getLastNMatchingLines(Path path,
+                                              @Nullable LineMatcher matcher,
+                                              @Nullable String continuationToken,
+                                              int start,
+                                              int count,
+                                              Cancellation cancellation) {
+        if (continuationToken != null && !endsInCachedBlock(path, continuationToken)) {
+            return reader.getLastNMatchingLines(path, matcher, continuationToken, start, count, cancellation);
+        }
+        TailBlockCache.TailBlock block;
+        try {
+            block = cache.get(path, cancellation);
+        } catch (IOException e) {
+            // Let the reader fail with the same exception it would have if there was no cache.
+            return reader.getLastNMatchingLines(path, matcher, continuationToken, start, count, cancellation);
+        }
+        if (block == null) {
+            return reader.getLastNMatchingLines(path, matcher, continuationToken, start, count, cancellation);
+        }
+        // The index of the first line in the block to read, as with the readers the start is ignored when
+        // continuing from a token. A token that only sets where the read stops reads from the end of the file.
+        var range = ReadRange.parse(continuationToken, block.size());
+        var first = continuationToken == null
+                ? start
+                : range.to() >= block.size() ? 0 : block.indexOfLineBefore(range.to());
+        if (first < 0 || first >= block.lines().length) {
+            return reader.getLastNMatchingLines(path, matcher, continuationToken, start, count, cancellation);
+        }
+        var lines = block.lines();
+        var collectedLines = new ArrayList<String>();
+        for (int i = first; i < lines.length; i++) {
+            if (block.lineStarts()[i] < range.from()) {
+                // The line is before the range.
+                return new ReaderResult(collectedLines, Optional.empty(), block.version());
+            }
+            var line = lines[i];
+            if (line.isEmpty() || (matcher != null && !matcher.matches(line))) {
+                continue;
+            }
+            collectedLines.add(line);
+            if (collectedLines.size() >= count) {
+                // The same token the reader would issue, the position of the line-ending before this line.
+                var lineEnding = block.lineStarts()[i] - 1;
+                return new ReaderResult(collectedLines,
+                        range.isHead(lineEnding) ? Optional.empty() : Optional.of(String.valueOf(lineEnding)),
+                        block.version());
+            }
+        }
+        if (range.isHead(block.coveredFrom())) {
+            // The block starts at the head of the file (or of the range), there is nothing left to read.
+            return new ReaderResult(collectedLines, Optional.empty(), block.version());
+        }
+        // Read the rest of the lines from before the block.
+        var rest = reader.getLastNMatchingLines(path, matcher, ReadRange.token(range.from(), block.coveredFrom()), 0,
+                count - collectedLines.size(), cancellation);
+        collectedLines.addAll(rest.lines());
+        return new ReaderResult(collectedLines, rest.continuationToken(), rest.version());
+    }
+
+    /**
+     * Whether the range of the token ends in the block cached for the file. Lines are only appended to a file, so
+     * the block of the file as it is now starts no earlier than the cached one, and a range that ends before the
+     * cached block ends before it too.
+     */
+    private boolean endsInCachedBlock(Path path, String continuationToken) {
+        var block = cache.cached(path);
+        return block != null && ReadRange.parse(continuationToken, block.size()).to() > block.coveredFrom();
+    }
+}
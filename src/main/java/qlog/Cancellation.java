@@ -0,0 +1,60 @@
+package qlog;
+
+import qlog.exc.TailReaderTimeoutException;
+
+import java.nio.file.Path;
+import java.time.Duration;
+
+/**
+ * Cancels a read cooperatively. The readers check it between chunks (rather than relying on the thread being
+ * interrupted, which doesn't stop a read of a memory-mapped file and closes a channel that is interrupted while
+ * reading), so a read stops within a chunk of its deadline passing or of {@link #cancel()} being called.
+ */
+public final class Cancellation {
+
+    /**
+     * A read that is never cancelled.
+     */
+    public static final Cancellation NONE = new Cancellation(false, 0);
+
+    private final boolean hasDeadline;
+    private final long deadlineNs;
+    private volatile boolean cancelled;
+
+    private Cancellation(boolean hasDeadline, long deadlineNs) {
+        this.hasDeadline = hasDeadline;
+        this.deadlineNs = deadlineNs;
+    }
+
+    /**
+     * A read that is cancelled once the timeout has elapsed from now.
+     */
+    public static Cancellation after(Duration timeout) {
+        return new Cancellation(true, System.nanoTime() + timeout.toNanos());
+    }
+
+    /**
+     * Cancels the read, e.g. because the client has gone away.
+     */
+    public void cancel() {
+        if (this != NONE) {
+            cancelled = true;
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled || (hasDeadline && System.nanoTime() - deadlineNs >= 0);
+    }
+
+    /**
+     * @throws TailReaderTimeoutException If the read is cancelled, so that a read that was stopped early isn't
+     *                                    mistaken for one that found fewer lines.
+     */
+    public void throwIfCancelled(Path path) {
+        if (isCancelled()) {
+            throw new TailReaderTimeoutException(cancelled
+                    ? "Cancelled reading file: " + path
+                    : "Deadline exceeded reading file: " + path);
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package qlog;
+
+import jakarta.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A {@link TailReader} that shares the reads of identical requests in flight at the same time, see
+ * {@link ReadCoalescer}.
+ */
+public class CoalescingTailReader implements TailReader {
+
+    private final TailReader reader;
+    private final ReadCoalescer coalescer;
+
+    public CoalescingTailReader(TailReader reader, ReadCoalescer coalescer) {
+        this.reader = reader;
+        this.coalescer = coalescer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ReaderResult getLastNMatchingLines(Path path,
+                                              @Nullable LineMatcher matcher,
+                                              @Nullable String continuationToken,
+                                              int start,
+                                              int count,
+                                              Cancellation cancellation) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            // Let the reader fail with the same exception it would have if reads were not shared.
+            return reader.getLastNMatchingLines(path, matcher, continuationToken, start, count, cancellation);
+        }
+        var key = ReadCoalescer.Key.of(path, attributes, matcher, continuationToken, start, count);
+        return coalescer.get(key, cancellation,
+                () -> reader.getLastNMatchingLines(path, matcher, continuationToken, start, count, cancellation));
+    }
+}
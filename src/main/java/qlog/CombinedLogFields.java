@@ -0,0 +1,157 @@
+package qlog;
+
+import jakarta.annotation.Nullable;
+import qlog.exc.TailReaderInvalidFilterException;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * The fields of a line in the common or combined log format of web servers, e.g.
+ * <pre>
+ * 18.230.62.31 - - [13/Feb/2024:09:25:54 +0000] "GET /script.js HTTP/2.0" 200 1015 - "Mozilla/5.0 ..."
+ * </pre>
+ * A line is a sequence of values separated by spaces, each of them a word, a quoted string or a time in brackets:
+ * <code>host</code> (the client's address), <code>ident</code>, <code>user</code>, <code>time</code>,
+ * <code>request</code>, <code>status</code>, <code>bytes</code>, <code>referer</code> and <code>agent</code>
+ * (the last two only in the combined format). The <code>method</code>, <code>path</code> and
+ * <code>protocol</code> are the words of the request. The values are read as they are, e.g. a missing value is
+ * <code>-</code>, and the line is only read up to the last of the fields asked for.
+ * <p>
+ * Not thread-safe, the positions of the values are kept from one line to the next.
+ */
+final class CombinedLogFields implements LogFields {
+
+    private static final List<String> VALUES = List.of("host", "ident", "user", "time", "request", "status",
+            "bytes", "referer", "agent");
+    private static final List<String> REQUEST = List.of("method", "path", "protocol");
+    private static final int REQUEST_VALUE = VALUES.indexOf("request");
+
+    private final List<String> names;
+    // The value of each field, and for the words of the request which word it is (otherwise -1).
+    private final int[] value;
+    private final int[] word;
+    // The values of the line up to the last value of the fields.
+    private final int values;
+    // The start and end of each value of the line being extracted, up to the last one needed.
+    private final int[] starts;
+    private final int[] ends;
+
+    CombinedLogFields(List<String> names) {
+        this.names = List.copyOf(names);
+        this.value = new int[names.size()];
+        this.word = new int[names.size()];
+        var last = -1;
+        for (int i = 0; i < names.size(); i++) {
+            var name = names.get(i);
+            value[i] = VALUES.indexOf(name);
+            word[i] = REQUEST.indexOf(name);
+            if (word[i] >= 0) {
+                value[i] = REQUEST_VALUE;
+            }
+            if (value[i] < 0) {
+                throw new TailReaderInvalidFilterException("Unknown field of the combined log format: " + name
+                        + ", expected one of " + VALUES + " or " + REQUEST, null);
+            }
+            last = Math.max(last, value[i]);
+        }
+        this.values = last + 1;
+        this.starts = new int[this.values];
+        this.ends = new int[this.values];
+    }
+
+    @Override
+    public List<String> names() {
+        return names;
+    }
+
+    @Override
+    public void extract(ByteBuffer buf, int from, int to, String[] values) {
+        if (to > from && buf.get(to - 1) == '\r') {
+            to--;
+        }
+        var found = 0;
+        var pos = from;
+        while (found < this.values) {
+            while (pos < to && buf.get(pos) == ' ') {
+                pos++;
+            }
+            if (pos == to) {
+                break;
+            }
+            var b = buf.get(pos);
+            int end;
+            if (b == '[') {
+                end = indexOf(buf, (byte) ']', pos + 1, to);
+                starts[found] = pos + 1;
+                ends[found] = end;
+                pos = Math.min(end + 1, to);
+            } else if (b == '"') {
+                end = closingQuote(buf, pos + 1, to);
+                starts[found] = pos + 1;
+                ends[found] = end;
+                pos = Math.min(end + 1, to);
+            } else {
+                end = indexOf(buf, (byte) ' ', pos, to);
+                starts[found] = pos;
+                ends[found] = end;
+                pos = end;
+            }
+            found++;
+        }
+        for (int i = 0; i < value.length; i++) {
+            var v = value[i];
+            if (v >= found) {
+                values[i] = null;
+            } else if (word[i] < 0) {
+                values[i] = LogFields.decode(buf, starts[v], ends[v]);
+            } else {
+                values[i] = word(buf, starts[v], ends[v], word[i]);
+            }
+        }
+    }
+
+    /**
+     * The word of the request at the index, or null if the request has fewer words (e.g. a request of
+     * <code>-</code>).
+     */
+    @Nullable
+    private static String word(ByteBuffer buf, int from, int to, int index) {
+        var start = from;
+        for (int i = 0; i < index; i++) {
+            var space = indexOf(buf, (byte) ' ', start, to);
+            if (space == to) {
+                return null;
+            }
+            start = space + 1;
+        }
+        return LogFields.decode(buf, start, indexOf(buf, (byte) ' ', start, to));
+    }
+
+    /**
+     * The position of the byte, or <code>to</code> if it isn't in the line.
+     */
+    private static int indexOf(ByteBuffer buf, byte b, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf.get(i) == b) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * The position of the quote that closes a quoted value, quotes in the value are escaped with a backslash.
+     */
+    private static int closingQuote(ByteBuffer buf, int from, int to) {
+        for (int i = from; i < to; i++) {
+            var b = buf.get(i);
+            if (b == '\\') {
+                i++;
+            } else if (b == '"') {
+                return i;
+            }
+        }
+        return to;
+    }
+}
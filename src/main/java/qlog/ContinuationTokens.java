@@ -0,0 +1,244 @@
+package qlog;
+
+import jakarta.annotation.Nullable;
+import qlog.exc.TailReaderFileNotFoundException;
+import qlog.exc.TailReaderIOException;
+import qlog.exc.TailReaderInvalidTokenException;
+import qlog.exc.TailReaderStaleTokenException;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Encodes the positions the readers continue from (the continuation token of a {@link TailReader.ReaderResult})
+ * as the opaque continuation tokens handed to clients, and decodes them back.
+ * <p>
+ * Besides the position, a token records the file the position is in as the reader read it (see
+ * {@link FileVersion}): its identity (a hash of its file key, the device and inode on Linux), its size and a hash of
+ * its first bytes. It also records a hash of the filter it was issued for. A token is checked before the file is
+ * read from its position: if the file has since been replaced, truncated or rewritten the position is somewhere in
+ * other content, so the token is stale instead of reading from a meaningless position, and a token used with another
+ * filter is invalid.
+ * <p>
+ * When the file is read with its rotated generations ({@link RotationSetReader}) a position follows its file as
+ * logrotate renames it, e.g. a token issued for <code>access.log</code> continues in <code>access.log.1</code>
+ * after a rotation. A generation that the rotation compresses is a new file, so a token issued for it before it
+ * was compressed is stale.
+ * <p>
+ * A token is the base64url (without padding) of:
+ * <pre>
+ * version     1 byte, {@value #VERSION}
+ * generation  varint, 0 for the file itself
+ * file id     8 bytes
+ * size        varint
+ * head        4 bytes, a CRC-32 of the first {@value FileSample#SIZE} bytes of the file
+ * position    varint, the position + 1, or 0 for the end of the generation
+ * filter      4 bytes, a CRC-32 of the filter mode and terms (and time range), or 0 without a filter
+ * </pre>
+ * A token with another version, e.g. one issued before an upgrade, is stale.
+ */
+public final class ContinuationTokens {
+
+    static final int VERSION = 2;
+
+    private ContinuationTokens() {
+    }
+
+    /**
+     * The hash of the filter a token is issued for.
+     */
+    public static int filterHash(FilterMode mode, List<String> terms) {
+        if (terms.isEmpty()) {
+            return 0;
+        }
+        var crc = new CRC32();
+        crc.update(mode.name().getBytes(StandardCharsets.UTF_8));
+        for (var term : terms) {
+            crc.update(0);
+            crc.update(term.getBytes(StandardCharsets.UTF_8));
+        }
+        return (int) crc.getValue();
+    }
+
+    /**
+     * The hash of the filter and the time range (see {@link TimeRangeSeek}) a token is issued for.
+     */
+    public static int filterHash(FilterMode mode,
+                                 List<String> terms,
+                                 @Nullable Instant since,
+                                 @Nullable Instant until) {
+        if (since == null && until == null) {
+            return filterHash(mode, terms);
+        }
+        var all = new ArrayList<>(terms);
+        all.add("since=" + since);
+        all.add("until=" + until);
+        return filterHash(mode, all);
+    }
+
+    /**
+     * Encodes the position a reader returned for the file.
+     *
+     * @param path       The file that was read.
+     * @param version    The file the position is in as it was read, the version of the reader's result.
+     * @param position   The continuation token returned by the reader, either a position in the file, or a
+     *                   generation and a position in it as returned by the {@link RotationSetReader}.
+     * @param filterHash The {@link #filterHash(FilterMode, List)} of the filter the file was read with.
+     */
+    public static String encode(Path path, @Nullable FileVersion version, String position, int filterHash) {
+        if (version == null) {
+            // Only a read of an empty file, or of no file, has no version, and neither issues a position.
+            throw new IllegalStateException("No file was read at path: " + path + " for position: " + position);
+        }
+        var separator = position.indexOf(':');
+        var generation = separator < 0 ? 0 : Integer.parseInt(position.substring(0, separator));
+        var offset = position.substring(separator + 1);
+        var buf = ByteBuffer.allocate(42);
+        buf.put((byte) VERSION);
+        putVarLong(buf, generation);
+        buf.putLong(version.fileId());
+        putVarLong(buf, version.size());
+        buf.putInt(version.headHash());
+        putVarLong(buf, offset.isEmpty() ? 0 : Long.parseLong(offset) + 1);
+        buf.putInt(filterHash);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(buf.array(), buf.position()));
+    }
+
+    /**
+     * Decodes a token into the position to continue reading the file from.
+     *
+     * @param path       The file to read.
+     * @param rotated    Whether the file is read with its rotated generations.
+     * @param token      The token from the client.
+     * @param filterHash The {@link #filterHash(FilterMode, List)} of the filter the file is read with.
+     * @return The continuation token to pass to the reader.
+     * @throws TailReaderInvalidTokenException If the token is malformed, or was issued for another filter or for a
+     *                                         read of the rotated generations.
+     * @throws TailReaderStaleTokenException   If the file the token was issued for has been replaced, truncated or
+     *                                         rewritten, or the token was issued by another version.
+     */
+    public static String decode(Path path, boolean rotated, String token, int filterHash) {
+        int generation;
+        long fileId;
+        long size;
+        int headHash;
+        long position;
+        int tokenFilterHash;
+        try {
+            var buf = ByteBuffer.wrap(Base64.getUrlDecoder().decode(token));
+            if (buf.get() != VERSION) {
+                throw new TailReaderStaleTokenException("Continuation token was issued by another version");
+            }
+            generation = Math.toIntExact(getVarLong(buf));
+            fileId = buf.getLong();
+            size = getVarLong(buf);
+            headHash = buf.getInt();
+            position = getVarLong(buf) - 1;
+            tokenFilterHash = buf.getInt();
+            if (buf.hasRemaining() || generation < 0 || size < 0 || position < -1
+                    || (generation == 0 && position < 0)) {
+                throw new IllegalArgumentException("Malformed continuation token");
+            }
+        } catch (IllegalArgumentException | ArithmeticException | BufferUnderflowException e) {
+            throw new TailReaderInvalidTokenException("Invalid continuation token: " + token, e);
+        }
+        if (tokenFilterHash != filterHash) {
+            throw new TailReaderInvalidTokenException("Continuation token was issued for another filter", null);
+        }
+        if (generation > 0 && !rotated) {
+            throw new TailReaderInvalidTokenException(
+                    "Continuation token was issued for a read of the rotated files", null);
+        }
+        FileVersion current = null;
+        if (!rotated) {
+            current = version(path, size);
+            if (current.fileId() != fileId) {
+                current = null;
+            }
+        } else {
+            // Rotations only ever move a file to an older generation.
+            var file = RotationSetReader.generation(path, generation);
+            while (file != null) {
+                var candidate = version(file, size);
+                if (candidate.fileId() == fileId) {
+                    current = candidate;
+                    break;
+                }
+                generation += 1;
+                file = RotationSetReader.generation(path, generation);
+            }
+        }
+        if (current == null) {
+            throw new TailReaderStaleTokenException(
+                    "File at path: " + path + " was replaced since the continuation token was issued");
+        }
+        if (current.size() < size) {
+            throw new TailReaderStaleTokenException(
+                    "File at path: " + path + " was truncated since the continuation token was issued");
+        }
+        if (current.headHash() != headHash) {
+            // Truncated and written again past the size it had (e.g. rotated with copytruncate).
+            throw new TailReaderStaleTokenException(
+                    "File at path: " + path + " was rewritten since the continuation token was issued");
+        }
+        return (generation == 0 ? "" : generation + ":") + (position < 0 ? "" : String.valueOf(position));
+    }
+
+    /**
+     * The file as it is now, with the hash of as many of its first bytes as a token issued at <code>size</code>
+     * has (fewer if the file is now smaller, which makes the token stale anyway).
+     */
+    private static FileVersion version(Path path, long size) {
+        try (var opened = OpenFile.open(path)) {
+            var ch = opened.file();
+            var current = ch.size();
+            return new FileVersion(opened.fileId(), current, FileVersion.headHash(ch, Math.min(size, current)));
+        } catch (NoSuchFileException e) {
+            throw new TailReaderFileNotFoundException("File not found: " + path, e);
+        } catch (IOException e) {
+            throw new TailReaderIOException("Error reading file: " + path, e);
+        }
+    }
+
+    /**
+     * A hash of the identity of the file. Where the file system has no file keys, the creation time stands in.
+     */
+    static long fileId(BasicFileAttributes attributes) {
+        var identity = attributes.fileKey() != null
+                ? attributes.fileKey().toString()
+                : attributes.creationTime().toString();
+        return UUID.nameUUIDFromBytes(identity.getBytes(StandardCharsets.UTF_8)).getMostSignificantBits();
+    }
+
+    private static void putVarLong(ByteBuffer buf, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buf.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buf.put((byte) value);
+    }
+
+    private static long getVarLong(ByteBuffer buf) {
+        var value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            var b = buf.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint");
+    }
+}
@@ -0,0 +1,271 @@
+package qlog;
+
+import jakarta.annotation.Nullable;
+import jakarta.inject.Singleton;
+import qlog.exc.TailReaderFileNotFoundException;
+import qlog.exc.TailReaderIOException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.LongSupplier;
+
+/**
+ * Reads the tails of several files as one stream of lines, newest first by the timestamp of each line (see
+ * {@link LineTimestamps}).
+ * <p>
+ * Each file is read backwards on a virtual thread of its own by the {@link TailReader}, up to <code>count</code>
+ * lines, and the lines of the files are merged with a heap holding the next line of each file. Within a file the
+ * lines keep their order: a line without a timestamp (e.g. a line of a stack trace) is ordered with the nearest
+ * line before it that has one (the line that logged the stack trace), and a line with a timestamp newer than the
+ * line after it (e.g. in access logs, which are written when a request completes) is ordered as if it had the
+ * timestamp of the line after it.
+ * <p>
+ * Each file has its own position to continue from. A file whose lines were only partly merged into the result is
+ * read again, for just the lines that were, to find the position before the last of them.
+ */
+@Singleton
+public class FanInReader {
+
+    private final TailReader reader;
+    private final LineTimestamps lineTimestamps;
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("qlog-fan-in-", 0).factory());
+
+    public FanInReader(TailReader reader, LineTimestamps lineTimestamps) {
+        this.reader = reader;
+        this.lineTimestamps = lineTimestamps;
+    }
+
+    /**
+     * Gets the last N lines of the files that match a {@link LineMatcher}, merged newest first.
+     *
+     * @param paths        The files to read.
+     * @param matcher      If present, a line is counted only when it matches.
+     * @param positions    The position to continue each file from, as returned in the previous result, or null to
+     *                     read every file from its end.
+     * @param count        The number of lines to read out in the returned List.
+     * @param cancellation Checked while reading, once it is cancelled the read stops.
+     * @throws qlog.exc.TailReaderTimeoutException If the read is cancelled before it completes.
+     */
+    public MergedResult getLastNMatchingLines(List<Path> paths,
+                                              @Nullable LineMatcher matcher,
+                                              @Nullable List<Optional<String>> positions,
+                                              int count,
+                                              Cancellation cancellation) {
+        // The end of each file is fixed before it is read, so that a file read again for the position of a line
+        // is read up to the same end even if lines have been appended since.
+        var from = new ArrayList<Optional<String>>(paths.size());
+        for (int i = 0; i < paths.size(); i++) {
+            from.add(positions == null ? Optional.of(String.valueOf(size(paths.get(i)))) : positions.get(i));
+        }
+        var reads = new ArrayList<Callable<TailReader.ReaderResult>>(paths.size());
+        for (int i = 0; i < paths.size(); i++) {
+            var path = paths.get(i);
+            var position = from.get(i);
+            reads.add(() -> position.isEmpty()
+                    ? new TailReader.ReaderResult(List.of(), Optional.empty())
+                    : reader.getLastNMatchingLines(path, matcher, position.get(), 0, count, cancellation));
+        }
+        var results = all(reads, paths, cancellation);
+
+        var heap = new PriorityQueue<Cursor>(Comparator.comparingLong(Cursor::timestamp).reversed()
+                .thenComparingInt(Cursor::file));
+        for (int i = 0; i < paths.size(); i++) {
+            var path = paths.get(i);
+            var result = results.get(i);
+            var cursor = new Cursor(i, result.lines(),
+                    () -> olderTimestamp(path, matcher, result, count, cancellation));
+            if (cursor.hasNext()) {
+                heap.add(cursor);
+            }
+        }
+        var lines = new ArrayList<MergedLine>(count);
+        var merged = new int[paths.size()];
+        while (lines.size() < count && !heap.isEmpty()) {
+            var cursor = heap.poll();
+            lines.add(new MergedLine(cursor.file(), cursor.next()));
+            merged[cursor.file()] += 1;
+            if (cursor.hasNext()) {
+                heap.add(cursor);
+            }
+        }
+
+        var next = new ArrayList<Callable<TailReader.ReaderResult>>(paths.size());
+        for (int i = 0; i < paths.size(); i++) {
+            var path = paths.get(i);
+            var position = from.get(i);
+            var read = merged[i];
+            var result = results.get(i);
+            if (position.isEmpty() || read == result.lines().size()) {
+                // The file was done, every line read was merged, or there was no line to read and the file is done.
+                next.add(() -> result);
+            } else if (read == 0) {
+                next.add(() -> new TailReader.ReaderResult(List.of(), position, result.version()));
+            } else {
+                next.add(() -> reader.getLastNMatchingLines(path, matcher, position.get(), 0, read, cancellation));
+            }
+        }
+        var nextPositions = new ArrayList<Optional<String>>(paths.size());
+        var versions = new ArrayList<FileVersion>(paths.size());
+        for (var result : all(next, paths, cancellation)) {
+            nextPositions.add(result.continuationToken());
+            versions.add(result.version());
+        }
+        return new MergedResult(lines, nextPositions, versions);
+    }
+
+    /**
+     * A line of the result, and the index of the file it was read from.
+     */
+    public record MergedLine(int file, String line) {
+    }
+
+    /**
+     * @param lines     The lines, newest first.
+     * @param positions The position to continue each file from, empty once every line of the file has been read.
+     * @param versions  The file each position is in, as it was read (see {@link TailReader.ReaderResult}), null for
+     *                  a file that wasn't read.
+     */
+    public record MergedResult(List<MergedLine> lines,
+                               List<Optional<String>> positions,
+                               List<FileVersion> versions) {
+        public boolean hasMore() {
+            return positions.stream().anyMatch(Optional::isPresent);
+        }
+    }
+
+    /**
+     * The lines of a file still to merge, and the timestamp of the next of them.
+     */
+    private final class Cursor {
+        private final int file;
+        private final List<String> lines;
+        private final LongSupplier olderTimestamp;
+        private int next;
+        private long timestamp = Long.MAX_VALUE;
+        // The nearest line at or after the next one that has a timestamp, and its timestamp.
+        private int timestamped = -1;
+        private long timestampedAt = LineTimestamps.NONE;
+
+        Cursor(int file, List<String> lines, LongSupplier olderTimestamp) {
+            this.file = file;
+            this.lines = lines;
+            this.olderTimestamp = olderTimestamp;
+            advance();
+        }
+
+        int file() {
+            return file;
+        }
+
+        long timestamp() {
+            return timestamp;
+        }
+
+        boolean hasNext() {
+            return next < lines.size();
+        }
+
+        String next() {
+            var line = lines.get(next);
+            next += 1;
+            advance();
+            return line;
+        }
+
+        private void advance() {
+            if (!hasNext()) {
+                return;
+            }
+            if (next > timestamped) {
+                timestamped = next;
+                timestampedAt = lineTimestamps.parse(lines.get(next));
+                while (timestampedAt == LineTimestamps.NONE && timestamped + 1 < lines.size()) {
+                    timestamped += 1;
+                    timestampedAt = lineTimestamps.parse(lines.get(timestamped));
+                }
+                if (timestampedAt == LineTimestamps.NONE) {
+                    // The lines without a timestamp continue before the lines that were read.
+                    timestamped = lines.size();
+                    timestampedAt = olderTimestamp.getAsLong();
+                }
+            }
+            if (timestampedAt != LineTimestamps.NONE) {
+                timestamp = Math.min(timestamp, timestampedAt);
+            }
+        }
+    }
+
+    /**
+     * The timestamp of the nearest line before the lines of the result that has one, looking through at most
+     * <code>count</code> more lines, so that the lines at the end of the result without a timestamp are ordered
+     * the same whichever page they are read in.
+     */
+    private long olderTimestamp(Path path,
+                                @Nullable LineMatcher matcher,
+                                TailReader.ReaderResult result,
+                                int count,
+                                Cancellation cancellation) {
+        if (result.continuationToken().isEmpty()) {
+            return LineTimestamps.NONE;
+        }
+        var older = reader.getLastNMatchingLines(path, matcher, result.continuationToken().get(), 0, count,
+                cancellation);
+        for (var line : older.lines()) {
+            var timestamp = lineTimestamps.parse(line);
+            if (timestamp != LineTimestamps.NONE) {
+                return timestamp;
+            }
+        }
+        return LineTimestamps.NONE;
+    }
+
+    /**
+     * Runs the tasks, one for each file, concurrently.
+     */
+    private <T> List<T> all(List<Callable<T>> tasks, List<Path> paths, Cancellation cancellation) {
+        var futures = new ArrayList<Future<T>>(tasks.size());
+        for (var task : tasks) {
+            futures.add(executor.submit(task));
+        }
+        var results = new ArrayList<T>(tasks.size());
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new TailReaderIOException("Interrupted reading file: " + paths.get(i), e);
+            } catch (ExecutionException e) {
+                // The reads of the other files stop too, the read of every file has to complete for a result.
+                cancellation.cancel();
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw new TailReaderIOException("Error reading file: " + paths.get(i), e.getCause());
+            }
+        }
+        return results;
+    }
+
+    private static long size(Path path) {
+        try {
+            return Files.size(path);
+        } catch (NoSuchFileException e) {
+            throw new TailReaderFileNotFoundException("File not found: " + path, e);
+        } catch (IOException e) {
+            throw new TailReaderIOException("Error reading file: " + path, e);
+        }
+    }
+}
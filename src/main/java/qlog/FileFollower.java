@@ -0,0 +1,367 @@
+package qlog;
+
+import io.micronaut.context.annotation.Value;
+import jakarta.annotation.Nullable;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Follows files like <code>tail -F</code>, publishing the lines appended to a file to every subscriber.
+ * <p>
+ * Each followed file is watched once, however many subscribers it has: a single {@link WatchService} wakes the
+ * follower when a file changes, and every file is also polled for a change in size every
+ * <code>qlog.follow.poll-interval</code> milliseconds in case the file system does not deliver events. The
+ * appended bytes are read once on a single follower thread and the lines fanned out to the subscribers. Each
+ * subscriber's filter matches the bytes of the lines, and a line is decoded once for all the subscribers it is sent
+ * to.
+ * <p>
+ * Each subscriber has its own buffer of <code>qlog.follow.buffer-size</code> lines. When a slow subscriber's
+ * buffer is full the oldest lines are dropped, or with <code>qlog.follow.overflow=disconnect</code> the
+ * subscriber is disconnected.
+ * <p>
+ * A truncated file is followed again from its head, and a rotated file (the path refers to a new file) is
+ * followed from the head of the new file after the rest of the old file has been read.
+ */
+@Singleton
+public class FileFollower {
+
+    private static final Logger LOG = LoggerFactory.getLogger(FileFollower.class);
+
+    private static final int READ_SIZE = 65536;
+
+    private final int bufferSize;
+    private final boolean disconnectOnOverflow;
+    private final ScheduledExecutorService executor;
+    private final Scheduler scheduler;
+    private final WatchService watchService;
+
+    // Guarded by itself, as are the subscriber counts of the files and the watched directories.
+    private final Map<Path, FollowedFile> files = new HashMap<>();
+    private final Map<Path, WatchKey> directories = new HashMap<>();
+
+    private final LongAdder droppedLines = new LongAdder();
+    private final LongAdder disconnects = new LongAdder();
+
+    public FileFollower(@Value("${qlog.follow.poll-interval:250}") long pollInterval,
+                        @Value("${qlog.follow.buffer-size:1024}") int bufferSize,
+                        @Value("${qlog.follow.overflow:drop}") String overflow) throws IOException {
+        this.bufferSize = bufferSize;
+        this.disconnectOnOverflow = "disconnect".equals(overflow);
+        this.executor = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("qlog-follower").daemon().factory());
+        this.scheduler = Schedulers.fromExecutorService(executor);
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.executor.scheduleWithFixedDelay(this::pollAll, pollInterval, pollInterval, TimeUnit.MILLISECONDS);
+        Thread.ofPlatform().name("qlog-follower-watch").daemon().start(this::watch);
+    }
+
+    /**
+     * Follows the file, publishing each line appended to it after subscribing.
+     *
+     * @param path    The file to follow.
+     * @param matcher If present, only lines that match are published, see {@link LineMatcherCache}.
+     */
+    public Flux<String> follow(Path path, @Nullable LineMatcher matcher) {
+        var absolutePath = path.toAbsolutePath();
+        var lines = Flux.defer(() -> {
+                    var file = subscribe(absolutePath);
+                    return file.sink.asFlux().doFinally(signal -> unsubscribe(file));
+                })
+                // Subscribe on the follower thread so that the file is opened between reads.
+                .subscribeOn(scheduler)
+                .filter(line -> line.matches(matcher))
+                .map(FollowedLine::text);
+        if (disconnectOnOverflow) {
+            return lines.onBackpressureBuffer(bufferSize, dropped -> disconnects.increment(),
+                    BufferOverflowStrategy.ERROR);
+        }
+        return lines.onBackpressureBuffer(bufferSize, dropped -> droppedLines.increment(),
+                BufferOverflowStrategy.DROP_OLDEST);
+    }
+
+    public Stats stats() {
+        synchronized (files) {
+            return new Stats(files.size(),
+                    files.values().stream().mapToInt(file -> file.subscribers).sum(),
+                    droppedLines.sum(),
+                    disconnects.sum());
+        }
+    }
+
+    /**
+     * @param files        The number of files being followed.
+     * @param subscribers  The number of subscribers to all files.
+     * @param droppedLines Lines dropped because a subscriber's buffer was full.
+     * @param disconnects  Subscribers disconnected because their buffer was full.
+     */
+    public record Stats(int files, int subscribers, long droppedLines, long disconnects) {
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        watchService.close();
+        executor.shutdownNow();
+        synchronized (files) {
+            for (var file : files.values()) {
+                file.close();
+            }
+            files.clear();
+        }
+    }
+
+    private FollowedFile subscribe(Path path) {
+        synchronized (files) {
+            var file = files.get(path);
+            if (file == null) {
+                file = new FollowedFile(path);
+                files.put(path, file);
+                watchDirectory(path.getParent());
+                // Open the file now so that lines are followed from the end of the file as of subscribing.
+                file.poll();
+            }
+            file.subscribers += 1;
+            return file;
+        }
+    }
+
+    private void unsubscribe(FollowedFile file) {
+        synchronized (files) {
+            file.subscribers -= 1;
+            if (file.subscribers == 0) {
+                files.remove(file.path);
+                file.close();
+                var directory = file.path.getParent();
+                if (files.keySet().stream().noneMatch(path -> path.getParent().equals(directory))) {
+                    var key = directories.remove(directory);
+                    if (key != null) key.cancel();
+                }
+            }
+        }
+    }
+
+    private void watchDirectory(Path directory) {
+        if (directories.containsKey(directory)) {
+            return;
+        }
+        try {
+            directories.put(directory, directory.register(watchService,
+                    StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY));
+        } catch (IOException e) {
+            // The files in the directory are still polled.
+            LOG.warn("Unable to watch directory: {}", directory, e);
+        }
+    }
+
+    /**
+     * Waits for changes to the watched directories and reads the files that changed on the follower thread.
+     */
+    private void watch() {
+        try {
+            while (true) {
+                var key = watchService.take();
+                var directory = (Path) key.watchable();
+                for (var event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        executor.execute(this::pollAll);
+                    } else if (event.context() instanceof Path name) {
+                        FollowedFile file;
+                        synchronized (files) {
+                            file = files.get(directory.resolve(name));
+                        }
+                        if (file != null) {
+                            executor.execute(file::poll);
+                        }
+                    }
+                }
+                key.reset();
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            LOG.atDebug().log("Stopped watching followed files");
+        }
+    }
+
+    private void pollAll() {
+        FollowedFile[] followed;
+        synchronized (files) {
+            followed = files.values().toArray(FollowedFile[]::new);
+        }
+        for (var file : followed) {
+            file.poll();
+        }
+    }
+
+    /**
+     * A file being followed. Only read on the follower thread.
+     */
+    private static final class FollowedFile {
+        private final Path path;
+        private final Sinks.Many<FollowedLine> sink = Sinks.many().multicast().directBestEffort();
+        private final ByteBuffer bb = ByteBuffer.allocate(READ_SIZE);
+        // The bytes of a line that has not been completed with a line-ending yet.
+        private final ByteArrayOutputStream partialLine = new ByteArrayOutputStream();
+        // Not a monitor, so that a thread waiting for a poll doesn't pin its carrier if it is virtual.
+        private final ReentrantLock lock = new ReentrantLock();
+        private int subscribers;
+        @Nullable
+        private FileChannel ch;
+        @Nullable
+        private Object fileKey;
+        private long position;
+        private boolean rotated;
+
+        FollowedFile(Path path) {
+            this.path = path;
+        }
+
+        /**
+         * Reads and publishes the lines appended to the file since it was last polled.
+         */
+        void poll() {
+            lock.lock();
+            try {
+                if (ch != null) {
+                    read();
+                    if (!isRotated()) {
+                        return;
+                    }
+                    // The rest of the old file has been read, continue with the new file.
+                    LOG.atInfo().log("Followed file at path: {} was rotated", path);
+                    close();
+                    rotated = true;
+                }
+                open();
+                if (ch != null) {
+                    read();
+                }
+            } catch (IOException e) {
+                LOG.warn("Error following file: {}", path, e);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Opens the file, positioned at its end when it is first followed and at its head after a rotation.
+         */
+        private void open() throws IOException {
+            try {
+                ch = FileChannel.open(path, StandardOpenOption.READ);
+            } catch (NoSuchFileException e) {
+                // Between rotations, the file is opened when it is created.
+                return;
+            }
+            fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+            position = rotated ? 0 : ch.size();
+            rotated = false;
+            partialLine.reset();
+        }
+
+        private boolean isRotated() throws IOException {
+            try {
+                return !Objects.equals(fileKey, Files.readAttributes(path, BasicFileAttributes.class).fileKey());
+            } catch (NoSuchFileException e) {
+                return false;
+            }
+        }
+
+        private void read() throws IOException {
+            var size = ch.size();
+            if (size < position) {
+                LOG.atInfo().log("Followed file at path: {} was truncated", path);
+                position = 0;
+                partialLine.reset();
+            }
+            while (position < size) {
+                bb.clear();
+                var n = ch.read(bb, position);
+                if (n <= 0) break;
+                var bytes = bb.array();
+                var lineStart = 0;
+                for (int i = 0; i < n; i++) {
+                    if (bytes[i] == '\n') {
+                        partialLine.write(bytes, lineStart, i - lineStart);
+                        sink.tryEmitNext(new FollowedLine(partialLine.toByteArray()));
+                        partialLine.reset();
+                        lineStart = i + 1;
+                    }
+                }
+                partialLine.write(bytes, lineStart, n - lineStart);
+                position += n;
+            }
+        }
+
+        void close() {
+            lock.lock();
+            try {
+                if (ch != null) {
+                    try {
+                        ch.close();
+                    } catch (IOException e) {
+                        LOG.warn("Error closing followed file: {}", path, e);
+                    }
+                    ch = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A line appended to a followed file, shared by the subscribers: matched on its bytes, and decoded at most
+     * once (two subscribers decoding it at the same time is harmless).
+     */
+    private static final class FollowedLine {
+        private final byte[] bytes;
+        @Nullable
+        private volatile String text;
+
+        FollowedLine(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        boolean matches(@Nullable LineMatcher matcher) {
+            return matcher == null || matcher.matches(ByteBuffer.wrap(bytes), 0, bytes.length);
+        }
+
+        String text() {
+            var text = this.text;
+            if (text == null) {
+                text = new String(bytes, StandardCharsets.UTF_8);
+                this.text = text;
+            }
+            return text;
+        }
+    }
+}
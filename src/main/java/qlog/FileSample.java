@@ -0,0 +1,61 @@
+package qlog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+
+/**
+ * The first bytes of a file and the bytes just before a position in it (the end of what was read of it), kept by
+ * the caches of what was read so that they can tell whether the file has only had bytes appended since.
+ * <p>
+ * The identity and the size of a file aren't enough: a file rotated with <code>copytruncate</code> keeps its
+ * identity, and once as many bytes have been written to it again it is larger than when it was read. Unless its
+ * content happens to start and end the same at the boundary, the samples no longer match.
+ */
+final class FileSample {
+
+    static final int SIZE = 64;
+
+    private final byte[] head;
+    private final long boundary;
+    private final byte[] beforeBoundary;
+
+    private FileSample(byte[] head, long boundary, byte[] beforeBoundary) {
+        this.head = head;
+        this.boundary = boundary;
+        this.beforeBoundary = beforeBoundary;
+    }
+
+    /**
+     * Samples the file open in the channel, where <code>boundary</code> is the end of what was read of it.
+     */
+    static FileSample of(SeekableByteChannel ch, long boundary) throws IOException {
+        var headSize = (int) Math.min(SIZE, boundary);
+        var beforeSize = (int) Math.min(SIZE, boundary);
+        return new FileSample(read(ch, 0, headSize), boundary, read(ch, boundary - beforeSize, beforeSize));
+    }
+
+    /**
+     * Whether the file open in the channel still has the sampled bytes, and so has at most had bytes appended.
+     */
+    boolean matches(SeekableByteChannel ch) throws IOException {
+        return ch.size() >= boundary
+                && Arrays.equals(read(ch, 0, head.length), head)
+                && Arrays.equals(read(ch, boundary - beforeBoundary.length, beforeBoundary.length), beforeBoundary);
+    }
+
+    /**
+     * Reads <code>length</code> bytes from <code>position</code>, fewer if the file ends before.
+     */
+    private static byte[] read(SeekableByteChannel ch, long position, int length) throws IOException {
+        var bb = ByteBuffer.allocate(length);
+        ch.position(position);
+        while (bb.hasRemaining()) {
+            if (ch.read(bb) <= 0) {
+                break;
+            }
+        }
+        return Arrays.copyOf(bb.array(), bb.position());
+    }
+}
@@ -0,0 +1,47 @@
+package qlog;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * The file a read was of, as of when the reader opened it: the identity of the file, its size and a hash of its
+ * first bytes. A continuation token records it (see {@link ContinuationTokens}) so that it can tell whether the file
+ * it continues in has only had lines appended since.
+ * <p>
+ * The identity and the size aren't enough on their own: a file rotated with <code>copytruncate</code> keeps its
+ * identity, and once as many bytes have been written to it again it is larger than when it was read. Unless its
+ * content happens to start the same, the head no longer matches (as with {@link FileSample}).
+ *
+ * @param fileId   The id of the file the reader had open, see {@link OpenFile}.
+ * @param size     The size of the file when it was opened, the bytes appended since weren't read.
+ * @param headHash A CRC-32 of the first {@value FileSample#SIZE} bytes of the file, or of all of them if it is
+ *                 smaller.
+ */
+public record FileVersion(long fileId, long size, int headHash) {
+
+    /**
+     * The version of the file open in the channel.
+     *
+     * @param fileId The id of the file, see {@link OpenFile}.
+     * @param size   The size of the file as it was read.
+     */
+    public static FileVersion of(long fileId, FileChannel ch, long size) throws IOException {
+        return new FileVersion(fileId, size, headHash(ch, size));
+    }
+
+    /**
+     * A CRC-32 of the first {@value FileSample#SIZE} bytes of the first <code>size</code> bytes of the file open in
+     * the channel. The bytes are read at their position, the position of the channel is left as it is.
+     */
+    static int headHash(FileChannel ch, long size) throws IOException {
+        var head = ByteBuffer.allocate((int) Math.min(FileSample.SIZE, size));
+        while (head.hasRemaining()) {
+            if (ch.read(head, head.position()) < 0) break;
+        }
+        var crc = new CRC32();
+        crc.update(head.array(), 0, head.position());
+        return (int) crc.getValue();
+    }
+}
@@ -0,0 +1,19 @@
+package qlog;
+
+/**
+ * How the filter terms of a request are matched against each line.
+ */
+public enum FilterMode {
+    /**
+     * The line contains every term.
+     */
+    ALL,
+    /**
+     * The line contains at least one of the terms.
+     */
+    ANY,
+    /**
+     * The line contains a match of the regular expression, the only term.
+     */
+    REGEX
+}
@@ -0,0 +1,76 @@
+package qlog;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Counts how often each key occurs in a stream, in a bounded number of counters (the Misra-Gries heavy hitters
+ * summary), for the top keys of a field with many distinct values such as the clients' addresses.
+ * <p>
+ * While there are no more distinct keys than counters the counts are exact. Once a new key doesn't fit, every
+ * counter is decremented by one (along with the new key's) and the counters at zero are dropped. So a count is
+ * at most {@link #maxError()} (the number of decrements) less than the key's true count, and any key that occurs
+ * more than <code>n / (capacity + 1)</code> times in <code>n</code> keys is kept. Each decrement drops
+ * <code>capacity + 1</code> occurrences, so however many keys there are they take constant time each on average.
+ *
+ * @param <K> The type of the keys, they are compared with {@link Object#equals}.
+ */
+final class HeavyHitters<K> {
+
+    private final int capacity;
+    private final HashMap<K, long[]> counters;
+    private long total;
+    private long decrements;
+
+    /**
+     * @param capacity The number of keys counted at a time.
+     */
+    HeavyHitters(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.counters = new HashMap<>();
+    }
+
+    void add(K key) {
+        total++;
+        var counter = counters.get(key);
+        if (counter != null) {
+            counter[0]++;
+        } else if (counters.size() < capacity) {
+            counters.put(key, new long[]{1});
+        } else {
+            decrements++;
+            counters.values().removeIf(c -> --c[0] == 0);
+        }
+    }
+
+    /**
+     * The number of keys added.
+     */
+    long total() {
+        return total;
+    }
+
+    /**
+     * How much less than its true count the count of a key may be, 0 if the counts are exact. A key that isn't
+     * counted occurred at most this many times.
+     */
+    long maxError() {
+        return decrements;
+    }
+
+    /**
+     * The keys with the highest counts, highest first (and keys with the same count in the order of their text).
+     */
+    List<Count<K>> top(int k) {
+        var top = new ArrayList<Count<K>>(counters.size());
+        counters.forEach((key, counter) -> top.add(new Count<>(key, counter[0])));
+        top.sort(Comparator.comparingLong(Count<K>::count).reversed()
+                .thenComparing(count -> String.valueOf(count.key())));
+        return top.subList(0, Math.min(k, top.size()));
+    }
+
+    record Count<K>(K key, long count) {
+    }
+}
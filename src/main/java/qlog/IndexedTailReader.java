@@ -0,0 +1,153 @@
+package qlog;
+
+import jakarta.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Optional;
+
+/**
+ * A {@link TailReader} that only reads the blocks of an indexed file that may hold a line matching the filter, see
+ * {@link BlockIndexer}. The runs of blocks that may hold a match, and the bytes after the indexed blocks, are read
+ * newest first by the underlying reader, with continuation tokens that bound each read to its run. The blocks that
+ * are skipped hold no matching line, so the lines and the continuation token are those of reading the whole file.
+ * <p>
+ * Reads of files that aren't indexed, reads without a filter or with a filter that has no literal of 3 bytes or
+ * more, and reads that skip <code>start</code> lines (counting the lines of every block) are read as they are.
+ */
+public class IndexedTailReader implements TailReader {
+
+    private final TailReader reader;
+    private final BlockIndexer indexer;
+
+    public IndexedTailReader(TailReader reader, BlockIndexer indexer) {
+        this.reader = reader;
+        this.indexer = indexer;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ReaderResult getLastNMatchingLines(Path path,
+                                              @Nullable LineMatcher matcher,
+                                              @Nullable String continuationToken,
+                                              int start,
+                                              int count,
+                                              Cancellation cancellation) {
+        var index = matcher == null || (continuationToken == null && start > 0) ? null : indexer.index(path);
+        var literals = index == null ? null : matcher.requiredLiterals();
+        var query = literals == null ? null : index.query(literals);
+        if (query == null) {
+            return reader.getLastNMatchingLines(path, matcher, continuationToken, start, count, cancellation);
+        }
+        BlockIndex.View view;
+        ReadRange range;
+        FileVersion version;
+        try (var file = OpenFile.open(path)) {
+            var ch = file.file();
+            view = index.view(ch, file.fileId());
+            // The runs are read with channels of their own, the continuation token is a position in the file as it
+            // was opened here.
+            version = FileVersion.of(file.fileId(), ch, ch.size());
+            range = ReadRange.parse(continuationToken, version.size());
+        } catch (IOException e) {
+            // Let the reader fail with the same exception it would have if the file wasn't indexed.
+            return reader.getLastNMatchingLines(path, matcher, continuationToken, start, count, cancellation);
+        }
+        if (view == null) {
+            // The file was rotated or truncated since it was indexed, or it hasn't been indexed yet.
+            return reader.getLastNMatchingLines(path, matcher, continuationToken, start, count, cancellation);
+        }
+        return read(path, matcher, range, version, view, query, count, cancellation);
+    }
+
+    private ReaderResult read(Path path,
+                              LineMatcher matcher,
+                              ReadRange range,
+                              FileVersion version,
+                              BlockIndex.View view,
+                              int[][] query,
+                              int count,
+                              Cancellation cancellation) {
+        var lines = new ArrayList<String>();
+        var skipped = 0;
+        var read = 0;
+        // The run of bytes to read next, from runStart to runEnd. It starts as the bytes after the indexed blocks,
+        // and is extended backwards with each block that may hold a match until a block that can't.
+        var runEnd = range.to();
+        var runStart = Math.max(range.from(), Math.min(view.end(view.blocks() - 1), range.to()));
+        try {
+            for (int block = view.blocks() - 1; block >= 0; block--) {
+                var blockStart = view.start(block);
+                var blockEnd = view.end(block);
+                if (blockStart >= range.to()) {
+                    continue;
+                }
+                if (blockEnd <= range.from()) {
+                    break;
+                }
+                if (view.mayContain(block, query)) {
+                    read += 1;
+                    if (runStart == runEnd) {
+                        runEnd = Math.min(blockEnd, range.to());
+                    }
+                    runStart = Math.max(blockStart, range.from());
+                    continue;
+                }
+                skipped += 1;
+                if (runStart < runEnd) {
+                    var result = readRun(path, matcher, range, version, runStart, runEnd, lines, count, cancellation);
+                    if (result != null) {
+                        return result;
+                    }
+                }
+                runStart = blockStart;
+                runEnd = blockStart;
+            }
+            if (runStart < runEnd) {
+                var result = readRun(path, matcher, range, version, runStart, runEnd, lines, count, cancellation);
+                if (result != null) {
+                    return result;
+                }
+            }
+            return new ReaderResult(lines, Optional.empty(), version);
+        } finally {
+            indexer.recordRead(skipped, read);
+        }
+    }
+
+    /**
+     * Reads the lines of the run, adding them to the lines read so far.
+     *
+     * @return The result of the read once <code>count</code> lines have been read, otherwise null.
+     */
+    @Nullable
+    private ReaderResult readRun(Path path,
+                                 LineMatcher matcher,
+                                 ReadRange range,
+                                 FileVersion version,
+                                 long runStart,
+                                 long runEnd,
+                                 ArrayList<String> lines,
+                                 int count,
+                                 Cancellation cancellation) {
+        // A run that ends at a block ends after the line-ending of its last line, it is read up to that line-ending.
+        var to = runEnd == range.to() ? runEnd : runEnd - 1;
+        var result = reader.getLastNMatchingLines(path, matcher, ReadRange.token(runStart, to), 0,
+                count - lines.size(), cancellation);
+        lines.addAll(result.lines());
+        if (lines.size() < count) {
+            return null;
+        }
+        if (result.continuationToken().isPresent()) {
+            return new ReaderResult(lines, result.continuationToken(), version);
+        }
+        // The oldest line of the run was the last line needed, the read continues before the run.
+        var lineEnding = runStart - 1;
+        return new ReaderResult(lines, range.isHead(lineEnding)
+                ? Optional.empty()
+                : Optional.of(String.valueOf(lineEnding)), version);
+    }
+}
@@ -0,0 +1,212 @@
+package qlog;
+
+import jakarta.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The fields of a line that is a JSON object, e.g. <code>{"level":"ERROR","logger":"qlog.Api","status":500}</code>.
+ * The fields are the names of top-level members of the object: a string value is unescaped, a number or a boolean
+ * is its text, and an object or an array is its JSON text. A member that is <code>null</code>, or missing, has no
+ * value.
+ * <p>
+ * The line isn't parsed into a tree: the members are walked over as bytes, the values of the other members are
+ * skipped without being decoded, and the rest of the line is skipped once all the fields have been found. A line
+ * that isn't a JSON object, or the members after a part of it that isn't valid JSON, have no values.
+ */
+final class JsonLogFields implements LogFields {
+
+    private final List<String> names;
+    // The names as the bytes of a JSON string, to be compared with the bytes of the line.
+    private final byte[][] keys;
+
+    JsonLogFields(List<String> names) {
+        this.names = List.copyOf(names);
+        this.keys = new byte[names.size()][];
+        for (int i = 0; i < names.size(); i++) {
+            keys[i] = names.get(i).getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Override
+    public List<String> names() {
+        return names;
+    }
+
+    @Override
+    public void extract(ByteBuffer buf, int from, int to, String[] values) {
+        Arrays.fill(values, 0, keys.length, null);
+        var remaining = keys.length;
+        var pos = skipWhitespace(buf, from, to);
+        if (pos == to || buf.get(pos) != '{') {
+            return;
+        }
+        pos++;
+        while (remaining > 0) {
+            pos = skipWhitespace(buf, pos, to);
+            if (pos == to || buf.get(pos) != '"') {
+                return;
+            }
+            var keyStart = pos + 1;
+            var keyEnd = skipString(buf, pos, to) - 1;
+            if (keyEnd < 0) {
+                return;
+            }
+            pos = skipWhitespace(buf, keyEnd + 1, to);
+            if (pos == to || buf.get(pos) != ':') {
+                return;
+            }
+            var valueStart = skipWhitespace(buf, pos + 1, to);
+            var valueEnd = skipValue(buf, valueStart, to);
+            if (valueEnd < 0) {
+                return;
+            }
+            for (int i = 0; i < keys.length; i++) {
+                if (values[i] == null && equals(buf, keyStart, keyEnd, keys[i])) {
+                    values[i] = value(buf, valueStart, valueEnd);
+                    remaining--;
+                    break;
+                }
+            }
+            pos = skipWhitespace(buf, valueEnd, to);
+            if (pos == to || buf.get(pos) != ',') {
+                return;
+            }
+            pos++;
+        }
+    }
+
+    private static boolean equals(ByteBuffer buf, int from, int to, byte[] key) {
+        if (to - from != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (buf.get(from + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The value of a member, null for <code>null</code>.
+     */
+    @Nullable
+    private static String value(ByteBuffer buf, int from, int to) {
+        if (buf.get(from) == '"') {
+            return unescape(buf, from + 1, to - 1);
+        }
+        var text = LogFields.decode(buf, from, to);
+        return text.equals("null") ? null : text;
+    }
+
+    private static String unescape(ByteBuffer buf, int from, int to) {
+        var raw = LogFields.decode(buf, from, to);
+        var escape = raw.indexOf('\\');
+        if (escape < 0) {
+            return raw;
+        }
+        var text = new StringBuilder(raw.length());
+        text.append(raw, 0, escape);
+        for (int i = escape; i < raw.length(); i++) {
+            var c = raw.charAt(i);
+            if (c != '\\' || i + 1 == raw.length()) {
+                text.append(c);
+                continue;
+            }
+            c = raw.charAt(++i);
+            switch (c) {
+                case 'b' -> text.append('\b');
+                case 'f' -> text.append('\f');
+                case 'n' -> text.append('\n');
+                case 'r' -> text.append('\r');
+                case 't' -> text.append('\t');
+                case 'u' -> {
+                    if (i + 4 < raw.length()) {
+                        try {
+                            text.append((char) Integer.parseInt(raw, i + 1, i + 5, 16));
+                            i += 4;
+                            break;
+                        } catch (NumberFormatException e) {
+                            // Kept as it is.
+                        }
+                    }
+                    text.append('\\').append(c);
+                }
+                default -> text.append(c);
+            }
+        }
+        return text.toString();
+    }
+
+    private static int skipWhitespace(ByteBuffer buf, int from, int to) {
+        var pos = from;
+        while (pos < to) {
+            var b = buf.get(pos);
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                break;
+            }
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * The position after the string that starts at <code>from</code>, or -1 if it isn't closed.
+     */
+    private static int skipString(ByteBuffer buf, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            var b = buf.get(i);
+            if (b == '\\') {
+                i++;
+            } else if (b == '"') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The position after the value that starts at <code>from</code>, or -1 if there isn't a whole value.
+     */
+    private static int skipValue(ByteBuffer buf, int from, int to) {
+        if (from == to) {
+            return -1;
+        }
+        var b = buf.get(from);
+        if (b == '"') {
+            return skipString(buf, from, to);
+        }
+        if (b == '{' || b == '[') {
+            var depth = 0;
+            for (int i = from; i < to; i++) {
+                var c = buf.get(i);
+                if (c == '"') {
+                    i = skipString(buf, i, to);
+                    if (i < 0) {
+                        return -1;
+                    }
+                    i--;
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if ((c == '}' || c == ']') && --depth == 0) {
+                    return i + 1;
+                }
+            }
+            return -1;
+        }
+        // A number, true, false or null.
+        var pos = from;
+        while (pos < to) {
+            var c = buf.get(pos);
+            if (c == ',' || c == '}' || c == ']' || c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                break;
+            }
+            pos++;
+        }
+        return pos == from ? -1 : pos;
+    }
+}
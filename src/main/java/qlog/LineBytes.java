@@ -0,0 +1,179 @@
+package qlog;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Operations on the bytes of lines read from a file, shared by the {@link TailReader} engines.
+ */
+final class LineBytes {
+
+    // Every byte of the word set to '\n', the low bit of every byte, and the high bit of every byte.
+    private static final long NEWLINES = 0x0A0A0A0A0A0A0A0AL;
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+
+    private LineBytes() {
+    }
+
+    /**
+     * Finds the position of the last line-ending in <code>buf</code> between <code>from</code> (inclusive)
+     * and <code>to</code> (exclusive), or -1 when there is none.
+     * <p>
+     * Eight bytes are read at once as a big-endian long so that the byte with the highest address is the
+     * least significant byte of the word. Each byte of the word is XOR'd with '\n' so that line-endings
+     * become zero bytes, and the "has zero byte" trick flags them in the high bit of the byte. The trick
+     * can produce false positives, but only in bytes that are more significant than a real zero byte, so
+     * the least significant flag (the highest address) is always a real line-ending.
+     */
+    static int lastIndexOfNewline(ByteBuffer buf, int from, int to) {
+        var i = to;
+        while (i - from >= Long.BYTES) {
+            var x = buf.getLong(i - Long.BYTES) ^ NEWLINES;
+            var found = (x - LOW_BITS) & ~x & HIGH_BITS;
+            if (found != 0) {
+                return i - 1 - (Long.numberOfTrailingZeros(found) >>> 3);
+            }
+            i -= Long.BYTES;
+        }
+        while (i > from) {
+            if (buf.get(--i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Visits the lines of a file as a scan reads them, newest first (see {@link TailReaderImpl#scan}).
+     */
+    @FunctionalInterface
+    interface LineVisitor {
+        /**
+         * @param line       The bytes of the line, between <code>from</code> and <code>to</code>, without its
+         *                   line-ending. They are only valid until the visitor returns.
+         * @param lineEnding The position in the file of the line-ending before the line, one before the head of the
+         *                   range for the line at its head.
+         * @return true once no more lines are needed.
+         */
+        boolean visit(ByteBuffer line, int from, int to, long lineEnding);
+    }
+
+    /**
+     * Decodes lines from UTF-8. A decoder is reused for every line read by a request, so it isn't thread-safe.
+     * <p>
+     * Most log lines are ASCII, so a line is first checked for a byte with the high bit set eight bytes at a time.
+     * An ASCII line is copied into a String as is, and only a line with a multibyte character is decoded by the
+     * {@link CharsetDecoder}. Malformed input is replaced rather than failing the request.
+     */
+    static final class Decoder {
+        private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        private CharBuffer chars = CharBuffer.allocate(256);
+        // The bytes of an ASCII line of a direct buffer, copied out to make the String from.
+        private byte[] scratch = new byte[256];
+
+        /**
+         * Decodes the bytes between <code>from</code> (inclusive) and <code>to</code> (exclusive) into a String.
+         */
+        String decode(ByteBuffer buf, int from, int to) {
+            if (isAscii(buf, from, to)) {
+                if (buf.hasArray()) {
+                    return new String(buf.array(), buf.arrayOffset() + from, to - from, StandardCharsets.ISO_8859_1);
+                }
+                if (scratch.length < to - from) {
+                    scratch = new byte[Math.max(scratch.length * 2, to - from)];
+                }
+                buf.get(from, scratch, 0, to - from);
+                return new String(scratch, 0, to - from, StandardCharsets.ISO_8859_1);
+            }
+            // A UTF-8 line never has more chars than bytes.
+            if (chars.capacity() < to - from) {
+                chars = CharBuffer.allocate(Math.max(chars.capacity() * 2, to - from));
+            }
+            chars.clear();
+            decoder.reset();
+            var in = buf.slice(from, to - from);
+            decoder.decode(in, chars, true);
+            decoder.flush(chars);
+            return chars.flip().toString();
+        }
+
+        /**
+         * The bytes held by the decoder for the longest line it decoded.
+         */
+        int capacity() {
+            return chars.capacity() * 2 + scratch.length;
+        }
+
+        private static boolean isAscii(ByteBuffer buf, int from, int to) {
+            var i = from;
+            for (; to - i >= Long.BYTES; i += Long.BYTES) {
+                if ((buf.getLong(i) & HIGH_BITS) != 0) {
+                    return false;
+                }
+            }
+            for (; i < to; i++) {
+                if (buf.get(i) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The bytes of a line that spans more than one chunk (or window) of the file. Since the file is read
+     * backwards the bytes are prepended, they are kept at the end of the array.
+     */
+    static final class Spill {
+        private byte[] bytes = new byte[256];
+        private int start = bytes.length;
+        private ByteBuffer buffer = ByteBuffer.wrap(bytes);
+
+        boolean isEmpty() {
+            return start == bytes.length;
+        }
+
+        void prepend(ByteBuffer src, int from, int to) {
+            var n = to - from;
+            if (n > start) {
+                var length = bytes.length - start;
+                var grown = new byte[Math.max(bytes.length * 2, length + n)];
+                System.arraycopy(bytes, start, grown, grown.length - length, length);
+                start = grown.length - length;
+                bytes = grown;
+                buffer = ByteBuffer.wrap(bytes);
+            }
+            src.get(from, bytes, start - n, n);
+            start -= n;
+        }
+
+        /**
+         * The spilled bytes, between {@link #from()} and {@link #to()}.
+         */
+        ByteBuffer buffer() {
+            return buffer;
+        }
+
+        int from() {
+            return start;
+        }
+
+        int capacity() {
+            return bytes.length;
+        }
+
+        int to() {
+            return bytes.length;
+        }
+
+        void clear() {
+            start = bytes.length;
+        }
+    }
+}
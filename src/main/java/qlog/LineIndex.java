@@ -0,0 +1,211 @@
+package qlog;
+
+import jakarta.annotation.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A sparse index of the line-endings in a file. The byte position of every <code>stride</code>th line-ending,
+ * counted from the head of the file, is kept so that the position of any line-ending can be found by reading
+ * at most <code>stride</code> lines forward from the nearest checkpoint.
+ * <p>
+ * Files are only expected to grow by having lines appended, so the index is built lazily and then extended
+ * with the bytes appended since it was last used. An index is only valid for the file it was built from
+ * (see {@link #isValidFor(long, SeekableByteChannel)}).
+ */
+final class LineIndex {
+
+    private static final int READ_SIZE = 65536;
+
+    // The identity of the file, see OpenFile.
+    private final long fileId;
+    private final int stride;
+    // Not a monitor, so that the reads on virtual threads waiting for another to index the file don't pin their
+    // carriers.
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // checkpoints[k] is the byte position of the line-ending with ordinal k * stride.
+    private long[] checkpoints = new long[64];
+    private int checkpointCount;
+    // The number of line-endings in the indexed bytes.
+    private volatile long lineEndings;
+    // The number of bytes of the file that have been indexed.
+    private volatile long indexedSize;
+    private boolean endsWithLineEnding;
+    // The head of the file and the end of the indexed bytes, null until bytes are indexed.
+    @Nullable
+    private FileSample sample;
+
+    LineIndex(long fileId, int stride) {
+        this.fileId = fileId;
+        this.stride = stride;
+    }
+
+    /**
+     * An index is valid as long as the file has the same identity (it was not rotated), and it still has the
+     * indexed bytes: it has not become smaller than them, and it wasn't truncated and written again (e.g. rotated
+     * with <code>copytruncate</code>), see {@link FileSample}.
+     */
+    boolean isValidFor(long fileId, SeekableByteChannel ch) throws IOException {
+        if (this.fileId != fileId) {
+            return false;
+        }
+        lock.lock();
+        try {
+            return sample == null || sample.matches(ch);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long lineEndings() {
+        return lineEndings;
+    }
+
+    /**
+     * Finds the byte position of the line-ending that precedes the line <code>start</code> lines from the end
+     * of the first <code>size</code> bytes of the file. Reading the bytes before that position from the end
+     * yields the same lines as skipping <code>start</code> lines from the end of <code>size</code>.
+     *
+     * @return The byte position of the line-ending, or 0 if there are fewer than <code>start</code> lines.
+     */
+    long positionOfLine(SeekableByteChannel ch, long size, long start) throws IOException {
+        if (size == 0) {
+            return 0;
+        }
+        lock.lock();
+        try {
+            return positionOfLineLocked(ch, size, start);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long positionOfLineLocked(SeekableByteChannel ch, long size, long start) throws IOException {
+        if (size > indexedSize) {
+            extend(ch, size);
+        }
+        long endings;
+        boolean trailing;
+        if (size == indexedSize) {
+            endings = lineEndings;
+            trailing = endsWithLineEnding;
+        } else {
+            // Another request has already indexed bytes that were appended after this request sized the file.
+            endings = lineEndingsBefore(ch, size);
+            trailing = byteAt(ch, size - 1) == '\n';
+        }
+        // A line-ending at the very end is not counted as a line by the readers.
+        var ordinal = endings - (trailing ? 1 : 0) - start;
+        if (ordinal < 0) {
+            return 0;
+        }
+        return positionOfLineEnding(ch, ordinal);
+    }
+
+    /**
+     * Indexes the bytes between the end of the indexed bytes and <code>size</code>.
+     */
+    private void extend(SeekableByteChannel ch, long size) throws IOException {
+        var bb = ByteBuffer.allocate(READ_SIZE);
+        var bytes = bb.array();
+        var position = indexedSize;
+        var endings = lineEndings;
+        while (position < size) {
+            bb.clear().limit((int) Math.min(READ_SIZE, size - position));
+            ch.position(position);
+            var n = ch.read(bb);
+            if (n <= 0) {
+                // The file was truncated while it was being indexed.
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (bytes[i] == '\n') {
+                    if (endings % stride == 0) {
+                        addCheckpoint(position + i);
+                    }
+                    endings += 1;
+                }
+            }
+            endsWithLineEnding = bytes[n - 1] == '\n';
+            position += n;
+        }
+        indexedSize = position;
+        lineEndings = endings;
+        sample = FileSample.of(ch, position);
+    }
+
+    private void addCheckpoint(long position) {
+        if (checkpointCount == checkpoints.length) {
+            checkpoints = Arrays.copyOf(checkpoints, checkpointCount * 2);
+        }
+        checkpoints[checkpointCount++] = position;
+    }
+
+    /**
+     * Counts the line-endings in the first <code>size</code> bytes of the file, where <code>size</code> is
+     * less than the indexed size.
+     */
+    private long lineEndingsBefore(SeekableByteChannel ch, long size) throws IOException {
+        // The last checkpoint before size, the line-endings between it and size are counted by reading.
+        var k = Arrays.binarySearch(checkpoints, 0, checkpointCount, size);
+        k = k >= 0 ? k - 1 : -k - 2;
+        if (k < 0) {
+            return countLineEndings(ch, 0, size, Long.MAX_VALUE)[0];
+        }
+        return (long) k * stride + 1 + countLineEndings(ch, checkpoints[k] + 1, size, Long.MAX_VALUE)[0];
+    }
+
+    private long positionOfLineEnding(SeekableByteChannel ch, long ordinal) throws IOException {
+        var k = (int) (ordinal / stride);
+        var remaining = ordinal % stride;
+        if (remaining == 0) {
+            return checkpoints[k];
+        }
+        return countLineEndings(ch, checkpoints[k] + 1, indexedSize, remaining)[1];
+    }
+
+    /**
+     * Reads forward from <code>from</code> to <code>to</code> and counts line-endings, stopping at the
+     * <code>limit</code>th line-ending.
+     *
+     * @return The number of line-endings counted and the position of the last one counted.
+     */
+    private static long[] countLineEndings(SeekableByteChannel ch, long from, long to, long limit) throws IOException {
+        var bb = ByteBuffer.allocate(READ_SIZE);
+        var bytes = bb.array();
+        var counted = 0L;
+        var last = -1L;
+        var position = from;
+        while (position < to) {
+            bb.clear().limit((int) Math.min(READ_SIZE, to - position));
+            ch.position(position);
+            var n = ch.read(bb);
+            if (n <= 0) {
+                break;
+            }
+            for (int i = 0; i < n; i++) {
+                if (bytes[i] == '\n') {
+                    counted += 1;
+                    last = position + i;
+                    if (counted == limit) {
+                        return new long[]{counted, last};
+                    }
+                }
+            }
+            position += n;
+        }
+        return new long[]{counted, last};
+    }
+
+    private static byte byteAt(SeekableByteChannel ch, long position) throws IOException {
+        var bb = ByteBuffer.allocate(1);
+        ch.position(position);
+        ch.read(bb);
+        return bb.get(0);
+    }
+}
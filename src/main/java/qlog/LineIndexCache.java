@@ -0,0 +1,93 @@
+package qlog;
+
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+import jakarta.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+
+/**
+ * Keeps a {@link LineIndex} for each file read with a large <code>start</code>, so that the readers can seek
+ * to the start line instead of reading every line before it.
+ * <p>
+ * The indexes are bounded by the total number of lines they cover (<code>qlog.tail.index.max-lines</code>),
+ * which bounds the number of checkpoints held in memory. The least recently used indexes are evicted first.
+ */
+@Singleton
+@Requires(property = "qlog.tail.index.enabled", notEquals = "false")
+public class LineIndexCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(LineIndexCache.class);
+
+    private final int stride;
+    private final long maxLines;
+
+    // Access ordered, so iteration starts with the least recently used index.
+    private final LinkedHashMap<Path, LineIndex> indexes = new LinkedHashMap<>(16, 0.75f, true);
+
+    public LineIndexCache(@Value("${qlog.tail.index.stride:4096}") int stride,
+                          @Value("${qlog.tail.index.max-lines:1000000000}") long maxLines) {
+        this.stride = stride;
+        this.maxLines = maxLines;
+    }
+
+    /**
+     * The number of lines between checkpoints in an index. Skipping fewer lines than this is cheaper than
+     * using the index.
+     */
+    public int stride() {
+        return stride;
+    }
+
+    /**
+     * Finds the byte position of the line-ending that precedes the line <code>start</code> lines from the end
+     * of the first <code>size</code> bytes of the file open in <code>ch</code>.
+     *
+     * @param fileId The identity of the file open in <code>ch</code>, as {@link OpenFile} found it when it opened the
+     *               file. The path may have been replaced since, and the index of the path is only used for the file
+     *               that had it.
+     * @return The byte position of the line-ending, or 0 if there are fewer than <code>start</code> lines.
+     * @see LineIndex#positionOfLine(SeekableByteChannel, long, long)
+     */
+    public long positionOfLine(Path path, SeekableByteChannel ch, long fileId, long size, long start)
+            throws IOException {
+        LineIndex index;
+        synchronized (indexes) {
+            index = indexes.get(path);
+        }
+        // Checked outside the lock of the indexes, it reads the file.
+        if (index == null || !index.isValidFor(fileId, ch)) {
+            if (index != null) {
+                LOG.debug("File at path: {} was rotated or truncated, rebuilding its line index", path);
+            }
+            var stale = index;
+            synchronized (indexes) {
+                index = indexes.get(path);
+                // Unless another request has already replaced it.
+                if (index == null || index == stale) {
+                    index = new LineIndex(fileId, stride);
+                    indexes.put(path, index);
+                }
+            }
+        }
+        var position = index.positionOfLine(ch, size, start);
+        evict();
+        return position;
+    }
+
+    private void evict() {
+        synchronized (indexes) {
+            var lines = indexes.values().stream().mapToLong(LineIndex::lineEndings).sum();
+            var it = indexes.values().iterator();
+            while (lines > maxLines && it.hasNext()) {
+                lines -= it.next().lineEndings();
+                it.remove();
+            }
+        }
+    }
+}
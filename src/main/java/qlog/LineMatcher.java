@@ -0,0 +1,108 @@
+package qlog;
+
+import jakarta.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Matches a line against a filter using the bytes of the line, so that lines that do not match are never
+ * decoded into Strings. Matchers are immutable and may be shared between requests, see {@link LineMatcherCache}.
+ */
+public interface LineMatcher {
+
+    /**
+     * Whether the line, the bytes in <code>buf</code> between <code>from</code> (inclusive) and
+     * <code>to</code> (exclusive), matches.
+     */
+    boolean matches(ByteBuffer buf, int from, int to);
+
+    /**
+     * Whether the line matches, for lines that have already been decoded.
+     */
+    boolean matches(String line);
+
+    /**
+     * The literals that a line must contain to match, as alternatives: a line can only match if it contains every
+     * literal of one of the lists. Used to rule out the blocks of a file that can't hold a match without reading
+     * them (see {@link BlockIndex}).
+     *
+     * @return The alternatives, or null when any line may match whatever literals it contains.
+     */
+    @Nullable
+    default List<List<String>> requiredLiterals() {
+        return null;
+    }
+
+    /**
+     * Matches lines that contain the filter, the same as {@link String#contains(CharSequence)} on the line.
+     */
+    static LineMatcher literal(String filter) {
+        return new Horspool(filter);
+    }
+
+    /**
+     * Boyer-Moore-Horspool substring search. The pattern is compared with the line from its last byte, and on
+     * a mismatch the pattern is shifted along by how far the line's byte under the end of the pattern is from
+     * the end of the pattern, skipping positions that cannot match.
+     */
+    final class Horspool implements LineMatcher {
+        private final String filter;
+        private final byte[] pattern;
+        private final int[] shifts = new int[256];
+
+        Horspool(String filter) {
+            this.filter = filter;
+            this.pattern = filter.getBytes(StandardCharsets.UTF_8);
+            var last = pattern.length - 1;
+            Arrays.fill(shifts, pattern.length);
+            for (int i = 0; i < last; i++) {
+                shifts[pattern[i] & 0xFF] = last - i;
+            }
+        }
+
+        @Override
+        public boolean matches(ByteBuffer buf, int from, int to) {
+            var m = pattern.length;
+            if (m == 0) {
+                return true;
+            }
+            var last = m - 1;
+            var lastByte = pattern[last];
+            for (int i = from; i + m <= to; ) {
+                var b = buf.get(i + last);
+                if (b == lastByte && matchesAt(buf, i, last)) {
+                    return true;
+                }
+                i += shifts[b & 0xFF];
+            }
+            return false;
+        }
+
+        @Override
+        public boolean matches(String line) {
+            return line.contains(filter);
+        }
+
+        @Override
+        public List<List<String>> requiredLiterals() {
+            return List.of(List.of(filter));
+        }
+
+        @Override
+        public String toString() {
+            return filter;
+        }
+
+        private boolean matchesAt(ByteBuffer buf, int offset, int length) {
+            for (int j = 0; j < length; j++) {
+                if (buf.get(offset + j) != pattern[j]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
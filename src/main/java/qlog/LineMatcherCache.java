@@ -0,0 +1,91 @@
+package qlog;
+
+import io.micronaut.context.annotation.Value;
+import jakarta.annotation.Nullable;
+import jakarta.inject.Singleton;
+import qlog.exc.TailReaderInvalidFilterException;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Compiles the filter terms of requests into {@link LineMatcher}s, keeping the most recently used
+ * <code>qlog.filter.cache.max-entries</code> matchers so that repeated requests (e.g. a dashboard polling a file)
+ * don't compile the same expression or automaton for every request.
+ */
+@Singleton
+public class LineMatcherCache {
+
+    private final int maxEntries;
+
+    // Access ordered, so that the least recently used matcher is evicted first. Guarded by itself.
+    private final LinkedHashMap<Key, LineMatcher> matchers = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, LineMatcher> eldest) {
+            return size() > maxEntries;
+        }
+    };
+
+    public LineMatcherCache(@Value("${qlog.filter.cache.max-entries:256}") int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Gets the matcher for the filter terms.
+     *
+     * @param mode  How the terms are matched.
+     * @param terms The filter terms, if there are none every line matches.
+     * @return The matcher, or null when there are no terms.
+     * @throws TailReaderInvalidFilterException If the terms can't be compiled, e.g. an invalid regular expression.
+     */
+    @Nullable
+    public LineMatcher get(FilterMode mode, List<String> terms) {
+        if (terms.isEmpty()) {
+            return null;
+        }
+        var key = new Key(mode, List.copyOf(terms));
+        synchronized (matchers) {
+            var matcher = matchers.get(key);
+            if (matcher != null) {
+                return matcher;
+            }
+        }
+        // Compile outside the lock, two requests compiling the same matcher at once is harmless.
+        var matcher = compile(mode, key.terms());
+        synchronized (matchers) {
+            matchers.put(key, matcher);
+        }
+        return matcher;
+    }
+
+    private static LineMatcher compile(FilterMode mode, List<String> terms) {
+        return switch (mode) {
+            case REGEX -> {
+                if (terms.size() != 1) {
+                    throw new TailReaderInvalidFilterException("A regex filter must have exactly one term", null);
+                }
+                try {
+                    yield new RegexMatcher(Pattern.compile(terms.getFirst()));
+                } catch (PatternSyntaxException e) {
+                    throw new TailReaderInvalidFilterException("Invalid regex filter: " + e.getDescription(), e);
+                }
+            }
+            case ALL, ANY -> {
+                if (terms.size() == 1) {
+                    yield LineMatcher.literal(terms.getFirst());
+                }
+                if (terms.size() > MultiTermMatcher.MAX_TERMS) {
+                    throw new TailReaderInvalidFilterException(
+                            "A filter can have at most " + MultiTermMatcher.MAX_TERMS + " terms", null);
+                }
+                yield new MultiTermMatcher(terms, mode == FilterMode.ALL);
+            }
+        };
+    }
+
+    private record Key(FilterMode mode, List<String> terms) {
+    }
+}
@@ -0,0 +1,145 @@
+package qlog;
+
+import io.micronaut.context.annotation.Value;
+import jakarta.annotation.Nullable;
+import jakarta.inject.Singleton;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Parses the timestamp of a line, to order the lines of several files by time.
+ * <p>
+ * The timestamp is the first group of the first match of <code>qlog.merge.timestamp.regex</code> in the line,
+ * parsed with the {@link DateTimeFormatter} pattern <code>qlog.merge.timestamp.format</code>. The defaults match
+ * the timestamp of the common and combined log formats (e.g. <code>[13/Feb/2024:09:25:54 +0000]</code>), a
+ * timestamp at the start of the line can be anchored with <code>^</code>. A timestamp without an offset is in
+ * <code>qlog.merge.timestamp.zone</code>.
+ */
+@Singleton
+public class LineTimestamps {
+
+    /**
+     * The timestamp of a line that doesn't have one.
+     */
+    public static final long NONE = Long.MIN_VALUE;
+
+    // The defaults are here rather than in the placeholders, where their braces and colons would be taken apart.
+    static final String DEFAULT_REGEX = "\\[(\\d{2}/\\w{3}/\\d{4}:\\d{2}:\\d{2}:\\d{2} [+-]\\d{4})]";
+    static final String DEFAULT_FORMAT = "dd/MMM/yyyy:HH:mm:ss Z";
+
+    private final Pattern regex;
+    private final DateTimeFormatter formatter;
+    // The last timestamp parsed from bytes, as the lines read one after the other mostly have the same few.
+    @Nullable
+    private volatile Parsed last;
+
+    public LineTimestamps(@Value("${qlog.merge.timestamp.regex:}") String regex,
+                          @Value("${qlog.merge.timestamp.format:}") String format,
+                          @Value("${qlog.merge.timestamp.zone:UTC}") String zone) {
+        this.regex = Pattern.compile(regex.isEmpty() ? DEFAULT_REGEX : regex);
+        // Month and day names are in English, whatever the locale of the host.
+        this.formatter = DateTimeFormatter.ofPattern(format.isEmpty() ? DEFAULT_FORMAT : format, Locale.ENGLISH)
+                .withZone(ZoneId.of(zone));
+    }
+
+    /**
+     * The timestamp of the line in milliseconds since the epoch, or {@link #NONE} if it doesn't have one (e.g.
+     * a line of a stack trace) or it can't be parsed.
+     */
+    public long parse(String line) {
+        var matcher = regex.matcher(line);
+        if (!matcher.find()) {
+            return NONE;
+        }
+        try {
+            return Instant.from(formatter.parse(matcher.groupCount() > 0 ? matcher.group(1) : matcher.group()))
+                    .toEpochMilli();
+        } catch (DateTimeException e) {
+            return NONE;
+        }
+    }
+
+    /**
+     * The timestamp of the line from <code>from</code> to <code>to</code> in the buffer, as {@link #parse(String)}
+     * but without decoding the line. The regex runs over the bytes of the line, each byte taken as a character:
+     * timestamps are ASCII, and none of the bytes of a character that isn't is matched by <code>\d</code>,
+     * <code>\w</code> or <code>\s</code>. Only the timestamp is decoded, and only if it differs from the last one
+     * parsed.
+     */
+    public long parse(ByteBuffer buf, int from, int to) {
+        var matcher = regex.matcher(new Bytes(buf, from, to));
+        if (!matcher.find()) {
+            return NONE;
+        }
+        var group = matcher.groupCount() > 0 ? 1 : 0;
+        if (matcher.start(group) < 0) {
+            return NONE;
+        }
+        var start = from + matcher.start(group);
+        var end = from + matcher.end(group);
+        var last = this.last;
+        if (last != null && last.isAt(buf, start, end)) {
+            return last.millis();
+        }
+        var text = new byte[end - start];
+        buf.get(start, text);
+        long millis;
+        try {
+            millis = Instant.from(formatter.parse(new String(text, StandardCharsets.UTF_8))).toEpochMilli();
+        } catch (DateTimeException e) {
+            return NONE;
+        }
+        this.last = new Parsed(text, millis);
+        return millis;
+    }
+
+    private record Parsed(byte[] text, long millis) {
+
+        boolean isAt(ByteBuffer buf, int from, int to) {
+            if (to - from != text.length) {
+                return false;
+            }
+            for (int i = 0; i < text.length; i++) {
+                if (buf.get(from + i) != text[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * The bytes of a line, each a character.
+     */
+    private record Bytes(ByteBuffer buf, int from, int to) implements CharSequence {
+
+        @Override
+        public int length() {
+            return to - from;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) (buf.get(from + index) & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new Bytes(buf, from + start, from + end);
+        }
+
+        @Override
+        public String toString() {
+            var bytes = new byte[to - from];
+            buf.get(from, bytes);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package qlog;
+
+import io.micronaut.context.annotation.Value;
+import jakarta.annotation.Nullable;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import qlog.exc.TailReaderFileNotFoundException;
+import qlog.exc.TailReaderIOException;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aggregates the last lines of a file that match a filter instead of returning them: counts them, and counts them
+ * by the values of some of their fields (see {@link LogFields}), e.g. the number of each status code or the top
+ * clients of the last 10,000 requests of an access log, in a response of a few hundred bytes rather than the lines.
+ * <p>
+ * The file is read backwards as {@link TailReaderImpl} reads it (see {@link TailReaderImpl#scan}, a rotated archive from its decompressed copy in the
+ * {@link ArchiveCache}, as with {@link ArchiveTailReader}), but a line is never decoded: the filter matches
+ * its bytes, and only the fields are decoded from them. The groups are counted by a {@link HeavyHitters} summary
+ * of <code>qlog.aggregate.max-groups</code> counters, so the counts are exact unless there are more distinct groups
+ * than that, in which case the groups with the most lines are still found and the result says by how much their
+ * counts may be off.
+ */
+@Singleton
+public class LogAggregator {
+
+    private static final int DEFAULT_INITIAL_CHUNK_SIZE = 4096;
+
+    private final ScanContextPool scanContexts;
+    private final int initialChunkSize;
+    private final boolean readahead;
+    private final int maxGroups;
+
+    @Nullable
+    private final ArchiveCache archiveCache;
+    @Nullable
+    private final TailReaderMetrics metrics;
+
+    public LogAggregator(int bufferCapacity, int maxGroups) {
+        this(new ScanContextPool(bufferCapacity, 1), DEFAULT_INITIAL_CHUNK_SIZE, true, maxGroups, null, null);
+    }
+
+    /**
+     * @param readahead Whether a scan reads ahead, as with the <code>channel</code> engine.
+     * @param maxGroups The number of groups counted at a time.
+     */
+    @Inject
+    public LogAggregator(ScanContextPool scanContexts,
+                         @Value("${qlog.tail.buffer.initial-size:4096}") int initialChunkSize,
+                         @Value("${qlog.tail.readahead.enabled:true}") boolean readahead,
+                         @Value("${qlog.aggregate.max-groups:1024}") int maxGroups,
+                         @Nullable ArchiveCache archiveCache,
+                         @Nullable TailReaderMetrics metrics) {
+        this.scanContexts = scanContexts;
+        this.initialChunkSize = Math.max(1, Math.min(initialChunkSize, scanContexts.bufferCapacity()));
+        this.readahead = readahead;
+        this.maxGroups = maxGroups;
+        this.archiveCache = archiveCache;
+        this.metrics = metrics;
+    }
+
+    /**
+     * The lines aggregated, and the groups with the most lines.
+     *
+     * @param lines    The lines that matched and were aggregated.
+     * @param scanned  The lines read to find them, whether they matched or not.
+     * @param groups   The groups with the most lines, most first, none if the lines weren't grouped.
+     * @param maxError How many more lines than its count a group may have, 0 if the counts are exact. A group that
+     *                 isn't in the groups has at most this many lines.
+     */
+    public record Aggregation(long lines, long scanned, List<Group> groups, long maxError) {
+    }
+
+    /**
+     * @param values The values of the fields the lines were grouped by, null for a field a line doesn't have.
+     * @param count  The lines of the group.
+     */
+    public record Group(List<String> values, long count) {
+    }
+
+    /**
+     * Aggregates the last <code>count</code> lines that match, newest first.
+     *
+     * @param continuationToken The bytes to read, as with the readers (e.g. the range of a time range, see
+     *                          {@link ReadRange}), null for the whole file. The positions in an archive are
+     *                          positions in its decompressed content.
+     * @param fields            The fields to group the lines by, none to only count them.
+     * @param top               The number of groups to return.
+     */
+    public Aggregation aggregate(Path path,
+                                 @Nullable LineMatcher matcher,
+                                 @Nullable String continuationToken,
+                                 LogFields fields,
+                                 int count,
+                                 int top,
+                                 Cancellation cancellation) {
+        var groups = new HeavyHitters<List<String>>(maxGroups);
+        var grouped = !fields.names().isEmpty();
+        var values = new String[fields.names().size()];
+        long scanned;
+        boolean complete;
+        try (var ch = open(path, cancellation);
+             var context = scanContexts.acquire()) {
+            var range = ReadRange.parse(continuationToken, ch.size());
+            complete = TailReaderImpl.scan(ch, range.from(), range.to(), 0, initialChunkSize, readahead,
+                    cancellation::isCancelled, context, (line, from, to, lineEnding) -> {
+                    if (from == to || (matcher != null && !matcher.matches(line, from, to))) {
+                        return false;
+                    }
+                    if (grouped) {
+                        fields.extract(line, from, to, values);
+                        groups.add(Arrays.asList(values.clone()));
+                    } else {
+                        groups.add(List.of());
+                    }
+                    return groups.total() >= count;
+                });
+            scanned = context.stats.lines;
+            if (metrics != null) {
+                metrics.recordScan(path, "aggregate", context.stats, (int) groups.total());
+            }
+        } catch (NoSuchFileException e) {
+            throw new TailReaderFileNotFoundException("File not found: " + path, e);
+        } catch (IOException e) {
+            throw new TailReaderIOException("Error reading file: " + path, e);
+        }
+        // The scan stops early when the read is cancelled, and the lines aggregated so far are not the result. A scan
+        // that completed is the result, even if the deadline passed since.
+        if (!complete) {
+            cancellation.throwIfCancelled(path);
+        }
+        var topGroups = grouped
+                ? groups.top(top).stream().map(c -> new Group(c.key(), c.count())).toList()
+                : List.<Group>of();
+        return new Aggregation(groups.total(), scanned, topGroups, groups.maxError());
+    }
+
+    /**
+     * Opens the file, or the decompressed copy of an archive.
+     */
+    private FileChannel open(Path path, Cancellation cancellation) throws IOException {
+        return archiveCache == null || !ArchiveCache.isArchive(path)
+                ? FileChannel.open(path, StandardOpenOption.READ)
+                : archiveCache.open(path, cancellation);
+    }
+}
@@ -0,0 +1,53 @@
+package qlog;
+
+import qlog.exc.TailReaderInvalidFilterException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Extracts fields from the bytes of a line, to aggregate the lines by them (see {@link LogAggregator}). Only the
+ * fields asked for are decoded into Strings, and a line is only read as far as it takes to find them, the rest of
+ * the line is never looked at.
+ * <p>
+ * An instance extracts the fields of one aggregation at a time, it may keep state from one line to the next.
+ */
+public interface LogFields {
+
+    /**
+     * The fields extracted, in the order they are in the values.
+     */
+    List<String> names();
+
+    /**
+     * Extracts the fields of the line between <code>from</code> and <code>to</code> into <code>values</code>, in
+     * the order of {@link #names()}. A field the line doesn't have is null.
+     */
+    void extract(ByteBuffer buf, int from, int to, String[] values);
+
+    /**
+     * The fields of lines in the format:
+     * <ul>
+     *     <li><code>combined</code> - The common or combined log format of web servers, as generated by
+     *     <code>scripts/genlog.py</code>, see {@link CombinedLogFields} for the names of the fields.</li>
+     *     <li><code>json</code> - A JSON object per line, the fields are the names of its top-level members, see
+     *     {@link JsonLogFields}.</li>
+     * </ul>
+     *
+     * @throws TailReaderInvalidFilterException If a field isn't one of the format.
+     */
+    static LogFields of(String format, List<String> names) {
+        return switch (format) {
+            case "combined" -> new CombinedLogFields(names);
+            case "json" -> new JsonLogFields(names);
+            default -> throw new TailReaderInvalidFilterException("Unknown log format: " + format, null);
+        };
+    }
+
+    static String decode(ByteBuffer buf, int from, int to) {
+        var bytes = new byte[to - from];
+        buf.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,402 @@
+package qlog;
+
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+import jakarta.annotation.Nullable;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qlog.exc.TailReaderFileNotFoundException;
+import qlog.exc.TailReaderIOException;
+import qlog.exc.TailReaderOverloadedException;
+import sun.misc.Unsafe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A {@link TailReader} that memory-maps the file in windows, starting at the end of the file, and finds
+ * line-endings by scanning each window backwards a word (8 bytes) at a time.
+ * <p>
+ * Each read has one window mapped at a time, and the reads that have a window are bounded to
+ * <code>qlog.tail.mmap.max-mapped-bytes</code> divided by the window size: a read beyond them waits for another to
+ * finish. A mapping is otherwise only unmapped once its buffer is garbage collected, and the heap can go a long time
+ * without a collection while reads keep mapping windows, up to the OS limit on mappings. So a window is unmapped as
+ * soon as the scan leaves it, and the last one when the read is done, and the mappings of the process are never
+ * more than the windows that are being read.
+ * <p>
+ * Enabled with <code>qlog.tail.engine=mmap</code>.
+ */
+@Singleton
+@Requires(property = "qlog.tail.engine", value = "mmap")
+public class MappedTailReader implements RegionReader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedTailReader.class);
+
+    // Unmaps a window, see Window#unmap.
+    private static final Unsafe UNSAFE;
+
+    static {
+        try {
+            var field = Unsafe.class.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            UNSAFE = (Unsafe) field.get(null);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private static final long DEFAULT_MAX_MAPPED_BYTES = 1L << 30;
+
+    // How long a read waits for another read to release its window.
+    private static final long WINDOW_WAIT_MS = 1000;
+
+    // Cancellation is checked once every 4096 lines, when the lines seen masked with this are 0.
+    private static final long CANCELLATION_CHECK_MASK = 4095;
+
+    private final int windowSize;
+    // A permit per read that may have a window mapped.
+    private final Semaphore windows;
+
+    @Nullable
+    private final LineIndexCache lineIndexCache;
+
+    @Nullable
+    private final TailReaderMetrics metrics;
+
+    public MappedTailReader(int windowSize) {
+        this(windowSize, null);
+    }
+
+    public MappedTailReader(int windowSize, @Nullable LineIndexCache lineIndexCache) {
+        this(windowSize, lineIndexCache, null);
+    }
+
+    public MappedTailReader(int windowSize,
+                            @Nullable LineIndexCache lineIndexCache,
+                            @Nullable TailReaderMetrics metrics) {
+        this(windowSize, DEFAULT_MAX_MAPPED_BYTES, lineIndexCache, metrics);
+    }
+
+    /**
+     * @param maxMappedBytes The bytes of the windows that reads may have mapped at a time.
+     */
+    @Inject
+    public MappedTailReader(@Value("${qlog.tail.mmap.window-size:16777216}") int windowSize,
+                            @Value("${qlog.tail.mmap.max-mapped-bytes:1073741824}") long maxMappedBytes,
+                            @Nullable LineIndexCache lineIndexCache,
+                            @Nullable TailReaderMetrics metrics) {
+        this.windowSize = windowSize;
+        this.windows = new Semaphore((int) Math.max(1, Math.min(Integer.MAX_VALUE, maxMappedBytes / windowSize)));
+        this.lineIndexCache = lineIndexCache;
+        this.metrics = metrics;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ReaderResult getLastNMatchingLines(Path path,
+                                              @Nullable LineMatcher matcher,
+                                              @Nullable String continuationToken,
+                                              int start,
+                                              int count,
+                                              Cancellation cancellation) {
+        var region = new Region(count);
+        var range = ReadRange.parse(null, 0);
+
+        // The debug logging is guarded so that a read doesn't box its arguments when it is off.
+        var debug = LOG.isDebugEnabled();
+        if (debug) {
+            LOG.debug("Reading file at path: {}, filter: {}, lineCount: {}", path, matcher, count);
+        }
+        var startNs = debug ? System.nanoTime() : 0L;
+
+        try (var file = OpenFile.open(path);
+             var window = new Window(file.file(), this.windowSize, windows)) {
+            var ch = file.file();
+            // As with TailReaderImpl, the size is captured once so that bytes appended while we are
+            // reading are not considered.
+            var fileSize = ch.size();
+            if (fileSize > 0) {
+                region.version(FileVersion.of(file.fileId(), ch, fileSize));
+            }
+            range = ReadRange.parse(continuationToken, fileSize);
+            var end = range.to();
+            if (continuationToken != null) {
+                // The token is the byte position of a line-ending, only the bytes before it are left to read (and
+                // only those after the position to stop at, if it has one).
+                start = 0;
+            } else if (lineIndexCache != null && start >= lineIndexCache.stride()) {
+                // Seek straight to the line-ending that precedes the start line.
+                end = lineIndexCache.positionOfLine(path, ch, file.fileId(), fileSize, start);
+                start = 0;
+            }
+            var stats = new ScanStats();
+            scan(window, matcher, range.from(), end, start, count, cancellation::isCancelled, region, stats);
+            record(path, window, stats, region);
+        } catch (IOException e) {
+            throw failure(path, e);
+        } finally {
+            if (debug) {
+                var durationNs = System.nanoTime() - startNs;
+                LOG.debug("Finished reading file at path: {}, duration: {}ms", path, durationNs / 1_000_000);
+            }
+        }
+        // The scan stops early when the read is cancelled, and the lines collected so far are not the result. A scan
+        // that completed is the result, even if the deadline passed since.
+        if (!region.isComplete()) {
+            cancellation.throwIfCancelled(path);
+        }
+        if (debug) {
+            LOG.debug("File at path: {}, {} lines collected", path, region.lines().size());
+        }
+        return region.toResult(count, range);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Region readRegion(Path path,
+                             @Nullable LineMatcher matcher,
+                             long from,
+                             long to,
+                             int count,
+                             BooleanSupplier cancelled) {
+        var region = Region.withLineEndings(count);
+        try (var ch = FileChannel.open(path, StandardOpenOption.READ);
+             var window = new Window(ch, this.windowSize, windows)) {
+            var stats = new ScanStats();
+            scan(window, matcher, from, to, 0, count, cancelled, region, stats);
+            record(path, window, stats, region);
+        } catch (IOException e) {
+            throw failure(path, e);
+        }
+        return region;
+    }
+
+    /**
+     * Collects the lines between <code>from</code> and <code>end</code> into the region, newest first, until
+     * <code>count</code> lines have been collected. The region is marked complete unless the scan was cancelled
+     * first.
+     */
+    private static void scan(Window window,
+                             @Nullable LineMatcher matcher,
+                             long from,
+                             long end,
+                             long start,
+                             int count,
+                             BooleanSupplier cancelled,
+                             Region region,
+                             ScanStats stats) throws IOException {
+        if (cancelled.getAsBoolean()) {
+            return;
+        }
+        // Skip the line-ending at the very end of the region (e.g. the file ends with a line-ending).
+        var lineEnd = end;
+        if (lineEnd > from && window.get(lineEnd - 1) == '\n') {
+            lineEnd -= 1;
+        }
+        // The number of lines between the current line and the end of the region.
+        var linesSeen = 0L;
+        // Lines are matched on the mapped bytes, only the lines that are collected are decoded.
+        while (lineEnd > from) {
+            var lineStart = window.lastIndexOfNewline(lineEnd) + 1;
+            stats.lines += 1;
+            if (linesSeen >= start && lineStart < lineEnd) {
+                if (matcher == null || window.matches(matcher, lineStart, lineEnd)) {
+                    region.add(window.decode(lineStart, lineEnd), lineStart - 1);
+                    if (region.lines().size() >= count) {
+                        break;
+                    }
+                }
+            }
+            linesSeen += 1;
+            if ((linesSeen & CANCELLATION_CHECK_MASK) == 0 && cancelled.getAsBoolean()) {
+                return;
+            }
+            // Step over the line-ending that precedes this line. At the head of the region lineStart
+            // is from and this ends the scan.
+            lineEnd = lineStart - 1;
+        }
+        region.markComplete();
+    }
+
+    private void record(Path path, Window window, ScanStats stats, Region region) {
+        if (metrics != null) {
+            stats.chunks = window.maps;
+            stats.bytes = window.mappedBytes;
+            metrics.recordScan(path, "mmap", stats, region.lines().size());
+        }
+    }
+
+    private static RuntimeException failure(Path path, IOException e) {
+        if (e instanceof NoSuchFileException noSuchFileException) {
+            LOG.debug("File not found: {}", path, noSuchFileException);
+            return new TailReaderFileNotFoundException("File not found: " + path, noSuchFileException);
+        } else {
+            LOG.error("Error reading file: {}", path, e);
+            return new TailReaderIOException("Error reading file: " + path, e);
+        }
+    }
+
+    /**
+     * A read-only mapping of a region of the file that slides backwards through the file as the scan
+     * needs bytes before the region. A read maps one window at a time: the window holds one of the permits of the
+     * reader from its first mapping until it is closed, and each mapping is unmapped as the window slides past it.
+     * <p>
+     * The buffers never escape the window, lines are copied out of them, so nothing reads a buffer once it is
+     * unmapped.
+     */
+    private static final class Window implements AutoCloseable {
+        private final FileChannel ch;
+        private final int size;
+        private final Semaphore permits;
+        private final LineBytes.Decoder decoder = new LineBytes.Decoder();
+        private @Nullable MappedByteBuffer buf;
+        private boolean holdsPermit;
+        private long position;
+        // The windows mapped, and their total size.
+        private int maps;
+        private long mappedBytes;
+
+        Window(FileChannel ch, int size, Semaphore permits) {
+            this.ch = ch;
+            this.size = size;
+            this.permits = permits;
+        }
+
+        byte get(long offset) throws IOException {
+            if (!contains(offset)) {
+                map(offset + 1);
+            }
+            return buf.get((int) (offset - position));
+        }
+
+        /**
+         * The position of the last line-ending before <code>end</code>, or -1 if the line starts at the head
+         * of the file.
+         */
+        long lastIndexOfNewline(long end) throws IOException {
+            if (!contains(end - 1)) {
+                map(end);
+            }
+            var searchEnd = end;
+            while (true) {
+                var i = LineBytes.lastIndexOfNewline(buf, 0, (int) (searchEnd - position));
+                if (i >= 0) {
+                    return position + i;
+                }
+                if (position == 0) {
+                    return -1;
+                }
+                // The line continues before this window. Prefer a window that ends with the line so that the
+                // whole line can be decoded from one window, unless the current window already ends there
+                // (the line is longer than a window).
+                searchEnd = position;
+                map(position + buf.limit() > end ? end : position);
+            }
+        }
+
+        boolean matches(LineMatcher matcher, long from, long to) throws IOException {
+            if (contains(from) && contains(to - 1)) {
+                return matcher.matches(buf, (int) (from - position), (int) (to - position));
+            }
+            return matcher.matches(ByteBuffer.wrap(copy(from, to)), 0, (int) (to - from));
+        }
+
+        /**
+         * Decodes the bytes between <code>from</code> (inclusive) and <code>to</code> (exclusive) from UTF-8
+         * into a String.
+         */
+        String decode(long from, long to) throws IOException {
+            if (contains(from) && contains(to - 1)) {
+                return decoder.decode(buf, (int) (from - position), (int) (to - position));
+            }
+            var bytes = copy(from, to);
+            return decoder.decode(ByteBuffer.wrap(bytes), 0, bytes.length);
+        }
+
+        /**
+         * Copies a line that is longer than a window out of the file window by window, starting at its end.
+         */
+        private byte[] copy(long from, long to) throws IOException {
+            var bytes = new byte[Math.toIntExact(to - from)];
+            var remaining = bytes.length;
+            var end = to;
+            while (remaining > 0) {
+                map(end);
+                var n = (int) Math.min(remaining, end - position);
+                buf.get((int) (end - position) - n, bytes, remaining - n, n);
+                remaining -= n;
+                end -= n;
+            }
+            return bytes;
+        }
+
+        private boolean contains(long offset) {
+            return buf != null && offset >= position && offset < position + buf.limit();
+        }
+
+        /**
+         * Unmaps the window and releases the permit of the read.
+         */
+        @Override
+        public void close() {
+            unmap();
+            if (holdsPermit) {
+                holdsPermit = false;
+                permits.release();
+            }
+        }
+
+        /**
+         * Maps the window that ends at <code>end</code>, dropping the current one.
+         */
+        private void map(long end) throws IOException {
+            unmap();
+            if (!holdsPermit) {
+                acquirePermit();
+            }
+            position = Math.max(0, end - size);
+            buf = ch.map(FileChannel.MapMode.READ_ONLY, position, end - position);
+            maps += 1;
+            mappedBytes += end - position;
+            buf.order(ByteOrder.BIG_ENDIAN);
+        }
+
+        /**
+         * Unmaps the current mapping, if there is one, rather than leave it mapped until its buffer is collected.
+         */
+        private void unmap() {
+            if (buf != null) {
+                var mapped = buf;
+                buf = null;
+                UNSAFE.invokeCleaner(mapped);
+            }
+        }
+
+        private void acquirePermit() {
+            try {
+                if (permits.tryAcquire(WINDOW_WAIT_MS, TimeUnit.MILLISECONDS)) {
+                    holdsPermit = true;
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw new TailReaderOverloadedException("Too many reads of mapped files", true);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package qlog;
+
+import jakarta.annotation.Nullable;
+
+import java.nio.file.Path;
+
+/**
+ * A {@link TailReader} that records the duration and outcome of every read, see {@link TailReaderMetrics}.
+ */
+public class MeteredTailReader implements TailReader {
+
+    private final TailReader reader;
+    private final TailReaderMetrics metrics;
+
+    public MeteredTailReader(TailReader reader, TailReaderMetrics metrics) {
+        this.reader = reader;
+        this.metrics = metrics;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ReaderResult getLastNMatchingLines(Path path,
+                                              @Nullable LineMatcher matcher,
+                                              @Nullable String continuationToken,
+                                              int start,
+                                              int count,
+                                              Cancellation cancellation) {
+        var startNs = System.nanoTime();
+        try {
+            var result = reader.getLastNMatchingLines(path, matcher, continuationToken, start, count, cancellation);
+            metrics.recordRead(path, matcher, continuationToken, System.nanoTime() - startNs, result, null);
+            return result;
+        } catch (RuntimeException e) {
+            metrics.recordRead(path, matcher, continuationToken, System.nanoTime() - startNs, null, e);
+            throw e;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package qlog;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Matches lines that contain all (or any) of a set of terms, finding every term in a single pass over the bytes of
+ * the line with an Aho-Corasick automaton.
+ * <p>
+ * The automaton is a trie of the UTF-8 bytes of the terms, with the transitions that do not continue a term
+ * following the failure links ahead of time, so that each byte of the line is a single table lookup. Bytes that do
+ * not occur in any term share one column of the table, which keeps it small.
+ */
+final class MultiTermMatcher implements LineMatcher {
+
+    /**
+     * The most terms a matcher can have, each term is a bit of a long.
+     */
+    static final int MAX_TERMS = Long.SIZE;
+
+    private final List<String> terms;
+    private final boolean all;
+    // The column of the table for each byte value, 0 for bytes that do not occur in any term.
+    private final int[] columns = new int[256];
+    private final int columnCount;
+    // The next state for each state and column, at state * columnCount + column.
+    private final int[] transitions;
+    // The terms that end at each state, including those that end at the states of its failure links.
+    private final long[] outputs;
+    private final long allTerms;
+
+    MultiTermMatcher(List<String> terms, boolean all) {
+        if (terms.size() > MAX_TERMS) {
+            throw new IllegalArgumentException("At most " + MAX_TERMS + " terms can be matched");
+        }
+        this.terms = List.copyOf(terms);
+        this.all = all;
+        this.allTerms = terms.size() == MAX_TERMS ? -1L : (1L << terms.size()) - 1;
+
+        var patterns = terms.stream().map(term -> term.getBytes(StandardCharsets.UTF_8)).toList();
+        var columnCount = 1;
+        for (var pattern : patterns) {
+            for (var b : pattern) {
+                if (columns[b & 0xFF] == 0) {
+                    columns[b & 0xFF] = columnCount++;
+                }
+            }
+        }
+        this.columnCount = columnCount;
+
+        // Build the trie, with -1 for the transitions that do not continue a term.
+        var children = new ArrayList<int[]>();
+        var outputs = new ArrayList<Long>();
+        children.add(newState(columnCount));
+        outputs.add(0L);
+        for (int t = 0; t < patterns.size(); t++) {
+            var state = 0;
+            for (var b : patterns.get(t)) {
+                var column = columns[b & 0xFF];
+                if (children.get(state)[column] < 0) {
+                    children.get(state)[column] = children.size();
+                    children.add(newState(columnCount));
+                    outputs.add(0L);
+                }
+                state = children.get(state)[column];
+            }
+            outputs.set(state, outputs.get(state) | (1L << t));
+        }
+
+        // Breadth first, so that the failure link of a state is complete before the states after it.
+        this.transitions = new int[children.size() * columnCount];
+        this.outputs = new long[children.size()];
+        var failures = new int[children.size()];
+        var queue = new ArrayDeque<Integer>();
+        this.outputs[0] = outputs.get(0);
+        for (int column = 0; column < columnCount; column++) {
+            var child = children.get(0)[column];
+            if (child < 0) {
+                transitions[column] = 0;
+            } else {
+                transitions[column] = child;
+                failures[child] = 0;
+                queue.add(child);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            this.outputs[state] = outputs.get(state) | this.outputs[failures[state]];
+            for (int column = 0; column < columnCount; column++) {
+                var child = children.get(state)[column];
+                var fallback = transitions[failures[state] * columnCount + column];
+                if (child < 0) {
+                    transitions[state * columnCount + column] = fallback;
+                } else {
+                    transitions[state * columnCount + column] = child;
+                    failures[child] = fallback;
+                    queue.add(child);
+                }
+            }
+        }
+    }
+
+    private static int[] newState(int columnCount) {
+        var state = new int[columnCount];
+        Arrays.fill(state, -1);
+        return state;
+    }
+
+    @Override
+    public boolean matches(ByteBuffer buf, int from, int to) {
+        // An empty term is found before the first byte.
+        var found = outputs[0];
+        if (isMatch(found)) {
+            return true;
+        }
+        var state = 0;
+        for (int i = from; i < to; i++) {
+            state = transitions[state * columnCount + columns[buf.get(i) & 0xFF]];
+            found |= outputs[state];
+            if (isMatch(found)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean matches(String line) {
+        return all
+                ? terms.stream().allMatch(line::contains)
+                : terms.stream().anyMatch(line::contains);
+    }
+
+    @Override
+    public List<List<String>> requiredLiterals() {
+        return all ? List.of(terms) : terms.stream().map(List::of).toList();
+    }
+
+    @Override
+    public String toString() {
+        return (all ? "all" : "any") + terms;
+    }
+
+    private boolean isMatch(long found) {
+        return all ? found == allTerms : found != 0;
+    }
+}
@@ -0,0 +1,81 @@
+package qlog;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A file opened for reading, with the id of the file that was opened (see {@link ContinuationTokens#fileId}).
+ * <p>
+ * The JDK doesn't give the file key of an open file, only that of a path, and the file at the path may be replaced
+ * (e.g. rotated) after the file is opened, so the file key of the path read after opening it may be that of another
+ * file. Instead the file key of the path is read both before and after the file is opened: when both are the same
+ * the file opened in between is that file, since a rotation only ever moves a file away from its path. When they
+ * differ the file is opened again.
+ *
+ * @param file   The open file.
+ * @param fileId The id of the file.
+ */
+public record OpenFile<T extends Closeable>(T file, long fileId) implements Closeable {
+
+    // A file rotated every time it is opened is being replaced continuously, which is an error.
+    private static final int ATTEMPTS = 3;
+
+    /**
+     * Opens a file.
+     */
+    @FunctionalInterface
+    public interface Opener<T extends Closeable> {
+        T open(Path path) throws IOException;
+    }
+
+    /**
+     * Opens a channel to read the file.
+     *
+     * @throws java.nio.file.NoSuchFileException If the file doesn't exist.
+     */
+    public static OpenFile<FileChannel> open(Path path) throws IOException {
+        return open(path, p -> FileChannel.open(p, StandardOpenOption.READ));
+    }
+
+    /**
+     * Opens the file with the opener.
+     *
+     * @throws java.nio.file.NoSuchFileException If the file doesn't exist.
+     */
+    public static <T extends Closeable> OpenFile<T> open(Path path, Opener<T> opener) throws IOException {
+        for (int attempt = 1; ; attempt++) {
+            var before = fileId(path);
+            var file = opener.open(path);
+            try {
+                if (fileId(path) == before) {
+                    return new OpenFile<>(file, before);
+                }
+            } catch (IOException | RuntimeException e) {
+                try {
+                    file.close();
+                } catch (IOException closeFailure) {
+                    e.addSuppressed(closeFailure);
+                }
+                throw e;
+            }
+            file.close();
+            if (attempt == ATTEMPTS) {
+                throw new IOException("File at path: " + path + " was replaced each time it was opened");
+            }
+        }
+    }
+
+    private static long fileId(Path path) throws IOException {
+        return ContinuationTokens.fileId(Files.readAttributes(path, BasicFileAttributes.class));
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
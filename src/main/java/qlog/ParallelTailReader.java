@@ -0,0 +1,197 @@
+package qlog;
+
+import jakarta.annotation.Nullable;
+import qlog.exc.TailReaderIOException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * A {@link TailReader} that reads filtered requests on large files in parallel. The region of the file to read is
+ * split into up to <code>qlog.tail.parallel.max-threads</code> segments of at least
+ * <code>qlog.tail.parallel.min-segment-size</code> bytes, each ending at a line-ending, and the segments are read
+ * concurrently on virtual threads by the engine.
+ * <p>
+ * The lines of the segments are merged newest first, starting with the segment at the end of the region. As soon
+ * as a segment and the segments after it that are done have collected <code>count</code> lines between them, the
+ * segments before it can't contribute any lines and are cancelled, even while segments after it are still being
+ * read. The lines and the continuation token are the same as reading the region sequentially, since each segment
+ * keeps the position of the line-ending before each of its lines.
+ * <p>
+ * Reads without a filter are satisfied by the lines nearest the end of the file, and reads that skip
+ * <code>start</code> lines have to count every line before the start line, so both are read sequentially.
+ */
+public class ParallelTailReader implements TailReader {
+
+    private static final int ALIGN_READ_SIZE = 8192;
+
+    private final RegionReader reader;
+    private final int maxThreads;
+    private final long minSegmentSize;
+    private final ExecutorService executor = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("qlog-segment-", 0).factory());
+
+    public ParallelTailReader(RegionReader reader, int maxThreads, long minSegmentSize) {
+        this.reader = reader;
+        this.maxThreads = maxThreads;
+        this.minSegmentSize = minSegmentSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ReaderResult getLastNMatchingLines(Path path,
+                                              @Nullable LineMatcher matcher,
+                                              @Nullable String continuationToken,
+                                              int start,
+                                              int count,
+                                              Cancellation cancellation) {
+        if (matcher == null || (continuationToken == null && start > 0)) {
+            return reader.getLastNMatchingLines(path, matcher, continuationToken, start, count, cancellation);
+        }
+        List<Long> boundaries;
+        ReadRange range;
+        FileVersion version;
+        try (var file = OpenFile.open(path)) {
+            var ch = file.file();
+            // The segments are read with channels of their own, the continuation token is a position in the file
+            // as it was split.
+            version = FileVersion.of(file.fileId(), ch, ch.size());
+            range = ReadRange.parse(continuationToken, version.size());
+            var segments = (int) Math.min(maxThreads, (range.to() - range.from()) / minSegmentSize);
+            if (segments <= 1) {
+                return reader.getLastNMatchingLines(path, matcher, continuationToken, start, count, cancellation);
+            }
+            boundaries = boundaries(ch, range, segments);
+        } catch (IOException e) {
+            // Let the reader fail with the same exception it would have reading sequentially.
+            return reader.getLastNMatchingLines(path, matcher, continuationToken, start, count, cancellation);
+        }
+        return read(path, matcher, range, boundaries, version, count, cancellation);
+    }
+
+    /**
+     * Reads the segments between the boundaries concurrently and merges their lines.
+     */
+    private ReaderResult read(Path path,
+                              @Nullable LineMatcher matcher,
+                              ReadRange range,
+                              List<Long> boundaries,
+                              FileVersion version,
+                              int count,
+                              Cancellation cancellation) {
+        var segments = boundaries.size() - 1;
+        // Segments before this one are no longer needed.
+        var firstNeeded = new AtomicInteger(0);
+        // The number of lines of each segment that is done, 0 until it is.
+        var collected = new AtomicIntegerArray(segments);
+        var futures = new ArrayList<Future<RegionReader.Region>>(segments);
+        for (int i = 0; i < segments; i++) {
+            var segment = i;
+            // A segment starts after the line-ending that ends the segment before it.
+            var from = segment == 0 ? range.from() : boundaries.get(segment) + 1;
+            var to = boundaries.get(segment + 1);
+            futures.add(executor.submit(() -> {
+                var region = reader.readRegion(path, matcher, from, to, count,
+                        () -> segment < firstNeeded.get() || cancellation.isCancelled());
+                collected.set(segment, region.lines().size());
+                firstNeeded.accumulateAndGet(firstNeeded(collected, count), Math::max);
+                return region;
+            }));
+        }
+        var lines = new ArrayList<String>();
+        try {
+            for (int i = segments - 1; i >= 0; i--) {
+                var region = futures.get(i).get();
+                // A cancelled segment stops early, so its lines are incomplete. A segment that completed is merged
+                // even if the deadline passed since.
+                if (!region.isComplete()) {
+                    cancellation.throwIfCancelled(path);
+                }
+                for (int j = 0; j < region.lines().size(); j++) {
+                    lines.add(region.lines().get(j));
+                    if (lines.size() >= count) {
+                        var lineEnding = region.lineEnding(j);
+                        return new ReaderResult(lines, range.isHead(lineEnding)
+                                ? Optional.empty()
+                                : Optional.of(String.valueOf(lineEnding)), version);
+                    }
+                }
+            }
+            return new ReaderResult(lines, Optional.empty(), version);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TailReaderIOException("Interrupted reading file: " + path, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new TailReaderIOException("Error reading file: " + path, e.getCause());
+        } finally {
+            // Stop the segments that are still reading when the result is complete or the read failed.
+            firstNeeded.set(segments);
+        }
+    }
+
+    /**
+     * The oldest segment that can still contribute lines, the segment from which the segments that are done have
+     * collected <code>count</code> lines. The segments before it are no longer needed.
+     */
+    private static int firstNeeded(AtomicIntegerArray collected, int count) {
+        var lines = 0;
+        for (int i = collected.length() - 1; i >= 0; i--) {
+            lines += collected.get(i);
+            if (lines >= count) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Splits the bytes of the range into segments of about the same size. The boundaries are the start of the
+     * range, the position of the first line-ending after each split point, and the end of the range. A split point
+     * without a line-ending before the next split point is dropped, so there may be fewer segments.
+     */
+    private static List<Long> boundaries(FileChannel ch, ReadRange range, int segments) throws IOException {
+        var boundaries = new ArrayList<Long>(segments + 1);
+        boundaries.add(range.from());
+        var end = range.to();
+        var segmentSize = (end - range.from()) / segments;
+        var bb = ByteBuffer.allocate(ALIGN_READ_SIZE);
+        for (int i = 1; i < segments; i++) {
+            var position = Math.max(range.from() + segmentSize * i, boundaries.getLast() + 1);
+            var limit = Math.min(end, range.from() + segmentSize * (i + 1));
+            var lineEnding = -1L;
+            while (lineEnding < 0 && position < limit) {
+                bb.clear().limit((int) Math.min(ALIGN_READ_SIZE, limit - position));
+                var n = ch.read(bb, position);
+                if (n <= 0) break;
+                for (int j = 0; j < n; j++) {
+                    if (bb.get(j) == '\n') {
+                        lineEnding = position + j;
+                        break;
+                    }
+                }
+                position += n;
+            }
+            if (lineEnding >= 0) {
+                boundaries.add(lineEnding);
+            }
+        }
+        boundaries.add(end);
+        return boundaries;
+    }
+}
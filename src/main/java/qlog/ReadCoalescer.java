@@ -0,0 +1,188 @@
+package qlog;
+
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+import jakarta.annotation.Nullable;
+import jakarta.inject.Singleton;
+import qlog.exc.TailReaderIOException;
+import qlog.exc.TailReaderTimeoutException;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Shares one read between identical requests for the same file that are in flight at the same time (single
+ * flight), e.g. everyone looking at the same log during an incident. The first request reads the file and the
+ * requests that arrive while it is reading wait for its result instead of reading the file again.
+ * <p>
+ * Requests are identical when they have the same path, matcher, continuation token, start and count, and the file
+ * has the same identity, size and modification time, so a request never gets the result of a read of an older
+ * version of the file. With <code>qlog.tail.coalesce.result-ttl</code> (milliseconds) above 0, a result is also
+ * kept for that long after the read completes and served to identical requests, which is only as stale as the
+ * resolution of the modification time.
+ */
+@Singleton
+@Requires(property = "qlog.tail.coalesce.enabled", notEquals = "false")
+public class ReadCoalescer {
+
+    // How often a waiting request checks whether it was cancelled itself.
+    private static final long CANCELLATION_POLL_MS = 50;
+
+    private final long resultTtlNs;
+
+    private final ConcurrentHashMap<Key, Flight> flights = new ConcurrentHashMap<>();
+
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder cached = new LongAdder();
+
+    public ReadCoalescer(@Value("${qlog.tail.coalesce.result-ttl:0}") long resultTtlMs) {
+        this.resultTtlNs = TimeUnit.MILLISECONDS.toNanos(resultTtlMs);
+    }
+
+    /**
+     * Gets the result of the read identified by the key, reading it with <code>read</code> unless an identical
+     * read is in flight (or its result is still cached).
+     * <p>
+     * A request waiting for another request's read stops waiting when its own cancellation is cancelled. If the
+     * read it was waiting for was cancelled instead (e.g. the client of the first request went away) the waiting
+     * request reads the file itself.
+     */
+    TailReader.ReaderResult get(Key key, Cancellation cancellation, Supplier<TailReader.ReaderResult> read) {
+        while (true) {
+            var flight = new Flight();
+            var existing = flights.putIfAbsent(key, flight);
+            if (existing != null && existing.isExpired()) {
+                flights.remove(key, existing);
+                continue;
+            }
+            if (existing == null) {
+                return lead(key, flight, read);
+            }
+            if (existing.isCached()) {
+                cached.increment();
+            } else {
+                coalesced.increment();
+            }
+            try {
+                return await(key.path(), existing.future, cancellation);
+            } catch (TailReaderTimeoutException e) {
+                if (cancellation.isCancelled()) {
+                    throw e;
+                }
+                // The read was cancelled by the request that started it, start another one.
+                flights.remove(key, existing);
+            }
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(reads.sum(), coalesced.sum(), cached.sum(), flights.size());
+    }
+
+    /**
+     * @param reads     Requests that read the file.
+     * @param coalesced Requests that shared the result of an identical read in flight instead of reading the file.
+     * @param cached    Requests served a result that was still cached after its read completed.
+     * @param flights   Reads in flight or cached.
+     */
+    public record Stats(long reads, long coalesced, long cached, int flights) {
+    }
+
+    private TailReader.ReaderResult lead(Key key, Flight flight, Supplier<TailReader.ReaderResult> read) {
+        reads.increment();
+        try {
+            var result = read.get();
+            // The result is shared between requests, so none of them can change the lines.
+            result = new TailReader.ReaderResult(Collections.unmodifiableList(result.lines()),
+                    result.continuationToken(), result.version());
+            flight.future.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            flight.future.completeExceptionally(e);
+            throw e;
+        } finally {
+            if (resultTtlNs > 0 && !flight.future.isCompletedExceptionally()) {
+                flight.expiresNs = System.nanoTime() + resultTtlNs;
+                // Drop the other results that have expired, so that results are not kept for files that are
+                // not read again.
+                flights.values().removeIf(Flight::isExpired);
+            } else {
+                flights.remove(key, flight);
+            }
+        }
+    }
+
+    private static TailReader.ReaderResult await(Path path,
+                                                 CompletableFuture<TailReader.ReaderResult> future,
+                                                 Cancellation cancellation) {
+        try {
+            while (true) {
+                try {
+                    return future.get(CANCELLATION_POLL_MS, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    cancellation.throwIfCancelled(path);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TailReaderIOException("Interrupted reading file: " + path, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new TailReaderIOException("Error reading file: " + path, e.getCause());
+        }
+    }
+
+    /**
+     * Identifies a read of a version of a file. Matchers are compared by identity, requests with the same filter
+     * share the same matcher from the {@link LineMatcherCache}.
+     */
+    record Key(Path path,
+               @Nullable Object fileKey,
+               long size,
+               FileTime modified,
+               @Nullable LineMatcher matcher,
+               @Nullable String continuationToken,
+               int start,
+               int count) {
+
+        static Key of(Path path,
+                      BasicFileAttributes attributes,
+                      @Nullable LineMatcher matcher,
+                      @Nullable String continuationToken,
+                      int start,
+                      int count) {
+            return new Key(path, attributes.fileKey(), attributes.size(), attributes.lastModifiedTime(),
+                    matcher,
+                    continuationToken,
+                    // As with the readers, the start is ignored when continuing from a token.
+                    continuationToken == null ? start : 0,
+                    count);
+        }
+    }
+
+    private static final class Flight {
+        private final CompletableFuture<TailReader.ReaderResult> future = new CompletableFuture<>();
+        // Set once the read has completed, when results are cached.
+        private volatile long expiresNs = Long.MAX_VALUE;
+
+        boolean isCached() {
+            return expiresNs != Long.MAX_VALUE;
+        }
+
+        boolean isExpired() {
+            return expiresNs != Long.MAX_VALUE && System.nanoTime() - expiresNs >= 0;
+        }
+    }
+}
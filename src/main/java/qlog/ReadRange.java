@@ -0,0 +1,59 @@
+package qlog;
+
+import jakarta.annotation.Nullable;
+
+/**
+ * The bytes of a file a read covers, as given by the continuation token passed to a reader. The token is the
+ * position of a line-ending, only the bytes before it are read, and it may be preceded by the position of the
+ * first byte of a line and a '-', only the bytes from there on are read. E.g. <code>1048576</code> reads the
+ * lines before position 1048576, <code>4096-1048576</code> stops at position 4096 and <code>4096-</code> reads
+ * from the end of the file down to 4096 (see {@link TimeRangeSeek}).
+ * <p>
+ * The continuation tokens the readers return are always a single position: a client continues a read with a
+ * lower bound by passing it again, with the new position.
+ *
+ * @param from The position of the first byte to read, 0 or the byte after a line-ending.
+ * @param to   The position of a line-ending, or the size of the file, the bytes before it are read.
+ */
+public record ReadRange(long from, long to) {
+
+    /**
+     * Parses the continuation token, null (reading the whole file from its end) is the range of the whole file.
+     *
+     * @throws NumberFormatException If the token is not a range.
+     */
+    static ReadRange parse(@Nullable String continuationToken, long fileSize) {
+        if (continuationToken == null) {
+            return new ReadRange(0, fileSize);
+        }
+        var separator = continuationToken.indexOf('-');
+        var from = separator < 0 ? 0 : Long.parseLong(continuationToken.substring(0, separator));
+        var to = continuationToken.substring(separator + 1);
+        return new ReadRange(from, to.isEmpty() ? fileSize : Math.min(Long.parseLong(to), fileSize));
+    }
+
+    /**
+     * The continuation token of the range, or of the range from <code>from</code> to the end of the file if
+     * <code>to</code> is null.
+     */
+    @Nullable
+    static String token(long from, @Nullable Long to) {
+        var end = to == null ? "" : String.valueOf(to);
+        return from == 0 ? (to == null ? null : end) : from + "-" + end;
+    }
+
+    /**
+     * The continuation token that reads the range, or the rest of it from the position returned by a previous read
+     * of the range.
+     */
+    public String continuationToken(@Nullable String position) {
+        return from + "-" + (position == null ? String.valueOf(to) : position);
+    }
+
+    /**
+     * Whether a line with the line-ending at <code>lineEnding</code> before it is the oldest line in the range.
+     */
+    boolean isHead(long lineEnding) {
+        return lineEnding <= Math.max(0, from - 1);
+    }
+}
@@ -0,0 +1,184 @@
+package qlog;
+
+import jakarta.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Matches lines that contain a match of a regular expression.
+ * <p>
+ * Running the expression means decoding the line, so when every match of the expression must contain a literal
+ * (e.g. "timeout" in <code>user=\d+ timeout after \d+ms</code>) the bytes of the line are searched for the literal
+ * first, and only the lines that contain it are decoded and matched with the expression.
+ */
+final class RegexMatcher implements LineMatcher {
+
+    private final Pattern pattern;
+    @Nullable
+    private final LineMatcher prefilter;
+
+    RegexMatcher(Pattern pattern) {
+        this.pattern = pattern;
+        var literal = requiredLiteral(pattern.pattern());
+        this.prefilter = literal.isEmpty() ? null : LineMatcher.literal(literal);
+    }
+
+    @Override
+    @Nullable
+    public List<List<String>> requiredLiterals() {
+        return prefilter == null ? null : prefilter.requiredLiterals();
+    }
+
+    @Override
+    public boolean matches(ByteBuffer buf, int from, int to) {
+        if (prefilter != null && !prefilter.matches(buf, from, to)) {
+            return false;
+        }
+        String line;
+        if (buf.hasArray()) {
+            line = new String(buf.array(), buf.arrayOffset() + from, to - from, StandardCharsets.UTF_8);
+        } else {
+            var bytes = new byte[to - from];
+            buf.get(from, bytes);
+            line = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return matches(line);
+    }
+
+    @Override
+    public boolean matches(String line) {
+        return pattern.matcher(line).find();
+    }
+
+    @Override
+    public String toString() {
+        return "regex[" + pattern + "]";
+    }
+
+    /**
+     * Finds the longest literal that every match of the expression contains, or an empty String when there isn't
+     * one that can be found simply.
+     * <p>
+     * Only the top level of the expression is considered, a run of literal characters is ended by anything else
+     * (groups, classes, escapes such as <code>\d</code> or <code>\x20</code> along with all of their characters,
+     * <code>.</code>, anchors and quantifiers). A character made
+     * optional by a quantifier is dropped from the run. Expressions with alternation at the top level, or with
+     * inline flags (which may make the match case-insensitive), have no required literal.
+     */
+    static String requiredLiteral(String regex) {
+        if (regex.contains("(?") || regex.contains("\\Q")) {
+            return "";
+        }
+        var longest = "";
+        var run = new StringBuilder();
+        var depth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            var c = regex.charAt(i);
+            switch (c) {
+                case '\\' -> {
+                    i += 1;
+                    if (i < regex.length() && !Character.isLetterOrDigit(regex.charAt(i))) {
+                        if (depth == 0) {
+                            // An escaped punctuation character matches itself.
+                            run.append(regex.charAt(i));
+                            continue;
+                        }
+                    } else {
+                        // Any other escape ends the run, along with the characters it is made of.
+                        i = endOfEscape(regex, i);
+                    }
+                }
+                case '[' -> {
+                    // Skip the class, a ']' straight after the opening bracket (or its negation) is a member.
+                    var j = i + 1;
+                    if (j < regex.length() && regex.charAt(j) == '^') j++;
+                    if (j < regex.length() && regex.charAt(j) == ']') j++;
+                    while (j < regex.length() && regex.charAt(j) != ']') {
+                        if (regex.charAt(j) == '\\') j++;
+                        j++;
+                    }
+                    i = j;
+                }
+                case '(' -> depth += 1;
+                case ')' -> depth -= 1;
+                case '|' -> {
+                    if (depth == 0) {
+                        return "";
+                    }
+                }
+                case '?', '*', '{' -> {
+                    // The preceding character may not occur at all.
+                    if (!run.isEmpty()) {
+                        var dropped = Character.isLowSurrogate(run.charAt(run.length() - 1)) ? 2 : 1;
+                        run.setLength(Math.max(0, run.length() - dropped));
+                    }
+                    if (c == '{') {
+                        while (i < regex.length() && regex.charAt(i) != '}') i++;
+                    }
+                }
+                case '+', '.', '^', '$' -> {
+                    // '+' keeps the preceding character, but a repeat of it separates the run from what follows.
+                }
+                default -> {
+                    if (depth == 0) {
+                        run.append(c);
+                        continue;
+                    }
+                }
+            }
+            if (run.length() > longest.length()) {
+                longest = run.toString();
+            }
+            run.setLength(0);
+        }
+        return run.length() > longest.length() ? run.toString() : longest;
+    }
+
+    /**
+     * The index of the last character of the escape sequence whose letter or digit is at <code>i</code>, e.g. the
+     * last hex digit of <code>\x20</code> or the closing brace of <code>\p{Lu}</code>.
+     */
+    private static int endOfEscape(String regex, int i) {
+        if (i >= regex.length()) {
+            return i;
+        }
+        var c = regex.charAt(i);
+        var next = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+        return switch (c) {
+            case 'x' -> next == '{' ? closing(regex, i + 1, '}') : Math.min(i + 2, regex.length() - 1);
+            case 'u' -> Math.min(i + 4, regex.length() - 1);
+            case 'c' -> Math.min(i + 1, regex.length() - 1);
+            case 'p', 'P' -> next == '{' ? closing(regex, i + 1, '}') : Math.min(i + 1, regex.length() - 1);
+            case 'N', 'b' -> next == '{' ? closing(regex, i + 1, '}') : i;
+            case 'k' -> next == '<' ? closing(regex, i + 1, '>') : i;
+            case '0' -> {
+                // Up to 3 octal digits.
+                var j = i;
+                while (j + 1 < regex.length() && j - i < 3
+                        && regex.charAt(j + 1) >= '0' && regex.charAt(j + 1) <= '7') {
+                    j++;
+                }
+                yield j;
+            }
+            default -> {
+                // A back reference is followed by the rest of the digits of the group number.
+                var j = i;
+                if (Character.isDigit(c)) {
+                    while (j + 1 < regex.length() && Character.isDigit(regex.charAt(j + 1))) j++;
+                }
+                yield j;
+            }
+        };
+    }
+
+    /**
+     * The index of the first <code>close</code> after <code>from</code>, or the last index if there is none.
+     */
+    private static int closing(String regex, int from, char close) {
+        var j = regex.indexOf(close, from);
+        return j < 0 ? regex.length() - 1 : j;
+    }
+}
@@ -0,0 +1,129 @@
+package qlog;
+
+import jakarta.annotation.Nullable;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A {@link TailReader} engine that can read the lines of a region of a file, so that the regions of a large file
+ * can be read in parallel, see {@link ParallelTailReader}.
+ */
+interface RegionReader extends TailReader {
+
+    /**
+     * Reads the last lines that match from the region of the file between <code>from</code> (inclusive) and
+     * <code>to</code> (exclusive), newest first, the same as reading with a continuation token of <code>to</code>
+     * but stopping at <code>from</code>.
+     *
+     * @param from      The position of the first byte of a line, 0 or the byte after a line-ending.
+     * @param to        The position of a line-ending, or the size of the file.
+     * @param cancelled Checked while reading, the region is read no further once it returns true.
+     */
+    Region readRegion(Path path, @Nullable LineMatcher matcher, long from, long to, int count, BooleanSupplier cancelled);
+
+    /**
+     * The lines read from a region and the position of the line-ending before each line, which is the continuation
+     * token to read the lines before it. The line at the head of the file has no line-ending before it (-1).
+     * <p>
+     * The positions are kept in a <code>long[]</code> rather than boxed, and only a region that is merged with
+     * others ({@link #readRegion}) keeps the position of every line, a read only needs the last.
+     */
+    final class Region {
+        private final List<String> lines;
+        @Nullable
+        private long[] lineEndings;
+        private long lastLineEnding = -1;
+        // Whether the region was read until it had its lines or to its head, rather than stopped early.
+        private boolean complete;
+        @Nullable
+        private FileVersion version;
+
+        /**
+         * A region that keeps only the position of the line-ending before its last line.
+         *
+         * @param count The number of lines the region is read for.
+         */
+        Region(int count) {
+            this(count, false);
+        }
+
+        private Region(int count, boolean keepLineEndings) {
+            // Sized for the lines up front, but not for a large count that may not be reached.
+            var capacity = Math.min(count, 1024);
+            this.lines = new ArrayList<>(capacity);
+            this.lineEndings = keepLineEndings ? new long[Math.max(capacity, 1)] : null;
+        }
+
+        /**
+         * A region that keeps the position of the line-ending before each of its lines.
+         */
+        static Region withLineEndings(int count) {
+            return new Region(count, true);
+        }
+
+        List<String> lines() {
+            return lines;
+        }
+
+        /**
+         * The position of the line-ending before the line at <code>index</code>, for a region that keeps them.
+         */
+        long lineEnding(int index) {
+            return lineEndings[index];
+        }
+
+        /**
+         * Whether the region was read until it had the lines it was read for, or to its head. A region that was
+         * stopped early (e.g. because the read was cancelled) may be missing lines.
+         */
+        boolean isComplete() {
+            return complete;
+        }
+
+        void markComplete() {
+            complete = true;
+        }
+
+        /**
+         * Sets the file the region was read from, as of when it was opened, see {@link TailReader.ReaderResult}.
+         */
+        void version(FileVersion version) {
+            this.version = version;
+        }
+
+        void add(String line, long lineEnding) {
+            if (lineEndings != null) {
+                if (lines.size() == lineEndings.length) {
+                    lineEndings = Arrays.copyOf(lineEndings, lineEndings.length * 2);
+                }
+                lineEndings[lines.size()] = lineEnding;
+            }
+            lines.add(line);
+            lastLineEnding = lineEnding;
+        }
+
+        /**
+         * The result of reading <code>count</code> lines. A token is only issued when <code>count</code> lines were
+         * read and there are bytes before the line-ending of the last line.
+         */
+        TailReader.ReaderResult toResult(int count) {
+            return toResult(count, new ReadRange(0, 0));
+        }
+
+        /**
+         * The result of reading <code>count</code> lines of the range, no token is issued once the oldest line of
+         * the range has been read.
+         */
+        TailReader.ReaderResult toResult(int count, ReadRange range) {
+            if (lines.size() >= count && !range.isHead(lastLineEnding)) {
+                return new TailReader.ReaderResult(lines, Optional.of(String.valueOf(lastLineEnding)), version);
+            }
+            return new TailReader.ReaderResult(lines, Optional.empty(), version);
+        }
+    }
+}
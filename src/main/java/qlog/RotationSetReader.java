@@ -0,0 +1,113 @@
+package qlog;
+
+import jakarta.annotation.Nullable;
+import qlog.exc.TailReaderIOException;
+import qlog.exc.TailReaderInvalidTokenException;
+import qlog.exc.TailReaderStaleTokenException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Optional;
+
+/**
+ * A {@link TailReader} that reads a file and its rotated generations as one stream of lines, newest first: the
+ * live file (e.g. <code>access.log</code>), then <code>access.log.1</code>, <code>access.log.2.gz</code> and so
+ * on, as kept by logrotate. A generation may be compressed or not, compressed generations are read by the
+ * {@link ArchiveTailReader}. The generations end at the first one that doesn't exist.
+ * <p>
+ * The continuation token of a generation other than the live file is prefixed with the generation, e.g.
+ * <code>2:1024</code> continues from position 1024 of the second generation, and <code>2:</code> from its end.
+ * The token of the live file is the same as reading the live file on its own. Since logrotate renames every
+ * generation when it rotates, a token is only good until the next rotation.
+ * <p>
+ * <code>start</code> only skips lines of the live file.
+ */
+public class RotationSetReader implements TailReader {
+
+    private final TailReader reader;
+
+    public RotationSetReader(TailReader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public ReaderResult getLastNMatchingLines(Path path,
+                                              @Nullable LineMatcher matcher,
+                                              @Nullable String continuationToken,
+                                              int start,
+                                              int count,
+                                              Cancellation cancellation) {
+        var generation = 0;
+        var token = continuationToken;
+        if (continuationToken != null && continuationToken.contains(":")) {
+            var separator = continuationToken.indexOf(':');
+            try {
+                generation = Integer.parseInt(continuationToken.substring(0, separator));
+            } catch (NumberFormatException e) {
+                throw new TailReaderInvalidTokenException("Invalid continuation token: " + continuationToken, e);
+            }
+            token = separator == continuationToken.length() - 1 ? null : continuationToken.substring(separator + 1);
+        }
+        var lines = new ArrayList<String>();
+        var file = generation(path, generation);
+        FileVersion version = null;
+        while (file != null) {
+            var result = reader.getLastNMatchingLines(file, matcher, token,
+                    generation == 0 ? start : 0, count - lines.size(), cancellation);
+            lines.addAll(result.lines());
+            if (result.continuationToken().isPresent()) {
+                var prefix = generation == 0 ? "" : generation + ":";
+                return new ReaderResult(lines, result.continuationToken().map(position -> prefix + position),
+                        result.version());
+            }
+            version = result.version();
+            generation += 1;
+            file = generation(path, generation);
+            token = null;
+            if (lines.size() >= count) {
+                // The generation is complete, the next read starts at the end of the next older generation.
+                return file == null
+                        ? new ReaderResult(lines, Optional.empty(), version)
+                        : new ReaderResult(lines, Optional.of(generation + ":"), version(file));
+            }
+        }
+        return new ReaderResult(lines, Optional.empty(), version);
+    }
+
+    /**
+     * The generation as it is now, the token of a read that continues from its end is issued for it before it is
+     * read.
+     */
+    private static FileVersion version(Path file) {
+        try (var opened = OpenFile.open(file)) {
+            var ch = opened.file();
+            return FileVersion.of(opened.fileId(), ch, ch.size());
+        } catch (NoSuchFileException e) {
+            throw new TailReaderStaleTokenException("File at path: " + file + " was rotated while it was read");
+        } catch (IOException e) {
+            throw new TailReaderIOException("Error reading file: " + file, e);
+        }
+    }
+
+    /**
+     * The path of the generation of the file, or null if it doesn't exist.
+     */
+    @Nullable
+    static Path generation(Path path, int generation) {
+        if (generation == 0) {
+            return path;
+        }
+        var plain = path.resolveSibling(path.getFileName() + "." + generation);
+        if (Files.exists(plain)) {
+            return plain;
+        }
+        var archive = path.resolveSibling(path.getFileName() + "." + generation + ".gz");
+        return Files.exists(archive) ? archive : null;
+    }
+}
@@ -0,0 +1,150 @@
+package qlog;
+
+import io.micronaut.context.annotation.Value;
+import jakarta.annotation.Nullable;
+import jakarta.inject.Singleton;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The buffers a read scans the file with, reused from one read to the next so that a read allocates little more
+ * than the lines it returns.
+ * <p>
+ * A {@link ScanContext} holds a direct buffer of <code>qlog.tail.buffer.capacity</code> bytes for the chunks of the
+ * file, which the channel reads into without the copy through a temporary direct buffer that it makes for a heap
+ * buffer, along with the decoder and the spill for lines that span chunks. A scan that reads ahead gets a second
+ * buffer the first time it does, which the context then keeps. The contexts are allocated as concurrent reads need
+ * them, so that a server that reads little doesn't hold buffers it never uses, up to <code>qlog.tail.buffer.pool-size
+ * </code> contexts that are kept in a lock-free pool of slots once released. A thread-local context would be of no
+ * use, each request is read on a virtual thread of its own. When every pooled context is in use a read gets a context
+ * with a heap buffer, which is cheaper to allocate and collect than a direct one, and it isn't returned to the pool.
+ */
+@Singleton
+public class ScanContextPool {
+
+    // A pooled context keeps the spill and decoder it grew for long lines, up to this size.
+    private static final int MAX_RETAINED_BYTES = 1 << 20;
+
+    private final int bufferCapacity;
+    private final AtomicReferenceArray<ScanContext> slots;
+    // The pooled contexts, in the slots or in use, at most as many as there are slots.
+    private final AtomicInteger allocated = new AtomicInteger();
+    private final LongAdder misses = new LongAdder();
+
+    public ScanContextPool(@Value("${qlog.tail.buffer.capacity:65536}") int bufferCapacity,
+                           @Value("${qlog.tail.buffer.pool-size:64}") int poolSize) {
+        this.bufferCapacity = bufferCapacity;
+        this.slots = new AtomicReferenceArray<>(poolSize);
+    }
+
+    int bufferCapacity() {
+        return bufferCapacity;
+    }
+
+    /**
+     * A context for a read, to be closed once the read is done with it.
+     */
+    ScanContext acquire() {
+        var n = slots.length();
+        // Start at a random slot so that concurrent reads don't all contend for the first ones.
+        var first = n == 0 ? 0 : ThreadLocalRandom.current().nextInt(n);
+        for (int i = 0; i < n; i++) {
+            var slot = (first + i) % n;
+            var context = slots.get(slot);
+            if (context != null && slots.compareAndSet(slot, context, null)) {
+                return context.reset();
+            }
+        }
+        if (allocated.getAndUpdate(a -> a < n ? a + 1 : a) < n) {
+            return new ScanContext(this, ByteBuffer.allocateDirect(bufferCapacity));
+        }
+        misses.increment();
+        return new ScanContext(null, ByteBuffer.allocate(bufferCapacity));
+    }
+
+    private void release(ScanContext context) {
+        var n = slots.length();
+        var first = ThreadLocalRandom.current().nextInt(n);
+        for (int i = 0; i < n; i++) {
+            if (slots.compareAndSet((first + i) % n, null, context)) {
+                return;
+            }
+        }
+        // Every slot was taken as it was tried (by contexts released and acquired again meanwhile), the context is
+        // dropped so that another can be allocated in its place.
+        allocated.decrementAndGet();
+    }
+
+    public Stats stats() {
+        return new Stats(slots.length(), allocated.get(), misses.sum());
+    }
+
+    /**
+     * @param size      The number of contexts the pool keeps at most.
+     * @param allocated The pooled contexts allocated so far.
+     * @param misses    The reads that found every pooled context in use.
+     */
+    public record Stats(int size, int allocated, long misses) {
+    }
+
+    /**
+     * The buffers of one read. Not thread-safe, a context is only used by the read that acquired it.
+     */
+    static final class ScanContext implements AutoCloseable {
+        @Nullable
+        private final ScanContextPool pool;
+        final ByteBuffer buffer;
+        final ScanStats stats = new ScanStats();
+        @Nullable
+        private ByteBuffer readahead;
+        LineBytes.Decoder decoder = new LineBytes.Decoder();
+        LineBytes.Spill spill = new LineBytes.Spill();
+
+        private ScanContext(@Nullable ScanContextPool pool, ByteBuffer buffer) {
+            this.pool = pool;
+            this.buffer = buffer;
+        }
+
+        /**
+         * A second buffer of the same capacity and kind as {@link #buffer}, for a chunk that is read ahead.
+         */
+        ByteBuffer readaheadBuffer() {
+            if (readahead == null) {
+                readahead = buffer.isDirect()
+                        ? ByteBuffer.allocateDirect(buffer.capacity())
+                        : ByteBuffer.allocate(buffer.capacity());
+            }
+            return readahead;
+        }
+
+        private ScanContext reset() {
+            buffer.clear();
+            spill.clear();
+            if (spill.capacity() > MAX_RETAINED_BYTES) {
+                spill = new LineBytes.Spill();
+            }
+            if (decoder.capacity() > MAX_RETAINED_BYTES) {
+                decoder = new LineBytes.Decoder();
+            }
+            stats.bytes = 0;
+            stats.chunks = 0;
+            stats.reads = 0;
+            stats.lines = 0;
+            return this;
+        }
+
+        /**
+         * Returns the context to the pool, if it came from it.
+         */
+        @Override
+        public void close() {
+            if (pool != null) {
+                pool.release(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package qlog;
+
+/**
+ * What a scan of a region of a file read, for {@link TailReaderMetrics}. Updated by the engine as it scans.
+ */
+final class ScanStats {
+
+    /**
+     * The bytes read (or mapped) from the file.
+     */
+    long bytes;
+
+    /**
+     * The chunks read (or windows mapped).
+     */
+    long chunks;
+
+    /**
+     * The reads of the file, the system calls the chunks took (none for mapped windows).
+     */
+    long reads;
+
+    /**
+     * The lines scanned, whether they matched or not.
+     */
+    long lines;
+}
@@ -0,0 +1,208 @@
+package qlog;
+
+import io.micronaut.context.annotation.Value;
+import jakarta.annotation.Nullable;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import qlog.exc.TailReaderFileNotFoundException;
+import qlog.exc.TailReaderIOException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the tail of a file for several queries at once (e.g. the filters of one page of a log viewer), in a single
+ * pass backwards through the file: each chunk of the file is read once, and each line is matched against the filter
+ * of every query that still needs lines, so the file is read once rather than once per query. A line collected by
+ * more than one query is only decoded once.
+ * <p>
+ * The lines and the continuation token of each query are the same as reading it on its own (see
+ * {@link TailReaderImpl}), and the pass reads the file as it does (see {@link TailReaderImpl#scan}). It starts at
+ * the end of the newest range of the queries, and ends once every query has its lines or the head of the oldest
+ * range has been read. As with a read on its own, a query with a large <code>start</code> looks the position of its
+ * start line up in the {@link LineIndexCache}, and its range ends there.
+ */
+@Singleton
+public class SharedScanReader {
+
+    private static final int DEFAULT_INITIAL_CHUNK_SIZE = 4096;
+
+    private final ScanContextPool scanContexts;
+    private final int initialChunkSize;
+    private final boolean readahead;
+
+    @Nullable
+    private final LineIndexCache lineIndexCache;
+    @Nullable
+    private final TailReaderMetrics metrics;
+
+    public SharedScanReader(int bufferCapacity) {
+        this(new ScanContextPool(bufferCapacity, 1), DEFAULT_INITIAL_CHUNK_SIZE, true, null, null);
+    }
+
+    /**
+     * @param initialChunkSize The size of the first chunk of a pass, as with the <code>channel</code> engine each
+     *                         chunk after it is twice the size of the one before, up to the capacity of the buffers.
+     * @param readahead        Whether a pass reads ahead, as with the <code>channel</code> engine.
+     */
+    @Inject
+    public SharedScanReader(ScanContextPool scanContexts,
+                            @Value("${qlog.tail.buffer.initial-size:4096}") int initialChunkSize,
+                            @Value("${qlog.tail.readahead.enabled:true}") boolean readahead,
+                            @Nullable LineIndexCache lineIndexCache,
+                            @Nullable TailReaderMetrics metrics) {
+        this.scanContexts = scanContexts;
+        this.initialChunkSize = Math.max(1, Math.min(initialChunkSize, scanContexts.bufferCapacity()));
+        this.readahead = readahead;
+        this.lineIndexCache = lineIndexCache;
+        this.metrics = metrics;
+    }
+
+    /**
+     * A query of the file, its parameters are those of {@link TailReader#getLastNMatchingLines}.
+     */
+    public record Query(@Nullable LineMatcher matcher, @Nullable String continuationToken, int start, int count) {
+    }
+
+    /**
+     * Reads the lines of each of the queries.
+     *
+     * @return The result of each query, in the order of the queries.
+     */
+    public List<TailReader.ReaderResult> getLastNMatchingLines(Path path,
+                                                               List<Query> queries,
+                                                               Cancellation cancellation) {
+        var pending = new ArrayList<Pending>(queries.size());
+        var complete = true;
+        try (var file = OpenFile.open(path)) {
+            var ch = file.file();
+            // As with a read on its own, the lines appended while the file is read are not read, the size is the
+            // same for every query.
+            var fileSize = ch.size();
+            var version = fileSize == 0 ? null : FileVersion.of(file.fileId(), ch, fileSize);
+            var from = fileSize;
+            var to = 0L;
+            for (var query : queries) {
+                var p = new Pending(query, ReadRange.parse(query.continuationToken(), fileSize));
+                if (version != null) {
+                    p.region.version(version);
+                }
+                if (fileSize > 0 && lineIndexCache != null && p.start >= lineIndexCache.stride()) {
+                    // As with a read on its own, the lines before the start line are not read.
+                    p.end = lineIndexCache.positionOfLine(path, ch, file.fileId(), fileSize, p.start);
+                    p.start = 0;
+                }
+                pending.add(p);
+                from = Math.min(from, p.range.from());
+                to = Math.max(to, p.end);
+            }
+            if (fileSize > 0) {
+                try (var context = scanContexts.acquire()) {
+                    complete = TailReaderImpl.scan(ch, from, to, 0, initialChunkSize, readahead,
+                            cancellation::isCancelled, context, new Pass(pending, context.decoder));
+                    if (metrics != null) {
+                        var collected = 0;
+                        for (var p : pending) {
+                            collected += p.region.lines().size();
+                        }
+                        metrics.recordScan(path, "shared", context.stats, collected);
+                    }
+                }
+            }
+        } catch (NoSuchFileException e) {
+            throw new TailReaderFileNotFoundException("File not found: " + path, e);
+        } catch (IOException e) {
+            throw new TailReaderIOException("Error reading file: " + path, e);
+        }
+        // The pass stops early when the read is cancelled, and the lines collected so far are not the result. A pass
+        // that completed is the result, even if the deadline passed since.
+        if (!complete) {
+            cancellation.throwIfCancelled(path);
+        }
+        var results = new ArrayList<TailReader.ReaderResult>(pending.size());
+        for (var p : pending) {
+            results.add(p.region.toResult(p.count, p.range));
+        }
+        return results;
+    }
+
+    /**
+     * Collects each line of a pass into the queries that need it.
+     */
+    private static final class Pass implements LineBytes.LineVisitor {
+        private final List<Pending> pending;
+        private final LineBytes.Decoder decoder;
+        // The queries that still need lines.
+        private int active;
+
+        Pass(List<Pending> pending, LineBytes.Decoder decoder) {
+            this.pending = pending;
+            this.decoder = decoder;
+            this.active = pending.size();
+        }
+
+        @Override
+        public boolean visit(ByteBuffer line, int from, int to, long lineEnding) {
+            // The position in the file of the end of the line, the line-ending after it (or the end of the range),
+            // a line belongs to the queries whose range ends at or after it.
+            var lineEnd = lineEnding + 1 + (to - from);
+            String decoded = null;
+            for (var p : pending) {
+                if (p.done || lineEnd > p.end) {
+                    continue;
+                }
+                if (lineEnding + 1 < p.range.from()) {
+                    // The line is before the head of the query's range.
+                    p.done = true;
+                    active -= 1;
+                    continue;
+                }
+                if (p.linesSeen++ < p.start || from == to
+                        || (p.matcher != null && !p.matcher.matches(line, from, to))) {
+                    continue;
+                }
+                if (decoded == null) {
+                    decoded = decoder.decode(line, from, to);
+                }
+                p.region.add(decoded, lineEnding);
+                if (p.region.lines().size() >= p.count) {
+                    p.done = true;
+                    active -= 1;
+                }
+            }
+            return active == 0;
+        }
+    }
+
+    /**
+     * A query that is being read, and the lines collected for it so far.
+     */
+    private static final class Pending {
+        @Nullable
+        private final LineMatcher matcher;
+        private final ReadRange range;
+        private final int count;
+        private final RegionReader.Region region;
+        // As with a read on its own, the start is ignored when continuing from a token.
+        private long start;
+        // The end of the bytes read for the query, before the end of its range when its start line was looked up.
+        private long end;
+        private long linesSeen;
+        private boolean done;
+
+        Pending(Query query, ReadRange range) {
+            this.matcher = query.matcher();
+            this.range = range;
+            this.end = range.to();
+            this.count = query.count();
+            this.region = new RegionReader.Region(query.count());
+            this.start = query.continuationToken() == null ? query.start() : 0;
+        }
+    }
+}
@@ -0,0 +1,388 @@
+package qlog;
+
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+import jakarta.annotation.Nullable;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qlog.exc.TailReaderIOException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Caches the decoded lines at the end of recently read files so that requests for the tail of a file that has
+ * not changed share one read of it, and a file that has had lines appended only has the appended bytes read.
+ * <p>
+ * Each file has one {@link TailBlock} of at most <code>qlog.tail.cache.block-size</code> bytes of lines, and
+ * the blocks are evicted least recently used first once their total weight exceeds
+ * <code>qlog.tail.cache.max-bytes</code>, or there are more than <code>qlog.tail.cache.max-entries</code> of them.
+ * Only files that have a block are kept, so that requests for paths that don't exist or can't be read don't grow
+ * the cache. A block is only used while the file has the same identity, size
+ * and modification time as when the block was read, and only has the bytes appended to a file read into it while
+ * the file still starts, and ends at the block's end, with the same bytes (see {@link FileSample}).
+ */
+@Singleton
+@Requires(property = "qlog.tail.cache.enabled", notEquals = "false")
+public class TailBlockCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TailBlockCache.class);
+
+    // A rough estimate of the memory used by each cached String and its position besides its bytes.
+    private static final int LINE_OVERHEAD = 56;
+
+    private static final int DEFAULT_MAX_ENTRIES = 1024;
+
+    // How often a request waiting for another to read the file checks whether it was cancelled.
+    private static final long CANCELLATION_POLL_MS = 50;
+
+    private final int blockSize;
+    private final long maxBytes;
+    private final int maxEntries;
+
+    // Access ordered, so iteration starts with the least recently used block.
+    private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder refreshes = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public TailBlockCache(int blockSize, long maxBytes) {
+        this(blockSize, maxBytes, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * @param maxEntries The files that may have a block at a time.
+     */
+    @Inject
+    public TailBlockCache(@Value("${qlog.tail.cache.block-size:1048576}") int blockSize,
+                          @Value("${qlog.tail.cache.max-bytes:67108864}") long maxBytes,
+                          @Value("${qlog.tail.cache.max-entries:1024}") int maxEntries) {
+        this.blockSize = blockSize;
+        this.maxBytes = maxBytes;
+        this.maxEntries = Math.max(1, maxEntries);
+    }
+
+    /**
+     * Gets the block of lines at the end of the file, reading the file only if it changed since the block was
+     * cached.
+     *
+     * @param cancellation Checked while waiting for another request to read the file.
+     * @return The block, or null if the end of the file does not contain a complete line.
+     * @throws qlog.exc.TailReaderTimeoutException If the request is cancelled while it waits.
+     */
+    @Nullable
+    public TailBlock get(Path path, Cancellation cancellation) throws IOException {
+        Entry entry;
+        synchronized (entries) {
+            entry = entries.computeIfAbsent(path, ignored -> new Entry());
+        }
+        TailBlock block = null;
+        // Requests for the same file wait here for the first of them to read the file, and then share its block.
+        // The lock isn't a monitor, so that the reads on virtual threads that wait don't pin their carriers.
+        lock(entry.lock, path, cancellation);
+        try {
+            var attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            var cached = entry.block;
+            if (cached != null && cached.isCurrent(attributes)) {
+                hits.increment();
+                block = cached;
+                return block;
+            }
+            try (var file = OpenFile.open(path)) {
+                var ch = file.file();
+                var version = FileVersion.of(file.fileId(), ch, attributes.size());
+                if (cached != null && cached.isAppendedTo(attributes) && cached.sample().matches(ch)) {
+                    refreshes.increment();
+                    block = append(ch, cached, attributes, version);
+                } else {
+                    misses.increment();
+                    block = read(ch, attributes, version);
+                }
+            }
+            entry.block = block;
+        } finally {
+            if (block == null) {
+                // The file is missing, unreadable or has no complete line: keep no entry for it. Requests already
+                // waiting for the entry read the file themselves.
+                synchronized (entries) {
+                    entries.remove(path, entry);
+                }
+            }
+            entry.lock.unlock();
+        }
+        if (block != null) {
+            evict();
+        }
+        return block;
+    }
+
+    /**
+     * The block cached for the file, without reading the file or waiting for a read of it. It is the block of the
+     * file as it was when it was read, which may have changed since.
+     *
+     * @return The block, or null if there is none.
+     */
+    @Nullable
+    TailBlock cached(Path path) {
+        synchronized (entries) {
+            var entry = entries.get(path);
+            return entry == null ? null : entry.block;
+        }
+    }
+
+    /**
+     * Waits for the lock of the entry until the request is cancelled, the request holding it may be reading a
+     * large block of a slow file.
+     */
+    private static void lock(ReentrantLock lock, Path path, Cancellation cancellation) {
+        try {
+            while (!lock.tryLock(CANCELLATION_POLL_MS, TimeUnit.MILLISECONDS)) {
+                cancellation.throwIfCancelled(path);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TailReaderIOException("Interrupted reading file: " + path, e);
+        }
+    }
+
+    /**
+     * The files that have an entry in the cache.
+     */
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public Stats stats() {
+        return new Stats(hits.sum(), refreshes.sum(), misses.sum(), evictions.sum());
+    }
+
+    /**
+     * @param hits      Requests served from a block without reading the file.
+     * @param refreshes Requests that only read the bytes appended to the file since its block was read.
+     * @param misses    Requests that read the end of the file into a new block.
+     * @param evictions Blocks evicted to keep the cache under its maximum weight.
+     */
+    public record Stats(long hits, long refreshes, long misses, long evictions) {
+    }
+
+    /**
+     * Reads the last complete lines of the file that fit in a block.
+     */
+    @Nullable
+    private TailBlock read(FileChannel ch, BasicFileAttributes attributes, FileVersion version) throws IOException {
+        var size = attributes.size();
+        var from = Math.max(0, size - blockSize);
+        var bytes = readFully(ch, from, size);
+        var offset = 0;
+        if (from > 0) {
+            // The block starts in the middle of a line, skip to the first complete line.
+            while (offset < bytes.length && bytes[offset] != '\n') offset++;
+            offset++;
+        }
+        if (offset >= bytes.length) {
+            return null;
+        }
+        var lines = new ArrayList<String>();
+        var starts = new ArrayList<Long>();
+        split(bytes, offset, from, lines, starts);
+        return TailBlock.of(attributes, version, FileSample.of(ch, from + bytes.length),
+                bytes[bytes.length - 1] == '\n', lines, starts, blockSize);
+    }
+
+    /**
+     * Reads only the lines appended after the block was read, and prepends them to the lines of the block.
+     */
+    @Nullable
+    private TailBlock append(FileChannel ch, TailBlock block, BasicFileAttributes attributes, FileVersion version)
+            throws IOException {
+        var size = attributes.size();
+        // If the file did not end with a line-ending the newest line was incomplete, so read it again.
+        var from = block.endsWithLineEnding() ? block.size() : block.lineStarts()[0];
+        if (size - from > blockSize) {
+            return read(ch, attributes, version);
+        }
+        var lines = new ArrayList<String>();
+        var starts = new ArrayList<Long>();
+        var bytes = readFully(ch, from, size);
+        if (bytes.length == 0) {
+            return read(ch, attributes, version);
+        }
+        split(bytes, 0, from, lines, starts);
+        var keep = block.endsWithLineEnding() ? 0 : 1;
+        for (int i = keep; i < block.lines().length; i++) {
+            lines.add(block.lines()[i]);
+            starts.add(block.lineStarts()[i]);
+        }
+        return TailBlock.of(attributes, version, FileSample.of(ch, from + bytes.length),
+                bytes[bytes.length - 1] == '\n', lines, starts, blockSize);
+    }
+
+    /**
+     * Splits the bytes from <code>offset</code> into lines and adds them newest first, where <code>position</code>
+     * is the position of the bytes in the file. A line-ending at the very end does not start an empty line.
+     */
+    private static void split(byte[] bytes, int offset, long position, ArrayList<String> lines, ArrayList<Long> starts) {
+        var end = bytes.length;
+        if (end > offset && bytes[end - 1] == '\n') {
+            end -= 1;
+        }
+        var newest = new ArrayList<String>();
+        var newestStarts = new ArrayList<Long>();
+        var decoder = new LineBytes.Decoder();
+        var buf = ByteBuffer.wrap(bytes);
+        var lineStart = offset;
+        for (int i = offset; i <= end; i++) {
+            if (i == end || bytes[i] == '\n') {
+                newest.add(decoder.decode(buf, lineStart, i));
+                newestStarts.add(position + lineStart);
+                lineStart = i + 1;
+            }
+        }
+        for (int i = newest.size() - 1; i >= 0; i--) {
+            lines.add(newest.get(i));
+            starts.add(newestStarts.get(i));
+        }
+    }
+
+    private static byte[] readFully(FileChannel ch, long from, long to) throws IOException {
+        var bb = ByteBuffer.allocate(Math.toIntExact(to - from));
+        while (bb.hasRemaining()) {
+            if (ch.read(bb, from + bb.position()) < 0) {
+                // The file was truncated while reading, the block is replaced on the next request.
+                break;
+            }
+        }
+        return Arrays.copyOf(bb.array(), bb.position());
+    }
+
+    private void evict() {
+        synchronized (entries) {
+            var weight = entries.values().stream().mapToLong(Entry::weight).sum();
+            var it = entries.values().iterator();
+            while ((weight > maxBytes || entries.size() > maxEntries) && it.hasNext()) {
+                var entry = it.next();
+                weight -= entry.weight();
+                it.remove();
+                evictions.increment();
+                LOG.atDebug().log("Evicted tail block, weight: {}", entry.weight());
+            }
+        }
+    }
+
+    private static final class Entry {
+        private final ReentrantLock lock = new ReentrantLock();
+        @Nullable
+        private volatile TailBlock block;
+
+        long weight() {
+            var block = this.block;
+            return block == null ? 0 : block.weight();
+        }
+    }
+
+    /**
+     * The last lines of a file as of the time it was read.
+     *
+     * @param fileKey    The identity of the file.
+     * @param size       The size of the file when it was read.
+     * @param modified   The modification time of the file when it was read.
+     * @param version    The file as it was read, the continuation tokens of the lines are positions in it.
+     * @param sample     The bytes at the head of the file and at the end of the block, to tell whether bytes were
+     *                   only appended to the file.
+     * @param endsWithLineEnding Whether the last byte of the file was a line-ending, if not the newest line may
+     *                   be completed by appended bytes.
+     * @param lines      The lines, newest first. Empty lines are kept so that lines can be counted.
+     * @param lineStarts The byte position of each line in the file.
+     * @param weight     The estimated memory used by the block.
+     */
+    public record TailBlock(@Nullable Object fileKey,
+                            long size,
+                            FileTime modified,
+                            FileVersion version,
+                            FileSample sample,
+                            boolean endsWithLineEnding,
+                            String[] lines,
+                            long[] lineStarts,
+                            long weight) {
+
+        /**
+         * Creates a block from the lines, dropping the oldest lines that do not fit in <code>blockSize</code>.
+         */
+        static TailBlock of(BasicFileAttributes attributes, FileVersion version, FileSample sample,
+                            boolean endsWithLineEnding, ArrayList<String> lines, ArrayList<Long> starts,
+                            int blockSize) {
+            var size = attributes.size();
+            var n = lines.size();
+            while (n > 1 && size - starts.get(n - 1) > blockSize) n--;
+            var weight = 0L;
+            var lineStarts = new long[n];
+            for (int i = 0; i < n; i++) {
+                lineStarts[i] = starts.get(i);
+                weight += lines.get(i).length() + LINE_OVERHEAD;
+            }
+            return new TailBlock(attributes.fileKey(), size, attributes.lastModifiedTime(), version, sample,
+                    endsWithLineEnding, lines.subList(0, n).toArray(String[]::new), lineStarts, weight);
+        }
+
+        boolean isCurrent(BasicFileAttributes attributes) {
+            return Objects.equals(fileKey, attributes.fileKey())
+                    && size == attributes.size()
+                    && modified.equals(attributes.lastModifiedTime());
+        }
+
+        /**
+         * Whether the file may have had bytes appended, to be confirmed with the {@link #sample()}.
+         */
+        boolean isAppendedTo(BasicFileAttributes attributes) {
+            return Objects.equals(fileKey, attributes.fileKey()) && size < attributes.size();
+        }
+
+        /**
+         * The byte position of the line-ending that precedes the oldest line in the block, the bytes before it
+         * are not in the block. Not positive when the block starts at the head of the file.
+         */
+        long coveredFrom() {
+            return lineStarts[lineStarts.length - 1] - 1;
+        }
+
+        /**
+         * Finds the newest line that ends at the line-ending at <code>position</code>.
+         *
+         * @return The index of the line, or -1 if the line is not in the block.
+         */
+        int indexOfLineBefore(long position) {
+            // lineStarts is in descending order.
+            int lo = 0, hi = lineStarts.length - 1;
+            while (lo <= hi) {
+                var mid = (lo + hi) >>> 1;
+                var start = lineStarts[mid];
+                if (start == position + 1) {
+                    return mid + 1;
+                } else if (start > position + 1) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package qlog;
+
+import io.micronaut.context.annotation.Value;
+import jakarta.annotation.Nullable;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import qlog.exc.TailReaderIOException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Finds where the last N lines of a file are, as a range of bytes, without reading the lines out of the file. An
+ * unfiltered read has no need for the lines themselves when the response is the bytes of the file as they are
+ * (see the <code>text/plain</code> responses of <code>/queryLog</code>), the bytes of the lines are contiguous in
+ * the file and can be sent straight from it.
+ * <p>
+ * Lines are counted as by the {@link TailReader}, empty lines are not counted (but are in the range), and the
+ * same continuation tokens are returned and accepted.
+ * <p>
+ * The file is read backwards as {@link TailReaderImpl} reads it (see {@link TailReaderImpl#scan}), into the pooled
+ * direct buffers of a {@link ScanContextPool}, but the lines are only counted, never matched or decoded.
+ */
+@Singleton
+public class TailRangeLocator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TailRangeLocator.class);
+
+    private static final int DEFAULT_INITIAL_CHUNK_SIZE = 4096;
+
+    private final ScanContextPool scanContexts;
+    private final int initialChunkSize;
+    private final boolean readahead;
+
+    @Nullable
+    private final LineIndexCache lineIndexCache;
+
+    public TailRangeLocator(int bufferCapacity, @Nullable LineIndexCache lineIndexCache) {
+        this(new ScanContextPool(bufferCapacity, 1), DEFAULT_INITIAL_CHUNK_SIZE, true, lineIndexCache);
+    }
+
+    /**
+     * @param initialChunkSize The size of the first chunk read, as with the <code>channel</code> engine.
+     * @param readahead        Whether to read ahead, as with the <code>channel</code> engine.
+     */
+    @Inject
+    public TailRangeLocator(ScanContextPool scanContexts,
+                            @Value("${qlog.tail.buffer.initial-size:4096}") int initialChunkSize,
+                            @Value("${qlog.tail.readahead.enabled:true}") boolean readahead,
+                            @Nullable LineIndexCache lineIndexCache) {
+        this.scanContexts = scanContexts;
+        this.initialChunkSize = Math.max(1, Math.min(initialChunkSize, scanContexts.bufferCapacity()));
+        this.readahead = readahead;
+        this.lineIndexCache = lineIndexCache;
+    }
+
+    /**
+     * Finds the bytes of the last N lines of the file.
+     *
+     * @param path              The path of the file, to look up its line index.
+     * @param ch                The file, the range is found in the bytes that are in it when this is called.
+     * @param fileId            The identity of the file, as {@link OpenFile} found it, to look up its line index.
+     * @param continuationToken As with {@link TailReader#getLastNMatchingLines}.
+     * @param start             The number of lines to skip from the end of the file, ignored with a token.
+     * @param count             The number of lines.
+     * @param cancellation      Checked while reading, once it is cancelled the read stops.
+     * @throws qlog.exc.TailReaderTimeoutException If the read is cancelled before it completes.
+     */
+    public TailRange locate(Path path,
+                            FileChannel ch,
+                            long fileId,
+                            @Nullable String continuationToken,
+                            int start,
+                            int count,
+                            Cancellation cancellation) {
+        try (var context = scanContexts.acquire()) {
+            var fileSize = ch.size();
+            var range = ReadRange.parse(continuationToken, fileSize);
+            var end = range.to();
+            if (continuationToken != null) {
+                start = 0;
+            } else if (lineIndexCache != null && start >= lineIndexCache.stride()) {
+                end = lineIndexCache.positionOfLine(path, ch, fileId, fileSize, start);
+                start = 0;
+            }
+            var located = new Located(fileSize, count);
+            if (!TailReaderImpl.scan(ch, range.from(), end, start, initialChunkSize, readahead,
+                    cancellation::isCancelled, context, located)) {
+                // Stopped before the range has its lines, the lines located so far are not the result.
+                cancellation.throwIfCancelled(path);
+            }
+            if (ch.size() < end) {
+                // The positions of the lines that were read are not those of the bytes that will be sent.
+                throw new IOException("The file was truncated while reading");
+            }
+            var result = located.toRange(range);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug("File at path: {}, {} lines in bytes {} to {}", path, count, result.from(), result.to());
+            }
+            return result;
+        } catch (IOException e) {
+            LOG.error("Error reading file: {}", path, e);
+            throw new TailReaderIOException("Error reading file: " + path, e);
+        }
+    }
+
+    /**
+     * The bytes of the lines, from <code>from</code> (inclusive) to <code>to</code> (exclusive), in file order.
+     *
+     * @param continuationToken As with {@link TailReader.ReaderResult}.
+     */
+    public record TailRange(long from, long to, Optional<String> continuationToken) {
+        public long length() {
+            return to - from;
+        }
+    }
+
+    /**
+     * Counts the lines newest first until there are enough of them.
+     */
+    private static final class Located implements LineBytes.LineVisitor {
+        private final long fileSize;
+        private final int count;
+        private long from;
+        private long to;
+        private int lines;
+        // The line-ending before the oldest line, once there are enough lines.
+        private long lineEnding = -1;
+
+        Located(long fileSize, int count) {
+            this.fileSize = fileSize;
+            this.count = count;
+        }
+
+        @Override
+        public boolean visit(ByteBuffer line, int from, int to, long lineEnding) {
+            if (from == to) {
+                return false;
+            }
+            if (lines == 0) {
+                // The range ends with the line-ending of the newest line, if it has one.
+                this.to = Math.min(lineEnding + 1 + (to - from) + 1, fileSize);
+            }
+            this.from = lineEnding + 1;
+            lines += 1;
+            if (lines >= count) {
+                this.lineEnding = lineEnding;
+                return true;
+            }
+            return false;
+        }
+
+        TailRange toRange(ReadRange range) {
+            return new TailRange(from, to, lines < count || range.isHead(lineEnding)
+                    ? Optional.empty()
+                    : Optional.of(String.valueOf(lineEnding)));
+        }
+    }
+}
@@ -11,7 +11,7 @@ public interface TailReader {
      * Get the last N lines from a file.
      *
      * @param path              A path to the file to read lines from.
-     * @param filter            If present, a line is counted only when it matches the filter.
+     * @param filter            If present, a line is counted only when it contains the filter.
      * @param continuationToken A token the reader will use to continue reading at a byte position in the file.
      *                          This reader will issue a continuationToken in the result if there are more bytes
      *                          to read in the file.
@@ -19,8 +19,36 @@ public interface TailReader {
      * @param count             The number of lines to read out in the returned List.
      * @return A List of lines ordered with the newest entries at the head of the List.
      */
-    ReaderResult getLastNLines(Path path, @Nullable String filter, String continuationToken, int start, int count);
+    default ReaderResult getLastNLines(Path path, @Nullable String filter, String continuationToken, int start, int count) {
+        return getLastNMatchingLines(path, filter == null ? null : LineMatcher.literal(filter), continuationToken,
+                start, count, Cancellation.NONE);
+    }
+
+    /**
+     * Get the last N lines from a file that match a {@link LineMatcher}, as with
+     * {@link #getLastNLines(Path, String, String, int, int)}.
+     *
+     * @param matcher      If present, a line is counted only when it matches.
+     * @param cancellation Checked while reading, once it is cancelled the read stops.
+     * @throws qlog.exc.TailReaderTimeoutException If the read is cancelled before it completes.
+     */
+    ReaderResult getLastNMatchingLines(Path path,
+                                       @Nullable LineMatcher matcher,
+                                       String continuationToken,
+                                       int start,
+                                       int count,
+                                       Cancellation cancellation);
+
+    /**
+     * @param lines             The lines, newest first.
+     * @param continuationToken The position to continue reading from, if there are more lines to read.
+     * @param version           The file that was read, as of when it was opened, the continuation token is a
+     *                          position in it. Null if no file was read (e.g. it was empty).
+     */
+    record ReaderResult(List<String> lines, Optional<String> continuationToken, @Nullable FileVersion version) {
 
-    record ReaderResult(List<String> lines, Optional<String> continuationToken) {
+        public ReaderResult(List<String> lines, Optional<String> continuationToken) {
+            this(lines, continuationToken, null);
+        }
     }
 }
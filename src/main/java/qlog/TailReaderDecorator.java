@@ -0,0 +1,72 @@
+package qlog;
+
+import io.micronaut.context.annotation.Value;
+import io.micronaut.context.event.BeanCreatedEvent;
+import io.micronaut.context.event.BeanCreatedEventListener;
+import jakarta.annotation.Nullable;
+import jakarta.inject.Singleton;
+
+/**
+ * Wraps the {@link TailReader} engine selected by <code>qlog.tail.engine</code> with the optional layers that
+ * are enabled, so that every engine gets the same behavior.
+ */
+@Singleton
+public class TailReaderDecorator implements BeanCreatedEventListener<TailReader> {
+
+    @Nullable
+    private final TailBlockCache tailBlockCache;
+    @Nullable
+    private final ReadCoalescer readCoalescer;
+    @Nullable
+    private final ArchiveCache archiveCache;
+    @Nullable
+    private final BlockIndexer blockIndexer;
+    @Nullable
+    private final TailReaderMetrics tailReaderMetrics;
+    private final int parallelMaxThreads;
+    private final long parallelMinSegmentSize;
+
+    public TailReaderDecorator(@Nullable TailBlockCache tailBlockCache,
+                               @Nullable ReadCoalescer readCoalescer,
+                               @Nullable ArchiveCache archiveCache,
+                               @Nullable BlockIndexer blockIndexer,
+                               @Nullable TailReaderMetrics tailReaderMetrics,
+                               @Value("${qlog.tail.parallel.max-threads:4}") int parallelMaxThreads,
+                               @Value("${qlog.tail.parallel.min-segment-size:67108864}") long parallelMinSegmentSize) {
+        this.tailBlockCache = tailBlockCache;
+        this.readCoalescer = readCoalescer;
+        this.archiveCache = archiveCache;
+        this.blockIndexer = blockIndexer;
+        this.tailReaderMetrics = tailReaderMetrics;
+        this.parallelMaxThreads = parallelMaxThreads;
+        this.parallelMinSegmentSize = parallelMinSegmentSize;
+    }
+
+    @Override
+    public TailReader onCreated(BeanCreatedEvent<TailReader> event) {
+        var reader = event.getBean();
+        if (parallelMaxThreads > 1 && reader instanceof RegionReader regionReader) {
+            reader = new ParallelTailReader(regionReader, parallelMaxThreads, parallelMinSegmentSize);
+        }
+        if (tailBlockCache != null) {
+            reader = new CachingTailReader(reader, tailBlockCache);
+        }
+        if (blockIndexer != null) {
+            // In front of the cache, so that the bytes after the indexed blocks are read from the cached tail.
+            reader = new IndexedTailReader(reader, blockIndexer);
+        }
+        if (readCoalescer != null) {
+            // In front of the cache, so that identical requests share the lookup in the cache too.
+            reader = new CoalescingTailReader(reader, readCoalescer);
+        }
+        if (archiveCache != null) {
+            // The layers below read the decompressed copy of an archive, the metrics are of the archive.
+            reader = new ArchiveTailReader(reader, archiveCache);
+        }
+        if (tailReaderMetrics != null) {
+            // Outermost, so that the duration is the one seen by the request, including waiting for a shared read.
+            reader = new MeteredTailReader(reader, tailReaderMetrics);
+        }
+        return reader;
+    }
+}
@@ -1,7 +1,9 @@
 package qlog;
 
+import io.micronaut.context.annotation.Requires;
 import io.micronaut.context.annotation.Value;
 import jakarta.annotation.Nullable;
+import jakarta.inject.Inject;
 import jakarta.inject.Singleton;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -9,202 +11,404 @@ import qlog.exc.TailReaderFileNotFoundException;
 import qlog.exc.TailReaderIOException;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
-import java.nio.file.Files;
+import java.nio.channels.FileChannel;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.util.ArrayList;
-import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.BooleanSupplier;
 
 @Singleton
-public class TailReaderImpl implements TailReader {
+@Requires(property = "qlog.tail.engine", value = "channel", defaultValue = "channel")
+public class TailReaderImpl implements RegionReader {
 
     private static final Logger LOG = LoggerFactory.getLogger(TailReaderImpl.class);
 
-    private final int bufferCapacity;
+    // The scan contexts of a reader that isn't given the application's pool.
+    private static final int DEFAULT_POOL_SIZE = 4;
 
-    public TailReaderImpl(@Value("${qlog.tail.buffer.capacity:65536}") int bufferCapacity) {
-        this.bufferCapacity = bufferCapacity;
+    private static final int DEFAULT_INITIAL_CHUNK_SIZE = 4096;
+
+    // Reads ahead of the scan, one chunk at a time for each scan that reads ahead.
+    private static final ExecutorService READAHEAD = Executors.newThreadPerTaskExecutor(
+            Thread.ofVirtual().name("qlog-readahead-", 0).factory());
+
+    private final int initialChunkSize;
+
+    private final boolean readahead;
+
+    private final ScanContextPool scanContexts;
+
+    @Nullable
+    private final LineIndexCache lineIndexCache;
+
+    @Nullable
+    private final TailReaderMetrics metrics;
+
+    public TailReaderImpl(int bufferCapacity) {
+        this(bufferCapacity, null);
+    }
+
+    public TailReaderImpl(int bufferCapacity, @Nullable LineIndexCache lineIndexCache) {
+        this(bufferCapacity, lineIndexCache, null);
+    }
+
+    public TailReaderImpl(int bufferCapacity,
+                          @Nullable LineIndexCache lineIndexCache,
+                          @Nullable TailReaderMetrics metrics) {
+        this(new ScanContextPool(bufferCapacity, DEFAULT_POOL_SIZE), DEFAULT_INITIAL_CHUNK_SIZE, true,
+                lineIndexCache, metrics);
+    }
+
+    /**
+     * @param initialChunkSize The size of the first chunk of a scan, each chunk after it is twice the size of the
+     *                         one before, up to the capacity of the buffers of the pool.
+     * @param readahead        Whether a scan that has reached chunks of the full capacity reads the next chunk
+     *                         while it looks for lines in the current one.
+     */
+    @Inject
+    public TailReaderImpl(ScanContextPool scanContexts,
+                          @Value("${qlog.tail.buffer.initial-size:4096}") int initialChunkSize,
+                          @Value("${qlog.tail.readahead.enabled:true}") boolean readahead,
+                          @Nullable LineIndexCache lineIndexCache,
+                          @Nullable TailReaderMetrics metrics) {
+        this.initialChunkSize = Math.max(1, Math.min(initialChunkSize, scanContexts.bufferCapacity()));
+        this.readahead = readahead;
+        this.scanContexts = scanContexts;
+        this.lineIndexCache = lineIndexCache;
+        this.metrics = metrics;
     }
 
     /**
      * {@inheritDoc}
      */
     @Override
-    public ReaderResult getLastNLines(Path path,
-                                      @Nullable String filter,
-                                      @Nullable String continuationToken,
-                                      int start,
-                                      int count) {
-        // Each chunk of the file will be read into this buffer
-        var bb = ByteBuffer.allocate(this.bufferCapacity);
-
-        // Collect encountered lines into this List to be returned when the
-        // line count requirement is satisfied.
-        var collectedLines = new ArrayList<String>();
-
-        // Initialize a null reference to store the continuation token. This will be set to the
-        // byte position of the last line-ending seen in the file prior to reaching the desired
-        // line count.
-        @Nullable String nextToken = null;
-
-        LOG.atInfo().log("Reading file at path: {}, filter: {}, lineCount: {}",
-                path, filter, count);
-        var startNs = System.nanoTime();
-
-        // Open a seekable channel to the file so that we can read chunks of the file starting
-        // at the end. The start of each read will be determined as the byte-position end of the
-        // file minus the capacity of the byte buffer. Each "step" will move the start backwards
-        // through the file like a cursor and read the chunk into the byte buffer.
-        // This approach requires use of a SeekableByteChannel so that we can manually control
-        // position of the channel while reading the chunks.
-        try (var ch = Files.newByteChannel(path, StandardOpenOption.READ)) {
+    public ReaderResult getLastNMatchingLines(Path path,
+                                              @Nullable LineMatcher matcher,
+                                              @Nullable String continuationToken,
+                                              int start,
+                                              int count,
+                                              Cancellation cancellation) {
+        // Collect encountered lines into this Region to be returned when the line count
+        // requirement is satisfied. The region also keeps the byte position of the line-ending
+        // before each line, the continuation token is the one before the last collected line.
+        var region = new Region(count);
+        var range = ReadRange.parse(null, 0);
+
+        // The debug logging is guarded so that a read doesn't box its arguments when it is off.
+        var debug = LOG.isDebugEnabled();
+        if (debug) {
+            LOG.debug("Reading file at path: {}, filter: {}, lineCount: {}", path, matcher, count);
+        }
+        var startNs = debug ? System.nanoTime() : 0L;
+
+        // Open a channel to the file so that we can read chunks of the file starting at the end.
+        // The start of each read will be determined as the byte-position end of the file minus
+        // the size of the chunk. Each "step" will move the start backwards through the file like
+        // a cursor and read the chunk into the byte buffer. The chunks are read at a position
+        // rather than from the position of the channel, so that the next chunk can be read ahead
+        // by another thread.
+        try (var file = OpenFile.open(path)) {
+            var ch = file.file();
             // Create a local variable to store the size of the file as soon as the channel is
             // opened. This is necessary because the size of the file may change while we are
             // reading (e.g. if the file is being written to be another process).
             var fileSize = ch.size();
             if (fileSize == 0) {
                 // The file is empty, so there will never be any lines to collect.
-                return new ReaderResult(collectedLines, Optional.empty());
+                return region.toResult(count);
             }
+            // The continuation token is a position in the file as it is now, whatever happens to the file at the
+            // path after the read.
+            region.version(FileVersion.of(file.fileId(), ch, fileSize));
             // If a continuation token is provided, then we want to start reading the file from
             // the byte position of the continuation token. Otherwise, we start reading from the
             // end of the file.
-            var maybeContinuationToken = Optional.ofNullable(continuationToken);
-            if (maybeContinuationToken.isPresent()) {
+            if (continuationToken != null) {
                 // If the continuation token is present, then we want to start reading the file
                 // from the byte position of the continuation token. So we effectively ignore
                 // the start parameter.
                 start = 0;
             }
-            long remainingBytes = maybeContinuationToken
-                    .map(Long::parseLong)
-                    .orElse(fileSize);
-            // Initialize a counter to keep track of how many lines we've seen. This reader
-            // will skip lines until linesSeen is equal to start.
-            var linesSeen = 0L;
-            // The start of the chunk is the end (channel size) minus the capacity (limit) of the buffer.
-            // If the file is smaller than the buffer we do not allow start to be negative so take the max of 0.
-            var chunkStart = Math.max(0, remainingBytes - bb.limit());
-            // Create a lineBuffer to store characters read from the chunk. This buffer exists outside the scope
-            // of the chunk loop since the chunk is an arbitrary boundary and may split a line. (The next chunk
-            // would finish the line and flush the characters from the buffer into the collected lines.)
-            var lineBuffer = new StringBuilder();
-            // Keep track of how many bytes we read from the file so that we can stop from reading
-            // the head of the file multiple times.
-            var bytesRead = 0L;
-            // Chunk through the file while the collectedLines size is less than the lineCount
-            // or we've read all the bytes in the file.
-            while (collectedLines.size() < count || bytesRead < fileSize) {
-                if (bytesRead > 0) {
-                    // Each time we start a new chunk, we want to dynamically size the limit
-                    // of the byte buffer so that we only read the bytes necessary to complete
-                    // the chunk and read the whole file. This is especially impactful when
-                    // we reach the head of the file to avoid reading bytes from the file
-                    // that were already read in a previous chunk.
-                    //
-                    // We use min(CAP, remainingBytes - bytesRead) to avoid setting a larger limit
-                    // that what the buffer initially was allocated with.
-                    if (remainingBytes - bytesRead < this.bufferCapacity) {
-                        // the initial buffer capacity is an int, so this is a safe cast.
-                        bb.limit((int)(remainingBytes - bytesRead));
+            // The token may also have a position to stop at, see ReadRange.
+            range = ReadRange.parse(continuationToken, fileSize);
+            long remainingBytes = range.to();
+            if (continuationToken == null && lineIndexCache != null && start >= lineIndexCache.stride()) {
+                // Skipping many lines would mean reading every byte between the end of the file and the
+                // start line, so instead look up the line-ending that precedes the start line and read
+                // only the bytes before it.
+                remainingBytes = lineIndexCache.positionOfLine(path, ch, file.fileId(), fileSize, start);
+                start = 0;
+            }
+            try (var context = scanContexts.acquire()) {
+                scan(ch, matcher, range.from(), remainingBytes, start, count, cancellation::isCancelled, region,
+                        context);
+                record(path, context.stats, region);
+            }
+        } catch (IOException e) {
+            throw failure(path, e);
+        } finally {
+            if (debug) {
+                var durationNs = System.nanoTime() - startNs;
+                LOG.debug("Finished reading file at path: {}, duration: {}ms", path, durationNs / 1_000_000);
+            }
+        }
+        // The scan stops early when the read is cancelled, and the lines collected so far are not the result. A scan
+        // that completed is the result, even if the deadline passed since.
+        if (!region.isComplete()) {
+            cancellation.throwIfCancelled(path);
+        }
+        if (debug) {
+            LOG.debug("File at path: {}, {} lines collected", path, region.lines().size());
+        }
+        return region.toResult(count, range);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Region readRegion(Path path,
+                             @Nullable LineMatcher matcher,
+                             long from,
+                             long to,
+                             int count,
+                             BooleanSupplier cancelled) {
+        var region = Region.withLineEndings(count);
+        try (var ch = FileChannel.open(path, StandardOpenOption.READ);
+             var context = scanContexts.acquire()) {
+            scan(ch, matcher, from, to, 0, count, cancelled, region, context);
+            record(path, context.stats, region);
+        } catch (IOException e) {
+            throw failure(path, e);
+        }
+        return region;
+    }
+
+    /**
+     * Collects the lines between <code>from</code> and <code>remainingBytes</code> into the region, newest
+     * first, until <code>count</code> lines have been collected. The region is marked complete unless the scan
+     * was cancelled first.
+     */
+    private void scan(FileChannel ch,
+                      @Nullable LineMatcher matcher,
+                      long from,
+                      long remainingBytes,
+                      long start,
+                      int count,
+                      BooleanSupplier cancelled,
+                      Region region,
+                      ScanContextPool.ScanContext context) throws IOException {
+        // Lines are matched against the filter using their bytes, only the lines that are
+        // collected are decoded from UTF-8 into Strings.
+        var decoder = context.decoder;
+        var complete = scan(ch, from, remainingBytes, start, initialChunkSize, readahead, cancelled, context,
+                (line, lineFrom, lineTo, lineEnding) -> {
+                    if (lineFrom == lineTo || (matcher != null && !matcher.matches(line, lineFrom, lineTo))) {
+                        return false;
                     }
+                    region.add(decoder.decode(line, lineFrom, lineTo), lineEnding);
+                    return region.lines().size() >= count;
+                });
+        if (complete) {
+            region.markComplete();
+        }
+    }
+
+    /**
+     * Visits the lines between <code>from</code> and <code>to</code>, newest first, until the visitor has had
+     * enough or the line at the head of the range was visited. Every backwards read of a file goes through this
+     * (the {@link SharedScanReader}, the {@link LogAggregator} and the {@link TailRangeLocator} as well as this
+     * reader).
+     * <p>
+     * A read for a few lines needs only the end of the file, and reading a whole buffer for it would mostly read
+     * bytes that are never looked at, while a scan for a rare match goes through much of the file and is best read
+     * in large chunks. So the chunks start at <code>initialChunkSize</code> bytes and double in size up to the
+     * capacity of the buffer of the context. Reading backwards also defeats the readahead of the kernel, which reads
+     * ahead of sequential reads forwards, so once the chunks are at full capacity the scan reads the chunk before
+     * the current one while it looks for lines in the current one.
+     *
+     * @param skip      The number of lines to pass over before the first line that is visited, their bytes are
+     *                  not kept when they span chunks.
+     * @param readahead Whether to read ahead once the chunks are at full capacity.
+     * @param cancelled Checked before each chunk.
+     * @return Whether the visitor had enough or the head of the range was reached, false if the scan was cancelled
+     * first.
+     */
+    static boolean scan(FileChannel ch,
+                        long from,
+                        long to,
+                        long skip,
+                        int initialChunkSize,
+                        boolean readahead,
+                        BooleanSupplier cancelled,
+                        ScanContextPool.ScanContext context,
+                        LineBytes.LineVisitor visitor) throws IOException {
+        // Each chunk of the file will be read into this buffer, which is pooled and direct so that
+        // the channel reads into it without copying through a temporary buffer of its own.
+        var bb = context.buffer;
+        var bufferCapacity = bb.capacity();
+        var stats = context.stats;
+        // Initialize a counter to keep track of how many lines we've seen. Lines are skipped until
+        // linesSeen is equal to skip.
+        var linesSeen = 0L;
+        // The chunk is an arbitrary boundary and may split a line, so the bytes of a line that
+        // continues before the start of the chunk are kept in the spill until the preceding
+        // chunk completes the line.
+        var spill = context.spill;
+        // The end of each chunk steps backwards through the file like a cursor, starting from
+        // the end of the bytes to read. Each chunk is twice the size of the one after it up to the
+        // capacity of the buffer, except for the chunk at the head of the region which only has
+        // the bytes that were not read yet.
+        var chunkEnd = to;
+        var chunkSize = initialChunkSize;
+        // The chunk that is being read ahead into the other buffer, it ends at the start of the
+        // chunk that is being scanned.
+        Future<Integer> next = null;
+        try {
+            chunks:
+            while (chunkEnd > from) {
+                if (cancelled.getAsBoolean()) {
+                    return false;
                 }
-                // Set the position of the channel to the start of the chunk.
-                ch.position(chunkStart);
-                // Read the bytes from the channel starting from the position into the bytebuffer.
-                bytesRead += ch.read(bb);
-                for (int i = bb.position() - 1; i >= 0; i--) {
-                    // Casting byte to char means this reader only supports ASCII encoded files.
-                    //
-                    // Supporting UTF-8 would require using a CharsetDecoder to decode bytes from
-                    // the chunk into characters. However, because we are tailing the file (that is
-                    // starting with the end of the file), and supporting UTF-8 requires reading the
-                    // bytes in forward order to decode bytes into a complete codepoint, we would
-                    // need to implement a more complex buffer management to handle boundary cases
-                    // where a code unit is split between two chunks. The complexity mainly arises
-                    // from needing to search the head (furthest away from the end of the file) of
-                    // the byte buffer to find the beginning of a code unit and then adjusting the
-                    // size of the next chunk to read any bytes that were skipped in the previous
-                    // chunk.
-                    var c = (char) bb.get(i);
-                    if (c == '\n') {
-                        // Skip the first line-ending we encounter (e.g. if the last character in
-                        // the file is a line-ending).
-                        if (chunkStart + i + 1 == remainingBytes) continue;
-                        // Set the position in the buffer to the current byte position of the
-                        // line-ending so that we can read the position as the continuation
-                        // token. This is necessary because the position of the buffer never
-                        // changes since we're using absolute reads from the buffer.
-                        bb.position(i);
-                        // We've encountered a line ending that is not the end of the file
-                        linesSeen += 1;
-                        // If we've seen enough lines to start collecting results and the line
-                        // buffer is not empty then we can try to collect the line.
-                        if (!lineBuffer.isEmpty() && linesSeen >= start) {
-                            maybeCollectLine(lineBuffer, filter, collectedLines);
+                var chunkStart = Math.max(from, chunkEnd - chunkSize);
+                if (next != null) {
+                    // The chunk was read ahead into the other buffer, swap it in.
+                    stats.reads += await(next);
+                    next = null;
+                    bb = bb == context.buffer ? context.readaheadBuffer() : context.buffer;
+                } else {
+                    stats.reads += read(ch, bb, chunkStart, chunkEnd);
+                }
+                stats.chunks += 1;
+                stats.bytes += bb.limit();
+                chunkSize = Math.min(chunkSize * 2, bufferCapacity);
+                if (readahead && chunkSize == bufferCapacity && chunkStart > from) {
+                    var other = bb == context.buffer ? context.readaheadBuffer() : context.buffer;
+                    var nextStart = Math.max(from, chunkStart - chunkSize);
+                    var nextEnd = chunkStart;
+                    next = READAHEAD.submit(() -> read(ch, other, nextStart, nextEnd));
+                }
+                // The end of the current line within the chunk (exclusive).
+                var lineEnd = bb.limit();
+                if (chunkEnd == to && lineEnd > 0 && bb.get(lineEnd - 1) == '\n') {
+                    // Skip the line-ending at the very end (e.g. if the last character in the file is
+                    // a line-ending).
+                    lineEnd -= 1;
+                }
+                // Walk the lines of the chunk from the newest to the oldest.
+                while (true) {
+                    var lineEnding = LineBytes.lastIndexOfNewline(bb, 0, lineEnd);
+                    if (lineEnding < 0 && chunkStart > from) {
+                        // The line continues in the preceding chunk. There's no need to keep the bytes
+                        // until we've seen the start line.
+                        if (linesSeen >= skip) spill.prepend(bb, 0, lineEnd);
+                        break;
+                    }
+                    // The line is complete, it starts after the line-ending (or at the head of the region).
+                    stats.lines += 1;
+                    if (linesSeen >= skip) {
+                        // The line is the bytes of the chunk followed by the bytes in the spill from the chunks
+                        // after it.
+                        ByteBuffer line = bb;
+                        var lineFrom = lineEnding + 1;
+                        var lineTo = lineEnd;
+                        if (!spill.isEmpty()) {
+                            spill.prepend(bb, lineFrom, lineTo);
+                            line = spill.buffer();
+                            lineFrom = spill.from();
+                            lineTo = spill.to();
                         }
-                        if (collectedLines.size() >= count) {
-                            // break out of looping through this chunk if we have enough lines
-                            break;
+                        if (visitor.visit(line, lineFrom, lineTo, chunkStart + lineEnding)) {
+                            break chunks;
                         }
-                    } else {
-                        // we don't want to fill the liner buffer until we've seen the start line
-                        if (linesSeen >= start) lineBuffer.append(c);
                     }
-                }
-                // End of chunk
-
-                // if we're at the head of a file and the line buffer contains
-                // some chars, we need to append the line to the results
-                if (!lineBuffer.isEmpty() && bytesRead >= fileSize) {
-                    maybeCollectLine(lineBuffer, filter, collectedLines);
-                }
-                // Stop chunking when we have enough lines collected,
-                // or we've read all the bytes from the file.
-                if (collectedLines.size() == count || bytesRead >= fileSize) {
-                    if (bytesRead < fileSize) {
-                        // If there are more bytes to read in the file, then set the continuation
-                        // token to the byte position of the last line-ending seen in the file.
-                        nextToken = String.valueOf(fileSize - bytesRead + bb.position());
+                    spill.clear();
+                    linesSeen += 1;
+                    if (lineEnding < 0) {
+                        // This was the line at the head of the region.
+                        break chunks;
                     }
-                    break;
+                    lineEnd = lineEnding;
                 }
-                // Otherwise, prepare for the next chunk by stepping start backwards by the size
-                // of the buffer and clearing the buffer of its contents so that the next read will
-                // fill the buffer with the next chunk of text from the file.
-                chunkStart = Math.max(0, chunkStart - bb.limit());
-                bb.clear();
-            }
-        } catch (IOException e) {
-            if (e instanceof NoSuchFileException noSuchFileException) {
-                LOG.info("File not found: {}", path, noSuchFileException);
-                throw new TailReaderFileNotFoundException("File not found: " + path, noSuchFileException);
-            } else {
-                LOG.error("Error reading file: {}", path, e);
-                throw new TailReaderIOException("Error reading file: " + path, e);
+                chunkEnd = chunkStart;
             }
+            return true;
         } finally {
-            var durationNs = System.nanoTime() - startNs;
-            LOG.atInfo().log("Finished reading file at path: {}, duration: {}ms", path, durationNs / 1_000_000 );
+            if (next != null) {
+                // The scan stopped before the chunk read ahead was needed, the buffer is not to be
+                // reused until the read is done with it.
+                awaitQuietly(next);
+            }
         }
-        LOG.atInfo().log("File at path: {}, {} lines collected", path, collectedLines.size());
-        return new ReaderResult(collectedLines, Optional.ofNullable(nextToken));
     }
 
-    private static void maybeCollectLine(StringBuilder lineBuffer, @Nullable String filter, ArrayList<String> collectedLines) {
-        // Reverse the buffer (since we're iterating through chars backwards),
-        // and flush it to the result set. If there's a filter defined in the
-        // arguments, then apply the filter before adding to the result set.
-        var stringFromBuffer = lineBuffer.reverse().toString();
-        lineBuffer.setLength(0);
-        if (filter != null) {
-            if (stringFromBuffer.contains(filter)) {
-                collectedLines.add(stringFromBuffer);
+    /**
+     * Reads the bytes of the file between <code>from</code> and <code>to</code> into the buffer, ready to be read
+     * from the buffer. Fewer bytes are read if the file was truncated.
+     *
+     * @return The reads it took.
+     */
+    static int read(FileChannel ch, ByteBuffer bb, long from, long to) throws IOException {
+        bb.clear().limit((int) (to - from));
+        var reads = 0;
+        while (bb.hasRemaining()) {
+            reads += 1;
+            if (ch.read(bb, from + bb.position()) < 0) break;
+        }
+        bb.flip();
+        return reads;
+    }
+
+    private static int await(Future<Integer> read) throws IOException {
+        try {
+            return read.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted reading ahead");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException cause) {
+                throw cause;
             }
+            throw new IOException("Error reading ahead", e.getCause());
+        }
+    }
+
+    private static void awaitQuietly(Future<Integer> read) {
+        var interrupted = false;
+        while (true) {
+            try {
+                read.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void record(Path path, ScanStats stats, Region region) {
+        if (metrics != null) {
+            metrics.recordScan(path, "channel", stats, region.lines().size());
+        }
+    }
+
+    private static RuntimeException failure(Path path, IOException e) {
+        if (e instanceof NoSuchFileException noSuchFileException) {
+            LOG.debug("File not found: {}", path, noSuchFileException);
+            return new TailReaderFileNotFoundException("File not found: " + path, noSuchFileException);
         } else {
-            collectedLines.addLast(stringFromBuffer);
+            LOG.error("Error reading file: {}", path, e);
+            return new TailReaderIOException("Error reading file: " + path, e);
         }
     }
 }
@@ -0,0 +1,240 @@
+package qlog;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micronaut.context.annotation.Requires;
+import io.micronaut.context.annotation.Value;
+import jakarta.annotation.Nullable;
+import jakarta.inject.Inject;
+import jakarta.inject.Singleton;
+import qlog.exc.TailReaderFileNotFoundException;
+import qlog.exc.TailReaderTimeoutException;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+/**
+ * Records the metrics of the tail readers, published with the rest of the application's metrics (e.g. on
+ * <code>/prometheus</code>). Every metric of the reads and scans is tagged with the <code>file</code> that was read,
+ * if it is one of the files listed in <code>qlog.metrics.files</code> (relative to <code>qlog.log.directory</code>,
+ * as listed), and otherwise with <code>other</code>. The files requested are up to the clients, tagging every one
+ * of them would make a set of histograms per file ever requested. A failed read is always tagged with
+ * <code>other</code>, whatever the file.
+ * <ul>
+ *     <li><code>qlog.tail.read</code> - The duration of each read, tagged with its <code>outcome</code> (ok,
+ *     not_found, timeout or error), whether it continued from a token (<code>continuation</code>) and whether it
+ *     was <code>filtered</code>.</li>
+ *     <li><code>qlog.tail.read.lines</code> - The lines returned by each read.</li>
+ *     <li><code>qlog.tail.scan.bytes</code>, <code>qlog.tail.scan.chunks</code> - The bytes and chunks (or
+ *     windows) each scan of a file read, tagged with the <code>engine</code>.</li>
+ *     <li><code>qlog.tail.scan.reads</code> - The reads of the file (system calls) each scan made, none for the
+ *     windows of the <code>mmap</code> engine.</li>
+ *     <li><code>qlog.tail.scan.lines</code>, <code>qlog.tail.scan.lines.collected</code> - The lines each scan
+ *     looked at and collected, their ratio is the selectivity of the filters.</li>
+ * </ul>
+ * The counters of the components that spare reads of the files are published too, those that are enabled:
+ * <ul>
+ *     <li><code>qlog.coalesce.requests</code> - The requests of the {@link ReadCoalescer}, tagged with their
+ *     <code>result</code>: read, coalesced (shared a read in flight) or cached (served a result that was kept).
+ *     <code>qlog.coalesce.flights</code> is the number of reads in flight or kept.</li>
+ *     <li><code>qlog.tail.cache.requests</code> - The requests of the {@link TailBlockCache}, tagged with their
+ *     <code>result</code>: hit, refresh or miss. <code>qlog.tail.cache.evictions</code> counts the blocks
+ *     evicted.</li>
+ *     <li><code>qlog.archive.cache.requests</code> - The requests of the {@link ArchiveCache}, tagged with their
+ *     <code>result</code>: hit or miss. <code>qlog.archive.cache.evictions</code> counts the copies deleted.</li>
+ *     <li><code>qlog.block.index.blocks.scanned</code> - The blocks that filtered reads of the {@link BlockIndexer}
+ *     skipped or read, tagged with their <code>result</code>. <code>qlog.block.index.files</code> and
+ *     <code>qlog.block.index.blocks</code> are the files and blocks indexed.</li>
+ *     <li><code>qlog.tail.scan.pool.misses</code> - The reads that found every context of the
+ *     {@link ScanContextPool} in use, out of <code>qlog.tail.scan.pool.size</code> contexts, of which
+ *     <code>qlog.tail.scan.pool.allocated</code> have been allocated.</li>
+ * </ul>
+ * A read may not scan the file at all (served by the tail-block cache, or shared with an identical read), or
+ * may scan it in several segments (a parallel read), so there is a scan per segment.
+ */
+@Singleton
+@Requires(beans = MeterRegistry.class)
+public class TailReaderMetrics {
+
+    /**
+     * The tag of the files that aren't listed, and of failed reads.
+     */
+    static final String OTHER_FILE = "other";
+
+    private final MeterRegistry registry;
+    // The tag of each listed file.
+    private final Map<Path, String> files = new HashMap<>();
+
+    /**
+     * Tags every file as <code>other</code>.
+     */
+    public TailReaderMetrics(MeterRegistry registry) {
+        this(registry, "", List.of());
+    }
+
+    public TailReaderMetrics(MeterRegistry registry, String logDirectory, List<String> files) {
+        this(registry, logDirectory, files, null, null, null, null, null);
+    }
+
+    @Inject
+    public TailReaderMetrics(MeterRegistry registry,
+                             @Value("${qlog.log.directory:/var/log}") String logDirectory,
+                             @Value("${qlog.metrics.files:}") List<String> files,
+                             @Nullable ReadCoalescer coalescer,
+                             @Nullable TailBlockCache tailBlockCache,
+                             @Nullable ArchiveCache archiveCache,
+                             @Nullable BlockIndexer blockIndexer,
+                             @Nullable ScanContextPool scanContextPool) {
+        this.registry = registry;
+        for (var file : files) {
+            if (!file.isBlank()) {
+                this.files.put(key(Path.of(logDirectory, file.strip())), file.strip());
+            }
+        }
+        if (coalescer != null) {
+            counter("qlog.coalesce.requests", "The requests for reads that may be shared", "read",
+                    coalescer, c -> c.stats().reads());
+            counter("qlog.coalesce.requests", "The requests for reads that may be shared", "coalesced",
+                    coalescer, c -> c.stats().coalesced());
+            counter("qlog.coalesce.requests", "The requests for reads that may be shared", "cached",
+                    coalescer, c -> c.stats().cached());
+            Gauge.builder("qlog.coalesce.flights", coalescer, c -> c.stats().flights())
+                    .description("The shared reads in flight or kept")
+                    .register(registry);
+        }
+        if (tailBlockCache != null) {
+            counter("qlog.tail.cache.requests", "The requests of the tail-block cache", "hit",
+                    tailBlockCache, c -> c.stats().hits());
+            counter("qlog.tail.cache.requests", "The requests of the tail-block cache", "refresh",
+                    tailBlockCache, c -> c.stats().refreshes());
+            counter("qlog.tail.cache.requests", "The requests of the tail-block cache", "miss",
+                    tailBlockCache, c -> c.stats().misses());
+            FunctionCounter.builder("qlog.tail.cache.evictions", tailBlockCache, c -> c.stats().evictions())
+                    .description("The blocks evicted from the tail-block cache")
+                    .register(registry);
+        }
+        if (archiveCache != null) {
+            counter("qlog.archive.cache.requests", "The requests of the decompressed archives", "hit",
+                    archiveCache, c -> c.stats().hits());
+            counter("qlog.archive.cache.requests", "The requests of the decompressed archives", "miss",
+                    archiveCache, c -> c.stats().misses());
+            FunctionCounter.builder("qlog.archive.cache.evictions", archiveCache, c -> c.stats().evictions())
+                    .description("The decompressed archives deleted")
+                    .register(registry);
+        }
+        if (blockIndexer != null) {
+            counter("qlog.block.index.blocks.scanned", "The blocks that filtered reads skipped or read", "skipped",
+                    blockIndexer, i -> i.stats().blocksSkipped());
+            counter("qlog.block.index.blocks.scanned", "The blocks that filtered reads skipped or read", "read",
+                    blockIndexer, i -> i.stats().blocksRead());
+            Gauge.builder("qlog.block.index.files", blockIndexer, i -> i.stats().files())
+                    .description("The files indexed")
+                    .register(registry);
+            Gauge.builder("qlog.block.index.blocks", blockIndexer, i -> i.stats().blocks())
+                    .description("The blocks indexed in all the files")
+                    .register(registry);
+        }
+        if (scanContextPool != null) {
+            FunctionCounter.builder("qlog.tail.scan.pool.misses", scanContextPool, p -> p.stats().misses())
+                    .description("The reads that found every pooled scan context in use")
+                    .register(registry);
+            Gauge.builder("qlog.tail.scan.pool.size", scanContextPool, p -> p.stats().size())
+                    .description("The scan contexts the pool keeps at most")
+                    .register(registry);
+            Gauge.builder("qlog.tail.scan.pool.allocated", scanContextPool, p -> p.stats().allocated())
+                    .description("The pooled scan contexts allocated so far")
+                    .register(registry);
+        }
+    }
+
+    void recordRead(Path path,
+                    @Nullable LineMatcher matcher,
+                    @Nullable String continuationToken,
+                    long durationNs,
+                    @Nullable TailReader.ReaderResult result,
+                    @Nullable RuntimeException failure) {
+        // The path of a failed read may be anything a client sent.
+        var file = failure == null ? file(path) : OTHER_FILE;
+        Timer.builder("qlog.tail.read")
+                .description("The duration of reads of the tail of a file")
+                .tags("file", file,
+                        "outcome", outcome(failure),
+                        "continuation", String.valueOf(continuationToken != null),
+                        "filtered", String.valueOf(matcher != null))
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(durationNs, TimeUnit.NANOSECONDS);
+        if (result != null) {
+            DistributionSummary.builder("qlog.tail.read.lines")
+                    .description("The lines returned by reads of the tail of a file")
+                    .tags("file", file)
+                    .publishPercentileHistogram()
+                    .register(registry)
+                    .record(result.lines().size());
+        }
+    }
+
+    void recordScan(Path path, String engine, ScanStats stats, int linesCollected) {
+        var file = file(path);
+        summary("qlog.tail.scan.bytes", "The bytes read by scans of a file", "bytes", file, engine)
+                .record(stats.bytes);
+        summary("qlog.tail.scan.chunks", "The chunks read by scans of a file", null, file, engine)
+                .record(stats.chunks);
+        summary("qlog.tail.scan.reads", "The reads of the file made by scans of a file", null, file, engine)
+                .record(stats.reads);
+        summary("qlog.tail.scan.lines", "The lines looked at by scans of a file", null, file, engine)
+                .record(stats.lines);
+        summary("qlog.tail.scan.lines.collected", "The lines collected by scans of a file", null, file, engine)
+                .record(linesCollected);
+    }
+
+    /**
+     * The tag of the file, its name as listed in <code>qlog.metrics.files</code>, or <code>other</code>.
+     */
+    private String file(Path path) {
+        return files.isEmpty() ? OTHER_FILE : files.getOrDefault(key(path), OTHER_FILE);
+    }
+
+    private static Path key(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Registers a counter of a component's stats, tagged with the <code>result</code> it counts.
+     */
+    private <T> void counter(String name, String description, String result, T component, ToDoubleFunction<T> count) {
+        FunctionCounter.builder(name, component, count)
+                .description(description)
+                .tags("result", result)
+                .register(registry);
+    }
+
+    private DistributionSummary summary(String name,
+                                        String description,
+                                        @Nullable String baseUnit,
+                                        String file,
+                                        String engine) {
+        return DistributionSummary.builder(name)
+                .description(description)
+                .baseUnit(baseUnit)
+                .tags("file", file, "engine", engine)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private static String outcome(@Nullable RuntimeException failure) {
+        return switch (failure) {
+            case null -> "ok";
+            case TailReaderFileNotFoundException ignored -> "not_found";
+            case TailReaderTimeoutException ignored -> "timeout";
+            default -> "error";
+        };
+    }
+}
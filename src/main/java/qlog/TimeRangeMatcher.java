@@ -0,0 +1,49 @@
+package qlog;
+
+import jakarta.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Matches the lines of a time range that also match another matcher, if there is one.
+ * <p>
+ * The range of bytes a {@link TimeRangeSeek} finds is widened by the skew it tolerates, so it may hold lines
+ * from just outside the time range, which this leaves out. A line without a timestamp (e.g. a line of a stack
+ * trace) is always matched, as the lines around it are in the range. The timestamp is matched on the bytes of the
+ * line (see {@link LineTimestamps#parse(ByteBuffer, int, int)}), the line itself is never decoded.
+ *
+ * @param since The first millisecond of the range, or {@link Long#MIN_VALUE}.
+ * @param until The last millisecond of the range, or {@link Long#MAX_VALUE}.
+ */
+record TimeRangeMatcher(@Nullable LineMatcher matcher, LineTimestamps lineTimestamps, long since, long until)
+        implements LineMatcher {
+
+    @Override
+    public boolean matches(ByteBuffer buf, int from, int to) {
+        if (matcher != null && !matcher.matches(buf, from, to)) {
+            return false;
+        }
+        return inRange(lineTimestamps.parse(buf, from, to));
+    }
+
+    @Override
+    public boolean matches(String line) {
+        return (matcher == null || matcher.matches(line)) && inRange(lineTimestamps.parse(line));
+    }
+
+    @Override
+    @Nullable
+    public List<List<String>> requiredLiterals() {
+        return matcher == null ? null : matcher.requiredLiterals();
+    }
+
+    private boolean inRange(long timestamp) {
+        return timestamp == LineTimestamps.NONE || (timestamp >= since && timestamp <= until);
+    }
+
+    @Override
+    public String toString() {
+        return (matcher == null ? "" : matcher + " ") + "time[" + since + ", " + until + "]";
+    }
+}
@@ -0,0 +1,226 @@
+package qlog;
+
+import io.micronaut.context.annotation.Value;
+import jakarta.annotation.Nullable;
+import jakarta.inject.Singleton;
+import qlog.exc.TailReaderFileNotFoundException;
+import qlog.exc.TailReaderIOException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+
+/**
+ * Finds the bytes of a file that hold the lines of a time range, by binary search on the timestamps of the lines
+ * (see {@link LineTimestamps}), so that only those bytes are read rather than every line after the range.
+ * <p>
+ * Each step of the search reads a few KB at the middle of the bytes left to search, skips to the start of the
+ * next line, and compares the timestamp of the first line from there that has one with the time sought. Finding
+ * a time takes O(log fileSize) reads of the file.
+ * <p>
+ * Log files are only roughly in order of time, e.g. access logs are written when a request completes but stamped
+ * with the time it started. Lines out of order by up to <code>qlog.time-range.skew</code> milliseconds are
+ * found by searching for a range that is wider by the skew at both ends, the lines from just outside the time
+ * range are left out by the {@link #matcher(LineMatcher, Instant, Instant) matcher}.
+ */
+@Singleton
+public class TimeRangeSeek {
+
+    // How much of a line is read to parse its timestamp, and how much of the file each read reads.
+    private static final int PROBE_SIZE = 8192;
+
+    private final LineTimestamps lineTimestamps;
+    @Nullable
+    private final ArchiveCache archiveCache;
+    private final long skew;
+
+    public TimeRangeSeek(LineTimestamps lineTimestamps,
+                         @Nullable ArchiveCache archiveCache,
+                         @Value("${qlog.time-range.skew:5000}") long skew) {
+        this.lineTimestamps = lineTimestamps;
+        this.archiveCache = archiveCache;
+        this.skew = skew;
+    }
+
+    /**
+     * The bytes of the file that hold the lines of the time range, widened by the skew.
+     *
+     * @param since The start of the range, or null to read from the start of the file.
+     * @param until The end of the range (inclusive), or null to read to the end of the file.
+     */
+    public ReadRange range(Path path, @Nullable Instant since, @Nullable Instant until) {
+        return range(path, since, until, Cancellation.NONE);
+    }
+
+    /**
+     * The bytes of the file that hold the lines of the time range, widened by the skew. An archive is decompressed
+     * first, until the request is cancelled.
+     */
+    public ReadRange range(Path path, @Nullable Instant since, @Nullable Instant until, Cancellation cancellation) {
+        try (var ch = open(path, cancellation)) {
+            var search = new Search(ch, ch.size());
+            var from = since == null ? 0 : search.lineStartAtOrAfter(saturatedAdd(since.toEpochMilli(), -skew));
+            long to;
+            if (until == null) {
+                to = search.size;
+            } else {
+                // The range ends at the line-ending before the first line that is after it.
+                var after = search.lineStartAtOrAfter(saturatedAdd(until.toEpochMilli(), skew + 1));
+                to = after < search.size ? Math.max(0, after - 1) : search.size;
+            }
+            return new ReadRange(from, to);
+        } catch (NoSuchFileException e) {
+            throw new TailReaderFileNotFoundException("File not found: " + path, e);
+        } catch (IOException e) {
+            throw new TailReaderIOException("Error reading file: " + path, e);
+        }
+    }
+
+    /**
+     * Matches the lines of the time range that the matcher, if there is one, matches.
+     */
+    public LineMatcher matcher(@Nullable LineMatcher matcher, @Nullable Instant since, @Nullable Instant until) {
+        return new TimeRangeMatcher(matcher, lineTimestamps,
+                since == null ? Long.MIN_VALUE : since.toEpochMilli(),
+                until == null ? Long.MAX_VALUE : until.toEpochMilli());
+    }
+
+    /**
+     * Opens the file the readers read for the path, as with {@link ArchiveTailReader} the positions in an archive are
+     * positions in its decompressed content.
+     */
+    private FileChannel open(Path path, Cancellation cancellation) throws IOException {
+        return archiveCache == null || !ArchiveCache.isArchive(path)
+                ? FileChannel.open(path, StandardOpenOption.READ)
+                : archiveCache.open(path, cancellation);
+    }
+
+    private static long saturatedAdd(long a, long b) {
+        var sum = a + b;
+        // Overflow if both have the same sign and the sum has the other.
+        return ((a ^ sum) & (b ^ sum)) < 0 ? (a < 0 ? Long.MIN_VALUE : Long.MAX_VALUE) : sum;
+    }
+
+    /**
+     * A line of the file, and the start of the line after it.
+     */
+    private record Line(long start, long next, String prefix) {
+    }
+
+    private final class Search {
+        private final FileChannel ch;
+        // The size is captured once, as with the readers, so that lines appended while searching are not seen.
+        private final long size;
+        private final ByteBuffer bb = ByteBuffer.allocate(PROBE_SIZE);
+
+        Search(FileChannel ch, long size) {
+            this.ch = ch;
+            this.size = size;
+        }
+
+        /**
+         * The start of the first line with a timestamp at or after <code>time</code>, or the size of the file if
+         * there isn't one. Lines without a timestamp (e.g. the lines of a stack trace) are ordered with the
+         * nearest line before them that has one, as with {@link FanInReader}.
+         */
+        long lineStartAtOrAfter(long time) throws IOException {
+            // Every line that starts before lo is before the time, the line that starts at (or spans) hi isn't.
+            long lo = 0;
+            long hi = size;
+            while (lo < hi) {
+                var mid = lo + (hi - lo) / 2;
+                var probe = firstTimestamped(mid == 0 ? 0 : nextLineStart(mid - 1), hi);
+                if (probe == null) {
+                    // There's no timestamp between the middle and hi, the line spanning the middle is the last
+                    // that may be before the time.
+                    hi = mid;
+                } else if (probe.timestamp() < time) {
+                    lo = probe.line().next();
+                } else {
+                    hi = probe.line().start();
+                }
+            }
+            // Lines without a timestamp at lo go with the line before them, which is before the time.
+            var first = firstTimestamped(lo, size);
+            return first == null ? size : first.line().start();
+        }
+
+        private record Probe(Line line, long timestamp) {
+        }
+
+        /**
+         * The first line from <code>position</code> that starts before <code>limit</code> and has a timestamp.
+         */
+        @Nullable
+        private Probe firstTimestamped(long position, long limit) throws IOException {
+            while (position < limit) {
+                var line = line(position);
+                var timestamp = lineTimestamps.parse(line.prefix());
+                if (timestamp != LineTimestamps.NONE) {
+                    return new Probe(line, timestamp);
+                }
+                position = line.next();
+            }
+            return null;
+        }
+
+        /**
+         * The line that starts at the position, with up to {@link #PROBE_SIZE} bytes of it decoded.
+         */
+        private Line line(long start) throws IOException {
+            var n = read(start);
+            var lineEnding = indexOfNewline(n);
+            if (lineEnding >= 0) {
+                return new Line(start, start + lineEnding + 1, decode(lineEnding));
+            }
+            // A long line, only its start is decoded.
+            var prefix = decode(n);
+            return new Line(start, start + n >= size ? size : nextLineStart(start + n), prefix);
+        }
+
+        /**
+         * The start of the line after the first line-ending at or after the position, or the size of the file.
+         */
+        private long nextLineStart(long position) throws IOException {
+            while (position < size) {
+                var n = read(position);
+                var lineEnding = indexOfNewline(n);
+                if (lineEnding >= 0) {
+                    return position + lineEnding + 1;
+                }
+                position += n;
+            }
+            return size;
+        }
+
+        private int read(long position) throws IOException {
+            bb.clear();
+            bb.limit((int) Math.min(bb.capacity(), size - position));
+            while (bb.hasRemaining()) {
+                if (ch.read(bb, position + bb.position()) < 0) {
+                    break;
+                }
+            }
+            return bb.position();
+        }
+
+        private int indexOfNewline(int length) {
+            for (int i = 0; i < length; i++) {
+                if (bb.get(i) == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private String decode(int length) {
+            // A line ending with CRLF keeps its CR, which doesn't change its timestamp.
+            return new String(bb.array(), 0, length, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package qlog.controllers;
+
+import io.micronaut.context.annotation.Value;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.annotation.Controller;
+import io.micronaut.http.annotation.Get;
+import io.micronaut.http.annotation.QueryValue;
+import io.micronaut.serde.annotation.Serdeable.Serializable;
+import jakarta.annotation.Nullable;
+import jakarta.inject.Inject;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Positive;
+import qlog.AdmissionControl;
+import qlog.Cancellation;
+import qlog.FilterMode;
+import qlog.LineMatcherCache;
+import qlog.LogAggregator;
+import qlog.LogFields;
+import qlog.TimeRangeSeek;
+import qlog.exc.TailReaderInvalidFilterException;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+
+@Controller("/queryLog/aggregate")
+public class AggregateLogController {
+
+    private static final int MAX_GROUP_BY = 8;
+
+    private final LogAggregator logAggregator;
+    private final LineMatcherCache lineMatcherCache;
+    private final TimeRangeSeek timeRangeSeek;
+    private final AdmissionControl admissionControl;
+    private final QueryExecutor queryExecutor;
+    private final String logDirectory;
+
+    @Inject
+    public AggregateLogController(LogAggregator logAggregator,
+                                  LineMatcherCache lineMatcherCache,
+                                  TimeRangeSeek timeRangeSeek,
+                                  AdmissionControl admissionControl,
+                                  QueryExecutor queryExecutor,
+                                  @Value("${qlog.log.directory:/var/log}") String logDirectory) {
+        this.logAggregator = logAggregator;
+        this.lineMatcherCache = lineMatcherCache;
+        this.timeRangeSeek = timeRangeSeek;
+        this.admissionControl = admissionControl;
+        this.queryExecutor = queryExecutor;
+        this.logDirectory = logDirectory;
+    }
+
+    /**
+     * Aggregates the "tail" of a file in /var/log (or <code>qlog.log.directory</code>) instead of returning its
+     * lines: the number of the last <code>count</code> lines that match the filter, and the groups of them with the
+     * most lines by the values of the <code>groupBy</code> fields, see {@link LogAggregator}.
+     *
+     * @param relativePath   As with <code>/queryLog</code>.
+     * @param request        The request, each <code>filter</code> query value is a filter term as with
+     *                       <code>/queryLog</code>, and each <code>groupBy</code> query value a field to group the
+     *                       lines by (at most 8). Without fields the lines are only counted.
+     * @param filterMode     As with <code>/queryLog</code>.
+     * @param format         The format of the lines the fields are extracted from: <code>combined</code> (the
+     *                       default) for the common and combined log formats of web servers, with the fields
+     *                       <code>host</code>, <code>ident</code>, <code>user</code>, <code>time</code>,
+     *                       <code>request</code>, <code>method</code>, <code>path</code>, <code>protocol</code>,
+     *                       <code>status</code>, <code>bytes</code>, <code>referer</code> and <code>agent</code>, or
+     *                       <code>json</code> for a JSON object per line, the fields are the names of its top-level
+     *                       members. An unknown field is a 400 Bad Request.
+     * @param count          The number of lines to aggregate, newest first, at most 1,000,000.
+     * @param top            The number of groups to return, at most 1,000.
+     * @param since          As with <code>/queryLog</code>, only the lines at or after the instant are aggregated.
+     * @param until          As with <code>/queryLog</code>, only the lines at or before the instant are aggregated.
+     * @param timeoutSeconds As with <code>/queryLog</code>.
+     * @return A 200 OK containing the number of lines aggregated and the lines scanned to find them, and the top
+     * groups with the number of lines of each. If there were more distinct groups than
+     * <code>qlog.aggregate.max-groups</code>, a group may have up to <code>maxError</code> more lines than its count.
+     */
+    @Get
+    public CompletableFuture<HttpResponse<?>> aggregate(HttpRequest<?> request,
+                                                        @QueryValue @NotBlank String relativePath,
+                                                        @QueryValue(defaultValue = "all")
+                                                        @Pattern(regexp = "all|any|regex") String filterMode,
+                                                        @QueryValue(defaultValue = "combined")
+                                                        @Pattern(regexp = "combined|json") String format,
+                                                        @QueryValue(defaultValue = "10000")
+                                                        @Positive @Max(value = 1_000_000) int count,
+                                                        @QueryValue(defaultValue = "10")
+                                                        @Positive @Max(value = 1_000) int top,
+                                                        @QueryValue @Nullable String since,
+                                                        @QueryValue @Nullable String until,
+                                                        @QueryValue(defaultValue = "10")
+                                                        @Positive @Max(value = 60) int timeoutSeconds) {
+        var path = Path.of(this.logDirectory, relativePath);
+        var mode = FilterMode.valueOf(filterMode.toUpperCase(Locale.ROOT));
+        var terms = request.getParameters().getAll("filter");
+        var groupBy = request.getParameters().getAll("groupBy");
+        if (groupBy.size() > MAX_GROUP_BY) {
+            throw new TailReaderInvalidFilterException("At most " + MAX_GROUP_BY + " fields can be grouped by",
+                    null);
+        }
+        var fields = LogFields.of(format, groupBy);
+        var sinceInstant = QueryLogController.instant("since", since);
+        var untilInstant = QueryLogController.instant("until", until);
+        var timeRange = sinceInstant != null || untilInstant != null;
+        var matcher = timeRange
+                ? timeRangeSeek.matcher(lineMatcherCache.get(mode, terms), sinceInstant, untilInstant)
+                : lineMatcherCache.get(mode, terms);
+        // Rejected on the event loop, before any thread is started for the read.
+        var permit = admissionControl.acquire(path);
+        var cancellation = Cancellation.after(Duration.ofSeconds(timeoutSeconds));
+        return queryExecutor.supplyAsync(permit, cancellation, () -> {
+            var token = timeRange
+                    ? timeRangeSeek.range(path, sinceInstant, untilInstant, cancellation).continuationToken(null)
+                    : null;
+            var aggregation = logAggregator.aggregate(path, matcher, token, fields, count, top, cancellation);
+            return HttpResponse.ok(new QueryLogAggregate(aggregation.lines(), aggregation.scanned(),
+                    aggregation.groups().stream()
+                            .map(group -> new AggregateGroup(group.values(), group.count()))
+                            .toList(),
+                    aggregation.maxError()));
+        });
+    }
+
+    @Serializable
+    public record QueryLogAggregate(long lines, long scanned, List<AggregateGroup> groups, long maxError) {
+    }
+
+    @Serializable
+    public record AggregateGroup(List<String> values, long count) {
+    }
+}
@@ -0,0 +1,214 @@
+package qlog.controllers;
+
+import io.micronaut.context.annotation.Value;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.annotation.Body;
+import io.micronaut.http.annotation.Controller;
+import io.micronaut.http.annotation.Post;
+import io.micronaut.http.annotation.QueryValue;
+import io.micronaut.serde.annotation.Serdeable;
+import io.micronaut.serde.annotation.Serdeable.Serializable;
+import jakarta.annotation.Nullable;
+import jakarta.inject.Inject;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotEmpty;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
+import jakarta.validation.constraints.Size;
+import qlog.AdmissionControl;
+import qlog.ArchiveCache;
+import qlog.Cancellation;
+import qlog.ContinuationTokens;
+import qlog.FilterMode;
+import qlog.LineMatcher;
+import qlog.LineMatcherCache;
+import qlog.SharedScanReader;
+import qlog.TailReader;
+import qlog.controllers.QueryLogController.ContinuationToken;
+import qlog.controllers.QueryLogController.Metadata;
+import qlog.controllers.QueryLogController.QueryLog;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+
+@Controller("/queryLog/batch")
+public class BatchQueryController {
+
+    private final TailReader tailReader;
+    private final SharedScanReader sharedScanReader;
+    private final LineMatcherCache lineMatcherCache;
+    private final AdmissionControl admissionControl;
+    private final QueryExecutor queryExecutor;
+    private final String logDirectory;
+
+    @Inject
+    public BatchQueryController(TailReader tailReader,
+                                SharedScanReader sharedScanReader,
+                                LineMatcherCache lineMatcherCache,
+                                AdmissionControl admissionControl,
+                                QueryExecutor queryExecutor,
+                                @Value("${qlog.log.directory:/var/log}") String logDirectory) {
+        this.tailReader = tailReader;
+        this.sharedScanReader = sharedScanReader;
+        this.lineMatcherCache = lineMatcherCache;
+        this.admissionControl = admissionControl;
+        this.queryExecutor = queryExecutor;
+        this.logDirectory = logDirectory;
+    }
+
+    /**
+     * Reads the "tail" of files in /var/log (or <code>qlog.log.directory</code>) for several queries in one request,
+     * e.g. the different filters a page of a log viewer shows over the same file. The queries of the same file are
+     * read in a single pass through the file, see {@link SharedScanReader}, and the files are read concurrently.
+     *
+     * @param queries        At most 100 queries, each with the parameters of a <code>/queryLog</code> request:
+     *                       <code>relativePath</code>, <code>filter</code> (a list of filter terms),
+     *                       <code>filterMode</code>, <code>start</code>, <code>count</code> and
+     *                       <code>continuationToken</code>, with the same defaults and limits.
+     * @param timeoutSeconds As with <code>/queryLog</code>, for the whole batch.
+     * @return A 200 OK containing the result of each query in the order of the queries, each the same as the
+     * response to the query on its own. If any of the queries fails the whole batch fails, as that query would on
+     * its own (e.g. a 404 Not Found for a missing file, or a 410 Gone for a stale continuation token). A read of
+     * each file is admitted as with <code>/queryLog</code>, see {@link AdmissionControl}.
+     */
+    @Post
+    public CompletableFuture<HttpResponse<?>> queryLogBatch(@Body @NotEmpty @Size(max = 100)
+                                                            List<@Valid BatchQuery> queries,
+                                                            @QueryValue(defaultValue = "10")
+                                                            @Positive @Max(value = 60) int timeoutSeconds) {
+        // The queries of each file, in the order of the queries. The filters are parsed before anything is read, so
+        // that an invalid filter is a 400 Bad Request for the whole batch.
+        var files = new LinkedHashMap<Path, List<Parsed>>();
+        var parsed = new ArrayList<Parsed>(queries.size());
+        for (var query : queries) {
+            var path = Path.of(this.logDirectory, query.relativePath());
+            var mode = FilterMode.valueOf(query.filterMode().toUpperCase(Locale.ROOT));
+            var terms = query.filter() == null ? List.<String>of() : query.filter();
+            var p = new Parsed(query, lineMatcherCache.get(mode, terms),
+                    ContinuationTokens.filterHash(mode, terms));
+            parsed.add(p);
+            files.computeIfAbsent(path, k -> new ArrayList<>()).add(p);
+        }
+        // Rejected on the event loop, before any thread is started for the reads.
+        var permits = new ArrayList<AdmissionControl.Permit>(files.size());
+        try {
+            for (var path : files.keySet()) {
+                permits.add(admissionControl.acquire(path));
+            }
+        } catch (RuntimeException e) {
+            permits.forEach(AdmissionControl.Permit::close);
+            throw e;
+        }
+        var cancellation = Cancellation.after(Duration.ofSeconds(timeoutSeconds));
+        var reads = new ArrayList<CompletableFuture<Void>>(files.size());
+        var i = 0;
+        for (var file : files.entrySet()) {
+            var permit = permits.get(i++);
+            try {
+                reads.add(queryExecutor.supplyAsync(permit, cancellation, () -> {
+                    read(file.getKey(), file.getValue(), cancellation);
+                    return null;
+                }));
+            } catch (RuntimeException e) {
+                cancellation.cancel();
+                permits.forEach(AdmissionControl.Permit::close);
+                throw e;
+            }
+        }
+        var response = CompletableFuture.allOf(reads.toArray(CompletableFuture[]::new))
+                .<HttpResponse<?>>thenApply(done -> HttpResponse.ok(
+                        new QueryLogBatch(parsed.stream().map(p -> p.result).toList())));
+        // The other files are read to the end when one of them fails, so that the batch fails as the query that
+        // failed would on its own rather than as a cancelled read. Once the response is cancelled (e.g. the client
+        // disconnected), the reads still running are stopped.
+        response.whenComplete((r, e) -> {
+            if (e != null) {
+                cancellation.cancel();
+            }
+        });
+        return response;
+    }
+
+    /**
+     * Reads the queries of the file. A single query is read as it would be on its own, through the caches of the
+     * tail reader, as are the queries of an archive (which is read by decompressing it).
+     */
+    private void read(Path path, List<Parsed> queries, Cancellation cancellation) {
+        var positions = new ArrayList<String>(queries.size());
+        for (var p : queries) {
+            var token = p.query.continuationToken();
+            positions.add(token == null ? null : ContinuationTokens.decode(path, false, token, p.filterHash));
+        }
+        if (queries.size() == 1 || ArchiveCache.isArchive(path)) {
+            for (int i = 0; i < queries.size(); i++) {
+                var p = queries.get(i);
+                p.result = queryLog(path, p, tailReader.getLastNMatchingLines(path, p.matcher, positions.get(i),
+                        p.query.start(), p.query.count(), cancellation));
+            }
+            return;
+        }
+        var shared = new ArrayList<SharedScanReader.Query>(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            var p = queries.get(i);
+            shared.add(new SharedScanReader.Query(p.matcher, positions.get(i), p.query.start(), p.query.count()));
+        }
+        var results = sharedScanReader.getLastNMatchingLines(path, shared, cancellation);
+        for (int i = 0; i < queries.size(); i++) {
+            queries.get(i).result = queryLog(path, queries.get(i), results.get(i));
+        }
+    }
+
+    private static QueryLog queryLog(Path path, Parsed p, TailReader.ReaderResult result) {
+        return new QueryLog(result.lines(), result.continuationToken()
+                .map(token -> new Metadata(new ContinuationToken(
+                        ContinuationTokens.encode(path, result.version(), token, p.filterHash))))
+                .orElse(null));
+    }
+
+    /**
+     * A query of the batch, its matcher, and its result once the file has been read.
+     */
+    private static final class Parsed {
+        private final BatchQuery query;
+        @Nullable
+        private final LineMatcher matcher;
+        private final int filterHash;
+        private volatile QueryLog result;
+
+        Parsed(BatchQuery query, @Nullable LineMatcher matcher, int filterHash) {
+            this.query = query;
+            this.matcher = matcher;
+            this.filterHash = filterHash;
+        }
+    }
+
+    /**
+     * A query of a batch, the parameters of a <code>/queryLog</code> request.
+     */
+    @Serdeable
+    public record BatchQuery(@NotBlank String relativePath,
+                             @Nullable List<String> filter,
+                             @Nullable @Pattern(regexp = "all|any|regex") String filterMode,
+                             @Nullable @PositiveOrZero Integer start,
+                             @Nullable @Positive @Max(value = 10_000) Integer count,
+                             @Nullable String continuationToken) {
+
+        public BatchQuery {
+            filterMode = filterMode == null ? "all" : filterMode;
+            start = start == null ? 0 : start;
+            count = count == null ? 1000 : count;
+        }
+    }
+
+    @Serializable
+    public record QueryLogBatch(List<QueryLog> results) {
+    }
+}
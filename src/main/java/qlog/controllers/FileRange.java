@@ -0,0 +1,14 @@
+package qlog.controllers;
+
+import java.io.RandomAccessFile;
+
+/**
+ * A response body that is a range of the bytes of a file, sent from the file as it is by the
+ * {@link FileRangeBodyWriter}. The file is closed once the range has been sent.
+ *
+ * @param file     The file, open for reading.
+ * @param position The position of the first byte to send.
+ * @param length   The number of bytes to send.
+ */
+public record FileRange(RandomAccessFile file, long position, long length) {
+}
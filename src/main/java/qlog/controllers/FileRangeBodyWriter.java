@@ -0,0 +1,72 @@
+package qlog.controllers;
+
+import io.micronaut.core.type.Argument;
+import io.micronaut.core.type.MutableHeaders;
+import io.micronaut.http.HttpHeaders;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.MediaType;
+import io.micronaut.http.MutableHttpResponse;
+import io.micronaut.http.codec.CodecException;
+import io.micronaut.http.netty.NettyHttpHeaders;
+import io.micronaut.http.netty.body.NettyBodyWriter;
+import io.micronaut.http.netty.body.NettyWriteContext;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+import jakarta.inject.Singleton;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+
+/**
+ * Writes a {@link FileRange} straight from the file to the connection. Netty sends the range as a
+ * <code>DefaultFileRegion</code>, which is <code>sendfile</code> on Linux, so the bytes are copied from the page
+ * cache to the socket by the kernel and never into the heap (over TLS the range is read and encrypted a chunk at a
+ * time instead).
+ */
+@Singleton
+public final class FileRangeBodyWriter implements NettyBodyWriter<FileRange> {
+
+    @Override
+    public void writeTo(HttpRequest<?> request,
+                        MutableHttpResponse<FileRange> outgoingResponse,
+                        Argument<FileRange> type,
+                        MediaType mediaType,
+                        FileRange range,
+                        NettyWriteContext nettyContext) throws CodecException {
+        outgoingResponse.getHeaders().contentLength(range.length());
+        if (!outgoingResponse.getHeaders().contains(HttpHeaders.CONTENT_TYPE)) {
+            outgoingResponse.getHeaders().contentType(mediaType);
+        }
+        var response = new DefaultHttpResponse(HttpVersion.HTTP_1_1,
+                HttpResponseStatus.valueOf(outgoingResponse.code(), outgoingResponse.reason()),
+                ((NettyHttpHeaders) outgoingResponse.getHeaders()).getNettyHeaders());
+        // The file is closed by Netty once the range has been sent.
+        nettyContext.writeFile(response, range.file(), range.position(), range.length());
+    }
+
+    /**
+     * Copies the range to the stream, when the response isn't written by Netty.
+     */
+    @Override
+    public void writeTo(Argument<FileRange> type,
+                        MediaType mediaType,
+                        FileRange range,
+                        MutableHeaders outgoingHeaders,
+                        OutputStream outputStream) throws CodecException {
+        try (var file = range.file()) {
+            var out = Channels.newChannel(outputStream);
+            var sent = 0L;
+            while (sent < range.length()) {
+                var n = file.getChannel().transferTo(range.position() + sent, range.length() - sent, out);
+                if (n <= 0) {
+                    throw new IOException("The file was truncated while sending it");
+                }
+                sent += n;
+            }
+        } catch (IOException e) {
+            throw new CodecException("Error writing file range: " + e.getMessage(), e);
+        }
+    }
+}
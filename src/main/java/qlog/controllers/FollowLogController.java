@@ -0,0 +1,78 @@
+package qlog.controllers;
+
+import io.micronaut.context.annotation.Value;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.MediaType;
+import io.micronaut.http.annotation.Controller;
+import io.micronaut.http.annotation.Get;
+import io.micronaut.http.annotation.QueryValue;
+import io.micronaut.http.sse.Event;
+import jakarta.inject.Inject;
+import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Pattern;
+import org.reactivestreams.Publisher;
+import qlog.AdmissionControl;
+import qlog.FileFollower;
+import qlog.FilterMode;
+import qlog.LineMatcherCache;
+import qlog.exc.TailReaderFileNotFoundException;
+
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Locale;
+
+@Controller("/followLog")
+public class FollowLogController {
+
+    private final FileFollower fileFollower;
+    private final LineMatcherCache lineMatcherCache;
+    private final AdmissionControl admissionControl;
+    private final String logDirectory;
+
+    @Inject
+    public FollowLogController(FileFollower fileFollower,
+                               LineMatcherCache lineMatcherCache,
+                               AdmissionControl admissionControl,
+                               @Value("${qlog.log.directory:/var/log}") String logDirectory) {
+        this.fileFollower = fileFollower;
+        this.lineMatcherCache = lineMatcherCache;
+        this.admissionControl = admissionControl;
+        this.logDirectory = logDirectory;
+    }
+
+    /**
+     * Follows a file in /var/log (or <code>qlog.log.directory</code>) like <code>tail -F</code>, sending each
+     * line appended to the file as a Server-Sent Event.
+     *
+     * @param relativePath The relativePath used to resolve a file, as with <code>/queryLog</code>.
+     * @param request      The request, each <code>filter</code> query value is a filter term to apply to the
+     *                     appended lines, as with <code>/queryLog</code>. If there are none, all appended lines are
+     *                     sent.
+     * @param filterMode   How the filter terms are applied, as with <code>/queryLog</code>.
+     * @return A 200 OK with an event stream that continues until the client disconnects, a 404 if the file does not
+     * exist, or a 503 Service Unavailable if too many clients are following files, see {@link AdmissionControl}.
+     */
+    @Get(produces = MediaType.TEXT_EVENT_STREAM)
+    public Publisher<Event<String>> followLog(HttpRequest<?> request,
+                                              @QueryValue @NotBlank String relativePath,
+                                              @QueryValue(defaultValue = "all")
+                                              @Pattern(regexp = "all|any|regex") String filterMode) {
+        var path = Path.of(this.logDirectory, relativePath);
+        var mode = FilterMode.valueOf(filterMode.toUpperCase(Locale.ROOT));
+        var matcher = lineMatcherCache.get(mode, request.getParameters().getAll("filter"));
+        if (!Files.isRegularFile(path)) {
+            throw new TailReaderFileNotFoundException("File not found: " + path,
+                    new NoSuchFileException(path.toString()));
+        }
+        // The permit is held until the client disconnects, or the connection is closed before the stream starts.
+        var permit = admissionControl.follow(path);
+        var detach = QueryLogController.onConnectionClose(request, permit::close);
+        return fileFollower.follow(path, matcher)
+                .map(Event::of)
+                .doFinally(signal -> {
+                    detach.run();
+                    permit.close();
+                });
+    }
+}
@@ -0,0 +1,90 @@
+package qlog.controllers;
+
+import io.micronaut.context.annotation.Value;
+import io.micronaut.scheduling.TaskExecutors;
+import jakarta.annotation.Nullable;
+import jakarta.annotation.PreDestroy;
+import jakarta.inject.Named;
+import jakarta.inject.Singleton;
+import qlog.AdmissionControl;
+import qlog.Cancellation;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Runs the reads of the controllers. Reads block on the files, each read gets a virtual thread of its own so that
+ * the number of reads in flight is bounded by the admission limits (see {@link AdmissionControl}) rather than by the
+ * size of a thread pool. The blocking executor (a pool of platform threads) can be used instead with
+ * <code>qlog.query.executor=blocking</code>.
+ * <p>
+ * A read is admitted on the event loop before it is dispatched, so that a request past the limits is rejected
+ * before any thread is started for it. Its permit is released once the read completes, and if its response is
+ * cancelled first (e.g. the client disconnected) the read is stopped through its {@link Cancellation}.
+ */
+@Singleton
+public class QueryExecutor {
+
+    private final ExecutorService executor;
+    private final boolean owned;
+    private final Scheduler scheduler;
+
+    public QueryExecutor(@Named(TaskExecutors.BLOCKING) ExecutorService blockingExecutor,
+                         @Value("${qlog.query.executor:virtual}") String queryExecutor) {
+        this.owned = !"blocking".equals(queryExecutor);
+        this.executor = owned
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("qlog-query-", 0).factory())
+                : blockingExecutor;
+        this.scheduler = Schedulers.fromExecutorService(executor);
+    }
+
+    /**
+     * Runs the read on a thread of its own.
+     *
+     * @param permit The permit of the read, released once the read completes, or null if the caller releases it
+     *               (e.g. once a streamed response is complete).
+     * @return The result of the read. Cancelling it cancels the read.
+     */
+    <T> CompletableFuture<T> supplyAsync(@Nullable AdmissionControl.Permit permit,
+                                         Cancellation cancellation,
+                                         Supplier<T> read) {
+        CompletableFuture<T> future;
+        try {
+            future = CompletableFuture.supplyAsync(read, executor);
+        } catch (RuntimeException e) {
+            if (permit != null) {
+                permit.close();
+            }
+            throw e;
+        }
+        future.whenComplete((r, e) -> {
+            if (e instanceof CancellationException) {
+                // The thread reading is never interrupted, the reader checks the cancellation between chunks.
+                cancellation.cancel();
+            }
+            if (permit != null) {
+                permit.close();
+            }
+        });
+        return future;
+    }
+
+    /**
+     * Runs the reads of a stream, on the same threads as the other reads.
+     */
+    Scheduler scheduler() {
+        return scheduler;
+    }
+
+    @PreDestroy
+    public void close() {
+        if (owned) {
+            executor.shutdownNow();
+        }
+    }
+}
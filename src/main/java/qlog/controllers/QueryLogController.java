@@ -1,44 +1,117 @@
 package qlog.controllers;
 
-import dev.failsafe.Failsafe;
-import dev.failsafe.Timeout;
+import io.micronaut.context.annotation.Value;
+import io.micronaut.http.HttpRequest;
 import io.micronaut.http.HttpResponse;
+import io.micronaut.http.MediaType;
+import io.micronaut.http.MutableHttpResponse;
 import io.micronaut.http.annotation.Controller;
 import io.micronaut.http.annotation.Get;
+import io.micronaut.http.annotation.Header;
 import io.micronaut.http.annotation.QueryValue;
-import io.micronaut.scheduling.TaskExecutors;
-import io.micronaut.scheduling.annotation.ExecuteOn;
+import io.micronaut.http.server.netty.NettyHttpRequest;
+import io.micronaut.serde.ObjectMapper;
 import io.micronaut.serde.annotation.Serdeable.Serializable;
+import io.netty.channel.ChannelFutureListener;
 import jakarta.annotation.Nullable;
 import jakarta.inject.Inject;
 import jakarta.validation.constraints.Max;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.Pattern;
 import jakarta.validation.constraints.Positive;
 import jakarta.validation.constraints.PositiveOrZero;
+import qlog.AdmissionControl;
+import qlog.ArchiveCache;
+import qlog.Cancellation;
+import qlog.ContinuationTokens;
+import qlog.FileVersion;
+import qlog.FilterMode;
+import qlog.LineMatcher;
+import qlog.LineMatcherCache;
+import qlog.OpenFile;
+import qlog.ReadRange;
+import qlog.RotationSetReader;
+import qlog.TailRangeLocator;
 import qlog.TailReader;
+import qlog.TimeRangeSeek;
+import qlog.exc.TailReaderFileNotFoundException;
+import qlog.exc.TailReaderIOException;
+import qlog.exc.TailReaderInvalidFilterException;
+import reactor.core.publisher.Flux;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
 import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
 @Controller("/queryLog")
 public class QueryLogController {
 
+    /**
+     * Newline delimited JSON, each line of the file is written as its own JSON document.
+     */
+    public static final String APPLICATION_NDJSON = "application/x-ndjson";
+
+    /**
+     * The header with the continuation token of a <code>text/plain</code> response.
+     */
+    public static final String CONTINUATION_TOKEN = "Continuation-Token";
+
     private final TailReader tailReader;
+    private final RotationSetReader rotationSetReader;
+    private final LineMatcherCache lineMatcherCache;
+    private final TimeRangeSeek timeRangeSeek;
+    private final TailRangeLocator tailRangeLocator;
+    private final AdmissionControl admissionControl;
+    private final ObjectMapper objectMapper;
+    private final QueryExecutor queryExecutor;
+    private final String logDirectory;
+    private final int streamPageSize;
 
     @Inject
-    public QueryLogController(TailReader tailReader) {
+    public QueryLogController(TailReader tailReader,
+                              LineMatcherCache lineMatcherCache,
+                              TimeRangeSeek timeRangeSeek,
+                              TailRangeLocator tailRangeLocator,
+                              AdmissionControl admissionControl,
+                              ObjectMapper objectMapper,
+                              QueryExecutor queryExecutor,
+                              @Value("${qlog.log.directory:/var/log}") String logDirectory,
+                              @Value("${qlog.stream.page-size:500}") int streamPageSize) {
         this.tailReader = tailReader;
+        this.rotationSetReader = new RotationSetReader(tailReader);
+        this.lineMatcherCache = lineMatcherCache;
+        this.timeRangeSeek = timeRangeSeek;
+        this.tailRangeLocator = tailRangeLocator;
+        this.admissionControl = admissionControl;
+        this.objectMapper = objectMapper;
+        this.queryExecutor = queryExecutor;
+        this.logDirectory = logDirectory;
+        this.streamPageSize = streamPageSize;
     }
 
     /**
-     * Reads the "tail" of a file in /var/log.
+     * Reads the "tail" of a file in /var/log (or <code>qlog.log.directory</code>).
      *
      * @param relativePath      The relativePath used to resolve a file. E.g., "syslog" resolves to
      *                          <code>/var/log/syslog</code>. The relativePath must be a non-empty
      *                          string.
-     * @param filter            A filter to apply to the lines. If null, no filter is applied and
-     *                          all lines are returned.
+     * @param request           The request, each <code>filter</code> query value is a filter term to apply to
+     *                          the lines. If there are none, no filter is applied and all lines are returned.
+     * @param filterMode        How the filter terms are applied: <code>all</code> (the default) returns lines
+     *                          that contain every term, <code>any</code> returns lines that contain at least one
+     *                          term, and <code>regex</code> returns lines that contain a match of the regular
+     *                          expression, which must be the only term. An invalid regular expression results in a
+     *                          400 Bad Request.
      * @param start             The starting line number to tail in the file. If 0, the tail
      *                          starts at the end of the file.
      * @param count             The number of lines to tail in the file. Must be a positive
@@ -48,35 +121,375 @@ public class QueryLogController {
      *                          will contain a continuation token that can be used to retrieve the
      *                          next set of lines.
      * @param continuationToken A token that can be used to retrieve the "next" set of lines from
-     *                          the file. If the token is present, start and count are ignored and
-     *                          the file is read from the last position of the previous request
-     *                          using the same "count" parameter used in the previous request.
-     *                          If null, the file is read according to the start and count
-     *                          parameters and a continuationToken for this file will be returned
-     *                          in the response metadata.
-     * @return A 200 OK containing the requested lines from the file.
+     *                          the file. If the token is present, start is ignored and the file is
+     *                          read from the last position of the previous request. If null, the
+     *                          file is read according to the start and count parameters and a
+     *                          continuationToken for this file will be returned in the response
+     *                          metadata. A token must be used with the same filter it was issued
+     *                          for, otherwise the request is a 400 Bad Request. If the file has
+     *                          been replaced or truncated since the token was issued, the request
+     *                          is a 410 Gone, see {@link ContinuationTokens}.
+     * @param stream            If true, or if the request accepts <code>application/x-ndjson</code>, the lines
+     *                          are streamed as newline delimited JSON while the file is read, a
+     *                          <code>QueryLogLine</code> per line followed by a <code>QueryLogTrailer</code>
+     *                          with the continuation token (if there is one). The timeout applies to the
+     *                          whole stream.
+     * @param rotated           If true, the file is read together with its rotated generations (e.g.
+     *                          <code>syslog.1</code>, <code>syslog.2.gz</code>, ...) as one stream of lines,
+     *                          continuing into the older generations once the file has been read, see
+     *                          {@link RotationSetReader}. A rotated generation, compressed or not, can also be read
+     *                          on its own with its relativePath.
+     * @param since             If present, only the lines with a timestamp at or after this ISO-8601 instant (e.g.
+     *                          <code>2024-02-13T14:02:00Z</code>) are read, along with the lines without a
+     *                          timestamp between them. The file is binary searched for the first of them, so the
+     *                          lines before it are never read, see {@link TimeRangeSeek}. The start parameter is
+     *                          ignored. An invalid instant, or a time range with <code>rotated</code>, is a 400
+     *                          Bad Request.
+     * @param until             If present, only the lines with a timestamp at or before this ISO-8601 instant are
+     *                          read, as with <code>since</code>. The lines after it are never read.
+     * @param accept            If the request prefers <code>text/plain</code> to <code>application/json</code> (and
+     *                          isn't streamed), the lines are returned as text in the order they are in the file,
+     *                          with the continuation token (if there is one) in the <code>Continuation-Token</code>
+     *                          header. Without a filter the bytes of the lines are sent straight from the file.
+     * @return A 200 OK containing the requested lines from the file. A 504 Gateway Timeout if the lines are not
+     * read within the timeout. A 429 Too Many Requests if too many different requests are reading the same file, or
+     * a 503 Service Unavailable if too many requests are reading in total, see {@link AdmissionControl}.
+     */
+    @Get(produces = {MediaType.APPLICATION_JSON, APPLICATION_NDJSON, MediaType.TEXT_PLAIN})
+    public CompletableFuture<HttpResponse<?>> queryLog(HttpRequest<?> request,
+                                                       @QueryValue @NotBlank String relativePath,
+                                                       @QueryValue(defaultValue = "all")
+                                                       @Pattern(regexp = "all|any|regex") String filterMode,
+                                                       @QueryValue(defaultValue = "0") @PositiveOrZero int start,
+                                                       @QueryValue(defaultValue = "1000")
+                                                       @Positive @Max(value = 10_000) int count,
+                                                       @QueryValue @Nullable String continuationToken,
+                                                       @QueryValue(defaultValue = "10")
+                                                       @Positive @Max(value = 60) int timeoutSeconds,
+                                                       @QueryValue(defaultValue = "false") boolean stream,
+                                                       @QueryValue(defaultValue = "false") boolean rotated,
+                                                       @QueryValue @Nullable String since,
+                                                       @QueryValue @Nullable String until,
+                                                       @Header @Nullable String accept) {
+        var path = Path.of(this.logDirectory, relativePath);
+        // The filter terms are read from the parameters as is, binding them to a List would split them on commas.
+        var mode = FilterMode.valueOf(filterMode.toUpperCase(Locale.ROOT));
+        var terms = request.getParameters().getAll("filter");
+        var sinceInstant = instant("since", since);
+        var untilInstant = instant("until", until);
+        var timeRange = sinceInstant != null || untilInstant != null;
+        if (timeRange && rotated) {
+            throw new TailReaderInvalidFilterException("A time range can't be read with the rotated generations",
+                    null);
+        }
+        var matcher = timeRange
+                ? timeRangeSeek.matcher(lineMatcherCache.get(mode, terms), sinceInstant, untilInstant)
+                : lineMatcherCache.get(mode, terms);
+        var filterHash = ContinuationTokens.filterHash(mode, terms, sinceInstant, untilInstant);
+        var streaming = stream || (accept != null && accept.contains(APPLICATION_NDJSON));
+        var plainText = !streaming && prefersPlainText(accept);
+        var reader = rotated ? rotationSetReader : tailReader;
+        // Rejected on the event loop, before any thread is started for the read. Identical requests share a read,
+        // except streamed ones which read page by page as the client consumes them, and text/plain ones which may
+        // locate their lines without going through the reader that shares the reads.
+        var permit = admissionControl.acquire(path, streaming || plainText
+                ? null
+                : new IdenticalRead(mode, terms, sinceInstant, untilInstant, continuationToken, start, count,
+                        rotated));
+        // The deadline is checked by the reader between chunks, the thread reading is never interrupted.
+        var cancellation = Cancellation.after(Duration.ofSeconds(timeoutSeconds));
+        var detach = streaming
+                ? onConnectionClose(request, () -> {
+                    cancellation.cancel();
+                    permit.close();
+                })
+                : (Runnable) () -> { };
+        CompletableFuture<HttpResponse<?>> response;
+        try {
+            // The permit of a streamed response is held until the stream is complete, or the connection is closed.
+            response = queryExecutor.supplyAsync(streaming ? null : permit, cancellation, () -> {
+                // The readers continue from a position, the token is checked against the file before it is read.
+                var position = continuationToken == null
+                        ? null
+                        : ContinuationTokens.decode(path, rotated, continuationToken, filterHash);
+                // The bytes of a time range are found again for each request, the continuation token only records
+                // how far through them the previous request read.
+                var range = timeRange
+                        ? timeRangeSeek.range(path, sinceInstant, untilInstant, cancellation)
+                        : null;
+                if (plainText) {
+                    return plainText(reader, path, matcher, filterHash, range, position, start, count,
+                            cancellation);
+                }
+                if (streaming) {
+                    return HttpResponse.ok(streamLines(reader, path, matcher, filterHash, range, position, start,
+                                    count, cancellation).doFinally(signal -> {
+                                detach.run();
+                                permit.close();
+                            }))
+                            .contentType(MediaType.of(APPLICATION_NDJSON));
+                }
+                var result = reader.getLastNMatchingLines(path, matcher,
+                        range == null ? position : range.continuationToken(position), start, count, cancellation);
+                return HttpResponse.ok(new QueryLog(
+                        result.lines(),
+                        result.continuationToken()
+                                .map(token -> new Metadata(new ContinuationToken(
+                                        ContinuationTokens.encode(path, result.version(), token, filterHash))))
+                                .orElse(null)));
+            });
+        } catch (RuntimeException e) {
+            detach.run();
+            permit.close();
+            throw e;
+        }
+        if (streaming) {
+            response.whenComplete((r, e) -> {
+                if (e != null) {
+                    // No stream to complete, the read failed or the response was cancelled.
+                    cancellation.cancel();
+                    detach.run();
+                    permit.close();
+                }
+            });
+        }
+        return response;
+    }
+
+    /**
+     * Whether the request prefers <code>text/plain</code> to JSON: it accepts <code>text/plain</code>, and ranks it
+     * (by its quality, then by its place in the header) above <code>application/json</code>. Clients that accept
+     * both by default, e.g. <code>application/json, text/plain, *&#47;*</code>, are answered with JSON.
+     */
+    static boolean prefersPlainText(@Nullable String accept) {
+        if (accept == null) {
+            return false;
+        }
+        for (var type : MediaType.orderedOf(accept)) {
+            if (type.getName().equals(MediaType.TEXT_PLAIN)) {
+                return true;
+            }
+            if (type.getName().equals(MediaType.APPLICATION_JSON)) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Runs the action if the connection of the request is closed, to close the permit of a streamed response (and
+     * stop its reads) if the connection is closed first. Otherwise a response that completes but whose body is
+     * never subscribed to (e.g. the client disconnects before it is written) would hold its permit for good,
+     * neither the response nor the stream failing. A permit is only closed once, however it is closed.
+     *
+     * @return Removes the listener from the connection, once the permit has been closed otherwise.
+     */
+    static Runnable onConnectionClose(HttpRequest<?> request, Runnable action) {
+        if (!(request instanceof NettyHttpRequest<?> nettyRequest)) {
+            return () -> { };
+        }
+        var closeFuture = nettyRequest.getChannelHandlerContext().channel().closeFuture();
+        ChannelFutureListener listener = future -> action.run();
+        closeFuture.addListener(listener);
+        // A connection is kept alive across requests, the listeners of the requests done with it are removed.
+        return () -> closeFuture.removeListener(listener);
+    }
+
+    /**
+     * The lines as text, oldest first as they are in the file. A read without a filter of a file as it is (not
+     * rotated or archived) only finds where its lines are, and the bytes of the lines are sent from the file
+     * without being read into memory, see {@link TailRangeLocator} and {@link FileRangeBodyWriter}.
+     */
+    private HttpResponse<?> plainText(TailReader reader,
+                                      Path path,
+                                      @Nullable LineMatcher matcher,
+                                      int filterHash,
+                                      @Nullable ReadRange range,
+                                      @Nullable String position,
+                                      int start,
+                                      int count,
+                                      Cancellation cancellation) {
+        if (matcher != null || reader != tailReader || range != null || ArchiveCache.isArchive(path)) {
+            var result = reader.getLastNMatchingLines(path, matcher,
+                    range == null ? position : range.continuationToken(position), start, count, cancellation);
+            var text = new StringBuilder();
+            for (var line : result.lines().reversed()) {
+                text.append(line).append('\n');
+            }
+            return withToken(HttpResponse.ok(text.toString()), path, result.version(), result.continuationToken(),
+                    filterHash);
+        }
+        OpenFile<RandomAccessFile> opened;
+        try {
+            opened = OpenFile.open(path, p -> new RandomAccessFile(p.toFile(), "r"));
+        } catch (NoSuchFileException e) {
+            throw new TailReaderFileNotFoundException("File not found: " + path, e);
+        } catch (IOException e) {
+            throw new TailReaderIOException("Error reading file: " + path, e);
+        }
+        var file = opened.file();
+        try {
+            var ch = file.getChannel();
+            var version = FileVersion.of(opened.fileId(), ch, ch.size());
+            var tail = tailRangeLocator.locate(path, ch, opened.fileId(), position, start, count, cancellation);
+            if (tail.length() == 0) {
+                file.close();
+                return withToken(HttpResponse.ok(""), path, version, tail.continuationToken(), filterHash);
+            }
+            // The file is closed once the range has been sent.
+            return withToken(HttpResponse.ok(new FileRange(file, tail.from(), tail.length())), path, version,
+                    tail.continuationToken(), filterHash);
+        } catch (IOException e) {
+            throw new TailReaderIOException("Error reading file: " + path, e);
+        } catch (RuntimeException e) {
+            try {
+                file.close();
+            } catch (IOException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            throw e;
+        }
+    }
+
+    private static MutableHttpResponse<?> withToken(MutableHttpResponse<?> response,
+                                                    Path path,
+                                                    @Nullable FileVersion version,
+                                                    Optional<String> token,
+                                                    int filterHash) {
+        response.contentType(MediaType.TEXT_PLAIN_TYPE);
+        token.ifPresent(t -> response.header(CONTINUATION_TOKEN,
+                ContinuationTokens.encode(path, version, t, filterHash)));
+        return response;
+    }
+
+    /**
+     * Reads the lines a page of <code>qlog.stream.page-size</code> lines at a time, continuing each page from the
+     * continuation token of the previous page, so that only one page is held in memory at a time. A page is only
+     * read when the client is ready for more (each page is generated on demand).
+     * <p>
+     * The first page is read before the response is returned so that a missing file, or any other failure
+     * reading the first page, is handled like any other request instead of breaking off a streamed response.
+     */
+    private Flux<byte[]> streamLines(TailReader reader,
+                                     Path path,
+                                     @Nullable LineMatcher matcher,
+                                     int filterHash,
+                                     @Nullable ReadRange range,
+                                     @Nullable String position,
+                                     int start,
+                                     int count,
+                                     Cancellation cancellation) {
+        var state = new StreamState(range, position, start, count);
+        var firstPage = nextPage(reader, path, matcher, filterHash, state, cancellation);
+        return Flux.just(firstPage)
+                .concatWith(Flux.<byte[], StreamState>generate(() -> state, (s, sink) -> {
+                    if (s.done) {
+                        sink.complete();
+                    } else {
+                        sink.next(nextPage(reader, path, matcher, filterHash, s, cancellation));
+                    }
+                    return s;
+                }).subscribeOn(queryExecutor.scheduler()))
+                // Stop reading if the client goes away in the middle of the stream.
+                .doOnCancel(cancellation::cancel);
+    }
+
+    private byte[] nextPage(TailReader reader,
+                            Path path,
+                            @Nullable LineMatcher matcher,
+                            int filterHash,
+                            StreamState state,
+                            Cancellation cancellation) {
+        var token = state.range == null ? state.token : state.range.continuationToken(state.token);
+        var result = reader.getLastNMatchingLines(path, matcher, token, state.start,
+                Math.min(this.streamPageSize, state.remaining), cancellation);
+        // As with a request using a continuation token, only the first page skips start lines.
+        state.start = 0;
+        state.remaining -= result.lines().size();
+        state.token = result.continuationToken().orElse(null);
+        state.version = result.version();
+        state.done = state.remaining <= 0 || state.token == null;
+        var page = new ByteArrayOutputStream();
+        try {
+            for (var line : result.lines()) {
+                page.write(objectMapper.writeValueAsBytes(new QueryLogLine(line)));
+                page.write('\n');
+            }
+            if (state.done && state.token != null) {
+                page.write(objectMapper.writeValueAsBytes(
+                        new QueryLogTrailer(new Metadata(new ContinuationToken(
+                                ContinuationTokens.encode(path, state.version, state.token, filterHash))))));
+                page.write('\n');
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return page.toByteArray();
+    }
+
+    /**
+     * Parses an ISO-8601 instant, a 400 Bad Request if it isn't one.
+     */
+    @Nullable
+    static Instant instant(String name, @Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Instant.parse(value);
+        } catch (DateTimeParseException e) {
+            throw new TailReaderInvalidFilterException("Invalid " + name + ", expected an ISO-8601 instant: " + value,
+                    e);
+        }
+    }
+
+    private static final class StreamState {
+        @Nullable
+        private final ReadRange range;
+        @Nullable
+        private String token;
+        // The file the token is a position in.
+        @Nullable
+        private FileVersion version;
+        private int start;
+        private int remaining;
+        private boolean done;
+
+        StreamState(@Nullable ReadRange range, @Nullable String token, int start, int remaining) {
+            this.range = range;
+            this.token = token;
+            // As with the readers, the start is ignored when reading a time range.
+            this.start = token == null && range == null ? start : 0;
+            this.remaining = remaining;
+        }
+    }
+
+    /**
+     * The parameters of a request that make it identical to another request of the same file, for
+     * {@link AdmissionControl#acquire(Path, Object)}.
      */
-    @Get
-    @ExecuteOn(TaskExecutors.BLOCKING)
-    public HttpResponse<QueryLog> queryLog(@QueryValue @NotBlank String relativePath,
-                                           @QueryValue @Nullable String filter,
-                                           @QueryValue(defaultValue = "0") @PositiveOrZero int start,
-                                           @QueryValue(defaultValue = "1000") @Positive @Max(value = 10_000) int count,
-                                           @QueryValue @Nullable String continuationToken,
-                                           @QueryValue(defaultValue = "10") @Positive @Max(value = 60) int timeoutSeconds) {
-        var result = Failsafe.with(Timeout.builder(Duration.ofSeconds(timeoutSeconds)).withInterrupt().build())
-                .get(() -> this.tailReader.getLastNLines(Path.of("/var/log", relativePath), filter, continuationToken, start, count));
-        return HttpResponse.ok(new QueryLog(
-                result.lines(),
-                result.continuationToken()
-                        .map(token -> new Metadata(new ContinuationToken(token)))
-                        .orElse(null)));
+    private record IdenticalRead(FilterMode mode,
+                                 List<String> terms,
+                                 @Nullable Instant since,
+                                 @Nullable Instant until,
+                                 @Nullable String continuationToken,
+                                 int start,
+                                 int count,
+                                 boolean rotated) {
     }
 
     @Serializable
     public record QueryLog(List<String> data, @Nullable Metadata metadata) {
     }
 
+    @Serializable
+    public record QueryLogLine(String line) {
+    }
+
+    @Serializable
+    public record QueryLogTrailer(Metadata metadata) {
+    }
+
     @Serializable
     public record Metadata(ContinuationToken continuationToken) {
     }
@@ -0,0 +1,216 @@
+package qlog.controllers;
+
+import io.micronaut.context.annotation.Value;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.HttpResponse;
+import io.micronaut.http.annotation.Controller;
+import io.micronaut.http.annotation.Get;
+import io.micronaut.http.annotation.QueryValue;
+import io.micronaut.serde.annotation.Serdeable.Serializable;
+import jakarta.annotation.Nullable;
+import jakarta.inject.Inject;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Pattern;
+import jakarta.validation.constraints.Positive;
+import qlog.AdmissionControl;
+import qlog.Cancellation;
+import qlog.ContinuationTokens;
+import qlog.FanInReader;
+import qlog.FilterMode;
+import qlog.LineMatcherCache;
+import qlog.controllers.QueryLogController.ContinuationToken;
+import qlog.controllers.QueryLogController.Metadata;
+import qlog.exc.TailReaderFileNotFoundException;
+import qlog.exc.TailReaderIOException;
+import qlog.exc.TailReaderInvalidPathException;
+import qlog.exc.TailReaderStaleTokenException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+@Controller("/queryLogs")
+public class QueryLogsController {
+
+    private final FanInReader fanInReader;
+    private final LineMatcherCache lineMatcherCache;
+    private final AdmissionControl admissionControl;
+    private final QueryExecutor queryExecutor;
+    private final Path logDirectory;
+    private final int maxFiles;
+    private final int maxEntries;
+
+    @Inject
+    public QueryLogsController(FanInReader fanInReader,
+                               LineMatcherCache lineMatcherCache,
+                               AdmissionControl admissionControl,
+                               QueryExecutor queryExecutor,
+                               @Value("${qlog.log.directory:/var/log}") String logDirectory,
+                               @Value("${qlog.merge.max-files:64}") int maxFiles,
+                               @Value("${qlog.merge.max-entries:100000}") int maxEntries) {
+        this.fanInReader = fanInReader;
+        this.lineMatcherCache = lineMatcherCache;
+        this.admissionControl = admissionControl;
+        this.queryExecutor = queryExecutor;
+        this.logDirectory = Path.of(logDirectory).normalize();
+        this.maxFiles = maxFiles;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Reads the "tail" of several files in /var/log (or <code>qlog.log.directory</code>) at once, merging their
+     * lines newest first by the timestamp of each line, see {@link FanInReader}.
+     *
+     * @param request           The request, each <code>path</code> query value is a path relative to the log
+     *                          directory or a glob matched against the paths of the files in the log directory
+     *                          (e.g. <code>nginx/*.log</code>, or <code>**.log</code> to include subdirectories).
+     *                          At most <code>qlog.merge.max-files</code> files can be read at once, and the globs
+     *                          can list at most <code>qlog.merge.max-entries</code> entries of the log directory,
+     *                          otherwise the request is a 400 Bad Request, as it is for a path outside the log
+     *                          directory. A 404 Not Found if no file matches. Each
+     *                          <code>filter</code> query value is a filter term, as with <code>/queryLog</code>.
+     * @param filterMode        How the filter terms are applied, as with <code>/queryLog</code>.
+     * @param count             The number of lines to return, at most 10,000.
+     * @param continuationToken A token to read the next set of lines, from the response metadata of the previous
+     *                          request with the same paths and filter. If the paths now match other files, or
+     *                          one of the files has been replaced or truncated, the request is a 410 Gone.
+     * @param timeoutSeconds    As with <code>/queryLog</code>.
+     * @return A 200 OK containing the lines, each with the path of the file it was read from.
+     */
+    @Get
+    public CompletableFuture<HttpResponse<?>> queryLogs(HttpRequest<?> request,
+                                                        @QueryValue(defaultValue = "all")
+                                                        @Pattern(regexp = "all|any|regex") String filterMode,
+                                                        @QueryValue(defaultValue = "1000")
+                                                        @Positive @Max(value = 10_000) int count,
+                                                        @QueryValue @Nullable String continuationToken,
+                                                        @QueryValue(defaultValue = "10")
+                                                        @Positive @Max(value = 60) int timeoutSeconds) {
+        var patterns = request.getParameters().getAll("path");
+        if (patterns.isEmpty()) {
+            throw new TailReaderInvalidPathException("At least one path is required", null);
+        }
+        var mode = FilterMode.valueOf(filterMode.toUpperCase(Locale.ROOT));
+        var terms = request.getParameters().getAll("filter");
+        var matcher = lineMatcherCache.get(mode, terms);
+        var filterHash = ContinuationTokens.filterHash(mode, terms);
+        var cancellation = Cancellation.after(Duration.ofSeconds(timeoutSeconds));
+        // Paths are resolved and their reads admitted on the event loop, before any thread is started for the
+        // request. Globs list the log directory, so they are resolved on the query executor under a permit for the
+        // directory, and the reads of the files they match are admitted once resolved.
+        var literal = patterns.stream().anyMatch(QueryLogsController::isGlob) ? null : resolve(patterns, cancellation);
+        var permit = literal != null ? admissionControl.acquire(literal) : admissionControl.acquire(logDirectory);
+        return queryExecutor.supplyAsync(permit, cancellation, () -> {
+            var paths = literal != null ? literal : resolve(patterns, cancellation);
+            try (var ignored = literal != null ? null : admissionControl.acquire(paths)) {
+                var positions = continuationToken == null ? null : positions(paths, continuationToken, filterHash);
+                var result = fanInReader.getLastNMatchingLines(paths, matcher, positions, count, cancellation);
+                var lines = result.lines().stream()
+                        .map(line -> new QueryLogsLine(
+                                logDirectory.relativize(paths.get(line.file())).toString(), line.line()))
+                        .toList();
+                return HttpResponse.ok(new QueryLogs(lines, result.hasMore()
+                        ? new Metadata(new ContinuationToken(token(paths, result, filterHash)))
+                        : null));
+            }
+        });
+    }
+
+    /**
+     * The files the paths and globs match, in the order of the paths and then of the files' paths.
+     */
+    private List<Path> resolve(List<String> patterns, Cancellation cancellation) {
+        var paths = new LinkedHashSet<Path>();
+        for (var pattern : patterns) {
+            if (!isGlob(pattern)) {
+                var path = logDirectory.resolve(pattern).normalize();
+                if (!path.startsWith(logDirectory)) {
+                    throw new TailReaderInvalidPathException("Path is outside the log directory: " + pattern, null);
+                }
+                paths.add(path);
+                continue;
+            }
+            var glob = logDirectory.getFileSystem().getPathMatcher("glob:" + pattern);
+            // Only walk as deep as the glob can match, unless it crosses directories.
+            var depth = pattern.contains("**") ? Integer.MAX_VALUE : pattern.split("/").length;
+            var entries = new int[1];
+            try (var files = Files.walk(logDirectory, depth)) {
+                var matched = files.peek(file -> {
+                            if (++entries[0] > maxEntries) {
+                                throw new TailReaderInvalidPathException("The glob lists more than " + maxEntries
+                                        + " entries of the log directory: " + pattern, null);
+                            }
+                            cancellation.throwIfCancelled(logDirectory);
+                        })
+                        .filter(file -> glob.matches(logDirectory.relativize(file)) && Files.isRegularFile(file))
+                        .sorted()
+                        .toList();
+                if (matched.isEmpty()) {
+                    throw new TailReaderFileNotFoundException("No files match: " + pattern,
+                            new NoSuchFileException(pattern));
+                }
+                paths.addAll(matched);
+            } catch (IOException | UncheckedIOException e) {
+                throw new TailReaderIOException("Error listing files matching: " + pattern, e);
+            }
+        }
+        if (paths.size() > maxFiles) {
+            throw new TailReaderInvalidPathException(
+                    "The paths match " + paths.size() + " files, at most " + maxFiles + " can be read at once", null);
+        }
+        return List.copyOf(paths);
+    }
+
+    private static boolean isGlob(String pattern) {
+        return pattern.chars().anyMatch(c -> c == '*' || c == '?' || c == '[' || c == '{');
+    }
+
+    /**
+     * The continuation token of a merged read is the continuation token of each file, in the order of the files,
+     * separated by a '.' (which base64url doesn't use), and empty for a file that has been read to its start.
+     */
+    private static String token(List<Path> paths, FanInReader.MergedResult result, int filterHash) {
+        var tokens = new ArrayList<String>(paths.size());
+        for (int i = 0; i < paths.size(); i++) {
+            var path = paths.get(i);
+            var version = result.versions().get(i);
+            tokens.add(result.positions().get(i)
+                    .map(position -> ContinuationTokens.encode(path, version, position, filterHash))
+                    .orElse(""));
+        }
+        return String.join(".", tokens);
+    }
+
+    private static List<Optional<String>> positions(List<Path> paths, String token, int filterHash) {
+        var tokens = token.split("\\.", -1);
+        if (tokens.length != paths.size()) {
+            throw new TailReaderStaleTokenException("The paths match other files than when the continuation "
+                    + "token was issued: " + paths.stream().map(Path::toString).collect(Collectors.joining(", ")));
+        }
+        var positions = new ArrayList<Optional<String>>(paths.size());
+        for (int i = 0; i < paths.size(); i++) {
+            positions.add(tokens[i].isEmpty()
+                    ? Optional.empty()
+                    : Optional.of(ContinuationTokens.decode(paths.get(i), false, tokens[i], filterHash)));
+        }
+        return positions;
+    }
+
+    @Serializable
+    public record QueryLogs(List<QueryLogsLine> data, @Nullable Metadata metadata) {
+    }
+
+    @Serializable
+    public record QueryLogsLine(String file, String line) {
+    }
+}
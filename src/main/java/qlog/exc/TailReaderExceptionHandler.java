@@ -1,6 +1,6 @@
 package qlog.exc;
 
-import dev.failsafe.TimeoutExceededException;
+import io.micronaut.http.HttpHeaders;
 import io.micronaut.http.HttpRequest;
 import io.micronaut.http.HttpResponse;
 import io.micronaut.http.HttpStatus;
@@ -10,6 +10,8 @@ import io.micronaut.http.server.exceptions.response.ErrorContext;
 import io.micronaut.http.server.exceptions.response.ErrorResponseProcessor;
 import jakarta.inject.Singleton;
 
+import java.util.concurrent.CompletionException;
+
 @SuppressWarnings("rawtypes")
 @Produces
 @Singleton
@@ -24,13 +26,27 @@ public class TailReaderExceptionHandler implements ExceptionHandler<Exception, H
     @SuppressWarnings("DuplicateBranchesInSwitch")
     @Override
     public HttpResponse handle(HttpRequest request, Exception exception) {
+        // Reads run asynchronously, so the exception may be wrapped by the future of the response.
+        if (exception instanceof CompletionException && exception.getCause() instanceof Exception cause) {
+            exception = cause;
+        }
         return errorResponseProcessor.processResponse(ErrorContext.builder(request)
                 .cause(exception)
                 .errorMessage(exception.getMessage())
                 .build(), switch (exception) {
             case TailReaderFileNotFoundException ignored -> HttpResponse.notFound();
+            case TailReaderInvalidFilterException ignored -> HttpResponse.badRequest();
+            case TailReaderInvalidPathException ignored -> HttpResponse.badRequest();
+            case TailReaderInvalidTokenException ignored -> HttpResponse.badRequest();
+            // The file the token was issued for is gone, the client should start again from the end of the file.
+            case TailReaderStaleTokenException ignored -> HttpResponse.status(HttpStatus.GONE);
             case TailReaderIOException ignored -> HttpResponse.serverError();
-            case TimeoutExceededException ignored -> HttpResponse.status(HttpStatus.GATEWAY_TIMEOUT);
+            case TailReaderTimeoutException ignored -> HttpResponse.status(HttpStatus.GATEWAY_TIMEOUT);
+            // Rejected without being queued, the client should retry shortly.
+            case TailReaderOverloadedException e when e.isGlobal() ->
+                    HttpResponse.status(HttpStatus.SERVICE_UNAVAILABLE).header(HttpHeaders.RETRY_AFTER, "1");
+            case TailReaderOverloadedException ignored ->
+                    HttpResponse.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, "1");
             default -> HttpResponse.serverError();
         });
     }
@@ -0,0 +1,7 @@
+package qlog.exc;
+
+public class TailReaderInvalidFilterException extends TailReaderException {
+    public TailReaderInvalidFilterException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
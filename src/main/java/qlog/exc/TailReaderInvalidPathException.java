@@ -0,0 +1,7 @@
+package qlog.exc;
+
+public class TailReaderInvalidPathException extends TailReaderException {
+    public TailReaderInvalidPathException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
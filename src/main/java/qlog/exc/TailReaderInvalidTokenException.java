@@ -0,0 +1,7 @@
+package qlog.exc;
+
+public class TailReaderInvalidTokenException extends TailReaderException {
+    public TailReaderInvalidTokenException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
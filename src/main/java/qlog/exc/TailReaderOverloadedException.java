@@ -0,0 +1,19 @@
+package qlog.exc;
+
+/**
+ * Thrown when a request is not admitted because too many requests are already reading, either from the server as
+ * a whole (<code>global</code>) or from the same file.
+ */
+public class TailReaderOverloadedException extends TailReaderException {
+
+    private final boolean global;
+
+    public TailReaderOverloadedException(String message, boolean global) {
+        super(message, null);
+        this.global = global;
+    }
+
+    public boolean isGlobal() {
+        return global;
+    }
+}
@@ -0,0 +1,7 @@
+package qlog.exc;
+
+public class TailReaderStaleTokenException extends TailReaderException {
+    public TailReaderStaleTokenException(String message) {
+        super(message, null);
+    }
+}
@@ -0,0 +1,7 @@
+package qlog.exc;
+
+public class TailReaderTimeoutException extends TailReaderException {
+    public TailReaderTimeoutException(String message) {
+        super(message, null);
+    }
+}
@@ -0,0 +1,13 @@
+package qlog;
+
+/**
+ * Runs the suite with chunks that start at a single byte and double up to the capacity, reading ahead once they
+ * reach it.
+ */
+public class AdaptiveChunkTailReaderTest extends TailReaderTest {
+
+    @Override
+    TailReader newReader(int bufferCapacity) {
+        return new TailReaderImpl(new ScanContextPool(bufferCapacity, 1), 1, true, null, null);
+    }
+}
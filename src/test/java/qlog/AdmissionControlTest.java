@@ -0,0 +1,66 @@
+package qlog;
+
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Test;
+import qlog.exc.TailReaderOverloadedException;
+
+import java.nio.file.Path;
+
+public class AdmissionControlTest implements WithAssertions {
+
+    private final Path path = Path.of("access.log");
+
+    @Test
+    void identicalRequestsShareThePermitsOfTheirRead() {
+        var admissionControl = new AdmissionControl(2, 1, 1, new ReadCoalescer(0));
+        var first = admissionControl.acquire(path, "count=10");
+        var identical = admissionControl.acquire(path, "count=10");
+        var other = admissionControl.acquire(Path.of("other.log"));
+
+        assertThat(admissionControl.inFlight()).isEqualTo(3);
+        assertThatThrownBy(() -> admissionControl.acquire(path, "count=20"))
+                .as("A different read of the file is past the limit for the file.")
+                .isInstanceOf(TailReaderOverloadedException.class);
+
+        first.close();
+        // The read is still in flight for the identical request.
+        var third = admissionControl.acquire(path, "count=10");
+        assertThatThrownBy(() -> admissionControl.acquire(path, "count=20"))
+                .isInstanceOf(TailReaderOverloadedException.class);
+        other.close();
+        identical.close();
+        third.close();
+        assertThat(admissionControl.inFlight()).isZero();
+        admissionControl.acquire(path, "count=20").close();
+    }
+
+    @Test
+    void requestsAreNotSharedWithoutACoalescer() {
+        var admissionControl = new AdmissionControl(2, 1, 1, null);
+        try (var first = admissionControl.acquire(path, "count=10")) {
+            assertThatThrownBy(() -> admissionControl.acquire(path, "count=10"))
+                    .isInstanceOf(TailReaderOverloadedException.class);
+        }
+        try (var permit = admissionControl.acquire(path, "count=10")) {
+            assertThat(admissionControl.inFlight()).isOne();
+        }
+        assertThat(admissionControl.inFlight()).isZero();
+    }
+
+    @Test
+    void permitsAreReleasedOnceTheLastIdenticalRequestIsDone() {
+        var admissionControl = new AdmissionControl(1, 1, 1, new ReadCoalescer(0));
+        var first = admissionControl.acquire(path, "count=10");
+        var identical = admissionControl.acquire(path, "count=10");
+
+        first.close();
+        first.close();
+        assertThatThrownBy(() -> admissionControl.acquire(Path.of("other.log")))
+                .as("The global permit is still held by the identical request.")
+                .isInstanceOf(TailReaderOverloadedException.class);
+        identical.close();
+        try (var other = admissionControl.acquire(Path.of("other.log"))) {
+            assertThat(admissionControl.inFlight()).isOne();
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package qlog;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class CachingTailReaderTest extends TailReaderTest {
+
+    @Override
+    TailReader newReader(int bufferCapacity) {
+        // A block smaller than most of the test files so that lines are read both from the block and the file.
+        return new CachingTailReader(new TailReaderImpl(bufferCapacity), new TailBlockCache(256, 1 << 20));
+    }
+
+    @Test
+    void unchangedFileIsReadOnce() {
+        var path = getPathToResource("macbeth.txt");
+        var cache = new TailBlockCache(4096, 1 << 20);
+        var reader = new CachingTailReader(new TailReaderImpl(65536), cache);
+        for (int i = 0; i < 3; i++) {
+            assertThat(reader.getLastNLines(path, null, null, 0, 1).lines()).containsExactly("Signifying nothing.");
+        }
+        assertThat(cache.stats()).isEqualTo(new TailBlockCache.Stats(2, 0, 1, 0));
+    }
+
+    @Test
+    void onlyAppendedLinesAreRead(@TempDir Path dir) throws IOException {
+        var path = dir.resolve("appended.log");
+        Files.writeString(path, "one\ntwo\nthr");
+        var cache = new TailBlockCache(4096, 1 << 20);
+        var reader = new CachingTailReader(new TailReaderImpl(65536), cache);
+        assertThat(reader.getLastNLines(path, null, null, 0, 2).lines()).containsExactly("thr", "two");
+
+        Files.writeString(path, "ee\nfour\n", StandardOpenOption.APPEND);
+        assertThat(reader.getLastNLines(path, null, null, 0, 3).lines()).containsExactly("four", "three", "two");
+        assertThat(cache.stats()).isEqualTo(new TailBlockCache.Stats(0, 1, 1, 0));
+    }
+
+    @Test
+    void fileTruncatedAndWrittenAgainIsReadAgain(@TempDir Path dir) throws IOException {
+        var path = dir.resolve("copytruncate.log");
+        Files.writeString(path, "one\ntwo\nthree\n");
+        var cache = new TailBlockCache(4096, 1 << 20);
+        var reader = new CachingTailReader(new TailReaderImpl(65536), cache);
+        assertThat(reader.getLastNLines(path, null, null, 0, 2).lines()).containsExactly("three", "two");
+
+        // Same file, and larger than when it was cached, but not by having lines appended.
+        Files.writeString(path, "alpha\nbeta\ngamma\ndelta\n", StandardOpenOption.TRUNCATE_EXISTING);
+        assertThat(reader.getLastNLines(path, null, null, 0, 10).lines())
+                .containsExactly("delta", "gamma", "beta", "alpha");
+        assertThat(cache.stats()).isEqualTo(new TailBlockCache.Stats(0, 0, 2, 0));
+    }
+
+    @Test
+    void pagesBeforeTheBlockDontUseTheCache() {
+        var path = getPathToResource("128k_access.log");
+        var cache = new TailBlockCache(1024, 1 << 20);
+        var reader = new CachingTailReader(new TailReaderImpl(65536), cache);
+        var first = reader.getLastNLines(path, null, null, 0, 100);
+        var stats = cache.stats();
+
+        var second = reader.getLastNLines(path, null, first.continuationToken().orElseThrow(), 0, 100);
+        assertThat(second).isEqualTo(new TailReaderImpl(65536).getLastNLines(path, null,
+                first.continuationToken().orElseThrow(), 0, 100));
+        assertThat(cache.stats()).isEqualTo(stats);
+    }
+
+    @Test
+    void leastRecentlyUsedBlocksAreEvicted() {
+        var cache = new TailBlockCache(1024, 2000);
+        var reader = new CachingTailReader(new TailReaderImpl(65536), cache);
+        reader.getLastNLines(getPathToResource("macbeth.txt"), null, null, 0, 1);
+        reader.getLastNLines(getPathToResource("128k_access.log"), null, null, 0, 1);
+        assertThat(cache.stats().evictions()).isEqualTo(1);
+    }
+
+    @Test
+    void filesWithoutABlockAreNotKept(@TempDir Path dir) throws IOException {
+        var cache = new TailBlockCache(4096, 1 << 20);
+        for (int i = 0; i < 100; i++) {
+            var missing = dir.resolve("missing-" + i + ".log");
+            assertThatThrownBy(() -> cache.get(missing, Cancellation.NONE)).isInstanceOf(NoSuchFileException.class);
+        }
+        var empty = Files.createFile(dir.resolve("empty.log"));
+        assertThat(cache.get(empty, Cancellation.NONE)).isNull();
+        assertThat(cache.size()).isZero();
+    }
+
+    @Test
+    void blocksBeyondTheMaximumEntriesAreEvicted(@TempDir Path dir) throws IOException {
+        var cache = new TailBlockCache(4096, 1 << 20, 2);
+        for (int i = 0; i < 5; i++) {
+            cache.get(Files.writeString(dir.resolve(i + ".log"), "line " + i + "\n"), Cancellation.NONE);
+        }
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.stats().evictions()).isEqualTo(3);
+    }
+}
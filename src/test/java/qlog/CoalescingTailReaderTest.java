@@ -0,0 +1,128 @@
+package qlog;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import qlog.exc.TailReaderTimeoutException;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.awaitility.Awaitility.await;
+
+public class CoalescingTailReaderTest extends TailReaderTest {
+
+    @Override
+    TailReader newReader(int bufferCapacity) {
+        return new CoalescingTailReader(new TailReaderImpl(bufferCapacity), new ReadCoalescer(0));
+    }
+
+    @Test
+    void identicalConcurrentRequestsShareOneRead() throws Exception {
+        var path = getPathToResource("macbeth.txt");
+        var release = new CountDownLatch(1);
+        var reads = new AtomicInteger();
+        var coalescer = new ReadCoalescer(0);
+        var reader = new CoalescingTailReader(blockingReader(release, reads), coalescer);
+        var matcher = LineMatcher.literal("tomorrow");
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var results = new ArrayList<Future<TailReader.ReaderResult>>();
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() ->
+                        reader.getLastNMatchingLines(path, matcher, null, 0, 1, Cancellation.NONE)));
+            }
+            await().atMost(5, TimeUnit.SECONDS).until(() -> coalescer.stats().coalesced() == 7);
+            release.countDown();
+            for (var result : results) {
+                assertThat(result.get().lines()).containsExactly("read 1");
+            }
+        }
+        assertThat(reads).hasValue(1);
+        assertThat(coalescer.stats()).isEqualTo(new ReadCoalescer.Stats(1, 7, 0, 0));
+    }
+
+    @Test
+    void requestsForAChangedFileAreNotShared(@TempDir Path dir) throws Exception {
+        var path = dir.resolve("appended.log");
+        Files.writeString(path, "one\n");
+        var release = new CountDownLatch(1);
+        var reads = new AtomicInteger();
+        var coalescer = new ReadCoalescer(0);
+        var reader = new CoalescingTailReader(blockingReader(release, reads), coalescer);
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var first = executor.submit(() -> reader.getLastNLines(path, null, null, 0, 1));
+            await().atMost(5, TimeUnit.SECONDS).until(() -> reads.get() == 1);
+            Files.writeString(path, "two\n", StandardOpenOption.APPEND);
+            var second = executor.submit(() -> reader.getLastNLines(path, null, null, 0, 1));
+            await().atMost(5, TimeUnit.SECONDS).until(() -> reads.get() == 2);
+            release.countDown();
+            assertThat(first.get().lines()).containsExactly("read 1");
+            assertThat(second.get().lines()).containsExactly("read 2");
+        }
+        assertThat(coalescer.stats().coalesced()).isZero();
+    }
+
+    @Test
+    void waitingRequestReadsTheFileWhenTheReadItWaitedForIsCancelled() throws Exception {
+        var path = getPathToResource("macbeth.txt");
+        var release = new CountDownLatch(1);
+        var reads = new AtomicInteger();
+        var coalescer = new ReadCoalescer(0);
+        TailReader cancelledFirst = (p, matcher, continuationToken, start, count, cancellation) -> {
+            if (reads.incrementAndGet() == 1) {
+                await().atMost(5, TimeUnit.SECONDS).until(() -> release.getCount() == 0);
+                throw new TailReaderTimeoutException("Cancelled reading file: " + p);
+            }
+            return new TailReader.ReaderResult(List.of("read " + reads.get()), Optional.empty());
+        };
+        var reader = new CoalescingTailReader(cancelledFirst, coalescer);
+
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            var first = executor.submit(() -> reader.getLastNLines(path, null, null, 0, 1));
+            await().atMost(5, TimeUnit.SECONDS).until(() -> reads.get() == 1);
+            var second = executor.submit(() -> reader.getLastNLines(path, null, null, 0, 1));
+            await().atMost(5, TimeUnit.SECONDS).until(() -> coalescer.stats().coalesced() == 1);
+            release.countDown();
+            assertThatThrownBy(first::get).hasCauseInstanceOf(TailReaderTimeoutException.class);
+            assertThat(second.get().lines()).containsExactly("read 2");
+        }
+    }
+
+    @Test
+    void resultsAreServedForTheirTtlAfterTheReadCompletes() {
+        var path = getPathToResource("macbeth.txt");
+        var coalescer = new ReadCoalescer(60_000);
+        var reader = new CoalescingTailReader(new TailReaderImpl(65536), coalescer);
+        var matcher = LineMatcher.literal("tomorrow");
+        for (int i = 0; i < 3; i++) {
+            assertThat(reader.getLastNMatchingLines(path, matcher, null, 0, 1, Cancellation.NONE).lines())
+                    .containsExactly("Tomorrow, and tomorrow, and tomorrow,");
+        }
+        assertThat(coalescer.stats()).isEqualTo(new ReadCoalescer.Stats(1, 0, 2, 1));
+    }
+
+    /**
+     * A reader that returns "read n" for its nth read, once <code>release</code> is counted down.
+     */
+    private static TailReader blockingReader(CountDownLatch release, AtomicInteger reads) {
+        return (path, matcher, continuationToken, start, count, cancellation) -> {
+            var read = reads.incrementAndGet();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return new TailReader.ReaderResult(List.of("read " + read), Optional.empty());
+        };
+    }
+}
@@ -0,0 +1,108 @@
+package qlog;
+
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import qlog.exc.TailReaderInvalidTokenException;
+import qlog.exc.TailReaderStaleTokenException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+public class ContinuationTokensTest implements WithAssertions {
+
+    @TempDir
+    Path dir;
+
+    private Path live;
+    private int filter;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        live = dir.resolve("app.log");
+        Files.writeString(live, "one\ntwo\nthree\n");
+        filter = ContinuationTokens.filterHash(FilterMode.ALL, List.of("o"));
+    }
+
+    @Test
+    void tokenDecodesToThePositionItWasIssuedFor() throws IOException {
+        var token = ContinuationTokens.encode(live, version(live), "7", filter);
+        Files.writeString(live, "four\n", StandardOpenOption.APPEND);
+
+        assertThat(token).matches("[A-Za-z0-9_-]+").hasSizeLessThan(32);
+        assertThat(ContinuationTokens.decode(live, false, token, filter))
+                .as("Lines appended since the token was issued don't affect it.")
+                .isEqualTo("7");
+    }
+
+    @Test
+    void tokenForAReplacedOrTruncatedFileIsStale() throws IOException {
+        var token = ContinuationTokens.encode(live, version(live), "7", filter);
+        Files.writeString(live, "one\n");
+        assertThatThrownBy(() -> ContinuationTokens.decode(live, false, token, filter))
+                .isInstanceOf(TailReaderStaleTokenException.class)
+                .hasMessageContaining("truncated");
+
+        var replacedToken = ContinuationTokens.encode(live, version(live), "3", filter);
+        Files.writeString(dir.resolve("new.log"), "one\ntwo\n");
+        Files.move(dir.resolve("new.log"), live, StandardCopyOption.REPLACE_EXISTING);
+        assertThatThrownBy(() -> ContinuationTokens.decode(live, false, replacedToken, filter))
+                .isInstanceOf(TailReaderStaleTokenException.class)
+                .hasMessageContaining("replaced");
+    }
+
+    @Test
+    void tokenForAFileTruncatedAndWrittenPastItsSizeIsStale() throws IOException {
+        var token = ContinuationTokens.encode(live, version(live), "7", filter);
+        // As when the file is rotated with copytruncate, and written to again.
+        Files.writeString(live, "five\nsix\nseven\neight\n");
+
+        assertThatThrownBy(() -> ContinuationTokens.decode(live, false, token, filter))
+                .isInstanceOf(TailReaderStaleTokenException.class)
+                .hasMessageContaining("rewritten");
+    }
+
+    @Test
+    void rotatedTokenFollowsItsFileToAnOlderGeneration() throws IOException {
+        Files.writeString(dir.resolve("app.log.1"), "older\n");
+        var token = ContinuationTokens.encode(live, version(live), "7", filter);
+        var generationToken = ContinuationTokens.encode(live, version(dir.resolve("app.log.1")), "1:", filter);
+        assertThatThrownBy(() -> ContinuationTokens.decode(live, false, generationToken, filter))
+                .isInstanceOf(TailReaderInvalidTokenException.class);
+
+        Files.move(dir.resolve("app.log.1"), dir.resolve("app.log.2"));
+        Files.move(live, dir.resolve("app.log.1"));
+        Files.writeString(live, "new\n");
+
+        assertThat(ContinuationTokens.decode(live, true, token, filter)).isEqualTo("1:7");
+        assertThat(ContinuationTokens.decode(live, true, generationToken, filter)).isEqualTo("2:");
+        assertThatThrownBy(() -> ContinuationTokens.decode(live, false, token, filter))
+                .as("Without the rotated generations the file the token was issued for is gone.")
+                .isInstanceOf(TailReaderStaleTokenException.class);
+    }
+
+    @Test
+    void tokenForAnotherFilterOrMalformedIsInvalid() throws IOException {
+        var token = ContinuationTokens.encode(live, version(live), "7", filter);
+        var otherFilter = ContinuationTokens.filterHash(FilterMode.ANY, List.of("o"));
+
+        assertThatThrownBy(() -> ContinuationTokens.decode(live, false, token, otherFilter))
+                .isInstanceOf(TailReaderInvalidTokenException.class)
+                .hasMessageContaining("another filter");
+        assertThatThrownBy(() -> ContinuationTokens.decode(live, false, "not a token", filter))
+                .isInstanceOf(TailReaderInvalidTokenException.class);
+        assertThatThrownBy(() -> ContinuationTokens.decode(live, false, token.substring(0, 10), filter))
+                .isInstanceOf(TailReaderInvalidTokenException.class);
+    }
+
+    private static FileVersion version(Path path) throws IOException {
+        try (var opened = OpenFile.open(path)) {
+            return FileVersion.of(opened.fileId(), opened.file(), opened.file().size());
+        }
+    }
+}
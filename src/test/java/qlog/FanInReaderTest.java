@@ -0,0 +1,116 @@
+package qlog;
+
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import qlog.exc.TailReaderFileNotFoundException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+public class FanInReaderTest implements WithAssertions {
+
+    @TempDir
+    Path dir;
+
+    private List<Path> paths;
+    private final LineTimestamps lineTimestamps = new LineTimestamps("", "", "UTC");
+
+    @BeforeEach
+    void setUp() throws IOException {
+        var a = dir.resolve("a.log");
+        var b = dir.resolve("b.log");
+        Files.writeString(a, """
+                1.1.1.1 - - [13/Feb/2024:09:00:01 +0000] "GET /a1"
+                1.1.1.1 - - [13/Feb/2024:09:00:04 +0000] "GET /a2"
+                1.1.1.1 - - [13/Feb/2024:09:00:05 +0000] "GET /a3"
+                """);
+        Files.writeString(b, """
+                2.2.2.2 - - [13/Feb/2024:09:00:02 +0000] "GET /b1"
+                2.2.2.2 - - [13/Feb/2024:09:00:03 +0000] "GET /b2"
+                    at the line after b2
+                2.2.2.2 - - [13/Feb/2024:09:00:06 +0000] "GET /b3"
+                """);
+        paths = List.of(a, b);
+    }
+
+    @Test
+    void linesOfTheFilesAreMergedNewestFirst() {
+        var reader = new FanInReader(new TailReaderImpl(16), lineTimestamps);
+        var result = reader.getLastNMatchingLines(paths, null, null, 10, Cancellation.NONE);
+
+        assertThat(result.lines()).extracting(FanInReader.MergedLine::line).containsExactly(
+                "2.2.2.2 - - [13/Feb/2024:09:00:06 +0000] \"GET /b3\"",
+                "1.1.1.1 - - [13/Feb/2024:09:00:05 +0000] \"GET /a3\"",
+                "1.1.1.1 - - [13/Feb/2024:09:00:04 +0000] \"GET /a2\"",
+                "    at the line after b2",
+                "2.2.2.2 - - [13/Feb/2024:09:00:03 +0000] \"GET /b2\"",
+                "2.2.2.2 - - [13/Feb/2024:09:00:02 +0000] \"GET /b1\"",
+                "1.1.1.1 - - [13/Feb/2024:09:00:01 +0000] \"GET /a1\"");
+        assertThat(result.lines()).extracting(FanInReader.MergedLine::file).containsExactly(1, 0, 0, 1, 1, 1, 0);
+        assertThat(result.hasMore()).isFalse();
+    }
+
+    @Test
+    void positionsContinueEachFileWhereItsLinesWereMerged() throws IOException {
+        var reader = new FanInReader(new TailReaderImpl(16), lineTimestamps);
+        var all = reader.getLastNMatchingLines(paths, null, null, 10, Cancellation.NONE).lines();
+
+        var pages = new ArrayList<FanInReader.MergedLine>();
+        List<Optional<String>> positions = null;
+        do {
+            var result = reader.getLastNMatchingLines(paths, null, positions, 2, Cancellation.NONE);
+            pages.addAll(result.lines());
+            positions = result.positions();
+            // Lines appended while paging are newer than the lines being paged through, and aren't read.
+            Files.writeString(paths.get(0), "1.1.1.1 - - [13/Feb/2024:09:00:09 +0000] \"GET /new\"\n",
+                    StandardOpenOption.APPEND);
+        } while (positions.stream().anyMatch(Optional::isPresent));
+
+        assertThat(pages).containsExactlyElementsOf(all);
+    }
+
+    @Test
+    void filterAppliesToEveryFile() {
+        var reader = new FanInReader(new TailReaderImpl(65536), lineTimestamps);
+        var result = reader.getLastNMatchingLines(paths, LineMatcher.literal("2\""), null, 10, Cancellation.NONE);
+
+        assertThat(result.lines()).extracting(FanInReader.MergedLine::line).containsExactly(
+                "1.1.1.1 - - [13/Feb/2024:09:00:04 +0000] \"GET /a2\"",
+                "2.2.2.2 - - [13/Feb/2024:09:00:03 +0000] \"GET /b2\"");
+    }
+
+    @Test
+    void filesWithoutAMatchingLineAreDone() {
+        var reader = new FanInReader(new TailReaderImpl(65536), lineTimestamps);
+        var result = reader.getLastNMatchingLines(paths, LineMatcher.literal("/a"), null, 10, Cancellation.NONE);
+
+        assertThat(result.lines()).extracting(FanInReader.MergedLine::file).containsExactly(0, 0, 0);
+        assertThat(result.positions()).containsExactly(Optional.empty(), Optional.empty());
+        assertThat(result.hasMore()).isFalse();
+    }
+
+    @Test
+    void missingFileIsNotFound() {
+        var reader = new FanInReader(new TailReaderImpl(65536), lineTimestamps);
+        assertThatThrownBy(() -> reader.getLastNMatchingLines(List.of(paths.get(0), dir.resolve("missing.log")),
+                null, null, 10, Cancellation.NONE))
+                .isInstanceOf(TailReaderFileNotFoundException.class);
+    }
+
+    @Test
+    void timestampsAreParsedWithTheConfiguredFormat() {
+        var iso = new LineTimestamps("^(\\S+)", "yyyy-MM-dd'T'HH:mm:ss.SSS", "UTC");
+
+        assertThat(iso.parse("2024-02-13T09:25:54.123 INFO started")).isEqualTo(1707816354123L);
+        assertThat(iso.parse("\tat qlog.Application.main")).isEqualTo(LineTimestamps.NONE);
+        assertThat(lineTimestamps.parse("1.1.1.1 - - [13/Feb/2024:10:25:54 +0100] \"GET /\""))
+                .isEqualTo(1707816354000L);
+    }
+}
@@ -0,0 +1,105 @@
+package qlog;
+
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.reactivestreams.Subscription;
+import reactor.core.publisher.BaseSubscriber;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.awaitility.Awaitility.await;
+
+public class FileFollowerTest implements WithAssertions {
+
+    @TempDir
+    Path dir;
+
+    private final FileFollower follower = new FileFollower(50, 16, "drop");
+
+    FileFollowerTest() throws IOException {
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        follower.close();
+    }
+
+    @Test
+    void appendedLinesArePublishedToEverySubscriberOfOneWatchedFile() throws Exception {
+        var path = dir.resolve("followed.log");
+        Files.writeString(path, "a line before following\n");
+        var all = follower.follow(path, null).take(2).collectList().toFuture();
+        var filtered = follower.follow(path, LineMatcher.literal("two")).take(1).collectList().toFuture();
+        await().atMost(5, TimeUnit.SECONDS).until(() -> follower.stats().subscribers() == 2);
+        assertThat(follower.stats().files()).isEqualTo(1);
+
+        Files.writeString(path, "line one\nline two\n", StandardOpenOption.APPEND);
+        assertThat(all.get(5, TimeUnit.SECONDS)).containsExactly("line one", "line two");
+        assertThat(filtered.get(5, TimeUnit.SECONDS)).containsExactly("line two");
+        await().atMost(5, TimeUnit.SECONDS).until(() -> follower.stats().files() == 0);
+    }
+
+    @Test
+    void linesAreFilteredLikeTheQueriedLines() throws Exception {
+        var path = dir.resolve("filtered.log");
+        Files.writeString(path, "");
+        var matcher = new LineMatcherCache(16).get(FilterMode.ANY, List.of("ERROR", "WARN"));
+        var lines = follower.follow(path, matcher).take(2).collectList().toFuture();
+        await().atMost(5, TimeUnit.SECONDS).until(() -> follower.stats().subscribers() == 1);
+
+        Files.writeString(path, "INFO started\nWARN slow\nINFO done\nERROR failed – retrying\n",
+                StandardOpenOption.APPEND);
+        assertThat(lines.get(5, TimeUnit.SECONDS)).containsExactly("WARN slow", "ERROR failed – retrying");
+    }
+
+    @Test
+    void truncatedFileIsFollowedFromItsHead() throws Exception {
+        var path = dir.resolve("truncated.log");
+        Files.writeString(path, "a long line before the file is truncated\n");
+        var lines = follower.follow(path, null).take(1).collectList().toFuture();
+        await().atMost(5, TimeUnit.SECONDS).until(() -> follower.stats().subscribers() == 1);
+
+        Files.writeString(path, "new\n", StandardOpenOption.TRUNCATE_EXISTING);
+        assertThat(lines.get(5, TimeUnit.SECONDS)).containsExactly("new");
+    }
+
+    @Test
+    void rotatedFileIsFollowedIntoTheNewFile() throws Exception {
+        var path = dir.resolve("rotated.log");
+        Files.writeString(path, "first\n");
+        var lines = follower.follow(path, null).take(2).collectList().toFuture();
+        await().atMost(5, TimeUnit.SECONDS).until(() -> follower.stats().subscribers() == 1);
+
+        Files.writeString(path, "before rotation\n", StandardOpenOption.APPEND);
+        Files.move(path, dir.resolve("rotated.log.1"));
+        Files.writeString(path, "after rotation\n");
+        assertThat(lines.get(5, TimeUnit.SECONDS)).containsExactly("before rotation", "after rotation");
+    }
+
+    @Test
+    void oldestLinesAreDroppedForSlowSubscribers() throws IOException {
+        var path = dir.resolve("slow.log");
+        Files.writeString(path, "");
+        var subscriber = new BaseSubscriber<String>() {
+            @Override
+            protected void hookOnSubscribe(Subscription subscription) {
+                // Never request any lines.
+            }
+        };
+        follower.follow(path, null).subscribe(subscriber);
+        await().atMost(5, TimeUnit.SECONDS).until(() -> follower.stats().subscribers() == 1);
+
+        Files.writeString(path, IntStream.range(0, 20).mapToObj(i -> "line " + i + "\n").collect(Collectors.joining()));
+        await().atMost(5, TimeUnit.SECONDS).until(() -> follower.stats().droppedLines() == 4);
+        subscriber.dispose();
+    }
+}
@@ -0,0 +1,141 @@
+package qlog;
+
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class IndexedTailReaderTest implements WithAssertions {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void blocksThatCantHoldAMatchAreSkipped() throws IOException {
+        var path = dir.resolve("app.log");
+        Files.writeString(path, lines(0, 500));
+        try (var indexer = newIndexer()) {
+            indexer.update();
+            var reader = new IndexedTailReader(new TailReaderImpl(64), indexer);
+            var scanned = new TailReaderImpl(64);
+
+            for (var matcher : List.of(LineMatcher.literal("request 7f3a"),
+                    new MultiTermMatcher(List.of("request 7f3a", "request 0b"), false),
+                    LineMatcher.literal("no line contains this"))) {
+                assertThat(pages(reader, path, matcher)).isEqualTo(pages(scanned, path, matcher));
+            }
+            assertThat(indexer.stats().blocksSkipped()).isPositive();
+        }
+    }
+
+    @Test
+    void linesAppendedSinceTheFileWasIndexedAreRead() throws IOException {
+        var path = dir.resolve("app.log");
+        Files.writeString(path, lines(0, 500));
+        try (var indexer = newIndexer()) {
+            indexer.update();
+            var reader = new IndexedTailReader(new TailReaderImpl(64), indexer);
+            Files.writeString(path, "request 7f3a appended\n", StandardOpenOption.APPEND);
+
+            assertThat(reader.getLastNLines(path, "request 7f3a", null, 0, 2).lines())
+                    .containsExactly("request 7f3a appended", "line 490 request 7f3a");
+        }
+    }
+
+    @Test
+    void indexIsLoadedFromItsSidecarFileUnlessTheFileChanged() throws IOException {
+        var path = dir.resolve("app.log");
+        Files.writeString(path, lines(0, 500));
+        long blocks;
+        try (var indexer = newIndexer()) {
+            indexer.update();
+            blocks = indexer.stats().blocks();
+        }
+        try (var indexer = newIndexer()) {
+            assertThat(indexer.stats().blocks()).isEqualTo(blocks).isPositive();
+        }
+
+        // Truncated and written again, the index is of lines that are no longer in the file.
+        Files.writeString(path, lines(1000, 1500).replace("request 7f3a", "request 7f3b"));
+        try (var indexer = newIndexer()) {
+            var reader = new IndexedTailReader(new TailReaderImpl(64), indexer);
+            assertThat(reader.getLastNLines(path, "request 7f3b", null, 0, 1).lines())
+                    .containsExactly("line 1490 request 7f3b");
+            assertThat(indexer.stats().blocks()).isZero();
+        }
+    }
+
+    @Test
+    void readsQueryTheBlocksOfTheLastUpdate() throws IOException {
+        var path = dir.resolve("app.log");
+        Files.writeString(path, lines(0, 500));
+        try (var index = BlockIndex.open(path, dir.resolve("app.log.qbix"), 256, 4096);
+             var file = OpenFile.open(path)) {
+            var ch = file.file();
+            var fileId = file.fileId();
+            assertThat(index.view(ch, fileId)).as("Not indexed yet, the file is scanned.").isNull();
+
+            index.update();
+            var blocks = index.view(ch, fileId).blocks();
+            assertThat(blocks).isPositive().isEqualTo(index.blockCount());
+
+            Files.writeString(path, lines(500, 1000), StandardOpenOption.APPEND);
+            assertThat(index.view(ch, fileId).blocks()).isEqualTo(blocks);
+            index.update();
+            assertThat(index.view(ch, fileId).blocks()).isGreaterThan(blocks).isEqualTo(index.blockCount());
+        }
+    }
+
+    @Test
+    void fileTruncatedAndWrittenPastTheScannedBytesIsIndexedAgain() throws IOException {
+        var path = dir.resolve("app.log");
+        Files.writeString(path, lines(0, 500));
+        try (var index = BlockIndex.open(path, dir.resolve("app.log.qbix"), 256, 4096)) {
+            index.update();
+            var blocks = index.blockCount();
+
+            // Same file, and larger than was scanned by the last update, but not by having lines appended.
+            Files.writeString(path, lines(1000, 2000), StandardOpenOption.TRUNCATE_EXISTING);
+            index.update();
+            try (var file = OpenFile.open(path)) {
+                assertThat(index.view(file.file(), file.fileId())).isNotNull();
+            }
+            assertThat(index.blockCount()).isGreaterThan(blocks);
+        }
+    }
+
+    private BlockIndexer newIndexer() throws IOException {
+        return new BlockIndexer(dir.toString(), List.of("app.log"), dir.resolve("index").toString(), 256, 4096, 0);
+    }
+
+    /**
+     * Every page of the read, following the continuation tokens.
+     */
+    private static List<TailReader.ReaderResult> pages(TailReader reader, Path path, LineMatcher matcher) {
+        var pages = new ArrayList<TailReader.ReaderResult>();
+        String token = null;
+        do {
+            var page = reader.getLastNMatchingLines(path, matcher, token, 0, 3, Cancellation.NONE);
+            pages.add(page);
+            token = page.continuationToken().orElse(null);
+        } while (token != null);
+        return pages;
+    }
+
+    /**
+     * Lines numbered from <code>from</code> to <code>to</code> (exclusive), a line in 50 has a request ID.
+     */
+    private static String lines(int from, int to) {
+        return IntStream.range(from, to)
+                .mapToObj(i -> "line " + i + (i % 50 == 40 ? " request 7f3a" : i % 70 == 0 ? " request 0b1c" : ""))
+                .collect(Collectors.joining("\n", "", "\n"));
+    }
+}
@@ -0,0 +1,67 @@
+package qlog;
+
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+
+public class LineBytesTest implements WithAssertions {
+
+    @Test
+    void lastIndexOfNewlineFindsEveryLineEndingInReverse() throws IOException, URISyntaxException {
+        var bytes = Files.readAllBytes(Paths.get(getClass().getClassLoader().getResource("macbeth.txt").toURI()));
+        var buf = ByteBuffer.wrap(bytes);
+        var to = bytes.length;
+        while (true) {
+            var expected = -1;
+            for (int i = to - 1; i >= 0; i--) {
+                if (bytes[i] == '\n') {
+                    expected = i;
+                    break;
+                }
+            }
+            assertThat(LineBytes.lastIndexOfNewline(buf, 0, to))
+                    .as("The last line-ending before position %d.", to)
+                    .isEqualTo(expected);
+            if (expected < 0) break;
+            to = expected;
+        }
+    }
+
+    @Test
+    void spillPrependsBytes() {
+        var spill = new LineBytes.Spill();
+        var chunk = ByteBuffer.wrap("x".repeat(300).getBytes(StandardCharsets.US_ASCII));
+        spill.prepend(ByteBuffer.wrap("tail".getBytes(StandardCharsets.US_ASCII)), 0, 4);
+        spill.prepend(chunk, 0, 300);
+        spill.prepend(ByteBuffer.wrap("head".getBytes(StandardCharsets.US_ASCII)), 0, 4);
+        assertThat(new LineBytes.Decoder().decode(spill.buffer(), spill.from(), spill.to()))
+                .isEqualTo("head" + "x".repeat(300) + "tail");
+        spill.clear();
+        assertThat(spill.isEmpty()).isTrue();
+    }
+
+    @Test
+    void decodesAsciiAndMultibyteLines() {
+        var decoder = new LineBytes.Decoder();
+        for (var line : List.of("", "GET /page1", "caf\u00e9 au lait", "\ud83d\udc51\ud83d\udc65\ud83c\udf0c",
+                "ascii for more than eight bytes then \u00fc", "x".repeat(1000) + "\u20ac")) {
+            var bytes = ("|" + line + "|").getBytes(StandardCharsets.UTF_8);
+            assertThat(decoder.decode(ByteBuffer.wrap(bytes), 1, bytes.length - 1)).isEqualTo(line);
+            var direct = ByteBuffer.allocateDirect(bytes.length).put(bytes);
+            assertThat(decoder.decode(direct, 1, bytes.length - 1)).isEqualTo(line);
+        }
+    }
+
+    @Test
+    void malformedBytesAreReplaced() {
+        var bytes = new byte[]{'a', (byte) 0xF0, (byte) 0x9F, 'b'};
+        assertThat(new LineBytes.Decoder().decode(ByteBuffer.wrap(bytes), 0, bytes.length)).isEqualTo("a\ufffdb");
+    }
+}
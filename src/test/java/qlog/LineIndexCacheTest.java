@@ -0,0 +1,69 @@
+package qlog;
+
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class LineIndexCacheTest implements WithAssertions {
+
+    @Test
+    void startLinesAreFoundWithTheIndex() throws URISyntaxException {
+        var path = Paths.get(getClass().getClassLoader().getResource("128k_access.log").toURI());
+        var indexed = new TailReaderImpl(65536, new LineIndexCache(16, 1_000_000));
+        var scanned = new TailReaderImpl(65536);
+        for (var start : new int[]{16, 17, 100, 511, 600, 10_000}) {
+            assertThat(indexed.getLastNLines(path, null, null, start, 5).lines())
+                    .as("The lines %d lines from the end of the file.", start)
+                    .containsExactlyElementsOf(scanned.getLastNLines(path, null, null, start, 5).lines());
+        }
+    }
+
+    @Test
+    void indexIsExtendedWhenLinesAreAppended(@TempDir Path dir) throws IOException {
+        var path = dir.resolve("growing.log");
+        Files.writeString(path, lines(0, 100));
+        var reader = new MappedTailReader(64, new LineIndexCache(8, 1_000_000));
+        assertThat(reader.getLastNLines(path, null, null, 10, 1).lines()).containsExactly("line 89");
+
+        Files.writeString(path, lines(100, 150), StandardOpenOption.APPEND);
+        assertThat(reader.getLastNLines(path, null, null, 10, 1).lines()).containsExactly("line 139");
+    }
+
+    @Test
+    void indexIsRebuiltWhenTheFileIsTruncated(@TempDir Path dir) throws IOException {
+        var path = dir.resolve("truncated.log");
+        Files.writeString(path, lines(0, 100));
+        var reader = new TailReaderImpl(64, new LineIndexCache(8, 1_000_000));
+        assertThat(reader.getLastNLines(path, null, null, 10, 1).lines()).containsExactly("line 89");
+
+        Files.writeString(path, lines(1000, 1020), StandardOpenOption.TRUNCATE_EXISTING);
+        assertThat(reader.getLastNLines(path, null, null, 10, 1).lines()).containsExactly("line 1009");
+        assertThat(reader.getLastNLines(path, null, null, 20, 1).lines()).isEmpty();
+    }
+
+    @Test
+    void indexIsRebuiltWhenTheFileIsTruncatedAndWrittenAgain(@TempDir Path dir) throws IOException {
+        var path = dir.resolve("copytruncate.log");
+        Files.writeString(path, lines(0, 100));
+        var reader = new TailReaderImpl(64, new LineIndexCache(8, 1_000_000));
+        assertThat(reader.getLastNLines(path, null, null, 10, 1).lines()).containsExactly("line 89");
+
+        // Larger than the indexed bytes, but they aren't the same bytes any more.
+        Files.writeString(path, lines(1000, 1200), StandardOpenOption.TRUNCATE_EXISTING);
+        assertThat(reader.getLastNLines(path, null, null, 10, 1).lines()).containsExactly("line 1189");
+        assertThat(reader.getLastNLines(path, null, null, 150, 1).lines()).containsExactly("line 1049");
+    }
+
+    private static String lines(int from, int to) {
+        return IntStream.range(from, to).mapToObj(i -> "line " + i + "\n").collect(Collectors.joining());
+    }
+}
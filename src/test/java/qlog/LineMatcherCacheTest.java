@@ -0,0 +1,39 @@
+package qlog;
+
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Test;
+import qlog.exc.TailReaderInvalidFilterException;
+
+import java.util.List;
+
+public class LineMatcherCacheTest implements WithAssertions {
+
+    @Test
+    void matchersAreCompiledOncePerFilter() {
+        var cache = new LineMatcherCache(2);
+        var matcher = cache.get(FilterMode.REGEX, List.of("GET /page\\d"));
+        assertThat(cache.get(FilterMode.REGEX, List.of("GET /page\\d"))).isSameAs(matcher);
+        assertThat(cache.get(FilterMode.ALL, List.of("GET /page\\d"))).isNotSameAs(matcher);
+        assertThat(cache.get(FilterMode.ANY, List.of())).isNull();
+    }
+
+    @Test
+    void leastRecentlyUsedMatcherIsEvicted() {
+        var cache = new LineMatcherCache(2);
+        var a = cache.get(FilterMode.ANY, List.of("a", "b"));
+        var c = cache.get(FilterMode.ANY, List.of("c", "d"));
+        assertThat(cache.get(FilterMode.ANY, List.of("a", "b"))).isSameAs(a);
+        cache.get(FilterMode.ANY, List.of("e", "f"));
+        assertThat(cache.get(FilterMode.ANY, List.of("a", "b"))).isSameAs(a);
+        assertThat(cache.get(FilterMode.ANY, List.of("c", "d"))).isNotSameAs(c);
+    }
+
+    @Test
+    void invalidFiltersAreRejected() {
+        var cache = new LineMatcherCache(2);
+        assertThatThrownBy(() -> cache.get(FilterMode.REGEX, List.of("[unclosed")))
+                .isInstanceOf(TailReaderInvalidFilterException.class);
+        assertThatThrownBy(() -> cache.get(FilterMode.REGEX, List.of("a", "b")))
+                .isInstanceOf(TailReaderInvalidFilterException.class);
+    }
+}
@@ -0,0 +1,90 @@
+package qlog;
+
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+public class LineMatcherTest implements WithAssertions {
+
+    private static final String LINE = "127.0.0.1 - - [10/Feb/2024:12:00:00 +0000] \"DELETE /script.js HTTP/1.1\" 200 512";
+
+    @Test
+    void literalMatchesTheSameLinesAsContains() {
+        for (var filter : List.of("", "1", "DELETE", "DELETE /script.js", " 200 ", "512", "127.0.0.1",
+                "HTTP/2.0", "DELETE /page1", "0 +0000", "5122", "script.jss")) {
+            var bytes = ByteBuffer.wrap(("  " + LINE + "  ").getBytes(StandardCharsets.US_ASCII));
+            assertThat(LineMatcher.literal(filter).matches(bytes, 2, 2 + LINE.length()))
+                    .as("The line matches \"%s\".", filter)
+                    .isEqualTo(LINE.contains(filter));
+        }
+    }
+
+    @Test
+    void literalDoesNotMatchBytesOutsideTheLine() {
+        var bytes = ByteBuffer.wrap("needle|haystack|needle".getBytes(StandardCharsets.US_ASCII));
+        assertThat(LineMatcher.literal("needle").matches(bytes, 7, 15)).isFalse();
+        assertThat(LineMatcher.literal("needle").matches(bytes, 0, 6)).isTrue();
+    }
+
+    @Test
+    void allAndAnyMatchTheSameLinesAsContains() {
+        var termSets = List.of(List.of("DELETE", "script.js"), List.of("DELETE", "HTTP/2.0"), List.of("he", "she", "hers"),
+                List.of("200", "500", "404"), List.of("", "missing"), List.of("s", "script.js", "js\""));
+        for (var terms : termSets) {
+            var bytes = ByteBuffer.wrap(LINE.getBytes(StandardCharsets.US_ASCII));
+            assertThat(new MultiTermMatcher(terms, true).matches(bytes, 0, LINE.length()))
+                    .as("The line contains all of %s.", terms)
+                    .isEqualTo(terms.stream().allMatch(LINE::contains));
+            assertThat(new MultiTermMatcher(terms, false).matches(bytes, 0, LINE.length()))
+                    .as("The line contains any of %s.", terms)
+                    .isEqualTo(terms.stream().anyMatch(LINE::contains));
+        }
+    }
+
+    @Test
+    void overlappingTermsAreFoundThroughFailureLinks() {
+        var line = "ushers";
+        var bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII));
+        assertThat(new MultiTermMatcher(List.of("he", "she", "his", "hers"), false).matches(bytes, 0, 6)).isTrue();
+        assertThat(new MultiTermMatcher(List.of("he", "she", "hers"), true).matches(bytes, 0, 6)).isTrue();
+        assertThat(new MultiTermMatcher(List.of("he", "she", "his"), true).matches(bytes, 0, 6)).isFalse();
+    }
+
+    @Test
+    void regexMatchesLinesWithAMatch() {
+        var bytes = ByteBuffer.wrap(LINE.getBytes(StandardCharsets.US_ASCII));
+        assertThat(new RegexMatcher(Pattern.compile("DELETE /script\\.js HTTP/1\\.[01]")).matches(bytes, 0, LINE.length()))
+                .isTrue();
+        assertThat(new RegexMatcher(Pattern.compile("\" 5\\d\\d ")).matches(bytes, 0, LINE.length())).isFalse();
+    }
+
+    @Test
+    void requiredLiteralIsFoundOnlyWhenEveryMatchContainsIt() {
+        assertThat(RegexMatcher.requiredLiteral("user=\\d+ timeout after \\d+ms")).isEqualTo(" timeout after ");
+        assertThat(RegexMatcher.requiredLiteral("GET /page[12] HTTP/1\\.1")).isEqualTo("GET /page");
+        assertThat(RegexMatcher.requiredLiteral("colou?r")).isEqualTo("colo");
+        assertThat(RegexMatcher.requiredLiteral("ab+c")).isEqualTo("ab");
+        assertThat(RegexMatcher.requiredLiteral("x{0,3}yz")).isEqualTo("yz");
+        assertThat(RegexMatcher.requiredLiteral("(optional)?required")).isEqualTo("required");
+        assertThat(RegexMatcher.requiredLiteral("404|500")).isEmpty();
+        assertThat(RegexMatcher.requiredLiteral("(?i)error")).isEmpty();
+        assertThat(RegexMatcher.requiredLiteral("ERROR\\x20code")).isEqualTo("ERROR");
+        assertThat(RegexMatcher.requiredLiteral("id\\x{41}xyz")).isEqualTo("xyz");
+        assertThat(RegexMatcher.requiredLiteral("caf\\u00e9xyz")).isEqualTo("caf");
+        assertThat(RegexMatcher.requiredLiteral("abc\\0101xy")).isEqualTo("abc");
+        assertThat(RegexMatcher.requiredLiteral("line\\cMend")).isEqualTo("line");
+        assertThat(RegexMatcher.requiredLiteral("\\p{Lu}name")).isEqualTo("name");
+        assertThat(RegexMatcher.requiredLiteral("(ab)\\1cd")).isEqualTo("cd");
+        // The lines the expressions with escapes match are not filtered out by their literal.
+        Map.of("ERROR\\x20code", "ERROR code", "caf\\u00e9xyz", "caf\u00e9xyz", "abc\\0101xy", "abcAxy",
+                "line\\cMend", "line\rend").forEach((regex, line) -> {
+            var bytes = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+            assertThat(new RegexMatcher(Pattern.compile(regex)).matches(bytes, 0, bytes.limit())).as(regex).isTrue();
+        });
+    }
+}
@@ -0,0 +1,124 @@
+package qlog;
+
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import qlog.exc.TailReaderInvalidFilterException;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPOutputStream;
+
+public class LogAggregatorTest implements WithAssertions {
+
+    @Test
+    void linesAreCountedByTheirFields() throws URISyntaxException, IOException {
+        var path = Paths.get(getClass().getClassLoader().getResource("128k_access.log").toURI());
+        // Chunks of 64 bytes split most lines, their fields are found across chunks.
+        var aggregation = new LogAggregator(64, 1024).aggregate(path, LineMatcher.literal("POST"), null,
+                LogFields.of("combined", List.of("status")), 100, 10, Cancellation.NONE);
+
+        var lines = Files.readAllLines(path).reversed().stream()
+                .filter(line -> line.contains("POST"))
+                .limit(100)
+                .toList();
+        var expected = lines.stream()
+                .collect(Collectors.groupingBy(line -> line.split(" ")[8], Collectors.counting()));
+        assertThat(aggregation.lines()).isEqualTo(100);
+        assertThat(aggregation.maxError()).isZero();
+        assertThat(aggregation.groups())
+                .extracting(group -> group.values().getFirst(), LogAggregator.Group::count)
+                .containsExactlyInAnyOrderElementsOf(expected.entrySet().stream()
+                        .map(e -> tuple(e.getKey(), e.getValue()))
+                        .toList());
+        assertThat(aggregation.groups()).isSortedAccordingTo((a, b) -> Long.compare(b.count(), a.count()));
+    }
+
+    @Test
+    void fieldsOfTheCombinedLogFormatAreExtracted() {
+        var fields = LogFields.of("combined", List.of("host", "method", "path", "status", "agent", "referer"));
+        var values = extract(fields, "18.230.62.31 - - [13/Feb/2024:09:25:54 +0000] \"GET /script.js HTTP/2.0\" 200 "
+                + "1015 - \"Mozilla/5.0 (Windows NT 10.0)\"");
+        assertThat(values).containsExactly("18.230.62.31", "GET", "/script.js", "200", "Mozilla/5.0 (Windows NT 10.0)",
+                "-");
+
+        // The common log format has no referer or agent.
+        assertThat(extract(fields, "10.0.0.1 - frank [10/Oct/2000:13:55:36 -0700] \"-\" 400 0"))
+                .containsExactly("10.0.0.1", "-", null, "400", null, null);
+        assertThatThrownBy(() -> LogFields.of("combined", List.of("level")))
+                .isInstanceOf(TailReaderInvalidFilterException.class);
+    }
+
+    @Test
+    void fieldsOfJsonLinesAreExtracted() {
+        var fields = LogFields.of("json", List.of("level", "status", "context", "message", "missing"));
+        assertThat(extract(fields, "{\"context\": {\"user\": \"a}\"}, \"level\": \"ERROR\", \"status\": 500, "
+                + "\"message\": \"said \\\"hi\\\"\\n\"}"))
+                .containsExactly("ERROR", "500", "{\"user\": \"a}\"}", "said \"hi\"\n", null);
+        assertThat(extract(fields, "{\"level\": null, \"status\": \"unterminated}"))
+                .containsOnlyNulls();
+        assertThat(extract(fields, "not json")).containsOnlyNulls();
+    }
+
+    @Test
+    void topGroupsOfManyAreFoundWithABoundOnTheirCounts(@TempDir Path dir) throws IOException {
+        // A third of the lines are from one client, a sixth from another, the rest from a different client each.
+        var path = dir.resolve("app.log");
+        Files.writeString(path, IntStream.range(0, 3000)
+                .mapToObj(i -> "{\"client\":\"" + (i % 3 == 0 ? "hot" : i % 6 == 1 ? "warm" : "c" + i) + "\"}")
+                .collect(Collectors.joining("\n")));
+
+        var aggregation = new LogAggregator(4096, 16).aggregate(path, null, null,
+                LogFields.of("json", List.of("client")), 3000, 2, Cancellation.NONE);
+
+        assertThat(aggregation.lines()).isEqualTo(3000);
+        assertThat(aggregation.maxError()).isPositive().isLessThanOrEqualTo(3000 / 17);
+        var counts = aggregation.groups().stream()
+                .collect(Collectors.toMap(group -> group.values().getFirst(), LogAggregator.Group::count));
+        assertThat(counts.keySet()).containsExactlyInAnyOrder("hot", "warm");
+        assertThat(counts.get("hot")).isBetween(1000 - aggregation.maxError(), 1000L);
+        assertThat(counts.get("warm")).isBetween(500 - aggregation.maxError(), 500L);
+    }
+
+    @Test
+    void archivesAreAggregatedFromTheirDecompressedCopy(@TempDir Path dir) throws URISyntaxException, IOException {
+        var path = Paths.get(getClass().getClassLoader().getResource("128k_access.log").toURI());
+        var archive = dir.resolve("access.log.1.gz");
+        try (var out = new GZIPOutputStream(Files.newOutputStream(archive))) {
+            Files.copy(path, out);
+        }
+        var archiveCache = new ArchiveCache(dir.resolve("cache").toString(), 1L << 30);
+        var aggregator = new LogAggregator(new ScanContextPool(4096, 1), 4096, true, 1024, archiveCache, null);
+        var seek = new TimeRangeSeek(new LineTimestamps("", "", "UTC"), archiveCache, 5000);
+        var fields = LogFields.of("combined", List.of("status", "method"));
+        var since = Instant.parse("2024-02-13T09:26:00Z");
+        var until = Instant.parse("2024-02-13T09:26:04Z");
+
+        // The positions of the time range are in the decompressed copy, as the lines the aggregator reads.
+        var ofArchive = aggregator.aggregate(archive, seek.matcher(null, since, until),
+                seek.range(archive, since, until).continuationToken(null), fields, 100_000, 10, Cancellation.NONE);
+        var ofFile = aggregator.aggregate(path, seek.matcher(null, since, until),
+                seek.range(path, since, until).continuationToken(null), fields, 100_000, 10, Cancellation.NONE);
+        assertThat(ofArchive).isEqualTo(ofFile);
+        assertThat(ofArchive.lines()).isPositive();
+        assertThat(aggregator.aggregate(archive, null, null, fields, 100, 10, Cancellation.NONE))
+                .isEqualTo(aggregator.aggregate(path, null, null, fields, 100, 10, Cancellation.NONE));
+        assertThat(archiveCache.stats().misses()).isOne();
+    }
+
+    private static String[] extract(LogFields fields, String line) {
+        var values = new String[fields.names().size()];
+        var buf = ByteBuffer.wrap(line.getBytes(StandardCharsets.UTF_8));
+        fields.extract(buf, 0, buf.limit(), values);
+        return values;
+    }
+}
@@ -0,0 +1,23 @@
+package qlog;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+public class MappedTailReaderTest extends TailReaderTest {
+
+    @Override
+    TailReader newReader(int bufferCapacity) {
+        return new MappedTailReader(bufferCapacity);
+    }
+
+    @Test
+    void linesLongerThanTheWindowAreRead() {
+        var path = getPathToResource("128k_access.log");
+        var lines = newReader(7).getLastNLines(path, null, null, 0, 3).lines();
+        assertThat(lines).allSatisfy(line -> assertThat(line.getBytes(StandardCharsets.UTF_8).length)
+                .isGreaterThan(7));
+        assertThat(lines).containsExactlyElementsOf(new MappedTailReader(65536)
+                .getLastNLines(path, null, null, 0, 3).lines());
+    }
+}
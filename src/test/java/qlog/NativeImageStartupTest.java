@@ -0,0 +1,270 @@
+package qlog;
+
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Starts the native executable (<code>./gradlew nativeStartupTest</code> builds it and passes its path in
+ * <code>qlog.native.executable</code>) and checks it against the budgets of <code>native-budgets.properties</code>:
+ * the time from starting the process to the first successful <code>/queryLog</code>, and the resident memory once it
+ * has served a few hundred queries of each kind. The queries also check that the responses and the errors of the
+ * handler are serialized in the image as they are on the JVM.
+ * <p>
+ * The budgets are measured rather than chosen: <code>./gradlew recordNativeBudgets</code> passes the path of the
+ * budgets file in <code>qlog.native.budgets.record</code>, and the test then starts the executable a few times and
+ * writes the highest of each measurement plus a margin to it instead of checking it. Without recorded budgets the
+ * check fails.
+ * <p>
+ * Excluded from <code>./gradlew test</code>, and skipped without the executable or off Linux (the memory is read
+ * from <code>/proc</code>).
+ */
+@Tag("native")
+class NativeImageStartupTest implements WithAssertions {
+
+    private static final Logger LOG = LoggerFactory.getLogger(NativeImageStartupTest.class);
+
+    private static final Duration STARTUP_TIMEOUT = Duration.ofSeconds(30);
+    private static final int WARM_UP_QUERIES = 500;
+    private static final int CONCURRENT_CLIENTS = 8;
+    private static final int RSS_SAMPLES = 10;
+    // The budgets recorded are the highest of a few runs, plus a margin for the variance between runs of the CI.
+    private static final int RECORD_RUNS = 5;
+    private static final double FIRST_QUERY_MARGIN = 0.5;
+    private static final double RSS_MARGIN = 0.25;
+
+    @TempDir
+    Path workingDirectory;
+
+    @Test
+    void firstQueryAndSteadyStateMemoryAreWithinTheBudgets() throws Exception {
+        var executable = System.getProperty("qlog.native.executable");
+        assumeTrue(executable != null && Files.isExecutable(Path.of(executable)),
+                "The native executable, see nativeStartupTest");
+        assumeTrue(Files.exists(Path.of("/proc/self/status")), "The memory of a process is read from /proc");
+        var record = System.getProperty("qlog.native.budgets.record");
+        if (record != null) {
+            recordBudgets(executable, Path.of(record));
+            return;
+        }
+        var budgets = new Properties();
+        try (var in = getClass().getResourceAsStream("/native-budgets.properties")) {
+            budgets.load(in);
+        }
+        var firstQueryBudget = budgets.getProperty("first-query.millis");
+        var rssBudget = budgets.getProperty("steady-state-rss.kib");
+        if (firstQueryBudget == null || rssBudget == null) {
+            fail("No budgets recorded in native-budgets.properties, run ./gradlew recordNativeBudgets on the machine "
+                    + "the test runs on and commit the file");
+        }
+        var firstQueryBudgetMillis = Long.parseLong(firstQueryBudget);
+        var rssBudgetKib = Long.parseLong(rssBudget);
+
+        var measurement = measure(executable, workingDirectory);
+        LOG.atInfo().log("Native executable: first query after {}ms (budget {}ms), RSS after {} queries {}KiB "
+                        + "(budget {}KiB)",
+                measurement.firstQueryMillis(), firstQueryBudgetMillis, WARM_UP_QUERIES, measurement.rssKib(),
+                rssBudgetKib);
+        assertThat(measurement.firstQueryMillis())
+                .as("Time from starting the process to the first successful /queryLog, in ms.")
+                .isLessThanOrEqualTo(firstQueryBudgetMillis);
+        assertThat(measurement.rssKib())
+                .as("Resident memory after %d queries, in KiB.", WARM_UP_QUERIES)
+                .isLessThanOrEqualTo(rssBudgetKib);
+    }
+
+    /**
+     * @param firstQueryMillis The time from starting the process to the first successful <code>/queryLog</code>.
+     * @param rssKib           The resident memory once the process has served the queries.
+     */
+    private record Measurement(long firstQueryMillis, long rssKib) {
+    }
+
+    /**
+     * Writes the highest of a few measurements, plus a margin, as the budgets.
+     */
+    private void recordBudgets(String executable, Path budgets) throws Exception {
+        var firstQueryMillis = 0L;
+        var rssKib = 0L;
+        for (int run = 0; run < RECORD_RUNS; run++) {
+            var measurement = measure(executable, Files.createTempDirectory(workingDirectory, "run"));
+            LOG.atInfo().log("Native executable, run {}: first query after {}ms, RSS after {} queries {}KiB",
+                    run + 1, measurement.firstQueryMillis(), WARM_UP_QUERIES, measurement.rssKib());
+            firstQueryMillis = Math.max(firstQueryMillis, measurement.firstQueryMillis());
+            rssKib = Math.max(rssKib, measurement.rssKib());
+        }
+        Files.writeString(budgets, """
+                # The budgets of the native executable checked by NativeImageStartupTest (./gradlew nativeStartupTest).
+                # Recorded by ./gradlew recordNativeBudgets on %s (%s, %d CPUs): the highest of %d runs, plus %d%%
+                # for the time and %d%% for the memory. Record them again on the machine the test runs on when the
+                # image or that machine changes.
+
+                # From starting the process to the first 200 from /queryLog, in milliseconds (measured %d).
+                first-query.millis=%d
+                # The resident memory of the process after serving the queries of the test, in KiB (measured %d).
+                steady-state-rss.kib=%d
+                """.formatted(LocalDate.now(), System.getProperty("os.name") + " " + System.getProperty("os.arch"),
+                Runtime.getRuntime().availableProcessors(), RECORD_RUNS, Math.round(FIRST_QUERY_MARGIN * 100),
+                Math.round(RSS_MARGIN * 100),
+                firstQueryMillis, (long) Math.ceil(firstQueryMillis * (1 + FIRST_QUERY_MARGIN)),
+                rssKib, (long) Math.ceil(rssKib * (1 + RSS_MARGIN))));
+        LOG.atInfo().log("Native budgets recorded in {}", budgets);
+    }
+
+    /**
+     * Starts the executable in the directory, and measures it once it has served the queries of the test.
+     */
+    private Measurement measure(String executable, Path directory) throws Exception {
+        var port = freePort();
+        var base = URI.create("http://localhost:" + port);
+        // The access log is written to log/ of the working directory, so the process is started in a temporary one.
+        var startNs = System.nanoTime();
+        var process = new ProcessBuilder(executable,
+                "-micronaut.server.port=" + port,
+                "-qlog.log.directory=" + Path.of("src/test/resources").toAbsolutePath())
+                .directory(directory.toFile())
+                .redirectErrorStream(true)
+                .redirectOutput(directory.resolve("qlog.out").toFile())
+                .start();
+        try (var clientExecutor = Executors.newVirtualThreadPerTaskExecutor();
+             var client = HttpClient.newBuilder()
+                     .executor(clientExecutor)
+                     .connectTimeout(Duration.ofSeconds(1))
+                     .build()) {
+            var firstQueryMillis = firstQuery(client, process, directory, startNs,
+                    base.resolve("/queryLog?relativePath=macbeth.txt&count=3"));
+
+            checkResponses(client, base);
+            var futures = new ArrayList<Future<?>>(CONCURRENT_CLIENTS);
+            for (int c = 0; c < CONCURRENT_CLIENTS; c++) {
+                var clientNumber = c;
+                futures.add(clientExecutor.submit(() -> {
+                    for (int i = clientNumber; i < WARM_UP_QUERIES; i += CONCURRENT_CLIENTS) {
+                        var response = client.send(HttpRequest.newBuilder(base.resolve(warmUpQuery(i))).build(),
+                                HttpResponse.BodyHandlers.discarding());
+                        assertThat(response.statusCode()).isEqualTo(200);
+                    }
+                    return null;
+                }));
+            }
+            for (var future : futures) {
+                future.get();
+            }
+            // The highest of a few samples, so that memory still being returned after the queries isn't missed.
+            var rssKib = 0L;
+            for (int i = 0; i < RSS_SAMPLES; i++) {
+                Thread.sleep(100);
+                rssKib = Math.max(rssKib, rssKib(process.pid()));
+            }
+            return new Measurement(firstQueryMillis, rssKib);
+        } finally {
+            process.destroy();
+            if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        }
+    }
+
+    /**
+     * Queries until the server answers with a 200.
+     *
+     * @return The time since <code>startNs</code>, when the process was started, in ms.
+     */
+    private long firstQuery(HttpClient client, Process process, Path directory, long startNs, URI uri)
+            throws Exception {
+        var deadlineNs = System.nanoTime() + STARTUP_TIMEOUT.toNanos();
+        while (System.nanoTime() < deadlineNs) {
+            assertThat(process.isAlive())
+                    .as("The process exited, see %s", directory.resolve("qlog.out"))
+                    .isTrue();
+            try {
+                var response = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofString());
+                if (response.statusCode() == 200) {
+                    assertThat(response.body()).contains("data");
+                    return (System.nanoTime() - startNs) / 1_000_000;
+                }
+            } catch (IOException e) {
+                // Not listening yet.
+            }
+            Thread.sleep(5);
+        }
+        return fail("No successful /queryLog within " + STARTUP_TIMEOUT);
+    }
+
+    /**
+     * The responses of each controller and an error of the exception handler, which are only serialized if their
+     * types are in the image.
+     */
+    private void checkResponses(HttpClient client, URI base) throws Exception {
+        var notFound = client.send(HttpRequest.newBuilder(base.resolve("/queryLog?relativePath=missing.log")).build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertThat(notFound.statusCode()).isEqualTo(404);
+        assertThat(notFound.body()).contains("File not found");
+
+        var batch = client.send(HttpRequest.newBuilder(base.resolve("/queryLog/batch"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString("""
+                                [{"relativePath": "128k_access.log", "filter": ["POST"], "count": 5},
+                                 {"relativePath": "128k_access.log", "count": 10}]"""))
+                        .build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertThat(batch.statusCode()).isEqualTo(200);
+        assertThat(batch.body()).contains("results");
+
+        var aggregate = client.send(HttpRequest.newBuilder(base.resolve(
+                        "/queryLog/aggregate?relativePath=128k_access.log&groupBy=status&count=1000")).build(),
+                HttpResponse.BodyHandlers.ofString());
+        assertThat(aggregate.statusCode()).isEqualTo(200);
+        assertThat(aggregate.body()).contains("groups");
+    }
+
+    private static String warmUpQuery(int i) {
+        return switch (i % 4) {
+            case 0 -> "/queryLog?relativePath=128k_access.log&count=100";
+            case 1 -> "/queryLog?relativePath=128k_access.log&count=100&filter=GET";
+            case 2 -> "/queryLog?relativePath=128k_access.log&count=1000&filter=%20404%20&filter=%20500%20"
+                    + "&filterMode=any";
+            default -> "/queryLog/aggregate?relativePath=128k_access.log&groupBy=status&count=10000";
+        };
+    }
+
+    /**
+     * The resident memory of the process, from <code>VmRSS</code> in <code>/proc/&lt;pid&gt;/status</code>.
+     */
+    private static long rssKib(long pid) throws IOException {
+        List<String> status = Files.readAllLines(Path.of("/proc", Long.toString(pid), "status"));
+        return status.stream()
+                .filter(line -> line.startsWith("VmRSS:"))
+                .map(line -> Long.parseLong(line.replaceAll("\\D", "")))
+                .findFirst()
+                .orElseThrow();
+    }
+
+    private static int freePort() throws IOException {
+        try (var socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+}
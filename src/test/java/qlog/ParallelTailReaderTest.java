@@ -0,0 +1,87 @@
+package qlog;
+
+import jakarta.annotation.Nullable;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.awaitility.Awaitility.await;
+
+public class ParallelTailReaderTest extends TailReaderTest {
+
+    @Override
+    TailReader newReader(int bufferCapacity) {
+        // Tiny segments, so that even the small test files are read in parallel.
+        return new ParallelTailReader(new TailReaderImpl(bufferCapacity), 4, 1);
+    }
+
+    @Test
+    void parallelReadsMatchSequentialReads() {
+        var path = getPathToResource("128k_access.log");
+        var sequential = new TailReaderImpl(4096);
+        for (var reader : List.of(new ParallelTailReader(new TailReaderImpl(4096), 8, 1024),
+                new ParallelTailReader(new MappedTailReader(4096), 3, 1024))) {
+            for (var filter : List.of("GET", "DELETE /script.js HTTP/2.0", "WONTFIND")) {
+                for (var count : List.of(1, 10, 250)) {
+                    var expected = sequential.getLastNLines(path, filter, null, 0, count);
+                    var actual = reader.getLastNLines(path, filter, null, 0, count);
+                    assertThat(actual).as("Reading %d lines matching %s.", count, filter).isEqualTo(expected);
+                    expected.continuationToken().ifPresent(token -> assertThat(
+                            reader.getLastNLines(path, filter, token, 0, count))
+                            .as("Continuing to read %d lines matching %s.", count, filter)
+                            .isEqualTo(sequential.getLastNLines(path, filter, token, 0, count)));
+                }
+            }
+        }
+    }
+
+    @Test
+    void olderSegmentsAreCancelledWhileNewerSegmentsAreStillRead(@TempDir Path dir) throws IOException {
+        var path = dir.resolve("lines.log");
+        Files.writeString(path, IntStream.range(0, 300)
+                .mapToObj(i -> "line " + i)
+                .collect(Collectors.joining("\n")));
+        var size = Files.size(path);
+        var engine = new TailReaderImpl(4096);
+        var oldestCancelled = new CountDownLatch(1);
+        // Of the three segments, the oldest reads until it is cancelled and the newest until the oldest is, so the
+        // read only completes if the lines of the middle segment are enough to cancel the oldest.
+        var reader = new ParallelTailReader(new RegionReader() {
+            @Override
+            public Region readRegion(Path path, @Nullable LineMatcher matcher, long from, long to, int count,
+                                     BooleanSupplier cancelled) {
+                if (from == 0) {
+                    await().atMost(Duration.ofSeconds(10)).until(cancelled::getAsBoolean);
+                    oldestCancelled.countDown();
+                } else if (to == size) {
+                    try {
+                        assertThat(oldestCancelled.await(10, TimeUnit.SECONDS)).isTrue();
+                    } catch (InterruptedException e) {
+                        throw new AssertionError(e);
+                    }
+                }
+                return engine.readRegion(path, matcher, from, to, count, cancelled);
+            }
+
+            @Override
+            public ReaderResult getLastNMatchingLines(Path path, @Nullable LineMatcher matcher,
+                                                      @Nullable String continuationToken, int start, int count,
+                                                      Cancellation cancellation) {
+                return engine.getLastNMatchingLines(path, matcher, continuationToken, start, count, cancellation);
+            }
+        }, 3, 1);
+
+        assertThat(reader.getLastNLines(path, "line", null, 0, 10))
+                .isEqualTo(engine.getLastNLines(path, "line", null, 0, 10));
+    }
+}
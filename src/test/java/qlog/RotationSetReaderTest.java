@@ -0,0 +1,161 @@
+package qlog;
+
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import qlog.exc.TailReaderFileNotFoundException;
+import qlog.exc.TailReaderIOException;
+import qlog.exc.TailReaderTimeoutException;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.GZIPOutputStream;
+
+public class RotationSetReaderTest implements WithAssertions {
+
+    @TempDir
+    Path dir;
+
+    private Path live;
+    private ArchiveCache archiveCache;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        live = dir.resolve("app.log");
+        Files.writeString(live, "live 1\nlive 2\nlive 3\n");
+        Files.writeString(dir.resolve("app.log.1"), "one 1\none 2\n");
+        gzip(dir.resolve("app.log.2.gz"), "two 1\ntwo 2\ntwo 3\ntwo 4\n");
+        archiveCache = new ArchiveCache(dir.resolve("archives").toString(), 1 << 20);
+    }
+
+    @Test
+    void continuationTokensWalkFromTheLiveFileIntoOlderGenerations() {
+        // A buffer smaller than a line, so that every generation is read in several chunks.
+        var reader = new RotationSetReader(new ArchiveTailReader(new TailReaderImpl(4), archiveCache));
+        var lines = new ArrayList<String>();
+        var tokens = new ArrayList<String>();
+        String token = null;
+        do {
+            var result = reader.getLastNLines(live, null, token, 0, 2);
+            lines.addAll(result.lines());
+            token = result.continuationToken().orElse(null);
+            tokens.add(token);
+        } while (token != null);
+
+        assertThat(lines).containsExactly(
+                "live 3", "live 2", "live 1", "one 2", "one 1", "two 4", "two 3", "two 2", "two 1");
+        assertThat(tokens)
+                .as("Tokens of the live file are plain positions, older generations are prefixed.")
+                .containsExactly("6", "1:5", "2:17", "2:5", null);
+    }
+
+    @Test
+    void filtersApplyAcrossGenerations() {
+        var reader = new RotationSetReader(new ArchiveTailReader(new TailReaderImpl(65536), archiveCache));
+        var result = reader.getLastNLines(live, " 2", null, 0, 10);
+
+        assertThat(result.lines()).containsExactly("live 2", "one 2", "two 2");
+        assertThat(result.continuationToken()).isEmpty();
+    }
+
+    @Test
+    void archivesAreDecompressedOnce() {
+        var archive = dir.resolve("app.log.2.gz");
+        var reader = new ArchiveTailReader(new MappedTailReader(8), archiveCache);
+        var first = reader.getLastNLines(archive, null, null, 0, 2);
+        var next = reader.getLastNLines(archive, null, first.continuationToken().orElseThrow(), 0, 2);
+
+        assertThat(first.lines()).containsExactly("two 4", "two 3");
+        assertThat(next.lines()).containsExactly("two 2", "two 1");
+        assertThat(archiveCache.stats()).isEqualTo(new ArchiveCache.Stats(1, 1, 0));
+    }
+
+    @Test
+    void leastRecentlyUsedCopiesAreDeleted() throws IOException {
+        gzip(dir.resolve("other.log.1.gz"), "other\n");
+        var cache = new ArchiveCache(dir.resolve("small").toString(), 29);
+        var reader = new ArchiveTailReader(new TailReaderImpl(65536), cache);
+        reader.getLastNLines(dir.resolve("app.log.2.gz"), null, null, 0, 1);
+        reader.getLastNLines(dir.resolve("other.log.1.gz"), null, null, 0, 1);
+
+        assertThat(cache.stats().evictions()).isEqualTo(1);
+        try (var copies = Files.list(dir.resolve("small"))) {
+            assertThat(copies).hasSize(1);
+        }
+    }
+
+    @Test
+    void archivesLargerThanTheCacheAreNotDecompressed() throws IOException {
+        var cache = new ArchiveCache(dir.resolve("small").toString(), 23);
+        var reader = new ArchiveTailReader(new TailReaderImpl(65536), cache);
+
+        assertThatThrownBy(() -> reader.getLastNLines(dir.resolve("app.log.2.gz"), null, null, 0, 1))
+                .isInstanceOf(TailReaderIOException.class);
+        try (var copies = Files.list(dir.resolve("small"))) {
+            assertThat(copies).isEmpty();
+        }
+    }
+
+    @Test
+    void copiesDeletedBeforeTheyAreReadAreDecompressedAgain() throws IOException {
+        var archive = dir.resolve("app.log.2.gz");
+        var engine = new TailReaderImpl(65536);
+        var deleted = new AtomicBoolean();
+        // Deletes the copy just before the first read of it, as an eviction by another request could.
+        TailReader evicting = (path, matcher, token, start, count, cancellation) -> {
+            if (deleted.compareAndSet(false, true)) {
+                try {
+                    Files.delete(path);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return engine.getLastNMatchingLines(path, matcher, token, start, count, cancellation);
+        };
+        var reader = new ArchiveTailReader(evicting, archiveCache);
+
+        assertThat(reader.getLastNLines(archive, null, null, 0, 2).lines()).containsExactly("two 4", "two 3");
+        assertThat(archiveCache.stats().misses()).isEqualTo(2);
+
+        archiveCache.decompressed(archive);
+        try (var copies = Files.list(dir.resolve("archives"))) {
+            copies.forEach(copy -> copy.toFile().delete());
+        }
+        archiveCache.decompressed(archive);
+        assertThat(archiveCache.stats()).isEqualTo(new ArchiveCache.Stats(1, 3, 0));
+    }
+
+    @Test
+    void cancelledRequestsStopDecompressing() throws IOException {
+        var archive = dir.resolve("app.log.2.gz");
+        var cancellation = Cancellation.after(Duration.ofMinutes(1));
+        cancellation.cancel();
+
+        assertThatThrownBy(() -> archiveCache.decompressed(archive, cancellation))
+                .isInstanceOf(TailReaderTimeoutException.class);
+        try (var copies = Files.list(dir.resolve("archives"))) {
+            assertThat(copies).as("Neither a copy nor a partial copy is kept.").isEmpty();
+        }
+        assertThat(archiveCache.decompressed(archive, Cancellation.NONE)).exists();
+    }
+
+    @Test
+    void missingArchiveIsNotFound() {
+        var reader = new ArchiveTailReader(new TailReaderImpl(65536), archiveCache);
+        assertThatThrownBy(() -> reader.getLastNLines(dir.resolve("missing.log.1.gz"), null, null, 0, 1))
+                .isInstanceOf(TailReaderFileNotFoundException.class);
+    }
+
+    private static void gzip(Path path, String content) throws IOException {
+        try (var out = new GZIPOutputStream(Files.newOutputStream(path))) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
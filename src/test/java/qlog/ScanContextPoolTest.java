@@ -0,0 +1,113 @@
+package qlog;
+
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class ScanContextPoolTest implements WithAssertions {
+
+    @Test
+    void contextsAreReusedOnceClosed() {
+        var pool = new ScanContextPool(16, 1);
+        ScanContextPool.ScanContext first;
+        try (var context = pool.acquire()) {
+            first = context;
+            context.buffer.put((byte) 'x');
+            context.stats.lines = 3;
+        }
+        try (var context = pool.acquire()) {
+            assertThat(context).isSameAs(first);
+            assertThat(context.buffer.position()).isZero();
+            assertThat(context.stats.lines).isZero();
+        }
+        assertThat(pool.stats()).isEqualTo(new ScanContextPool.Stats(1, 1, 0));
+    }
+
+    @Test
+    void contextsAreAllocatedAsConcurrentReadsNeedThem() {
+        var pool = new ScanContextPool(16, 4);
+        assertThat(pool.stats().allocated()).isZero();
+
+        for (int i = 0; i < 3; i++) {
+            try (var context = pool.acquire()) {
+                assertThat(context.buffer.isDirect()).isTrue();
+            }
+        }
+        assertThat(pool.stats().allocated()).isOne();
+
+        try (var first = pool.acquire(); var second = pool.acquire()) {
+            assertThat(second).isNotSameAs(first);
+        }
+        assertThat(pool.stats()).isEqualTo(new ScanContextPool.Stats(4, 2, 0));
+    }
+
+    @Test
+    void readsBeyondThePoolGetContextsOfTheirOwn() {
+        var pool = new ScanContextPool(16, 1);
+        try (var pooled = pool.acquire(); var extra = pool.acquire()) {
+            assertThat(pooled.buffer.isDirect()).isTrue();
+            assertThat(extra.buffer.isDirect()).isFalse();
+            assertThat(extra.buffer.capacity()).isEqualTo(16);
+        }
+        assertThat(pool.stats().misses()).isOne();
+
+        // Only the pooled context was returned.
+        try (var first = pool.acquire(); var second = pool.acquire()) {
+            assertThat(second.buffer.isDirect()).isFalse();
+        }
+        assertThat(pool.stats().misses()).isEqualTo(2);
+    }
+
+    @Test
+    void readsThroughAPooledContextDontSeeThePreviousRead(@TempDir Path dir) throws IOException {
+        // Long lines spill across chunks of 8 bytes, the spill must be empty for the next read.
+        var path = dir.resolve("lines.log");
+        Files.writeString(path, IntStream.range(0, 50)
+                .mapToObj(i -> "line " + i + " is longer than a chunk")
+                .collect(Collectors.joining("\n")));
+        var reader = new TailReaderImpl(new ScanContextPool(8, 1), 8, false, null, null);
+        for (var i = 0; i < 3; i++) {
+            assertThat(reader.getLastNLines(path, "line 4", null, 0, 2).lines())
+                    .containsExactly("line 49 is longer than a chunk", "line 48 is longer than a chunk");
+            assertThat(reader.getLastNLines(path, null, null, 3, 1).lines())
+                    .containsExactly("line 46 is longer than a chunk");
+        }
+    }
+
+    @Test
+    void linesThatDoNotMatchTheFilterAreNotDecoded(@TempDir Path dir) throws IOException {
+        // Lines longer than the decoder's initial buffers, which it only grows to decode one of them.
+        var path = dir.resolve("long-lines.log");
+        Files.writeString(path, IntStream.range(0, 50)
+                .mapToObj(i -> "line " + i + " " + "x".repeat(1000))
+                .collect(Collectors.joining("\n")));
+        // Chunks that hold whole lines, which are then decoded from the pooled direct buffer.
+        var pool = new ScanContextPool(4096, 1);
+        var reader = new TailReaderImpl(pool, 4096, false, null, null);
+        int initialCapacity;
+        try (var context = pool.acquire()) {
+            initialCapacity = context.decoder.capacity();
+        }
+
+        assertThat(reader.getLastNLines(path, "no line contains this", null, 0, 10).lines()).isEmpty();
+        try (var context = pool.acquire()) {
+            assertThat(context.decoder.capacity())
+                    .as("The whole file was scanned through the pooled context without decoding a line.")
+                    .isEqualTo(initialCapacity);
+        }
+
+        assertThat(reader.getLastNLines(path, "line 4", null, 0, 1).lines()).hasSize(1);
+        try (var context = pool.acquire()) {
+            assertThat(context.decoder.capacity())
+                    .as("Decoding a matching line grows the decoder.")
+                    .isGreaterThan(initialCapacity);
+        }
+        assertThat(pool.stats().misses()).isZero();
+    }
+}
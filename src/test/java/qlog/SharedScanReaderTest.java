@@ -0,0 +1,71 @@
+package qlog;
+
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+public class SharedScanReaderTest implements WithAssertions {
+
+    @Test
+    void eachQueryReadsTheLinesItWouldOnItsOwn() throws URISyntaxException {
+        var path = Paths.get(getClass().getClassLoader().getResource("128k_access.log").toURI());
+        var single = new TailReaderImpl(4096);
+        var token = single.getLastNMatchingLines(path, null, null, 0, 100, Cancellation.NONE)
+                .continuationToken().orElseThrow();
+        var queries = List.of(
+                new SharedScanReader.Query(LineMatcher.literal("POST"), null, 0, 20),
+                new SharedScanReader.Query(LineMatcher.literal(" 404 "), null, 5, 10),
+                new SharedScanReader.Query(null, token, 0, 50),
+                new SharedScanReader.Query(LineMatcher.literal("no line contains this"), null, 0, 10));
+
+        var results = new SharedScanReader(4096).getLastNMatchingLines(path, queries, Cancellation.NONE);
+
+        assertThat(results).hasSize(queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            var query = queries.get(i);
+            assertThat(results.get(i)).isEqualTo(single.getLastNMatchingLines(path, query.matcher(),
+                    query.continuationToken(), query.start(), query.count(), Cancellation.NONE));
+        }
+    }
+
+    @Test
+    void linesSpanningChunksAreReadForEveryQuery(@TempDir Path dir) throws IOException {
+        // Chunks of 8 bytes split every line, the lines of the queries are put together from several chunks.
+        var random = new Random(42);
+        var path = dir.resolve("lines.log");
+        Files.writeString(path, IntStream.range(0, 200)
+                .mapToObj(i -> i % 13 == 0 ? "" : "line " + i + (i % 3 == 0 ? " error" : "") + " x".repeat(i % 7))
+                .collect(Collectors.joining("\n")));
+        var single = new TailReaderImpl(8);
+        var shared = new SharedScanReader(8);
+        for (var round = 0; round < 50; round++) {
+            var queries = new ArrayList<SharedScanReader.Query>();
+            for (var i = 0; i < 4; i++) {
+                var matcher = random.nextBoolean() ? LineMatcher.literal(random.nextBoolean() ? "error" : "line 1")
+                        : null;
+                var token = random.nextInt(3) == 0
+                        ? single.getLastNMatchingLines(path, matcher, null, 0, 1 + random.nextInt(20),
+                        Cancellation.NONE).continuationToken().orElse(null)
+                        : null;
+                queries.add(new SharedScanReader.Query(matcher, token, random.nextInt(10), 1 + random.nextInt(60)));
+            }
+            var results = shared.getLastNMatchingLines(path, queries, Cancellation.NONE);
+            for (int i = 0; i < queries.size(); i++) {
+                var query = queries.get(i);
+                assertThat(results.get(i)).as("Query %s", query).isEqualTo(single.getLastNMatchingLines(path,
+                        query.matcher(), query.continuationToken(), query.start(), query.count(), Cancellation.NONE));
+            }
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package qlog;
+
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class TailRangeLocatorTest implements WithAssertions {
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void rangeHoldsTheLinesTheReaderReads() throws IOException {
+        var path = dir.resolve("lines.txt");
+        Files.writeString(path, "first\n\nsecond line\nthird\n\n\nfourth, a longer line than the others\nfifth\n");
+        var locator = new TailRangeLocator(8, null);
+        var reader = new TailReaderImpl(8);
+
+        for (var start = 0; start < 7; start++) {
+            for (var count = 1; count < 7; count++) {
+                assertThat(locate(locator, path, null, start, count))
+                        .isEqualTo(reader.getLastNMatchingLines(path, null, null, start, count, Cancellation.NONE));
+            }
+        }
+    }
+
+    @Test
+    void continuationTokensPageThroughTheFile() throws IOException {
+        var path = dir.resolve("lines.txt");
+        Files.writeString(path, "first\nsecond\n\nthird\nfourth\nfifth without a line-ending");
+        var locator = new TailRangeLocator(4, null);
+
+        var pages = new ArrayList<TailReader.ReaderResult>();
+        String token = null;
+        do {
+            var page = locate(locator, path, token, 0, 2);
+            pages.add(page);
+            token = page.continuationToken().orElse(null);
+        } while (token != null);
+
+        assertThat(pages).extracting(TailReader.ReaderResult::lines).containsExactly(
+                List.of("fifth without a line-ending", "fourth"),
+                List.of("third", "second"),
+                List.of("first"));
+    }
+
+    @Test
+    void emptyFileHasAnEmptyRange() throws IOException {
+        var path = dir.resolve("empty.txt");
+        Files.createFile(path);
+        try (var file = OpenFile.open(path)) {
+            var range = new TailRangeLocator(64, null).locate(path, file.file(), file.fileId(), null, 0, 10,
+                    Cancellation.NONE);
+            assertThat(range.length()).isZero();
+            assertThat(range.continuationToken()).isEmpty();
+        }
+    }
+
+    /**
+     * The lines in the range newest first, as the reader returns them.
+     */
+    private static TailReader.ReaderResult locate(TailRangeLocator locator,
+                                                  Path path,
+                                                  String token,
+                                                  int start,
+                                                  int count) throws IOException {
+        try (var file = OpenFile.open(path)) {
+            var ch = file.file();
+            var range = locator.locate(path, ch, file.fileId(), token, start, count, Cancellation.NONE);
+            var bytes = ByteBuffer.allocate((int) range.length());
+            ch.read(bytes, range.from());
+            var lines = new ArrayList<>(Arrays.asList(new String(bytes.array(), StandardCharsets.UTF_8).split("\n")));
+            lines.removeIf(String::isEmpty);
+            return new TailReader.ReaderResult(lines.reversed(), range.continuationToken(),
+                    FileVersion.of(file.fileId(), ch, ch.size()));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package qlog;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Test;
+import qlog.exc.TailReaderFileNotFoundException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class TailReaderMetricsTest implements WithAssertions {
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    private final TailReaderMetrics metrics = new TailReaderMetrics(registry, "src/test/resources",
+            List.of("128k_access.log"));
+
+    @Test
+    void readsAreTimedAndTheirScansMeasured() throws IOException {
+        var path = Path.of("src/test/resources/128k_access.log");
+        var reader = new MeteredTailReader(new TailReaderImpl(4096, null, metrics), metrics);
+        var result = reader.getLastNLines(path, "no line contains this", null, 0, 10);
+        reader.getLastNLines(path, null, null, 0, 10);
+
+        assertThat(result.lines()).isEmpty();
+        assertThat(registry.get("qlog.tail.read").tag("file", "128k_access.log").tag("outcome", "ok").timer().count())
+                .isEqualTo(2);
+        var filtered = registry.get("qlog.tail.scan.lines").tag("file", "128k_access.log").summary();
+        assertThat(filtered.count()).isEqualTo(2);
+        assertThat(filtered.totalAmount())
+                .as("Every line is scanned looking for the filter, the last 10 lines without one.")
+                .isEqualTo(Files.readAllLines(path).size() + 10);
+        assertThat(registry.get("qlog.tail.scan.bytes").tag("engine", "channel").summary().totalAmount())
+                .isEqualTo(Files.size(path) + 4096);
+        assertThat(registry.get("qlog.tail.scan.lines.collected").summary().totalAmount()).isEqualTo(10);
+        assertThat(registry.get("qlog.tail.read.lines").summary().totalAmount()).isEqualTo(10);
+    }
+
+    @Test
+    void chunksGrowFromTheInitialSize() throws IOException {
+        var path = Path.of("src/test/resources/128k_access.log");
+        var reader = new TailReaderImpl(new ScanContextPool(65536, 1), 4096, true, null, metrics);
+        reader.getLastNLines(path, null, null, 0, 10);
+
+        var bytes = registry.get("qlog.tail.scan.bytes").summary();
+        assertThat(bytes.totalAmount()).as("The last 10 lines are in the first chunk.").isEqualTo(4096);
+        assertThat(registry.get("qlog.tail.scan.reads").summary().totalAmount()).isEqualTo(1);
+
+        reader.getLastNLines(path, "no line contains this", null, 0, 10);
+        assertThat(bytes.totalAmount()).isEqualTo(Files.size(path) + 4096);
+        assertThat(registry.get("qlog.tail.scan.chunks").summary().max())
+                .as("Chunks of 4, 8, 16, 32 and 64 KB, and the rest of the file.")
+                .isEqualTo(6);
+    }
+
+    @Test
+    void failedReadsAreCountedByOutcome() {
+        var path = Path.of("src/test/resources/missing.log");
+        var reader = new MeteredTailReader(new TailReaderImpl(4096, null, metrics), metrics);
+
+        assertThatThrownBy(() -> reader.getLastNLines(path, null, "100", 0, 10))
+                .isInstanceOf(TailReaderFileNotFoundException.class);
+        assertThat(registry.get("qlog.tail.read")
+                .tag("file", "other")
+                .tag("outcome", "not_found")
+                .tag("continuation", "true")
+                .timer()
+                .count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void filesThatAreNotListedAreTaggedAsOther() {
+        var reader = new MeteredTailReader(new TailReaderImpl(4096, null, metrics), metrics);
+        reader.getLastNLines(Path.of("src/test/resources/macbeth.txt"), null, null, 0, 10);
+        reader.getLastNLines(Path.of("src/test/resources/../resources/128k_access.log"), null, null, 0, 10);
+
+        assertThat(registry.get("qlog.tail.read").tag("file", "other").timer().count()).isEqualTo(1);
+        assertThat(registry.get("qlog.tail.read").tag("file", "128k_access.log").timer().count()).isEqualTo(1);
+        assertThat(registry.get("qlog.tail.scan.lines").summaries())
+                .extracting(summary -> summary.getId().getTag("file"))
+                .containsExactlyInAnyOrder("other", "128k_access.log");
+    }
+
+    @Test
+    void statsOfTheComponentsAreCounted() {
+        var path = Path.of("src/test/resources/macbeth.txt");
+        var coalescer = new ReadCoalescer(0);
+        var pool = new ScanContextPool(4096, 1);
+        new TailReaderMetrics(registry, "src/test/resources", List.of(), coalescer, null, null, null, pool);
+        var reader = new CoalescingTailReader(new TailReaderImpl(pool, 4096, false, null, null), coalescer);
+        reader.getLastNLines(path, null, null, 0, 10);
+        try (var pooled = pool.acquire(); var extra = pool.acquire()) {
+            assertThat(extra).isNotSameAs(pooled);
+        }
+
+        assertThat(registry.get("qlog.coalesce.requests").tag("result", "read").functionCounter().count())
+                .isEqualTo(1);
+        assertThat(registry.get("qlog.coalesce.requests").tag("result", "coalesced").functionCounter().count())
+                .isZero();
+        assertThat(registry.get("qlog.tail.scan.pool.misses").functionCounter().count()).isEqualTo(1);
+        assertThat(registry.get("qlog.tail.scan.pool.size").gauge().value()).isEqualTo(1);
+        assertThat(registry.get("qlog.tail.scan.pool.allocated").gauge().value()).isEqualTo(1);
+        assertThat(registry.find("qlog.tail.cache.requests").meters())
+                .as("Only the components that are enabled are counted.")
+                .isEmpty();
+    }
+}
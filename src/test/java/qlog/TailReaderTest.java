@@ -3,12 +3,16 @@ package qlog;
 import org.assertj.core.api.WithAssertions;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import qlog.exc.TailReaderTimeoutException;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -20,7 +24,7 @@ public class TailReaderTest implements WithAssertions {
     void returnsLastNLinesInFile() {
         var file = getPathToResource("macbeth.txt");
         var n = 3;
-        List<String> lastNLines = new TailReaderImpl(65536).getLastNLines(file, null, null, 0, n).lines();
+        List<String> lastNLines = newReader(65536).getLastNLines(file, null, null, 0, n).lines();
 
         assertThat(lastNLines)
                 .as("The last N lines were read from the file.")
@@ -37,7 +41,7 @@ public class TailReaderTest implements WithAssertions {
     void fileLargerThanBufferReturnsLastNLinesInFile() throws IOException {
         var path = getPathToResource("128k_access.log");
         var n = 5;
-        List<String> lastNLines = new TailReaderImpl(65536).getLastNLines(path, null, null, 0, n).lines();
+        List<String> lastNLines = newReader(65536).getLastNLines(path, null, null, 0, n).lines();
 
         assertThat(lastNLines)
                 .as("The last N lines were read from the file.")
@@ -53,7 +57,7 @@ public class TailReaderTest implements WithAssertions {
     void largeCountOfFilesCollectsLinesAcrossChunkBoundaries() throws IOException {
         var path = getPathToResource("128k_access.log");
         var n = 250;
-        List<String> lastNLines = new TailReaderImpl(65536).getLastNLines(path, null, null, 0, n).lines();
+        List<String> lastNLines = newReader(65536).getLastNLines(path, null, null, 0, n).lines();
 
         assertThat(lastNLines)
                 .as("The last N lines were read from the file.")
@@ -69,7 +73,7 @@ public class TailReaderTest implements WithAssertions {
     void readingAllOfTheLinesInAFileReturnsTheLinesInReversedOrder() throws IOException {
         var path = getPathToResource("128k_access.log");
         var n = (int) Files.lines(path).count(); // all lines
-        List<String> lastNLines = new TailReaderImpl(65536).getLastNLines(path, null, null, 0, n).lines();
+        List<String> lastNLines = newReader(65536).getLastNLines(path, null, null, 0, n).lines();
 
         assertThat(lastNLines)
                 .as("The last N lines were read from the file.")
@@ -83,7 +87,7 @@ public class TailReaderTest implements WithAssertions {
     @Test
     void onlyLinesMatchingFilterAreReturned() {
         var path = getPathToResource("macbeth.txt");
-        List<String> actual = new TailReaderImpl(65536).getLastNLines(path, "tomorrow", null, 0, 1).lines();
+        List<String> actual = newReader(65536).getLastNLines(path, "tomorrow", null, 0, 1).lines();
         assertThat(actual).hasSize(1);
         assertThat(actual).containsExactlyElementsOf(List.of("Tomorrow, and tomorrow, and tomorrow,"));
     }
@@ -91,7 +95,7 @@ public class TailReaderTest implements WithAssertions {
     @Test
     void multipleLinesMatchingFilterAreReturned() {
         var path = getPathToResource("macbeth.txt");
-        List<String> actual = new TailReaderImpl(65536).getLastNLines(path, ",", null, 0, 3).lines();
+        List<String> actual = newReader(65536).getLastNLines(path, ",", null, 0, 3).lines();
         assertThat(actual).hasSize(3);
         assertThat(actual)
                 .containsExactlyElementsOf(List.of(
@@ -100,10 +104,25 @@ public class TailReaderTest implements WithAssertions {
                         "Life's but a walking shadow, a poor player,"));
     }
 
+    @Test
+    void multibyteCharactersAreDecodedFromUtf8() throws IOException {
+        var path = getPathToResource("macbeth-emoji.txt");
+        var expected = Files.readAllLines(path, StandardCharsets.UTF_8).reversed();
+        // A small buffer splits the characters of lines across chunks.
+        for (var bufferCapacity : List.of(7, 65536)) {
+            assertThat(newReader(bufferCapacity).getLastNLines(path, null, null, 0, 10).lines())
+                    .as("The lines are decoded with a buffer capacity of %d.", bufferCapacity)
+                    .containsExactlyElementsOf(expected);
+            assertThat(newReader(bufferCapacity).getLastNLines(path, "\ud83d\udc51", null, 0, 10).lines())
+                    .as("Only the lines with a crown are returned.")
+                    .containsExactlyElementsOf(expected.stream().filter(line -> line.contains("\ud83d\udc51")).toList());
+        }
+    }
+
     @Test
     void testOneLineFileWithFilter() {
         var path = getPathToResource("smallfile");
-        var reader = new TailReaderImpl(65536);
+        var reader = newReader(65536);
         await().atMost(1, TimeUnit.SECONDS)
                 .untilAsserted(() -> assertThat(reader.getLastNLines(path, "WONTFIND", null, 0, 10).lines())
                         .isEmpty());
@@ -112,7 +131,7 @@ public class TailReaderTest implements WithAssertions {
     @Test
     void testFilterNoMatches() {
         var path = getPathToResource("macbeth.txt");
-        var reader = new TailReaderImpl(65536);
+        var reader = newReader(65536);
         await().atMost(1, TimeUnit.SECONDS)
                 .untilAsserted(() -> assertThat(reader.getLastNLines(path, "WONTFIND", null, 0, 10).lines())
                         .isEmpty());
@@ -121,7 +140,7 @@ public class TailReaderTest implements WithAssertions {
     @Test
     void noLinesFromEmptyFile() {
         var path = getPathToResource("empty.txt");
-        var reader = new TailReaderImpl(65536);
+        var reader = newReader(65536);
         await().atMost(1, TimeUnit.SECONDS)
                 .untilAsserted(() -> assertThat(reader.getLastNLines(path, null, null, 0, 10).lines())
                         .isEmpty());
@@ -130,7 +149,7 @@ public class TailReaderTest implements WithAssertions {
     @Test
     void skipsLinesWhenStartIsGreaterThanZero() {
         var path = getPathToResource("macbeth.txt");
-        var reader = new TailReaderImpl(65536);
+        var reader = newReader(65536);
         var actual = reader.getLastNLines(path, null, null, 5, 1).lines();
         assertThat(actual).containsExactly("The way to dusty death. Out, out, brief candle!");
     }
@@ -138,7 +157,7 @@ public class TailReaderTest implements WithAssertions {
     @Test
     void returnsContinuationTokenWhenThereAreMoreBytesToReadInTheFile() {
         var path = getPathToResource("macbeth.txt");
-        var reader = new TailReaderImpl(16);
+        var reader = newReader(16);
         var result = reader.getLastNLines(path, null, null, 0, 1);
         assertThat(result.continuationToken()).isNotEmpty();
     }
@@ -146,7 +165,7 @@ public class TailReaderTest implements WithAssertions {
     @Test
     void noContinuationTokenWhenFinishedReadingTheFile() {
         var path = getPathToResource("smallfile");
-        var reader = new TailReaderImpl(16);
+        var reader = newReader(16);
         var result = reader.getLastNLines(path, null, null, 0, 1);
         assertThat(result.continuationToken()).isEmpty();
     }
@@ -154,7 +173,7 @@ public class TailReaderTest implements WithAssertions {
     @Test
     void continuationTokenIsUsedToReadMoreLines() {
         var path = getPathToResource("macbeth.txt");
-        var reader = new TailReaderImpl(16);
+        var reader = newReader(16);
         var result = reader.getLastNLines(path, null, null, 0, 2);
         assertThat(result.lines())
                 .as("The last two lines are read from the file.")
@@ -169,7 +188,7 @@ public class TailReaderTest implements WithAssertions {
     @Test
     void startIsIgnoredWhenContinuationTokenIsPresent() {
         var path = getPathToResource("macbeth.txt");
-        var reader = new TailReaderImpl(16);
+        var reader = newReader(16);
         var result = reader.getLastNLines(path, null, null, 0, 2);
         assertThat(result.lines())
                 .as("The last two lines are read from the file.")
@@ -181,8 +200,53 @@ public class TailReaderTest implements WithAssertions {
                 .containsExactly("And then is heard no more. It is a tale");
     }
 
+    @Test
+    void cancelledReadThrowsInsteadOfReturningTheLinesReadSoFar() {
+        var path = getPathToResource("128k_access.log");
+        var matcher = LineMatcher.literal("no line contains this");
+        var cancellation = Cancellation.after(Duration.ofMinutes(1));
+        cancellation.cancel();
+
+        assertThatThrownBy(() -> newReader(4096).getLastNMatchingLines(path, matcher, null, 0, 10, cancellation))
+                .isInstanceOf(TailReaderTimeoutException.class);
+        assertThatThrownBy(() -> newReader(4096).getLastNMatchingLines(path, matcher, null, 0, 10,
+                Cancellation.after(Duration.ZERO)))
+                .as("The deadline has passed.")
+                .isInstanceOf(TailReaderTimeoutException.class);
+    }
+
+    @Test
+    void readThatCompletesBeforeItIsCancelledReturnsItsLines() {
+        var path = getPathToResource("macbeth.txt");
+        var cancellation = Cancellation.after(Duration.ofMinutes(1));
+        // Cancels the read as the line it needs is matched, as a deadline passing just then would.
+        var matcher = new LineMatcher() {
+            @Override
+            public boolean matches(ByteBuffer buf, int from, int to) {
+                cancellation.cancel();
+                return true;
+            }
+
+            @Override
+            public boolean matches(String line) {
+                cancellation.cancel();
+                return true;
+            }
+        };
+
+        assertThat(newReader(4096).getLastNMatchingLines(path, matcher, null, 0, 1, cancellation).lines())
+                .containsExactly("Signifying nothing.");
+    }
+
+    /**
+     * Creates the engine under test. Other engines run this suite by overriding this method.
+     */
+    TailReader newReader(int bufferCapacity) {
+        return new TailReaderImpl(bufferCapacity);
+    }
+
     @SuppressWarnings("SameParameterValue")
-    private Path getPathToResource(String fileName) {
+    Path getPathToResource(String fileName) {
         var resourceURL = getClass().getClassLoader().getResource(fileName);
         if (resourceURL == null) {
             throw new IllegalArgumentException("File not found: " + fileName);
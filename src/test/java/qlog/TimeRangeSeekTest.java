@@ -0,0 +1,129 @@
+package qlog;
+
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TimeRangeSeekTest implements WithAssertions {
+
+    @TempDir
+    Path dir;
+
+    private Path path;
+    private final LineTimestamps lineTimestamps = new LineTimestamps("", "", "UTC");
+
+    @BeforeEach
+    void setUp() throws IOException {
+        // A line for every second from 09:00:01 to 09:10:00, the odd seconds written two seconds late as access
+        // logs are, and a stack trace every minute.
+        var lines = new StringBuilder();
+        for (int i = 2; i < 602; i++) {
+            lines.append(line(i % 2 == 1 ? i - 2 : i)).append('\n');
+            if (i % 60 == 59) {
+                lines.append("java.lang.IllegalStateException: ").append(i).append('\n');
+                lines.append("\tat qlog.Application.main(Application.java:10)\n");
+            }
+        }
+        path = dir.resolve("access.log");
+        Files.writeString(path, lines);
+    }
+
+    private static String line(int second) {
+        return "1.1.1.1 - - [13/Feb/2024:09:%02d:%02d +0000] \"GET /%d\"".formatted(second / 60, second % 60, second);
+    }
+
+    @Test
+    void onlyTheLinesOfTheRangeAreRead() {
+        var seek = new TimeRangeSeek(lineTimestamps, null, 5000);
+        var since = Instant.parse("2024-02-13T09:02:00Z");
+        var until = Instant.parse("2024-02-13T09:04:59Z");
+        var range = seek.range(path, since, until);
+        var result = new TailReaderImpl(4096).getLastNMatchingLines(path, seek.matcher(null, since, until),
+                range.continuationToken(null), 0, 1000, Cancellation.NONE);
+
+        var expected = new ArrayList<String>();
+        for (int second = 120; second < 300; second++) {
+            expected.add(line(second));
+        }
+        assertThat(result.lines()).filteredOn(line -> line.startsWith("1.1.1.1"))
+                .containsExactlyInAnyOrderElementsOf(expected);
+        // The stack traces between the lines of the range, and the one within the skew before it.
+        assertThat(result.lines()).filteredOn(line -> line.startsWith("java")).hasSize(4);
+        assertThat(result.continuationToken()).isEmpty();
+        // Only about half a minute either side of the range is in the bytes found.
+        assertThat(range.to() - range.from()).isLessThan(Files.size(path) / 2);
+    }
+
+    @Test
+    void rangePagesLikeTheWholeRange() {
+        var seek = new TimeRangeSeek(lineTimestamps, null, 5000);
+        var since = Instant.parse("2024-02-13T09:03:30Z");
+        var range = seek.range(path, since, null);
+        var matcher = seek.matcher(null, since, null);
+        var reader = new TailReaderImpl(256);
+        var all = reader.getLastNMatchingLines(path, matcher, range.continuationToken(null), 0, 10_000,
+                Cancellation.NONE).lines();
+
+        var pages = new ArrayList<String>();
+        String position = null;
+        do {
+            var result = reader.getLastNMatchingLines(path, matcher, range.continuationToken(position), 0, 7,
+                    Cancellation.NONE);
+            pages.addAll(result.lines());
+            position = result.continuationToken().orElse(null);
+        } while (position != null);
+
+        assertThat(pages).containsExactlyElementsOf(all);
+        assertThat(all.getFirst()).isEqualTo(line(599));
+        assertThat(all.getLast()).isEqualTo(line(210));
+    }
+
+    @Test
+    void rangeOutsideTheFileIsEmpty() {
+        var seek = new TimeRangeSeek(lineTimestamps, null, 5000);
+        var before = seek.range(path, null, Instant.parse("2024-02-13T08:00:00Z"));
+        var after = seek.range(path, Instant.parse("2024-02-13T10:00:00Z"), null);
+
+        for (var range : List.of(before, after)) {
+            var result = new TailReaderImpl(4096).getLastNMatchingLines(path, null, range.continuationToken(null),
+                    0, 10, Cancellation.NONE);
+            assertThat(result.lines()).isEmpty();
+            assertThat(result.continuationToken()).isEmpty();
+        }
+    }
+
+    @Test
+    void timestampsAreParsedFromTheBytesOfALine() {
+        var iso = new LineTimestamps("^(\\S+)", "yyyy-MM-dd'T'HH:mm:ss.SSS", "UTC");
+        var lines = List.of(
+                line(125),
+                line(125),
+                "1.1.1.1 - - [13/Feb/2024:09:02:05 +0000] \"GET /caf\u00e9\" \"Mozilla \u2603\"",
+                "\u00e9t\u00e9 [13/Feb/2024:09:02:06 +0000]",
+                "\tat qlog.Application.main(Application.java:10)",
+                "[13/Feb/2024:09:02:99 +0000]",
+                "2024-02-13T09:02:05.123 INFO caf\u00e9",
+                "");
+        for (var line : lines) {
+            var bytes = ("\u2603" + line + "\n").getBytes(StandardCharsets.UTF_8);
+            var from = 3;
+            var to = bytes.length - 1;
+            var direct = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+            for (var buf : List.of(ByteBuffer.wrap(bytes), direct)) {
+                assertThat(lineTimestamps.parse(buf, from, to)).as(line).isEqualTo(lineTimestamps.parse(line));
+                assertThat(iso.parse(buf, from, to)).as(line).isEqualTo(iso.parse(line));
+            }
+        }
+        assertThat(lineTimestamps.parse(line(125))).isEqualTo(Instant.parse("2024-02-13T09:02:05Z").toEpochMilli());
+    }
+}
@@ -0,0 +1,69 @@
+package qlog.controllers;
+
+import io.micronaut.context.annotation.Property;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.client.HttpClient;
+import io.micronaut.http.client.annotation.Client;
+import io.micronaut.http.client.exceptions.HttpClientResponseException;
+import io.micronaut.serde.ObjectMapper;
+import io.micronaut.test.extensions.junit5.annotation.MicronautTest;
+import jakarta.inject.Inject;
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Test;
+import qlog.controllers.AggregateLogController.AggregateGroup;
+import qlog.controllers.AggregateLogController.QueryLogAggregate;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+@MicronautTest
+@Property(name = "qlog.log.directory", value = "src/test/resources")
+class AggregateLogControllerTest implements WithAssertions {
+
+    @Inject
+    @Client("/")
+    HttpClient client;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Test
+    void lastLinesAreCountedByStatus() throws IOException {
+        var body = client.toBlocking().retrieve(HttpRequest.GET(
+                "/queryLog/aggregate?relativePath=128k_access.log&filter=GET&groupBy=status&count=100"));
+
+        // The lines newest first up to the 100th that matches.
+        var lines = Files.readAllLines(Path.of("src/test/resources/128k_access.log")).reversed();
+        var matched = new ArrayList<String>();
+        var scanned = 0;
+        while (matched.size() < 100) {
+            var line = lines.get(scanned++);
+            if (line.contains("GET")) {
+                matched.add(line);
+            }
+        }
+        var groups = matched.stream()
+                .collect(Collectors.groupingBy(line -> line.split(" ")[8], Collectors.counting()))
+                .entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed()
+                        .thenComparing(e -> List.of(e.getKey()).toString()))
+                .map(e -> new AggregateGroup(List.of(e.getKey()), e.getValue()))
+                .toList();
+        assertThat(body).isEqualTo(objectMapper.writeValueAsString(
+                new QueryLogAggregate(100, scanned, groups, 0)));
+    }
+
+    @Test
+    void unknownFieldIsABadRequest() {
+        assertThatThrownBy(() -> client.toBlocking().exchange(HttpRequest.GET(
+                "/queryLog/aggregate?relativePath=128k_access.log&groupBy=level")))
+                .isInstanceOfSatisfying(HttpClientResponseException.class,
+                        e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST));
+    }
+}
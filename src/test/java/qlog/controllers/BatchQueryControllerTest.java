@@ -0,0 +1,54 @@
+package qlog.controllers;
+
+import io.micronaut.context.annotation.Property;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.client.HttpClient;
+import io.micronaut.http.client.annotation.Client;
+import io.micronaut.http.client.exceptions.HttpClientResponseException;
+import io.micronaut.test.extensions.junit5.annotation.MicronautTest;
+import jakarta.inject.Inject;
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Test;
+import qlog.controllers.BatchQueryController.BatchQuery;
+
+import java.util.List;
+
+@MicronautTest
+@Property(name = "qlog.log.directory", value = "src/test/resources")
+class BatchQueryControllerTest implements WithAssertions {
+
+    @Inject
+    @Client("/")
+    HttpClient client;
+
+    @Test
+    void eachResultIsTheResponseToTheQueryOnItsOwn() {
+        var batch = client.toBlocking().retrieve(HttpRequest.POST("/queryLog/batch", List.of(
+                new BatchQuery("128k_access.log", List.of("POST"), null, null, 5, null),
+                new BatchQuery("128k_access.log", List.of(" 404 ", " 500 "), "any", 3, 10, null),
+                new BatchQuery("macbeth.txt", null, null, null, 3, null),
+                new BatchQuery("128k_access.log", null, null, null, 20, null))));
+
+        var single = List.of(
+                get("/queryLog?relativePath=128k_access.log&filter=POST&count=5"),
+                get("/queryLog?relativePath=128k_access.log&filter=%20404%20&filter=%20500%20&filterMode=any"
+                        + "&start=3&count=10"),
+                get("/queryLog?relativePath=macbeth.txt&count=3"),
+                get("/queryLog?relativePath=128k_access.log&count=20"));
+        assertThat(batch).isEqualTo("{\"results\":[" + String.join(",", single) + "]}");
+    }
+
+    @Test
+    void aMissingFileFailsTheBatch() {
+        assertThatThrownBy(() -> client.toBlocking().exchange(HttpRequest.POST("/queryLog/batch", List.of(
+                new BatchQuery("macbeth.txt", null, null, null, 3, null),
+                new BatchQuery("missing.log", null, null, null, 3, null)))))
+                .isInstanceOfSatisfying(HttpClientResponseException.class,
+                        e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.NOT_FOUND));
+    }
+
+    private String get(String uri) {
+        return client.toBlocking().retrieve(HttpRequest.GET(uri));
+    }
+}
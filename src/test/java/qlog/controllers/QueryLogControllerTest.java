@@ -0,0 +1,313 @@
+package qlog.controllers;
+
+import io.micronaut.context.annotation.Property;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.MediaType;
+import io.micronaut.http.client.HttpClient;
+import io.micronaut.http.client.annotation.Client;
+import io.micronaut.http.client.exceptions.HttpClientResponseException;
+import io.micronaut.serde.ObjectMapper;
+import io.micronaut.test.extensions.junit5.annotation.MicronautTest;
+import jakarta.inject.Inject;
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Test;
+import qlog.AdmissionControl;
+import qlog.ContinuationTokens;
+import qlog.FilterMode;
+import qlog.TailReader;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+@MicronautTest
+@Property(name = "qlog.log.directory", value = "src/test/resources")
+@Property(name = "qlog.stream.page-size", value = "2")
+@Property(name = "qlog.admission.max-concurrent", value = "4")
+@Property(name = "qlog.admission.max-concurrent-per-file", value = "2")
+@Property(name = "qlog.metrics.files", value = "macbeth.txt")
+class QueryLogControllerTest implements WithAssertions {
+
+    private static final Path MACBETH = Path.of("src/test/resources/macbeth.txt");
+
+    @Inject
+    @Client("/")
+    HttpClient client;
+
+    @Inject
+    TailReader tailReader;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Inject
+    AdmissionControl admissionControl;
+
+    @Test
+    void linesAreStreamedAsNewlineDelimitedJson() {
+        var body = client.toBlocking().retrieve(HttpRequest.GET("/queryLog?relativePath=macbeth.txt&count=3")
+                .accept(QueryLogController.APPLICATION_NDJSON));
+        assertThat(body.lines()).startsWith(
+                "{\"line\":\"Signifying nothing.\"}",
+                "{\"line\":\"Told by an idiot, full of sound and fury,\"}",
+                "{\"line\":\"And then is heard no more. It is a tale\"}");
+        assertThat(ContinuationTokens.decode(MACBETH, false, token(body.lines().toList().getLast()), 0))
+                .as("The token continues from the line-ending before the last line returned.")
+                .isEqualTo("300");
+    }
+
+    @Test
+    void streamedLinesMatchTheLinesReadFromTheFile() throws IOException {
+        var streamed = client.toBlocking().retrieve(
+                HttpRequest.GET("/queryLog?relativePath=128k_access.log&count=25&filter=GET&stream=true"));
+        var expected = tailReader.getLastNLines(Path.of("src/test/resources/128k_access.log"), "GET", null, 0, 25);
+        var expectedLines = new ArrayList<String>();
+        for (var line : expected.lines()) {
+            expectedLines.add(objectMapper.writeValueAsString(new QueryLogController.QueryLogLine(line)));
+        }
+        expectedLines.add(objectMapper.writeValueAsString(new QueryLogController.QueryLogTrailer(
+                new QueryLogController.Metadata(new QueryLogController.ContinuationToken(ContinuationTokens.encode(
+                        Path.of("src/test/resources/128k_access.log"), expected.version(),
+                        expected.continuationToken().orElseThrow(),
+                        ContinuationTokens.filterHash(FilterMode.ALL, List.of("GET"))))))));
+        assertThat(streamed.lines()).containsExactlyElementsOf(expectedLines);
+    }
+
+    @Test
+    void linesContainingEveryFilterTermAreReturned() throws IOException {
+        // The comma must not be split into further terms.
+        assertThat(streamLines("/queryLog?relativePath=macbeth.txt&filter=and&filter=,"))
+                .containsExactlyElementsOf(json(
+                        "Told by an idiot, full of sound and fury,",
+                        "That struts and frets his hour upon the stage,",
+                        "The way to dusty death. Out, out, brief candle!",
+                        "Tomorrow, and tomorrow, and tomorrow,"));
+    }
+
+    @Test
+    void linesContainingAnyFilterTermAreReturned() throws IOException {
+        assertThat(streamLines("/queryLog?relativePath=macbeth.txt&filterMode=any&filter=fury&filter=candle"))
+                .containsExactlyElementsOf(json(
+                        "Told by an idiot, full of sound and fury,",
+                        "The way to dusty death. Out, out, brief candle!"));
+    }
+
+    @Test
+    void linesMatchingRegexFilterAreReturned() throws IOException {
+        assertThat(streamLines("/queryLog?relativePath=macbeth.txt&filterMode=regex&filter=%5ET%5Cw%2B%20"))
+                .containsExactlyElementsOf(json(
+                        "Told by an idiot, full of sound and fury,",
+                        "That struts and frets his hour upon the stage,",
+                        "The way to dusty death. Out, out, brief candle!",
+                        "To the last syllable of recorded time;"));
+    }
+
+    @Test
+    void invalidRegexFilterIsABadRequest() {
+        assertThatThrownBy(() -> client.toBlocking().exchange(
+                HttpRequest.GET("/queryLog?relativePath=macbeth.txt&filterMode=regex&filter=%5Bunclosed")))
+                .isInstanceOfSatisfying(HttpClientResponseException.class,
+                        e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST));
+    }
+
+    @Test
+    void continuationTokenReadsTheNextLines() throws IOException {
+        var first = streamLines("/queryLog?relativePath=macbeth.txt&count=2&filter=and");
+        var next = streamLines("/queryLog?relativePath=macbeth.txt&count=2&filter=and&continuationToken="
+                + token(first.getLast()));
+
+        assertThat(first).startsWith(json(
+                "Told by an idiot, full of sound and fury,", "That struts and frets his hour upon the stage,"));
+        assertThat(next)
+                .as("The last line is read without a continuation token.")
+                .containsExactlyElementsOf(json("Tomorrow, and tomorrow, and tomorrow,"));
+    }
+
+    @Test
+    void continuationTokenForAnotherFilterOrFileIsRejected() {
+        var token = token(client.toBlocking().retrieve(
+                HttpRequest.GET("/queryLog?relativePath=macbeth.txt&count=2&filter=and")));
+
+        assertThatThrownBy(() -> client.toBlocking().exchange(
+                HttpRequest.GET("/queryLog?relativePath=macbeth.txt&filter=or&continuationToken=" + token)))
+                .isInstanceOfSatisfying(HttpClientResponseException.class,
+                        e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST));
+        assertThatThrownBy(() -> client.toBlocking().exchange(
+                HttpRequest.GET("/queryLog?relativePath=128k_access.log&filter=and&continuationToken=" + token)))
+                .as("The token is stale for a file other than the one it was issued for.")
+                .isInstanceOfSatisfying(HttpClientResponseException.class,
+                        e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.GONE));
+    }
+
+    @Test
+    void linesOfTheTimeRangeAreReturned() throws IOException {
+        var range = "/queryLog?relativePath=merge/api.log&since=2024-02-13T09:00:02Z&until=2024-02-13T09:00:05Z";
+        var first = streamLines(range + "&count=1");
+        var next = streamLines(range + "&count=5&continuationToken=" + token(first.getLast()));
+
+        assertThat(first).startsWith(json("10.0.0.1 - - [13/Feb/2024:09:00:05 +0000] \"GET /api/3 HTTP/1.1\" 500 10"));
+        assertThat(next).containsExactlyElementsOf(json(
+                "10.0.0.1 - - [13/Feb/2024:09:00:04 +0000] \"GET /api/2 HTTP/1.1\" 200 10"));
+        assertThatThrownBy(() -> client.toBlocking().exchange(
+                HttpRequest.GET("/queryLog?relativePath=merge/api.log&since=yesterday")))
+                .isInstanceOfSatisfying(HttpClientResponseException.class,
+                        e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST));
+    }
+
+    @Test
+    void plainTextIsTheLinesInFileOrderWithTheTokenInAHeader() {
+        var first = client.toBlocking().exchange(HttpRequest.GET("/queryLog?relativePath=macbeth.txt&count=2")
+                .accept(MediaType.TEXT_PLAIN_TYPE), String.class);
+        var next = client.toBlocking().exchange(HttpRequest.GET("/queryLog?relativePath=macbeth.txt&count=2"
+                        + "&continuationToken=" + first.header(QueryLogController.CONTINUATION_TOKEN))
+                .accept(MediaType.TEXT_PLAIN_TYPE), String.class);
+        var filtered = client.toBlocking().exchange(HttpRequest.GET("/queryLog?relativePath=macbeth.txt&count=2"
+                + "&filter=and").accept(MediaType.TEXT_PLAIN_TYPE), String.class);
+
+        assertThat(first.body()).isEqualTo("Told by an idiot, full of sound and fury,\nSignifying nothing.\n");
+        assertThat(first.getContentType()).contains(MediaType.TEXT_PLAIN_TYPE);
+        assertThat(next.body()).isEqualTo("That struts and frets his hour upon the stage,\n"
+                + "And then is heard no more. It is a tale\n");
+        assertThat(filtered.body()).isEqualTo("That struts and frets his hour upon the stage,\n"
+                + "Told by an idiot, full of sound and fury,\n");
+        assertThat(filtered.header(QueryLogController.CONTINUATION_TOKEN)).isNotBlank();
+    }
+
+    @Test
+    void plainTextIsOnlyReturnedWhenItRanksAboveJson() {
+        var json = client.toBlocking().exchange(HttpRequest.GET("/queryLog?relativePath=macbeth.txt&count=1")
+                .header("Accept", "application/json, text/plain, */*"), String.class);
+        var preferred = client.toBlocking().exchange(HttpRequest.GET("/queryLog?relativePath=macbeth.txt&count=1")
+                .header("Accept", "application/json;q=0.5, text/plain"), String.class);
+
+        assertThat(json.getContentType()).contains(MediaType.APPLICATION_JSON_TYPE);
+        assertThat(json.body()).contains("\"data\":[\"Signifying nothing.\"]");
+        assertThat(preferred.getContentType()).contains(MediaType.TEXT_PLAIN_TYPE);
+        assertThat(preferred.body()).isEqualTo("Signifying nothing.\n");
+        assertThat(QueryLogController.prefersPlainText("text/plain;q=0.4, application/json;q=0.8")).isFalse();
+        assertThat(QueryLogController.prefersPlainText("text/plain, application/json")).isTrue();
+        assertThat(QueryLogController.prefersPlainText("*/*")).isFalse();
+    }
+
+    @Test
+    void requestsPastTheLimitForAFileAreRejectedWithTooManyRequests() {
+        var path = Path.of("src/test/resources", "macbeth.txt");
+        try (var first = admissionControl.acquire(path); var second = admissionControl.acquire(path)) {
+            assertThatThrownBy(() -> client.toBlocking().exchange(
+                    HttpRequest.GET("/queryLog?relativePath=macbeth.txt")))
+                    .isInstanceOfSatisfying(HttpClientResponseException.class, e -> {
+                        assertThat(e.getStatus()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+                        assertThat(e.getResponse().getHeaders().get("Retry-After")).isEqualTo("1");
+                    });
+            assertThat(client.toBlocking().exchange(HttpRequest.GET("/queryLog?relativePath=smallfile")).getStatus())
+                    .as("Other files are still read.")
+                    .isEqualTo(HttpStatus.OK);
+        }
+        assertThat(client.toBlocking().exchange(HttpRequest.GET("/queryLog?relativePath=macbeth.txt")).getStatus())
+                .as("The file is read again once the reads in flight are done.")
+                .isEqualTo(HttpStatus.OK);
+    }
+
+    @Test
+    void identicalPlainTextRequestsPastTheLimitForAFileAreRejected() throws Exception {
+        // A named pipe blocks the reads that open it until it has a writer, so the requests stay in flight.
+        var fifo = Path.of("src/test/resources", "plain-" + UUID.randomUUID() + ".fifo");
+        assumeTrue(new ProcessBuilder("mkfifo", fifo.toString()).start().waitFor() == 0, "mkfifo");
+        var uri = "/queryLog?relativePath=" + fifo.getFileName() + "&count=2";
+        var executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 2; i++) {
+                executor.submit(() -> client.toBlocking().exchange(
+                        HttpRequest.GET(uri).accept(MediaType.TEXT_PLAIN_TYPE), String.class));
+            }
+            await().atMost(5, TimeUnit.SECONDS).until(() -> admissionControl.inFlight() == 2);
+
+            assertThatThrownBy(() -> client.toBlocking().exchange(
+                    HttpRequest.GET(uri).accept(MediaType.TEXT_PLAIN_TYPE), String.class))
+                    .as("A text/plain request is read on its own, it isn't admitted along with an identical one.")
+                    .isInstanceOfSatisfying(HttpClientResponseException.class,
+                            e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS));
+        } finally {
+            // Opening the pipe for writing lets the reads blocked on it go on.
+            new FileOutputStream(fifo.toFile()).close();
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+            Files.delete(fifo);
+        }
+        await().atMost(5, TimeUnit.SECONDS).untilAsserted(() -> assertThat(admissionControl.inFlight()).isZero());
+    }
+
+    @Test
+    void requestsPastTheGlobalLimitAreRejectedWithServiceUnavailable() {
+        var permits = new ArrayList<AdmissionControl.Permit>();
+        try {
+            for (var file : List.of("a", "b", "c", "d")) {
+                permits.add(admissionControl.acquire(Path.of("src/test/resources", file)));
+            }
+            assertThatThrownBy(() -> client.toBlocking().exchange(
+                    HttpRequest.GET("/queryLog?relativePath=macbeth.txt")))
+                    .isInstanceOfSatisfying(HttpClientResponseException.class,
+                            e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE));
+        } finally {
+            permits.forEach(AdmissionControl.Permit::close);
+        }
+    }
+
+    @Test
+    void permitsAreReleasedWhenTheRequestIsDone() {
+        client.toBlocking().exchange(HttpRequest.GET("/queryLog?relativePath=macbeth.txt"));
+        streamLines("/queryLog?relativePath=macbeth.txt&count=5");
+        assertThatThrownBy(() -> client.toBlocking().exchange(HttpRequest.GET("/queryLog?relativePath=missing.txt")))
+                .isInstanceOf(HttpClientResponseException.class);
+
+        // The permits are released as the responses complete, which may be just after the client has them.
+        await().atMost(1, TimeUnit.SECONDS).untilAsserted(() -> assertThat(admissionControl.inFlight()).isZero());
+    }
+
+    @Test
+    void readsArePublishedAsPrometheusMetrics() {
+        client.toBlocking().exchange(HttpRequest.GET("/queryLog?relativePath=macbeth.txt&filter=tomorrow"));
+
+        var metrics = client.toBlocking().retrieve(HttpRequest.GET("/prometheus"));
+        assertThat(metrics.lines())
+                .anyMatch(line -> line.startsWith("qlog_tail_read_seconds_count{")
+                        && line.contains("file=\"macbeth.txt\"")
+                        && line.contains("outcome=\"ok\""))
+                .anyMatch(line -> line.startsWith("qlog_tail_read_lines_bucket{"));
+    }
+
+    /**
+     * Streams the lines, as the JSON of each line.
+     */
+    private List<String> streamLines(String uri) {
+        return client.toBlocking().retrieve(HttpRequest.GET(uri + "&stream=true")).lines().toList();
+    }
+
+    /**
+     * The continuation token in a JSON response or trailer.
+     */
+    private static String token(String json) {
+        var matcher = Pattern.compile("\"token\":\"([^\"]+)\"").matcher(json);
+        assertThat(matcher.find()).as("A continuation token in: %s", json).isTrue();
+        return matcher.group(1);
+    }
+
+    private List<String> json(String... lines) throws IOException {
+        var json = new ArrayList<String>();
+        for (var line : lines) {
+            json.add(objectMapper.writeValueAsString(new QueryLogController.QueryLogLine(line)));
+        }
+        return json;
+    }
+}
@@ -0,0 +1,98 @@
+package qlog.controllers;
+
+import io.micronaut.context.annotation.Property;
+import io.micronaut.runtime.server.EmbeddedServer;
+import io.micronaut.test.extensions.junit5.annotation.MicronautTest;
+import jakarta.inject.Inject;
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sends 1,000 concurrent requests for the same file and reports the number of platform threads and the latency
+ * percentiles. With the reads on virtual threads the server doesn't start a thread per request, the peak number of
+ * platform threads stays close to the number before the requests. The requests are identical, so with the default
+ * admission limits they share reads rather than being rejected, see {@link qlog.AdmissionControl}.
+ * <p>
+ * Excluded from <code>./gradlew test</code>, run with <code>./gradlew loadTest</code>.
+ */
+@Tag("load")
+@MicronautTest
+@Property(name = "qlog.log.directory", value = "src/test/resources")
+class QueryLogLoadTest implements WithAssertions {
+
+    private static final Logger LOG = LoggerFactory.getLogger(QueryLogLoadTest.class);
+
+    private static final int CONCURRENT_REQUESTS = 1000;
+
+    @Inject
+    EmbeddedServer server;
+
+    @Test
+    void concurrentRequestsDoNotNeedAThreadEach() throws Exception {
+        var uri = server.getURI().resolve("/queryLog?relativePath=128k_access.log&count=100&filter=GET");
+        var threads = ManagementFactory.getThreadMXBean();
+        var statuses = new ConcurrentHashMap<Integer, AtomicInteger>();
+        var latenciesNs = new long[CONCURRENT_REQUESTS];
+        // The client sends each request from a virtual thread too, so the platform threads counted are the
+        // server's.
+        try (var clientExecutor = Executors.newVirtualThreadPerTaskExecutor();
+             var client = HttpClient.newBuilder()
+                     .executor(clientExecutor)
+                     .connectTimeout(Duration.ofSeconds(10))
+                     .build()) {
+            var request = HttpRequest.newBuilder(uri).timeout(Duration.ofSeconds(30)).build();
+            // Warm up so that the one-time startup of the server is not measured.
+            client.send(request, HttpResponse.BodyHandlers.discarding());
+            var threadsBefore = threads.getThreadCount();
+            threads.resetPeakThreadCount();
+
+            var ready = new CountDownLatch(1);
+            var futures = new ArrayList<Future<?>>(CONCURRENT_REQUESTS);
+            for (int i = 0; i < CONCURRENT_REQUESTS; i++) {
+                var n = i;
+                futures.add(clientExecutor.submit(() -> {
+                    ready.await();
+                    var startNs = System.nanoTime();
+                    var response = client.send(request, HttpResponse.BodyHandlers.discarding());
+                    latenciesNs[n] = System.nanoTime() - startNs;
+                    statuses.computeIfAbsent(response.statusCode(), s -> new AtomicInteger()).incrementAndGet();
+                    return null;
+                }));
+            }
+            ready.countDown();
+            for (var future : futures) {
+                future.get();
+            }
+            var peakThreads = threads.getPeakThreadCount();
+
+            Arrays.sort(latenciesNs);
+            LOG.atInfo().log("{} concurrent requests, statuses: {}, platform threads before: {}, peak: {}, "
+                            + "p50: {}ms, p99: {}ms, max: {}ms",
+                    CONCURRENT_REQUESTS, statuses, threadsBefore, peakThreads,
+                    latenciesNs[CONCURRENT_REQUESTS / 2] / 1_000_000,
+                    latenciesNs[CONCURRENT_REQUESTS * 99 / 100] / 1_000_000,
+                    latenciesNs[CONCURRENT_REQUESTS - 1] / 1_000_000);
+
+            assertThat(statuses.keySet()).containsOnly(200);
+            assertThat(peakThreads)
+                    .as("The requests are not each given a platform thread.")
+                    .isLessThan(threadsBefore + CONCURRENT_REQUESTS / 4);
+        }
+    }
+}
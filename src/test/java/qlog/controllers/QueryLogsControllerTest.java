@@ -0,0 +1,80 @@
+package qlog.controllers;
+
+import io.micronaut.context.annotation.Property;
+import io.micronaut.http.HttpRequest;
+import io.micronaut.http.HttpStatus;
+import io.micronaut.http.client.HttpClient;
+import io.micronaut.http.client.annotation.Client;
+import io.micronaut.http.client.exceptions.HttpClientResponseException;
+import io.micronaut.serde.ObjectMapper;
+import io.micronaut.test.extensions.junit5.annotation.MicronautTest;
+import jakarta.inject.Inject;
+import org.assertj.core.api.WithAssertions;
+import org.junit.jupiter.api.Test;
+import qlog.controllers.QueryLogsController.QueryLogs;
+import qlog.controllers.QueryLogsController.QueryLogsLine;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.regex.Pattern;
+
+@MicronautTest
+@Property(name = "qlog.log.directory", value = "src/test/resources")
+class QueryLogsControllerTest implements WithAssertions {
+
+    private static final List<QueryLogsLine> MERGED = List.of(
+            new QueryLogsLine("merge/web.log", "10.0.0.2 - - [13/Feb/2024:09:00:06 +0000] "
+                    + "\"GET /web/3 HTTP/1.1\" 200 10"),
+            new QueryLogsLine("merge/api.log", "10.0.0.1 - - [13/Feb/2024:09:00:05 +0000] "
+                    + "\"GET /api/3 HTTP/1.1\" 500 10"),
+            new QueryLogsLine("merge/api.log", "10.0.0.1 - - [13/Feb/2024:09:00:04 +0000] "
+                    + "\"GET /api/2 HTTP/1.1\" 200 10"),
+            new QueryLogsLine("merge/web.log", "10.0.0.2 - - [13/Feb/2024:09:00:03 +0000] "
+                    + "\"GET /web/2 HTTP/1.1\" 500 10"),
+            new QueryLogsLine("merge/web.log", "10.0.0.2 - - [13/Feb/2024:09:00:02 +0000] "
+                    + "\"GET /web/1 HTTP/1.1\" 200 10"),
+            new QueryLogsLine("merge/api.log", "10.0.0.1 - - [13/Feb/2024:09:00:01 +0000] "
+                    + "\"GET /api/1 HTTP/1.1\" 200 10"));
+
+    @Inject
+    @Client("/")
+    HttpClient client;
+
+    @Inject
+    ObjectMapper objectMapper;
+
+    @Test
+    void linesOfTheFilesMatchingTheGlobAreMergedNewestFirst() throws IOException {
+        var body = client.toBlocking().retrieve(HttpRequest.GET("/queryLogs?path=merge/*.log"));
+        assertThat(body).isEqualTo(objectMapper.writeValueAsString(new QueryLogs(MERGED, null)));
+    }
+
+    @Test
+    void continuationTokenReadsTheNextLinesOfEveryFile() throws IOException {
+        var first = client.toBlocking().retrieve(HttpRequest.GET("/queryLogs?path=merge/web.log&path=merge/api.log"
+                + "&count=4"));
+        var matcher = Pattern.compile("\"token\":\"([^\"]+)\"").matcher(first);
+        assertThat(matcher.find()).isTrue();
+        var next = client.toBlocking().retrieve(HttpRequest.GET("/queryLogs?path=merge/web.log&path=merge/api.log"
+                + "&count=4&continuationToken=" + matcher.group(1)));
+
+        assertThat(first).startsWith(objectMapper.writeValueAsString(new QueryLogs(MERGED.subList(0, 4), null))
+                .replaceAll("}$", ""));
+        assertThat(next).isEqualTo(objectMapper.writeValueAsString(new QueryLogs(MERGED.subList(4, 6), null)));
+    }
+
+    @Test
+    void globWithoutMatchingFilesIsNotFound() {
+        assertThatThrownBy(() -> client.toBlocking().exchange(HttpRequest.GET("/queryLogs?path=merge/*.txt")))
+                .isInstanceOfSatisfying(HttpClientResponseException.class,
+                        e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.NOT_FOUND));
+    }
+
+    @Test
+    void pathOutsideTheLogDirectoryIsBadRequest() {
+        assertThatThrownBy(() -> client.toBlocking().exchange(HttpRequest.GET(
+                "/queryLogs?path=merge/web.log&path=../main/resources/application.properties")))
+                .isInstanceOfSatisfying(HttpClientResponseException.class,
+                        e -> assertThat(e.getStatus()).isEqualTo(HttpStatus.BAD_REQUEST));
+    }
+}